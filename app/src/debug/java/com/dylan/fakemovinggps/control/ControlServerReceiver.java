@@ -0,0 +1,52 @@
+package com.dylan.fakemovinggps.control;
+
+import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.ResultReceiver;
+
+import com.dylan.fakemovinggps.location.LocationService;
+import com.dylan.fakemovinggps.util.Constant;
+
+/**
+ * Starts and stops the {@link ControlServer} from adb in debug builds. The token comes back as
+ * the result data of the broadcast, so only the shell that sent it sees it:
+ * <pre>
+ * adb shell am broadcast -a com.dylan.fakemovinggps.ACTION_START_CONTROL_SERVER \
+ *         -n com.dylan.fakemovinggps/.control.ControlServerReceiver [--ei com.dylan.fakemovinggps.EXTRA_PORT 8089]
+ * Broadcast completed: result=-1, data="&lt;token&gt;"
+ * adb forward tcp:8089 tcp:8089
+ * curl -X POST -H "Authorization: Bearer &lt;token&gt;" http://127.0.0.1:8089/start
+ * </pre>
+ * A server that is already running keeps its token: stop it first to get a new one.
+ */
+public class ControlServerReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Intent service = new Intent(context, LocationService.class);
+        if (Constant.Action.ACTION_START_CONTROL_SERVER.equals(intent.getAction())) {
+            service.setAction(Constant.Action.ACTION_START_CONTROL_SERVER);
+            service.putExtra(Constant.Extra.EXTRA_PORT,
+                    intent.getIntExtra(Constant.Extra.EXTRA_PORT, ControlServer.DEFAULT_PORT));
+            final PendingResult result = goAsync();
+            // called on the main thread once the service has handled the intent
+            service.putExtra(Constant.Extra.EXTRA_RESULT_RECEIVER, new ResultReceiver(null) {
+                @Override
+                protected void onReceiveResult(int resultCode, Bundle data) {
+                    result.setResultCode(resultCode);
+                    result.setResultData(data.getString(Constant.Extra.EXTRA_CONTROL_TOKEN));
+                    result.finish();
+                }
+            });
+        } else if (Constant.Action.ACTION_STOP_CONTROL_SERVER.equals(intent.getAction())) {
+            service.setAction(Constant.Action.ACTION_STOP_CONTROL_SERVER);
+            setResultCode(Activity.RESULT_OK);
+        } else {
+            return;
+        }
+        context.startService(service);
+    }
+}
@@ -7,6 +7,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.annotation.NonNull;
@@ -25,12 +27,26 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.SearchView;
+import android.widget.Toast;
 
 import com.dylan.fakemovinggps.core.base.BaseActivity;
 import com.dylan.fakemovinggps.core.dialog.ConfirmListener;
 import com.dylan.fakemovinggps.core.permission.PermissionUtil;
 import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.graph.ChRouter;
+import com.dylan.fakemovinggps.graph.ContractionTask;
+import com.dylan.fakemovinggps.graph.GraphLoadTask;
+import com.dylan.fakemovinggps.graph.MapMatchTask;
+import com.dylan.fakemovinggps.graph.Router;
+import com.dylan.fakemovinggps.graph.RoutingTask;
+import com.dylan.fakemovinggps.location.LatestFixChannel;
 import com.dylan.fakemovinggps.location.LocationService;
+import com.dylan.fakemovinggps.map.RouteOverlay;
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SegmentIndex;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+import com.dylan.fakemovinggps.track.RouteImportTask;
 import com.dylan.fakemovinggps.util.Constant;
 import com.google.android.gms.maps.CameraUpdate;
 import com.google.android.gms.maps.CameraUpdateFactory;
@@ -40,10 +56,19 @@ import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.UiSettings;
 import com.google.android.gms.maps.model.LatLng;
 
+import java.io.IOException;
+
 import butterknife.BindView;
 
 public class HomeActivity extends BaseActivity implements NavigationView.OnNavigationItemSelectedListener,
-        OnMapReadyCallback, SearchView.OnQueryTextListener, View.OnClickListener {
+        OnMapReadyCallback, GoogleMap.OnMapClickListener, GoogleMap.OnMapLongClickListener,
+        SearchView.OnQueryTextListener, View.OnClickListener {
+
+    private static final String TAG = HomeActivity.class.getSimpleName();
+
+    private static final int REQUEST_IMPORT_ROUTE = 1;
+    private static final int REQUEST_OPEN_GRAPH = 2;
+    private static final int TAP_TOLERANCE = 24;    // px
 
     @BindView(R.id.drawer_layout)
     DrawerLayout mDrawerLayout;
@@ -61,12 +86,26 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
 
     SupportMapFragment mMapFragment;
     GoogleMap mMap;
+    RouteOverlay mRouteOverlay;
+    // the camera follows the simulated position until the user pans the map
+    boolean mFollowing = true;
 
     LocationService mLocationService;
     ServiceConnection mLocationServiceConnection;
     boolean mBound = false;
 
     BroadcastReceiver mLocationUpdateReceiver;
+    LatestFixChannel.Listener mFixListener;
+
+    RouteImportTask mRouteImportTask;
+    Route mPendingRoute;
+    Uri mPendingNmeaLog;
+
+    GraphLoadTask mGraphLoadTask;
+    ContractionTask mContractionTask;
+    Router mRouter;
+    LatLng mRouteOrigin;
+    MapMatchTask mMapMatchTask;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -82,6 +121,18 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
                 LocationService.LocationBinder binder = (LocationService.LocationBinder) service;
                 mLocationService = binder.getService();
                 mBound = true;
+                mLocationService.getFixChannel().setListener(mFixListener);
+                if (mPendingRoute != null) {
+                    mLocationService.setRoute(mPendingRoute);
+                    mPendingRoute = null;
+                }
+                if (mPendingNmeaLog != null) {
+                    mLocationService.playNmeaLog(mPendingNmeaLog);
+                    mPendingNmeaLog = null;
+                }
+                if (mRouteOverlay != null) {
+                    mRouteOverlay.setRoute(mLocationService.getRoute());
+                }
                 if (mBtServiceController != null) {
                     if (mLocationService.isMockLocationRunning) {
                         mBtServiceController.setImageResource(R.drawable.ic_pause);
@@ -96,6 +147,12 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
                 mBound = false;
             }
         };
+        mFixListener = new LatestFixChannel.Listener() {
+            @Override
+            public void onLatestFix(MockFix fix) {
+                followLocation(fix.latitude, fix.longitude);
+            }
+        };
         mLocationUpdateReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -124,11 +181,6 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
                             mBtServiceController.setImageResource(R.drawable.ic_pause);
                         }
                         break;
-                    case Constant.Callback.LOCATION_UPDATE:
-                        double lat = intent.getDoubleExtra("lat", 0);
-                        double lon = intent.getDoubleExtra("lon", 0);
-                        updateMyLocation(new LatLng(lat, lon));
-                        break;
                 }
             }
         };
@@ -198,6 +250,9 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
         // Bind to LocalService
         Intent intent = new Intent(this, LocationService.class);
         bindService(intent, mLocationServiceConnection, Context.BIND_AUTO_CREATE);
+        if (mLocationService != null) {
+            mLocationService.getFixChannel().setListener(mFixListener);
+        }
     }
 
     @Override
@@ -206,7 +261,6 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
         IntentFilter filter = new IntentFilter();
         filter.addAction(Constant.Callback.REQUEST_ALLOW_MOCK_LOCATIONS_APPS);
         filter.addAction(Constant.Callback.START_FAKING_LOCATION_SUCCESSFULLY);
-        filter.addAction(Constant.Callback.LOCATION_UPDATE);
         registerReceiver(mLocationUpdateReceiver, filter);
     }
 
@@ -214,10 +268,29 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
     protected void onStop() {
         super.onStop();
         unregisterReceiver(mLocationUpdateReceiver);
+        if (mLocationService != null) {
+            mLocationService.getFixChannel().setListener(null);
+        }
     }
 
     @Override
     protected void onDestroy() {
+        if (mRouteImportTask != null) {
+            mRouteImportTask.cancel(true);
+            mRouteImportTask = null;
+        }
+        if (mGraphLoadTask != null) {
+            mGraphLoadTask.cancel(true);
+            mGraphLoadTask = null;
+        }
+        if (mContractionTask != null) {
+            mContractionTask.cancel(true);
+            mContractionTask = null;
+        }
+        if (mMapMatchTask != null) {
+            mMapMatchTask.cancel(true);
+            mMapMatchTask = null;
+        }
         // Unbind from the service
         if (mBound) {
             unbindService(mLocationServiceConnection);
@@ -234,7 +307,7 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
         // Handle navigation view item clicks here.
         switch (item.getItemId()) {
             case R.id.nav_repositories:
-                // TODO
+                pickGraphFile();
                 break;
             case R.id.nav_properties:
                 // TODO
@@ -261,6 +334,205 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
         return true;
     }
 
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.menu_import_route:
+                pickRouteFile();
+                return true;
+            case R.id.menu_snap_route:
+                snapRoute();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        switch (requestCode) {
+            case REQUEST_IMPORT_ROUTE:
+                importRoute(data.getData());
+                break;
+            case REQUEST_OPEN_GRAPH:
+                loadGraph(data.getData());
+                break;
+        }
+    }
+
+    private void pickRouteFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        // GPX files are reported with all kinds of mime types, so let the user pick anything
+        intent.setType("*/*");
+        startActivityForResult(intent, REQUEST_IMPORT_ROUTE);
+    }
+
+    private void pickGraphFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        startActivityForResult(intent, REQUEST_OPEN_GRAPH);
+    }
+
+    private void loadGraph(Uri uri) {
+        if (mGraphLoadTask != null) {
+            mGraphLoadTask.cancel(true);
+        }
+        if (mContractionTask != null) {
+            mContractionTask.cancel(true);
+            mContractionTask = null;
+        }
+        if (mActionBar != null) {
+            mActionBar.setSubtitle(R.string.graph_loading);
+        }
+        mGraphLoadTask = new GraphLoadTask(getContentResolver(), new GraphLoadTask.Callback() {
+            @Override
+            public void onGraphLoaded(Router router) {
+                mGraphLoadTask = null;
+                mRouter = router;
+                mRouteOrigin = null;
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(null);
+                }
+                Toast.makeText(HomeActivity.this, R.string.graph_pick_origin, Toast.LENGTH_LONG).show();
+                contractGraph(router);
+            }
+
+            @Override
+            public void onGraphFailed(IOException error) {
+                mGraphLoadTask = null;
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(null);
+                }
+                DLog.e(TAG, "cannot load graph: " + error.getMessage());
+                Toast.makeText(HomeActivity.this, getString(R.string.graph_failed,
+                        error.getMessage()), Toast.LENGTH_LONG).show();
+            }
+        });
+        mGraphLoadTask.execute(uri);
+    }
+
+    /**
+     * Preprocesses the loaded graph into a contraction hierarchy; routing switches over to it
+     * once it is ready.
+     */
+    private void contractGraph(final Router router) {
+        mContractionTask = new ContractionTask(new ContractionTask.Callback() {
+            @Override
+            public void onContracted(ChRouter contracted) {
+                mContractionTask = null;
+                if (mRouter == router) {
+                    mRouter = contracted;
+                }
+            }
+        });
+        mContractionTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, router.getGraph());
+    }
+
+    private void importRoute(Uri uri) {
+        if (mRouteImportTask != null) {
+            mRouteImportTask.cancel(true);
+        }
+        mRouteImportTask = new RouteImportTask(getContentResolver(), new RouteImportTask.Callback() {
+            @Override
+            public void onImportProgress(int percent) {
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(percent >= 0
+                            ? getString(R.string.import_route_progress, percent)
+                            : getString(R.string.import_route_loading));
+                }
+            }
+
+            @Override
+            public void onImportFinished(Route route) {
+                mRouteImportTask = null;
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(null);
+                }
+                playRoute(route);
+                updateMyLocation(new LatLng(route.getLatitude(0), route.getLongitude(0)));
+            }
+
+            @Override
+            public void onNmeaLogPicked(Uri log) {
+                mRouteImportTask = null;
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(null);
+                }
+                if (mLocationService != null) {
+                    mLocationService.playNmeaLog(log);
+                } else {
+                    mPendingNmeaLog = log;
+                    mPendingRoute = null;
+                }
+            }
+
+            @Override
+            public void onImportFailed(IOException error) {
+                mRouteImportTask = null;
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(null);
+                }
+                DLog.e(TAG, "import failed: " + error.getMessage());
+                Toast.makeText(HomeActivity.this, getString(R.string.import_route_failed,
+                        error.getMessage()), Toast.LENGTH_LONG).show();
+            }
+        });
+        mRouteImportTask.execute(uri);
+    }
+
+    /**
+     * Replaces the current route, typically a recorded or imported track, with its map-matched
+     * version on the loaded road graph.
+     */
+    private void snapRoute() {
+        if (mRouter == null) {
+            Toast.makeText(this, R.string.match_no_graph, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (mLocationService == null || mLocationService.getRoute().size() < 2) {
+            return;
+        }
+        if (mMapMatchTask != null) {
+            mMapMatchTask.cancel(true);
+        }
+        if (mActionBar != null) {
+            mActionBar.setSubtitle(R.string.match_loading);
+        }
+        mMapMatchTask = new MapMatchTask(mRouter.getGraph(), new MapMatchTask.Callback() {
+            @Override
+            public void onRouteMatched(Route route) {
+                mMapMatchTask = null;
+                if (mActionBar != null) {
+                    mActionBar.setSubtitle(null);
+                }
+                if (route == null) {
+                    Toast.makeText(HomeActivity.this, R.string.match_failed, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                playRoute(route);
+            }
+        });
+        mMapMatchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mLocationService.getRoute().view());
+    }
+
+    private void playRoute(Route route) {
+        if (mLocationService != null) {
+            mLocationService.setRoute(route);
+        } else {
+            mPendingRoute = route;
+            mPendingNmeaLog = null;
+        }
+        if (mRouteOverlay != null) {
+            mRouteOverlay.setRoute(route);
+        }
+        mFollowing = true;
+    }
+
     @Override
     public void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
@@ -269,11 +541,83 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
         uiSettings.setZoomControlsEnabled(true);
         uiSettings.setAllGesturesEnabled(true);
 
+        mRouteOverlay = new RouteOverlay(mMap);
+        mMap.setOnCameraIdleListener(mRouteOverlay);
+        mMap.setOnMapClickListener(this);
+        mMap.setOnMapLongClickListener(this);
+        mMap.setOnCameraMoveStartedListener(new GoogleMap.OnCameraMoveStartedListener() {
+            @Override
+            public void onCameraMoveStarted(int reason) {
+                if (reason == GoogleMap.OnCameraMoveStartedListener.REASON_GESTURE) {
+                    mFollowing = false;
+                }
+            }
+        });
+        mMap.setOnMyLocationButtonClickListener(new GoogleMap.OnMyLocationButtonClickListener() {
+            @Override
+            public boolean onMyLocationButtonClick() {
+                mFollowing = true;
+                return false;
+            }
+        });
+        if (mLocationService != null) {
+            mRouteOverlay.setRoute(mLocationService.getRoute());
+        }
+
         enableMyLocation();
 
         updateMyLocation(new LatLng(1.2797677, 103.8459285));
     }
 
+    /**
+     * Seeks playback to the point of the route closest to the tap, if the tap is near the route.
+     */
+    @Override
+    public void onMapClick(LatLng point) {
+        if (mLocationService == null) {
+            return;
+        }
+        SegmentIndex index = mLocationService.getSegmentIndex();
+        if (index == null) {
+            return;
+        }
+        float density = getResources().getDisplayMetrics().density;
+        double tolerance = TAP_TOLERANCE * density
+                * RouteOverlay.getMetersPerPixel(mMap.getCameraPosition());
+        if (index.nearest(point.latitude, point.longitude, tolerance) >= 0) {
+            mLocationService.seekToDistance(index.snap(point.latitude, point.longitude));
+        }
+    }
+
+    /**
+     * With a road graph loaded, the first long press picks the origin and the second one routes
+     * to the pressed point and plays the result.
+     */
+    @Override
+    public void onMapLongClick(LatLng point) {
+        if (mRouter == null) {
+            return;
+        }
+        if (mRouteOrigin == null) {
+            mRouteOrigin = point;
+            Toast.makeText(this, R.string.graph_pick_destination, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        LatLng origin = mRouteOrigin;
+        mRouteOrigin = null;
+        new RoutingTask(mRouter, origin.latitude, origin.longitude, point.latitude, point.longitude,
+                SpeedProfile.of(Route.DEFAULT_SPEED), new RoutingTask.Callback() {
+            @Override
+            public void onRouteFound(Route route) {
+                if (route == null) {
+                    Toast.makeText(HomeActivity.this, R.string.graph_no_route, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                playRoute(route);
+            }
+        }).execute();
+    }
+
     private void enableMyLocation() {
         if (PermissionUtil.checkGPSPermission(this)) {
             mMap.setMyLocationEnabled(true);
@@ -289,6 +633,13 @@ public class HomeActivity extends BaseActivity implements NavigationView.OnNavig
         }
     }
 
+    // called up to once per frame while faking, so no camera animation and no zoom change
+    private void followLocation(double latitude, double longitude) {
+        if (mMap != null && mFollowing) {
+            mMap.moveCamera(CameraUpdateFactory.newLatLng(new LatLng(latitude, longitude)));
+        }
+    }
+
     @Override
     public boolean onQueryTextSubmit(String query) {
         // do your search
@@ -0,0 +1,804 @@
+package com.dylan.fakemovinggps.control;
+
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+import com.dylan.fakemovinggps.track.Polyline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Localhost HTTP and WebSocket endpoint for driving the simulation from a test rig, typically
+ * through {@code adb forward tcp:8089 tcp:8089}.
+ * <ul>
+ * <li>{@code POST /route?precision=5&speed=13.9} with an encoded polyline as the body</li>
+ * <li>{@code POST /start}, {@code /stop}, {@code /pause}, {@code /resume}</li>
+ * <li>{@code POST /seek?distance=1200} in meters along the route</li>
+ * <li>{@code GET /status} and {@code GET /fix} for the last emitted fix</li>
+ * <li>{@code GET /fixes} upgraded to a WebSocket streams every emitted fix as a JSON text
+ * frame</li>
+ * </ul>
+ * Commands answer with the state after them, e.g.
+ * {@code {"ok":true,"running":true,"paused":false,"progress":0.25}}.
+ * <p>
+ * Every request, the WebSocket upgrade included, has to carry the token the server was created
+ * with, as {@code Authorization: Bearer <token>} or as a {@code token} query parameter. Requests
+ * with an {@code Origin} header or a {@code Host} other than {@code 127.0.0.1:<port>} are
+ * refused, so web pages cannot reach the server through the browser, not even by DNS
+ * rebinding. Forward the same port on the host for the Host header to match.
+ * <p>
+ * One selector thread serves every connection. Commands run on the {@link Executor} given to the
+ * constructor and reading from a connection pauses until its command has been answered, so
+ * requests on a keep-alive connection are answered in order. A client that cannot keep up with
+ * the fix stream misses fixes instead of queueing them.
+ */
+public class ControlServer {
+    private static final String TAG = ControlServer.class.getSimpleName();
+
+    public static final int DEFAULT_PORT = 8089;
+
+    /**
+     * The simulation controls, called on the server's executor.
+     */
+    public interface Controller {
+        void setRoute(Route route);
+
+        boolean start();
+
+        boolean stop();
+
+        boolean pause();
+
+        boolean resume();
+
+        boolean seekToDistance(double distance);
+
+        boolean isRunning();
+
+        boolean isPaused();
+
+        double getProgress();
+    }
+
+    static final int MAX_HEAD_SIZE = 8 * 1024;
+    // routes larger than this go through RouteIngestProvider
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+    static final int MAX_QUEUED_FRAMES = 8;
+    private static final int BUFFER_SIZE = 4 * 1024;
+    private static final int TOKEN_BYTES = 16;
+
+    private final Controller controller;
+    private final Executor executor;
+    private final byte[] token;
+    private String host;
+    private final ConcurrentLinkedQueue<Connection> answered = new ConcurrentLinkedQueue<>();
+    private final List<Connection> webSockets = new ArrayList<>();
+
+    // written by publish() on the tick thread, guarded by itself
+    private final MockFix latestFix = new MockFix();
+    private long latestSequence;
+    // selector thread copy
+    private final MockFix sentFix = new MockFix();
+    private long sentSequence;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        HttpRequest request;    // head parsed, waiting for the body
+        int headLength;
+        boolean webSocket;
+        boolean pending;        // a command is running on the executor
+        boolean closing;        // close once out is written
+        volatile ByteBuffer answer;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param token secret the clients have to send, see {@link #newToken()}
+     */
+    public ControlServer(Controller controller, Executor executor, String token) {
+        if (token == null || token.length() < TOKEN_BYTES) {
+            throw new IllegalArgumentException("Token too short");
+        }
+        this.controller = controller;
+        this.executor = executor;
+        this.token = token.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return a random hex token to create a server with
+     */
+    public static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit(b >>> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Binds to {@code 127.0.0.1:port} and starts the selector thread.
+     *
+     * @param port 0 for any free port, see {@link #getPort()}
+     */
+    public synchronized void start(int port) throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("Already started");
+        }
+        selector = Selector.open();
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            host = "127.0.0.1:" + serverChannel.socket().getLocalPort();
+        } catch (IOException e) {
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+            throw e;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Closes every connection and waits briefly for the selector thread to finish.
+     */
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Hands the fix just emitted to the WebSocket clients. Called on the tick thread, copies the
+     * fix and wakes the selector without blocking on any client.
+     */
+    public void publish(MockFix fix) {
+        synchronized (latestFix) {
+            latestFix.set(fix);
+            latestSequence++;
+        }
+        if (running) {
+            selector.wakeup();
+        }
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+                if (!running) {
+                    break;
+                }
+                Connection connection;
+                while ((connection = answered.poll()) != null) {
+                    onAnswered(connection);
+                }
+                broadcastFix();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(connection);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(connection);
+                        }
+                    } catch (IOException e) {
+                        close(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            running = false;
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+            webSockets.clear();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) < 0) {
+            close(connection);
+            return;
+        }
+        process(connection);
+    }
+
+    private void onAnswered(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        connection.pending = false;
+        ByteBuffer answer = connection.answer;
+        connection.answer = null;
+        try {
+            send(connection, answer);
+            process(connection);
+        } catch (IOException e) {
+            close(connection);
+        }
+    }
+
+    // handles what is buffered until more input is needed or a command is running
+    private void process(Connection connection) throws IOException {
+        while (connection.key.isValid() && !connection.pending && !connection.closing) {
+            boolean consumed = connection.webSocket ? readFrame(connection) : readRequest(connection);
+            if (!consumed) {
+                break;
+            }
+        }
+        updateInterest(connection);
+    }
+
+    private boolean readRequest(Connection connection) throws IOException {
+        byte[] data = connection.in.array();
+        int length = connection.in.position();
+        if (connection.request == null) {
+            int headLength = HttpRequest.findHeadEnd(data, Math.min(length, MAX_HEAD_SIZE));
+            if (headLength < 0) {
+                if (length >= MAX_HEAD_SIZE) {
+                    fail(connection, 431, "Request header too large");
+                } else if (!connection.in.hasRemaining()) {
+                    ensureCapacity(connection, MAX_HEAD_SIZE);
+                }
+                return false;
+            }
+            try {
+                connection.request = HttpRequest.parse(data, headLength);
+            } catch (IOException e) {
+                fail(connection, 400, e.getMessage());
+                return false;
+            }
+            connection.headLength = headLength;
+            // checked before anything is allocated for the body
+            int status = authorize(connection.request);
+            if (status != 200) {
+                fail(connection, status, status == 401 ? "Missing or wrong token" : "Forbidden");
+                return false;
+            }
+            if (connection.request.contentLength > MAX_BODY_SIZE) {
+                fail(connection, 413, "Request body too large");
+                return false;
+            }
+            ensureCapacity(connection, headLength + connection.request.contentLength);
+        }
+        HttpRequest request = connection.request;
+        int total = connection.headLength + request.contentLength;
+        if (length < total) {
+            return false;
+        }
+        request.body = new byte[request.contentLength];
+        System.arraycopy(data, connection.headLength, request.body, 0, request.contentLength);
+        consume(connection, total);
+        connection.request = null;
+        dispatch(connection, request);
+        return true;
+    }
+
+    /**
+     * @return 200, or the status to refuse the request with
+     */
+    private int authorize(HttpRequest request) {
+        if (request.getHeader("origin") != null || !host.equals(request.getHeader("host"))) {
+            return 403;
+        }
+        String presented = request.getParameter("token");
+        String authorization = request.getHeader("authorization");
+        if (authorization != null && authorization.startsWith("Bearer ")) {
+            presented = authorization.substring(7).trim();
+        }
+        if (presented == null
+                || !MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.US_ASCII))) {
+            return 401;
+        }
+        return 200;
+    }
+
+    private boolean readFrame(Connection connection) throws IOException {
+        byte[] data = connection.in.array();
+        int length = connection.in.position();
+        if (length < 2) {
+            return false;
+        }
+        int opcode = data[0] & 0x0F;
+        boolean masked = (data[1] & 0x80) != 0;
+        long payloadLength = data[1] & 0x7F;
+        int headLength = 2;
+        if (payloadLength == 126) {
+            if (length < 4) {
+                return false;
+            }
+            payloadLength = (data[2] & 0xFF) << 8 | data[3] & 0xFF;
+            headLength = 4;
+        } else if (payloadLength == 127) {
+            if (length < 10) {
+                return false;
+            }
+            payloadLength = ByteBuffer.wrap(data, 2, 8).getLong();
+            headLength = 10;
+        }
+        if (!masked) {
+            closeWebSocket(connection, WebSocketCodec.CLOSE_PROTOCOL_ERROR);
+            return false;
+        }
+        if (payloadLength < 0 || payloadLength > MAX_FRAME_SIZE) {
+            closeWebSocket(connection, WebSocketCodec.CLOSE_TOO_BIG);
+            return false;
+        }
+        int total = headLength + 4 + (int) payloadLength;
+        ensureCapacity(connection, total);
+        if (length < total) {
+            return false;
+        }
+        int payload = headLength + 4;
+        for (int i = 0; i < payloadLength; i++) {
+            data[payload + i] ^= data[headLength + (i & 3)];
+        }
+        switch (opcode) {
+            case WebSocketCodec.OPCODE_CLOSE:
+                closeWebSocket(connection, WebSocketCodec.CLOSE_NORMAL);
+                return false;
+            case WebSocketCodec.OPCODE_PING:
+                send(connection, WebSocketCodec.frame(WebSocketCodec.OPCODE_PONG, data, payload, (int) payloadLength));
+                break;
+            default:
+                // the stream is one way, anything the client sends besides control frames is ignored
+                break;
+        }
+        consume(connection, total);
+        return true;
+    }
+
+    private void dispatch(final Connection connection, final HttpRequest request) throws IOException {
+        if (request.isWebSocketUpgrade()) {
+            if ("/fixes".equals(request.path)) {
+                upgrade(connection, request);
+            } else {
+                fail(connection, 404, "No WebSocket at " + request.path);
+            }
+            return;
+        }
+        boolean post = "POST".equals(request.method);
+        switch (request.path) {
+            case "/status":
+                execute(connection, request, new Command() {
+                    @Override
+                    boolean execute() {
+                        return true;
+                    }
+                });
+                return;
+            case "/fix":
+                respond(connection, 200, fixJson(), request.keepAlive);
+                return;
+            case "/route":
+                if (post) {
+                    final Route route;
+                    try {
+                        int precision = intParameter(request, "precision", Polyline.DEFAULT_PRECISION);
+                        double speed = doubleParameter(request, "speed", Route.DEFAULT_SPEED);
+                        route = Polyline.decode(new String(request.body, StandardCharsets.US_ASCII).trim(),
+                                precision, SpeedProfile.of(speed));
+                    } catch (IllegalArgumentException e) {
+                        fail(connection, 400, e.getMessage());
+                        return;
+                    }
+                    execute(connection, request, new Command() {
+                        @Override
+                        boolean execute() {
+                            controller.setRoute(route);
+                            return true;
+                        }
+                    });
+                    return;
+                }
+                break;
+            case "/start":
+                if (post) {
+                    execute(connection, request, new Command() {
+                        @Override
+                        boolean execute() {
+                            return controller.start();
+                        }
+                    });
+                    return;
+                }
+                break;
+            case "/stop":
+                if (post) {
+                    execute(connection, request, new Command() {
+                        @Override
+                        boolean execute() {
+                            return controller.stop();
+                        }
+                    });
+                    return;
+                }
+                break;
+            case "/pause":
+                if (post) {
+                    execute(connection, request, new Command() {
+                        @Override
+                        boolean execute() {
+                            return controller.pause();
+                        }
+                    });
+                    return;
+                }
+                break;
+            case "/resume":
+                if (post) {
+                    execute(connection, request, new Command() {
+                        @Override
+                        boolean execute() {
+                            return controller.resume();
+                        }
+                    });
+                    return;
+                }
+                break;
+            case "/seek":
+                if (post) {
+                    final double distance;
+                    try {
+                        distance = doubleParameter(request, "distance", Double.NaN);
+                    } catch (IllegalArgumentException e) {
+                        fail(connection, 400, e.getMessage());
+                        return;
+                    }
+                    if (!(distance >= 0)) {
+                        fail(connection, 400, "Missing distance");
+                        return;
+                    }
+                    execute(connection, request, new Command() {
+                        @Override
+                        boolean execute() {
+                            return controller.seekToDistance(distance);
+                        }
+                    });
+                    return;
+                }
+                break;
+            default:
+                fail(connection, 404, "Unknown path " + request.path);
+                return;
+        }
+        fail(connection, 405, request.method + " not allowed on " + request.path);
+    }
+
+    private static int intParameter(HttpRequest request, String name, int fallback) {
+        String value = request.getParameter(name);
+        return value != null ? Integer.parseInt(value) : fallback;
+    }
+
+    private static double doubleParameter(HttpRequest request, String name, double fallback) {
+        String value = request.getParameter(name);
+        return value != null ? Double.parseDouble(value) : fallback;
+    }
+
+    private abstract class Command implements Runnable {
+        Connection connection;
+        boolean keepAlive;
+
+        /**
+         * @return whether the command took effect
+         */
+        abstract boolean execute();
+
+        @Override
+        public final void run() {
+            ByteBuffer answer;
+            try {
+                boolean ok = execute();
+                answer = response(200, "{\"ok\":" + ok + ",\"running\":" + controller.isRunning()
+                        + ",\"paused\":" + controller.isPaused()
+                        + ",\"progress\":" + controller.getProgress() + "}", keepAlive);
+            } catch (RuntimeException e) {
+                answer = response(500, errorJson(e.toString()), keepAlive);
+            }
+            connection.answer = answer;
+            answered.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void execute(Connection connection, HttpRequest request, Command command) throws IOException {
+        command.connection = connection;
+        command.keepAlive = request.keepAlive;
+        connection.pending = true;
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            connection.pending = false;
+            fail(connection, 503, "Service unavailable");
+        }
+    }
+
+    private void upgrade(Connection connection, HttpRequest request) throws IOException {
+        String key = request.getHeader("sec-websocket-key");
+        if (key == null) {
+            fail(connection, 400, "Missing Sec-WebSocket-Key");
+            return;
+        }
+        String head = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + WebSocketCodec.acceptKey(key) + "\r\n\r\n";
+        connection.webSocket = true;
+        webSockets.add(connection);
+        send(connection, ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1)));
+        if (sentSequence > 0) {
+            send(connection, WebSocketCodec.textFrame(fixJson(sentFix)));
+        }
+    }
+
+    private void broadcastFix() {
+        synchronized (latestFix) {
+            if (latestSequence == sentSequence) {
+                return;
+            }
+            sentFix.set(latestFix);
+            sentSequence = latestSequence;
+        }
+        if (webSockets.isEmpty()) {
+            return;
+        }
+        ByteBuffer frame = WebSocketCodec.textFrame(fixJson(sentFix));
+        for (int i = webSockets.size() - 1; i >= 0; i--) {
+            Connection connection = webSockets.get(i);
+            if (connection.closing || connection.out.size() >= MAX_QUEUED_FRAMES) {
+                continue;
+            }
+            try {
+                send(connection, frame.duplicate());
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+    }
+
+    private String fixJson() {
+        synchronized (latestFix) {
+            if (latestSequence == 0) {
+                return "null";
+            }
+            return fixJson(latestFix);
+        }
+    }
+
+    private static String fixJson(MockFix fix) {
+        return "{\"latitude\":" + fix.latitude
+                + ",\"longitude\":" + fix.longitude
+                + ",\"altitude\":" + fix.altitude
+                + ",\"speed\":" + fix.speed
+                + ",\"bearing\":" + fix.bearing
+                + ",\"accuracy\":" + fix.accuracy
+                + ",\"time\":" + fix.time
+                + ",\"elapsedRealtimeNanos\":" + fix.elapsedRealtimeNanos + "}";
+    }
+
+    private static String errorJson(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":\"");
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c >= ' ') {
+                json.append(c);
+            }
+        }
+        return json.append("\"}").toString();
+    }
+
+    private static ByteBuffer response(int status, String body, boolean keepAlive) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer response = ByteBuffer.allocate(headBytes.length + content.length);
+        response.put(headBytes).put(content);
+        response.flip();
+        return response;
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 401:
+                return "Unauthorized";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Internal Server Error";
+        }
+    }
+
+    private void respond(Connection connection, int status, String body, boolean keepAlive) throws IOException {
+        send(connection, response(status, body, keepAlive));
+        if (!keepAlive) {
+            connection.closing = true;
+            flush(connection);
+        }
+    }
+
+    private void fail(Connection connection, int status, String message) throws IOException {
+        connection.request = null;
+        respond(connection, status, errorJson(message), false);
+    }
+
+    private void closeWebSocket(Connection connection, int code) throws IOException {
+        send(connection, WebSocketCodec.closeFrame(code));
+        connection.closing = true;
+        flush(connection);
+    }
+
+    private void send(Connection connection, ByteBuffer data) throws IOException {
+        connection.out.add(data);
+        flush(connection);
+    }
+
+    private void flush(Connection connection) throws IOException {
+        ArrayDeque<ByteBuffer> out = connection.out;
+        while (!out.isEmpty()) {
+            ByteBuffer data = out.peek();
+            connection.channel.write(data);
+            if (data.hasRemaining()) {
+                break;
+            }
+            out.poll();
+        }
+        if (out.isEmpty() && connection.closing) {
+            close(connection);
+            return;
+        }
+        updateInterest(connection);
+    }
+
+    private void updateInterest(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        int ops = connection.pending || connection.closing ? 0 : SelectionKey.OP_READ;
+        if (!connection.out.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(ops);
+    }
+
+    private static void ensureCapacity(Connection connection, int capacity) {
+        ByteBuffer in = connection.in;
+        if (in.capacity() < capacity) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, in.capacity() * 2));
+            in.flip();
+            larger.put(in);
+            connection.in = larger;
+        }
+    }
+
+    // drops the first count bytes, shrinking a buffer that grew for a large body
+    private static void consume(Connection connection, int count) {
+        ByteBuffer in = connection.in;
+        in.flip();
+        in.position(count);
+        if (in.capacity() > BUFFER_SIZE && in.remaining() <= BUFFER_SIZE) {
+            ByteBuffer smaller = ByteBuffer.allocate(BUFFER_SIZE);
+            smaller.put(in);
+            connection.in = smaller;
+        } else {
+            in.compact();
+        }
+    }
+
+    private void close(Connection connection) {
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+        if (connection.webSocket) {
+            webSockets.remove(connection);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+}
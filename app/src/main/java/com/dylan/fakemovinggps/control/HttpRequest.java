@@ -0,0 +1,129 @@
+package com.dylan.fakemovinggps.control;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The head of an HTTP/1.x request as far as {@link ControlServer} needs it: method, path, query
+ * parameters and headers, plus the body once it has arrived. Chunked request bodies are not
+ * supported, clients have to send a Content-Length.
+ */
+final class HttpRequest {
+
+    final String method;
+    final String path;
+    final boolean keepAlive;
+    final int contentLength;
+    private final Map<String, String> query;
+    private final Map<String, String> headers;
+    byte[] body;
+
+    private HttpRequest(String method, String path, boolean keepAlive, int contentLength,
+                        Map<String, String> query, Map<String, String> headers) {
+        this.method = method;
+        this.path = path;
+        this.keepAlive = keepAlive;
+        this.contentLength = contentLength;
+        this.query = query;
+        this.headers = headers;
+    }
+
+    /**
+     * @return length of the head including the empty line in {@code data[0, length)}, or -1 if
+     * it is not complete yet
+     */
+    static int findHeadEnd(byte[] data, int length) {
+        for (int i = 3; i < length; i++) {
+            if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param headLength as returned by {@link #findHeadEnd(byte[], int)}
+     * @throws IOException if the head is malformed
+     */
+    static HttpRequest parse(byte[] data, int headLength) throws IOException {
+        String[] lines = new String(data, 0, headLength, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new IOException("Malformed request line");
+        }
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Malformed header");
+            }
+            headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US),
+                    lines[i].substring(colon + 1).trim());
+        }
+
+        int contentLength = 0;
+        String value = headers.get("content-length");
+        if (value != null) {
+            try {
+                contentLength = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length");
+            }
+            if (contentLength < 0) {
+                throw new IOException("Malformed Content-Length");
+            }
+        }
+        if (headers.containsKey("transfer-encoding")) {
+            throw new IOException("Transfer-Encoding is not supported");
+        }
+
+        String connection = headers.get("connection");
+        boolean keepAlive = requestLine[2].equals("HTTP/1.1")
+                ? !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection);
+
+        String target = requestLine[1];
+        Map<String, String> query = new HashMap<>();
+        int question = target.indexOf('?');
+        if (question >= 0) {
+            for (String parameter : target.substring(question + 1).split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    query.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+                } else if (!parameter.isEmpty()) {
+                    query.put(decode(parameter), "");
+                }
+            }
+            target = target.substring(0, question);
+        }
+        return new HttpRequest(requestLine[0], target, keepAlive, contentLength, query, headers);
+    }
+
+    private static String decode(String value) throws IOException {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new IOException("Malformed query");
+        }
+    }
+
+    /**
+     * @param name lower case
+     */
+    String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    String getParameter(String name) {
+        return query.get(name);
+    }
+
+    boolean isWebSocketUpgrade() {
+        String upgrade = headers.get("upgrade");
+        return "GET".equals(method) && upgrade != null && upgrade.equalsIgnoreCase("websocket");
+    }
+}
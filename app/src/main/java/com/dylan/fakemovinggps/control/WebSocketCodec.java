@@ -0,0 +1,90 @@
+package com.dylan.fakemovinggps.control;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The parts of RFC 6455 the control server needs: the handshake key and unmasked server frames.
+ * Client frames are parsed by {@link ControlServer} in place.
+ */
+final class WebSocketCodec {
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_TOO_BIG = 1009;
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private WebSocketCodec() {
+    }
+
+    /**
+     * @return the Sec-WebSocket-Accept value for a client's Sec-WebSocket-Key
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key + GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // java.util.Base64 is not available before API 26 and android.util.Base64 not off-device
+    static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xFF;
+            }
+            out.append(BASE64[b >>> 18 & 0x3F]).append(BASE64[b >>> 12 & 0x3F]);
+            out.append(i + 1 < data.length ? BASE64[b >>> 6 & 0x3F] : '=');
+            out.append(i + 2 < data.length ? BASE64[b & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+
+    static ByteBuffer textFrame(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        return frame(OPCODE_TEXT, payload, 0, payload.length);
+    }
+
+    static ByteBuffer closeFrame(int code) {
+        byte[] payload = {(byte) (code >>> 8), (byte) code};
+        return frame(OPCODE_CLOSE, payload, 0, payload.length);
+    }
+
+    /**
+     * @return a single final, unmasked frame ready to be written
+     */
+    static ByteBuffer frame(int opcode, byte[] payload, int offset, int length) {
+        int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(header + length);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length < 65536) {
+            frame.put((byte) 126).putShort((short) length);
+        } else {
+            frame.put((byte) 127).putLong(length);
+        }
+        frame.put(payload, offset, length);
+        frame.flip();
+        return frame;
+    }
+}
@@ -0,0 +1,107 @@
+package com.dylan.fakemovinggps.geofence;
+
+import java.util.Arrays;
+
+/**
+ * A circular or polygonal fence evaluated by {@link GeofenceEngine}. Polygons are a single ring
+ * of vertices without holes; closing the ring by repeating the first vertex is optional.
+ */
+public final class Geofence {
+
+    public static final int TRANSITION_ENTER = 1;
+    public static final int TRANSITION_EXIT = 2;
+
+    private final String id;
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    private Geofence(String id, double latitude, double longitude, double radius,
+                     double[] latitudes, double[] longitudes) {
+        this.id = id;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * @param radius meters
+     */
+    public static Geofence circle(String id, double latitude, double longitude, double radius) {
+        if (!(radius >= 0)) {
+            throw new IllegalArgumentException("Invalid radius " + radius);
+        }
+        return new Geofence(id, latitude, longitude, radius, null, null);
+    }
+
+    public static Geofence polygon(String id, double[] latitudes, double[] longitudes) {
+        int count = latitudes.length;
+        if (count != longitudes.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length");
+        }
+        if (count > 1 && latitudes[0] == latitudes[count - 1] && longitudes[0] == longitudes[count - 1]) {
+            count--;
+        }
+        if (count < 3) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        }
+        double latitude = 0;
+        double longitude = 0;
+        for (int i = 0; i < count; i++) {
+            latitude += latitudes[i];
+            longitude += longitudes[i];
+        }
+        return new Geofence(id, latitude / count, longitude / count, 0,
+                Arrays.copyOf(latitudes, count), Arrays.copyOf(longitudes, count));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isCircle() {
+        return latitudes == null;
+    }
+
+    /**
+     * @return center of a circle, or the vertex average of a polygon
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return radius of a circle in meters, 0 for a polygon
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return number of polygon vertices, 0 for a circle
+     */
+    public int getVertexCount() {
+        return latitudes != null ? latitudes.length : 0;
+    }
+
+    public double getVertexLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getVertexLongitude(int index) {
+        return longitudes[index];
+    }
+
+    @Override
+    public String toString() {
+        return (isCircle() ? "circle " : "polygon ") + id;
+    }
+}
@@ -0,0 +1,327 @@
+package com.dylan.fakemovinggps.geofence;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Tracks which of a fixed set of {@link Geofence}s contain a moving position and reports the
+ * transitions, for comparison with what the app under test sees.
+ * <p>
+ * Two things keep an update cheap with thousands of fences. A uniform grid lists every fence in
+ * the cells its bounding box touches, so only the fences of the current cell and the ones
+ * currently entered are looked at. And every fence remembers how far the position was from its
+ * border when it was last tested: the distance travelled since then is summed up, and until it
+ * exceeds that margin the fence cannot have been crossed and is skipped.
+ * <p>
+ * Not thread-safe; {@link com.dylan.fakemovinggps.location.RoutePlayer} only calls it on its
+ * tick thread. Updates do not allocate.
+ */
+public class GeofenceEngine {
+
+    public interface Listener {
+        /**
+         * @param transition {@link Geofence#TRANSITION_ENTER} or {@link Geofence#TRANSITION_EXIT}
+         */
+        void onGeofenceTransition(Geofence fence, int transition);
+    }
+
+    private static final int FENCES_PER_CELL = 2;
+    private static final int MAX_CELLS = 1 << 20;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+    // the margins are measured in the local projection of each fence, so trust them a bit less
+    private static final double MARGIN_FACTOR = 0.99;
+    private static final double MARGIN_SLACK = 1; // meters
+
+    private final Geofence[] fences;
+    private final double[] centerLatitudes;
+    private final double[] centerLongitudes;
+    private final double[] cosines;
+    private final double[] radii;
+    private final double[] minLatitudes;
+    private final double[] maxLatitudes;
+    private final double[] minLongitudes;
+    private final double[] maxLongitudes;
+    // polygon vertices in meters around the fence center
+    private final int[] vertexStart;
+    private final double[] vertexX;
+    private final double[] vertexY;
+
+    private final double gridLatitude;
+    private final double gridLongitude;
+    private final double cellHeight;    // degrees
+    private final double cellWidth;
+    private final int rows;
+    private final int columns;
+    private final int[] cellStart;
+    private final int[] cellFences;
+
+    // per fence state
+    private final boolean[] inside;
+    private final double[] recheckAt;   // odometer reading before which the fence is unchanged
+    private final int[] insidePositions;
+    private final int[] insideFences;
+    private int insideCount;
+    private final int[] stamps;
+    private int generation;
+
+    private Listener listener;
+    private boolean hasPosition;
+    private double lastLatitude;
+    private double lastLongitude;
+    private double odometer;            // meters
+
+    public GeofenceEngine(Collection<Geofence> fences) {
+        int n = fences.size();
+        this.fences = fences.toArray(new Geofence[n]);
+        centerLatitudes = new double[n];
+        centerLongitudes = new double[n];
+        cosines = new double[n];
+        radii = new double[n];
+        minLatitudes = new double[n];
+        maxLatitudes = new double[n];
+        minLongitudes = new double[n];
+        maxLongitudes = new double[n];
+        vertexStart = new int[n + 1];
+        for (int f = 0; f < n; f++) {
+            vertexStart[f + 1] = vertexStart[f] + this.fences[f].getVertexCount();
+        }
+        vertexX = new double[vertexStart[n]];
+        vertexY = new double[vertexStart[n]];
+
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (int f = 0; f < n; f++) {
+            Geofence fence = this.fences[f];
+            double latitude = fence.getLatitude();
+            double longitude = fence.getLongitude();
+            double cos = Math.cos(Math.toRadians(latitude));
+            centerLatitudes[f] = latitude;
+            centerLongitudes[f] = longitude;
+            cosines[f] = cos;
+            radii[f] = fence.getRadius();
+            if (fence.isCircle()) {
+                double dLat = fence.getRadius() / METERS_PER_DEGREE;
+                double dLon = fence.getRadius() / (METERS_PER_DEGREE * Math.max(cos, 1e-6));
+                minLatitudes[f] = latitude - dLat;
+                maxLatitudes[f] = latitude + dLat;
+                minLongitudes[f] = longitude - dLon;
+                maxLongitudes[f] = longitude + dLon;
+            } else {
+                minLatitudes[f] = minLongitudes[f] = Double.POSITIVE_INFINITY;
+                maxLatitudes[f] = maxLongitudes[f] = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < fence.getVertexCount(); i++) {
+                    double lat = fence.getVertexLatitude(i);
+                    double lon = fence.getVertexLongitude(i);
+                    minLatitudes[f] = Math.min(minLatitudes[f], lat);
+                    maxLatitudes[f] = Math.max(maxLatitudes[f], lat);
+                    minLongitudes[f] = Math.min(minLongitudes[f], lon);
+                    maxLongitudes[f] = Math.max(maxLongitudes[f], lon);
+                    vertexX[vertexStart[f] + i] = (lon - longitude) * cos * METERS_PER_DEGREE;
+                    vertexY[vertexStart[f] + i] = (lat - latitude) * METERS_PER_DEGREE;
+                }
+            }
+            south = Math.min(south, minLatitudes[f]);
+            north = Math.max(north, maxLatitudes[f]);
+            west = Math.min(west, minLongitudes[f]);
+            east = Math.max(east, maxLongitudes[f]);
+        }
+        if (n == 0) {
+            south = north = west = east = 0;
+        }
+
+        double cos = Math.cos(Math.toRadians((south + north) / 2));
+        double height = Math.max(1e-9, north - south);
+        double width = Math.max(1e-9, (east - west) * cos);
+        int cells = Math.max(1, Math.min(MAX_CELLS, n / FENCES_PER_CELL));
+        columns = (int) Math.max(1, Math.min(cells, Math.round(Math.sqrt(cells * width / height))));
+        rows = Math.max(1, cells / columns);
+        gridLatitude = south;
+        gridLongitude = west;
+        cellHeight = Math.max(1e-9, north - south) / rows;
+        cellWidth = Math.max(1e-9, east - west) / columns;
+
+        cellStart = new int[rows * columns + 1];
+        for (int f = 0; f < n; f++) {
+            for (int r = row(minLatitudes[f]); r <= row(maxLatitudes[f]); r++) {
+                for (int c = column(minLongitudes[f]); c <= column(maxLongitudes[f]); c++) {
+                    cellStart[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        int[] next = Arrays.copyOf(cellStart, rows * columns);
+        cellFences = new int[cellStart[rows * columns]];
+        for (int f = 0; f < n; f++) {
+            for (int r = row(minLatitudes[f]); r <= row(maxLatitudes[f]); r++) {
+                for (int c = column(minLongitudes[f]); c <= column(maxLongitudes[f]); c++) {
+                    cellFences[next[r * columns + c]++] = f;
+                }
+            }
+        }
+
+        inside = new boolean[n];
+        recheckAt = new double[n];
+        insidePositions = new int[n];
+        insideFences = new int[n];
+        stamps = new int[n];
+    }
+
+    private int row(double latitude) {
+        return (int) Math.max(0, Math.min(rows - 1, (latitude - gridLatitude) / cellHeight));
+    }
+
+    private int column(double longitude) {
+        return (int) Math.max(0, Math.min(columns - 1, (longitude - gridLongitude) / cellWidth));
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return fences.length;
+    }
+
+    public Geofence get(int index) {
+        return fences[index];
+    }
+
+    public boolean isInside(int index) {
+        return inside[index];
+    }
+
+    /**
+     * @return number of fences containing the last position
+     */
+    public int getInsideCount() {
+        return insideCount;
+    }
+
+    /**
+     * Forgets the position without reporting exits; the next update enters the fences containing
+     * it, like a freshly registered geofence with an initial trigger.
+     */
+    public void reset() {
+        Arrays.fill(inside, false);
+        Arrays.fill(recheckAt, 0);
+        insideCount = 0;
+        odometer = 0;
+        hasPosition = false;
+    }
+
+    /**
+     * Moves to a new position and reports the fences entered and left to the listener.
+     *
+     * @return number of transitions
+     */
+    public int update(double latitude, double longitude) {
+        if (hasPosition) {
+            double dy = (latitude - lastLatitude) * METERS_PER_DEGREE;
+            double dx = (longitude - lastLongitude) * METERS_PER_DEGREE
+                    * Math.cos(Math.toRadians((latitude + lastLatitude) / 2));
+            odometer += Math.sqrt(dx * dx + dy * dy);
+        }
+        hasPosition = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+
+        int transitions = 0;
+        // backwards, since an exit moves the last entry into the current slot
+        for (int i = insideCount - 1; i >= 0; i--) {
+            if (test(insideFences[i], latitude, longitude)) {
+                transitions++;
+            }
+        }
+        if (latitude >= gridLatitude && latitude <= gridLatitude + rows * cellHeight
+                && longitude >= gridLongitude && longitude <= gridLongitude + columns * cellWidth) {
+            int cell = row(latitude) * columns + column(longitude);
+            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                if (test(cellFences[k], latitude, longitude)) {
+                    transitions++;
+                }
+            }
+        }
+        return transitions;
+    }
+
+    /**
+     * @return whether fence f changed state
+     */
+    private boolean test(int f, double latitude, double longitude) {
+        if (stamps[f] == generation) {
+            return false;
+        }
+        stamps[f] = generation;
+        if (odometer < recheckAt[f]) {
+            return false;
+        }
+        double x = (longitude - centerLongitudes[f]) * cosines[f] * METERS_PER_DEGREE;
+        double y = (latitude - centerLatitudes[f]) * METERS_PER_DEGREE;
+        boolean in;
+        double margin;
+        if (vertexStart[f] == vertexStart[f + 1]) {
+            double distance = Math.sqrt(x * x + y * y);
+            in = distance <= radii[f];
+            margin = Math.abs(distance - radii[f]);
+        } else if (latitude < minLatitudes[f] || latitude > maxLatitudes[f]
+                || longitude < minLongitudes[f] || longitude > maxLongitudes[f]) {
+            double dy = Math.max(0, Math.max(minLatitudes[f] - latitude, latitude - maxLatitudes[f]));
+            double dx = Math.max(0, Math.max(minLongitudes[f] - longitude, longitude - maxLongitudes[f]));
+            dy *= METERS_PER_DEGREE;
+            dx *= METERS_PER_DEGREE * cosines[f];
+            in = false;
+            margin = Math.sqrt(dx * dx + dy * dy);
+        } else {
+            in = false;
+            double squared = Double.POSITIVE_INFINITY;
+            int start = vertexStart[f];
+            int end = vertexStart[f + 1];
+            for (int i = start, j = end - 1; i < end; j = i++) {
+                double xi = vertexX[i];
+                double yi = vertexY[i];
+                double xj = vertexX[j];
+                double yj = vertexY[j];
+                if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                    in = !in;
+                }
+                double dx = xj - xi;
+                double dy = yj - yi;
+                double length = dx * dx + dy * dy;
+                double t = length > 0
+                        ? Math.max(0, Math.min(1, ((x - xi) * dx + (y - yi) * dy) / length)) : 0;
+                double px = xi + t * dx - x;
+                double py = yi + t * dy - y;
+                squared = Math.min(squared, px * px + py * py);
+            }
+            margin = Math.sqrt(squared);
+        }
+        recheckAt[f] = odometer + Math.max(0, margin * MARGIN_FACTOR - MARGIN_SLACK);
+        if (in == inside[f]) {
+            return false;
+        }
+        inside[f] = in;
+        if (in) {
+            insidePositions[f] = insideCount;
+            insideFences[insideCount++] = f;
+        } else {
+            int position = insidePositions[f];
+            int moved = insideFences[--insideCount];
+            insideFences[position] = moved;
+            insidePositions[moved] = position;
+        }
+        if (listener != null) {
+            listener.onGeofenceTransition(fences[f], in ? Geofence.TRANSITION_ENTER : Geofence.TRANSITION_EXIT);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+
+import java.util.Arrays;
+
+/**
+ * A* over the plain {@link RoadGraph}. The heuristic is the straight-line distance at the
+ * maximum speed of the graph, on an equirectangular projection scaled for the latitude farthest
+ * from the equator so that it never overestimates.
+ * <p>
+ * All search state lives in arrays sized to the graph that are invalidated by bumping a
+ * generation counter, so a query costs only the nodes it settles and allocates nothing but the
+ * resulting path.
+ */
+public class AStarRouter extends Router {
+
+    private static final double METERS_PER_E7 = Math.toRadians(1) * GeoUtils.EARTH_RADIUS / GraphFile.E7;
+    // absorbs the projection error and the rounding of the heuristic to whole milliseconds
+    private static final double HEURISTIC_MARGIN = 0.99;
+
+    private final RoadGraph graph;
+    private final double heuristicY;    // ms per 1e-7 degrees of latitude
+    private final double heuristicX;
+
+    private final int[] times;          // ms from the source
+    private final int[] parents;
+    private final int[] reached;        // generation in which the node was reached
+    private final int[] settled;
+    private int generation;
+    private final LongHeap heap = new LongHeap();
+    private int settledCount;
+    private int[] path = new int[0];
+
+    public AStarRouter(RoadGraph graph) {
+        super(graph);
+        this.graph = graph;
+        int n = graph.getNodeCount();
+        int maxLatitude = 0;
+        for (int node = 0; node < n; node++) {
+            maxLatitude = Math.max(maxLatitude, Math.abs(graph.getLatitudeE7(node)));
+        }
+        double msPerMeter = 1000.0 / graph.getMaxSpeed() * HEURISTIC_MARGIN;
+        heuristicY = METERS_PER_E7 * msPerMeter;
+        heuristicX = heuristicY * Math.cos(Math.toRadians(maxLatitude / GraphFile.E7));
+        times = new int[n];
+        parents = new int[n];
+        reached = new int[n];
+        settled = new int[n];
+    }
+
+    @Override
+    public int findPath(int source, int target) {
+        startSearch();
+        int targetLatitude = graph.getLatitudeE7(target);
+        int targetLongitude = graph.getLongitudeE7(target);
+        reach(source, 0, -1, targetLatitude, targetLongitude);
+        while (!heap.isEmpty()) {
+            int node = (int) heap.pop();
+            if (settled[node] == generation) {
+                continue;
+            }
+            settled[node] = generation;
+            settledCount++;
+            if (node == target) {
+                buildPath(target);
+                return times[target];
+            }
+            int time = times[node];
+            int end = graph.getFirstEdge(node + 1);
+            for (int edge = graph.getFirstEdge(node); edge < end; edge++) {
+                int next = graph.getTarget(edge);
+                if (settled[next] == generation) {
+                    continue;
+                }
+                int candidate = time + graph.getWeight(edge);
+                if (reached[next] != generation || candidate < times[next]) {
+                    reach(next, candidate, node, targetLatitude, targetLongitude);
+                }
+            }
+        }
+        path = new int[0];
+        return -1;
+    }
+
+    @Override
+    public int[] getPath() {
+        return path;
+    }
+
+    @Override
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    private void startSearch() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+        heap.clear();
+        settledCount = 0;
+    }
+
+    private void reach(int node, int time, int parent, int targetLatitude, int targetLongitude) {
+        reached[node] = generation;
+        times[node] = time;
+        parents[node] = parent;
+        double dy = (graph.getLatitudeE7(node) - targetLatitude) * heuristicY;
+        double dx = ((long) graph.getLongitudeE7(node) - targetLongitude) * heuristicX;
+        long estimate = time + (long) Math.sqrt(dx * dx + dy * dy);
+        heap.push(estimate << 32 | node);
+    }
+
+    private void buildPath(int target) {
+        int length = 0;
+        for (int node = target; node >= 0; node = parents[node]) {
+            length++;
+        }
+        path = new int[length];
+        for (int node = target; node >= 0; node = parents[node]) {
+            path[--length] = node;
+        }
+    }
+}
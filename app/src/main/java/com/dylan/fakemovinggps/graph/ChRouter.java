@@ -0,0 +1,217 @@
+package com.dylan.fakemovinggps.graph;
+
+import java.util.Arrays;
+
+/**
+ * Bidirectional Dijkstra over a {@link ContractionHierarchy}: the forward search from the source
+ * and the backward search from the target only follow edges to higher ranked nodes, and each
+ * stops once its queue cannot improve the best meeting point any more. Shortcuts on the result
+ * are unpacked into roads with an explicit stack.
+ */
+public class ChRouter extends Router {
+
+    private final ContractionHierarchy hierarchy;
+
+    private final int[] forwardTimes;
+    private final int[] forwardParents;     // forward table edge that reached the node, or -1
+    private final int[] forwardStamps;
+    private final int[] backwardTimes;
+    private final int[] backwardParents;    // backward table edge that reached the node, or -1
+    private final int[] backwardStamps;
+    private int generation;
+    private final LongHeap forwardHeap = new LongHeap();
+    private final LongHeap backwardHeap = new LongHeap();
+    private int settledCount;
+    private int best;
+    private int meeting;
+
+    private int[] path = new int[0];
+    private int[] stack = new int[96];      // from, to, middle triples
+
+    public ChRouter(ContractionHierarchy hierarchy) {
+        super(hierarchy.getGraph());
+        this.hierarchy = hierarchy;
+        int n = hierarchy.getGraph().getNodeCount();
+        forwardTimes = new int[n];
+        forwardParents = new int[n];
+        forwardStamps = new int[n];
+        backwardTimes = new int[n];
+        backwardParents = new int[n];
+        backwardStamps = new int[n];
+    }
+
+    public ContractionHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    @Override
+    public int findPath(int source, int target) {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(forwardStamps, 0);
+            Arrays.fill(backwardStamps, 0);
+            generation = 1;
+        }
+        forwardHeap.clear();
+        backwardHeap.clear();
+        settledCount = 0;
+        best = Integer.MAX_VALUE;
+        meeting = -1;
+        reachForward(source, 0, -1);
+        reachBackward(target, 0, -1);
+
+        ContractionHierarchy h = hierarchy;
+        while (true) {
+            long forwardMin = forwardHeap.isEmpty() ? Long.MAX_VALUE : forwardHeap.peek() >>> 32;
+            long backwardMin = backwardHeap.isEmpty() ? Long.MAX_VALUE : backwardHeap.peek() >>> 32;
+            if (Math.min(forwardMin, backwardMin) >= best) {
+                break;
+            }
+            if (forwardMin <= backwardMin) {
+                long top = forwardHeap.pop();
+                int node = (int) top;
+                int time = (int) (top >>> 32);
+                if (time > forwardTimes[node]) {
+                    continue;
+                }
+                settledCount++;
+                for (int e = h.forwardFirst[node]; e < h.forwardFirst[node + 1]; e++) {
+                    int next = h.forwardTargets[e];
+                    int candidate = time + h.forwardWeights[e];
+                    if (forwardStamps[next] != generation || candidate < forwardTimes[next]) {
+                        reachForward(next, candidate, e);
+                    }
+                }
+            } else {
+                long top = backwardHeap.pop();
+                int node = (int) top;
+                int time = (int) (top >>> 32);
+                if (time > backwardTimes[node]) {
+                    continue;
+                }
+                settledCount++;
+                for (int e = h.backwardFirst[node]; e < h.backwardFirst[node + 1]; e++) {
+                    int next = h.backwardSources[e];
+                    int candidate = time + h.backwardWeights[e];
+                    if (backwardStamps[next] != generation || candidate < backwardTimes[next]) {
+                        reachBackward(next, candidate, e);
+                    }
+                }
+            }
+        }
+        if (meeting < 0) {
+            path = new int[0];
+            return -1;
+        }
+        unpack(source, target);
+        return best;
+    }
+
+    @Override
+    public int[] getPath() {
+        return path;
+    }
+
+    @Override
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    private void reachForward(int node, int time, int edge) {
+        forwardStamps[node] = generation;
+        forwardTimes[node] = time;
+        forwardParents[node] = edge;
+        forwardHeap.push((long) time << 32 | node);
+        if (backwardStamps[node] == generation && time + backwardTimes[node] < best) {
+            best = time + backwardTimes[node];
+            meeting = node;
+        }
+    }
+
+    private void reachBackward(int node, int time, int edge) {
+        backwardStamps[node] = generation;
+        backwardTimes[node] = time;
+        backwardParents[node] = edge;
+        backwardHeap.push((long) time << 32 | node);
+        if (forwardStamps[node] == generation && time + forwardTimes[node] < best) {
+            best = time + forwardTimes[node];
+            meeting = node;
+        }
+    }
+
+    private void unpack(int source, int target) {
+        ContractionHierarchy h = hierarchy;
+        int length = 1;
+        path = new int[16];
+        path[0] = source;
+
+        // the upward half is walked from the meeting point back to the source, which leaves the
+        // edge leaving the source on top of the stack
+        int top = 0;
+        for (int node = meeting; node != source; ) {
+            int e = forwardParents[node];
+            int from = row(h.forwardFirst, e);
+            top = push(top, from, node, h.forwardMiddles[e]);
+            node = from;
+        }
+        length = drain(top, length);
+
+        for (int node = meeting; node != target; ) {
+            int e = backwardParents[node];
+            int to = row(h.backwardFirst, e);
+            length = drain(push(0, node, to, h.backwardMiddles[e]), length);
+            node = to;
+        }
+        path = Arrays.copyOf(path, length);
+    }
+
+    // unpacks the stacked edges, top first, appending their end nodes to the path
+    private int drain(int top, int length) {
+        ContractionHierarchy h = hierarchy;
+        while (top > 0) {
+            top -= 3;
+            int from = stack[top];
+            int to = stack[top + 1];
+            int middle = stack[top + 2];
+            if (middle < 0) {
+                if (length == path.length) {
+                    path = Arrays.copyOf(path, length * 2);
+                }
+                path[length++] = to;
+                continue;
+            }
+            // the middle node ranks below both ends: from -> middle is a backward edge at middle
+            // and middle -> to a forward edge of middle
+            int second = h.findForward(middle, to);
+            int first = h.findBackward(from, middle);
+            top = push(top, middle, to, h.forwardMiddles[second]);
+            top = push(top, from, middle, h.backwardMiddles[first]);
+        }
+        return length;
+    }
+
+    private int push(int top, int from, int to, int middle) {
+        if (top + 3 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = from;
+        stack[top + 1] = to;
+        stack[top + 2] = middle;
+        return top + 3;
+    }
+
+    // node whose row of a table contains edge e
+    private static int row(int[] first, int e) {
+        int low = 0;
+        int high = first.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (first[mid] <= e) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
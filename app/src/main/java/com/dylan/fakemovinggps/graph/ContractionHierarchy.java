@@ -0,0 +1,100 @@
+package com.dylan.fakemovinggps.graph;
+
+/**
+ * Contraction hierarchy over a {@link RoadGraph}: every node has a rank, and shortcuts were added
+ * while contracting nodes in rank order so that a fastest path always exists that first climbs
+ * and then descends in rank. {@link ChRouter} therefore only searches upward from both ends,
+ * which settles a few hundred nodes instead of a sizeable part of the graph.
+ * <p>
+ * Upward edges are kept in two row form tables: the forward table holds, per node, the edges to
+ * higher ranked targets; the backward table holds, per node, the edges arriving from higher
+ * ranked sources. Each edge records the contracted node it bypasses, or -1 for a road, so paths
+ * can be unpacked.
+ */
+public class ContractionHierarchy {
+
+    final RoadGraph graph;
+    final int[] ranks;
+
+    final int[] forwardFirst;
+    final int[] forwardTargets;
+    final int[] forwardWeights;
+    final int[] forwardMiddles;
+
+    final int[] backwardFirst;
+    final int[] backwardSources;
+    final int[] backwardWeights;
+    final int[] backwardMiddles;
+
+    private final int shortcutCount;
+
+    ContractionHierarchy(RoadGraph graph, int[] ranks, int[] forwardFirst, int[] forwardTargets,
+                         int[] forwardWeights, int[] forwardMiddles, int[] backwardFirst,
+                         int[] backwardSources, int[] backwardWeights, int[] backwardMiddles) {
+        this.graph = graph;
+        this.ranks = ranks;
+        this.forwardFirst = forwardFirst;
+        this.forwardTargets = forwardTargets;
+        this.forwardWeights = forwardWeights;
+        this.forwardMiddles = forwardMiddles;
+        this.backwardFirst = backwardFirst;
+        this.backwardSources = backwardSources;
+        this.backwardWeights = backwardWeights;
+        this.backwardMiddles = backwardMiddles;
+        int shortcuts = 0;
+        for (int middle : forwardMiddles) {
+            if (middle >= 0) {
+                shortcuts++;
+            }
+        }
+        for (int middle : backwardMiddles) {
+            if (middle >= 0) {
+                shortcuts++;
+            }
+        }
+        this.shortcutCount = shortcuts;
+    }
+
+    /**
+     * Contracts the whole graph; takes seconds for a city and is meant for a background thread.
+     *
+     * @throws InterruptedException if the calling thread is interrupted meanwhile
+     */
+    public static ContractionHierarchy build(RoadGraph graph) throws InterruptedException {
+        return new Contractor(graph).contract();
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    public int getShortcutCount() {
+        return shortcutCount;
+    }
+
+    /**
+     * @return index in the forward table of the cheapest edge {@code from -> to}, or -1
+     */
+    int findForward(int from, int to) {
+        int best = -1;
+        for (int e = forwardFirst[from]; e < forwardFirst[from + 1]; e++) {
+            if (forwardTargets[e] == to && (best < 0 || forwardWeights[e] < forwardWeights[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return index in the backward table of the cheapest edge {@code from -> to}, or -1
+     */
+    int findBackward(int from, int to) {
+        int best = -1;
+        for (int e = backwardFirst[to]; e < backwardFirst[to + 1]; e++) {
+            if (backwardSources[e] == from && (best < 0 || backwardWeights[e] < backwardWeights[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+}
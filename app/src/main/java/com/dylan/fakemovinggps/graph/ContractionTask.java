@@ -0,0 +1,47 @@
+package com.dylan.fakemovinggps.graph;
+
+import android.os.AsyncTask;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+
+/**
+ * Builds a {@link ContractionHierarchy} for a loaded graph in the background and hands back a
+ * {@link ChRouter}. Queries keep using the plain router until it is ready, so run it with
+ * {@link AsyncTask#THREAD_POOL_EXECUTOR} rather than the serial executor that
+ * {@link RoutingTask} uses.
+ */
+public class ContractionTask extends AsyncTask<RoadGraph, Void, ChRouter> {
+    private static final String TAG = ContractionTask.class.getSimpleName();
+
+    public interface Callback {
+        void onContracted(ChRouter router);
+    }
+
+    private final Callback callback;
+
+    public ContractionTask(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    protected ChRouter doInBackground(RoadGraph... graphs) {
+        try {
+            long start = System.nanoTime();
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graphs[0]);
+            DLog.d(TAG, "contracted " + graphs[0].getNodeCount() + " nodes with "
+                    + hierarchy.getShortcutCount() + " shortcuts in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            return new ChRouter(hierarchy);
+        } catch (InterruptedException e) {
+            DLog.d(TAG, "contraction cancelled");
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(ChRouter router) {
+        if (router != null) {
+            callback.onContracted(router);
+        }
+    }
+}
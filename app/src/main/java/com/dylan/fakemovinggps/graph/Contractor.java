@@ -0,0 +1,355 @@
+package com.dylan.fakemovinggps.graph;
+
+import java.util.Arrays;
+
+/**
+ * Builds a {@link ContractionHierarchy}. Nodes are contracted cheapest first, by edge difference
+ * plus the number of already contracted neighbors and the depth in the hierarchy, with priorities
+ * refreshed lazily when a node reaches the top of the queue. A shortcut is added unless a local
+ * witness search finds a path around the contracted node that is at least as fast; the search is
+ * capped, which only costs superfluous shortcuts, never correctness.
+ */
+final class Contractor {
+
+    private static final int WITNESS_SETTLE_LIMIT = 250;
+    // priorities only need an estimate, so the simulated contraction searches less
+    private static final int SIMULATED_SETTLE_LIMIT = 40;
+    private static final int PRIORITY_BIAS = 1 << 30;
+
+    private final RoadGraph graph;
+    private final int nodeCount;
+
+    // adjacency of the remaining graph including shortcuts
+    private final int[][] outTargets;
+    private final int[][] outWeights;
+    private final int[][] outMiddles;
+    private final int[] outCount;
+    private final int[][] inSources;
+    private final int[][] inWeights;
+    private final int[] inCount;
+
+    private final boolean[] contracted;
+    private final int[] contractedNeighbors;
+    private final int[] depth;
+    private final int[] priorities;
+
+    // upward edges emitted as nodes are contracted: node, other end, weight, middle
+    private int[] upward = new int[1024];
+    private int upwardCount;
+
+    // witness search
+    private final int[] distances;
+    private final int[] stamps;
+    private int generation;
+    private final int[] targetMarks;
+    private int targetMark;
+    private final LongHeap witnessHeap = new LongHeap();
+    private final LongHeap queue = new LongHeap();
+
+    Contractor(RoadGraph graph) {
+        this.graph = graph;
+        nodeCount = graph.getNodeCount();
+        outTargets = new int[nodeCount][];
+        outWeights = new int[nodeCount][];
+        outMiddles = new int[nodeCount][];
+        outCount = new int[nodeCount];
+        inSources = new int[nodeCount][];
+        inWeights = new int[nodeCount][];
+        inCount = new int[nodeCount];
+        contracted = new boolean[nodeCount];
+        contractedNeighbors = new int[nodeCount];
+        depth = new int[nodeCount];
+        priorities = new int[nodeCount];
+        distances = new int[nodeCount];
+        stamps = new int[nodeCount];
+        targetMarks = new int[nodeCount];
+
+        for (int node = 0; node < nodeCount; node++) {
+            int degree = graph.getFirstEdge(node + 1) - graph.getFirstEdge(node);
+            outTargets[node] = new int[Math.max(2, degree)];
+            outWeights[node] = new int[Math.max(2, degree)];
+            outMiddles[node] = new int[Math.max(2, degree)];
+            inSources[node] = new int[4];
+            inWeights[node] = new int[4];
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            for (int e = graph.getFirstEdge(node); e < graph.getFirstEdge(node + 1); e++) {
+                int target = graph.getTarget(e);
+                if (target != node) {
+                    addEdge(node, target, graph.getWeight(e), -1);
+                }
+            }
+        }
+    }
+
+    ContractionHierarchy contract() throws InterruptedException {
+        for (int node = 0; node < nodeCount; node++) {
+            priorities[node] = priority(node);
+            queue.push(entry(priorities[node], node));
+        }
+        int[] ranks = new int[nodeCount];
+        int rank = 0;
+        while (!queue.isEmpty()) {
+            long top = queue.pop();
+            int node = (int) top;
+            if (contracted[node] || (int) (top >>> 32) - PRIORITY_BIAS != priorities[node]) {
+                continue;
+            }
+            int priority = priority(node);
+            if (priority > priorities[node] && !queue.isEmpty()
+                    && priority > (int) (queue.peek() >>> 32) - PRIORITY_BIAS) {
+                priorities[node] = priority;
+                queue.push(entry(priority, node));
+                continue;
+            }
+            if ((rank & 1023) == 0 && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            shortcut(node, false);
+            contracted[node] = true;
+            ranks[node] = rank++;
+            detach(node);
+            updateNeighbors(node);
+        }
+        return build(ranks);
+    }
+
+    private static long entry(int priority, int node) {
+        return (long) (priority + PRIORITY_BIAS) << 32 | node;
+    }
+
+    /**
+     * Emits the edges between {@code node} and its remaining neighbors, which all rank higher, and
+     * unlinks it so later searches never see it.
+     */
+    private void detach(int node) {
+        for (int k = 0; k < outCount[node]; k++) {
+            int target = outTargets[node][k];
+            emit(node, target, outWeights[node][k], outMiddles[node][k]);
+            remove(inSources[target], inWeights[target], null, inCount, target, node);
+        }
+        for (int k = 0; k < inCount[node]; k++) {
+            int source = inSources[node][k];
+            // the middle of source -> node is kept in the out list of source
+            int middle = -1;
+            for (int j = 0; j < outCount[source]; j++) {
+                if (outTargets[source][j] == node) {
+                    middle = outMiddles[source][j];
+                }
+            }
+            emit(node, ~source, inWeights[node][k], middle);
+            remove(outTargets[source], outWeights[source], outMiddles[source], outCount, source, node);
+        }
+    }
+
+    // other >= 0 is a forward edge node -> other, ~other a backward edge other -> node
+    private void emit(int node, int other, int weight, int middle) {
+        if (upwardCount + 4 > upward.length) {
+            upward = Arrays.copyOf(upward, upward.length * 2);
+        }
+        upward[upwardCount++] = node;
+        upward[upwardCount++] = other;
+        upward[upwardCount++] = weight;
+        upward[upwardCount++] = middle;
+    }
+
+    private static void remove(int[] ends, int[] weights, int[] middles, int[] counts, int owner,
+                               int end) {
+        int count = counts[owner];
+        for (int k = 0; k < count; k++) {
+            if (ends[k] == end) {
+                count--;
+                ends[k] = ends[count];
+                weights[k] = weights[count];
+                if (middles != null) {
+                    middles[k] = middles[count];
+                }
+                counts[owner] = count;
+                return;
+            }
+        }
+    }
+
+    private void updateNeighbors(int node) {
+        for (int k = 0; k < outCount[node]; k++) {
+            touch(node, outTargets[node][k]);
+        }
+        for (int k = 0; k < inCount[node]; k++) {
+            touch(node, inSources[node][k]);
+        }
+    }
+
+    private void touch(int contractedNode, int neighbor) {
+        // only the cheap terms are updated here, the edge difference is redone when it is popped
+        int previous = contractedNeighbors[neighbor] + depth[neighbor];
+        contractedNeighbors[neighbor]++;
+        depth[neighbor] = Math.max(depth[neighbor], depth[contractedNode] + 1);
+        priorities[neighbor] += contractedNeighbors[neighbor] + depth[neighbor] - previous;
+        queue.push(entry(priorities[neighbor], neighbor));
+    }
+
+    private int priority(int node) {
+        int added = shortcut(node, true);
+        return 2 * (added - outCount[node] - inCount[node]) + contractedNeighbors[node] + depth[node];
+    }
+
+    /**
+     * Adds the shortcuts needed to contract {@code node}, or only counts them when simulating.
+     */
+    private int shortcut(int node, boolean simulate) {
+        int count = 0;
+        for (int i = 0; i < inCount[node]; i++) {
+            int source = inSources[node][i];
+            int inWeight = inWeights[node][i];
+            int maxCost = -1;
+            int targets = 0;
+            targetMark++;
+            for (int k = 0; k < outCount[node]; k++) {
+                int target = outTargets[node][k];
+                if (target != source) {
+                    maxCost = Math.max(maxCost, inWeight + outWeights[node][k]);
+                    targetMarks[target] = targetMark;
+                    targets++;
+                }
+            }
+            if (maxCost < 0) {
+                continue;
+            }
+            witnessSearch(source, node, maxCost, targets,
+                    simulate ? SIMULATED_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT);
+            for (int k = 0; k < outCount[node]; k++) {
+                int target = outTargets[node][k];
+                if (target == source) {
+                    continue;
+                }
+                int cost = inWeight + outWeights[node][k];
+                if (stamps[target] != generation || distances[target] > cost) {
+                    count++;
+                    if (!simulate) {
+                        addEdge(source, target, cost, node);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // Dijkstra from source over the remaining graph without via, up to maxCost or until all
+    // marked targets are settled
+    private void witnessSearch(int source, int via, int maxCost, int targets, int settleLimit) {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        witnessHeap.clear();
+        stamps[source] = generation;
+        distances[source] = 0;
+        witnessHeap.push(source);
+        int settled = 0;
+        while (!witnessHeap.isEmpty() && settled < settleLimit) {
+            long top = witnessHeap.pop();
+            int node = (int) top;
+            int distance = (int) (top >>> 32);
+            if (distance > distances[node]) {
+                continue;
+            }
+            if (distance > maxCost) {
+                break;
+            }
+            settled++;
+            if (targetMarks[node] == targetMark && --targets == 0) {
+                break;
+            }
+            for (int k = 0; k < outCount[node]; k++) {
+                int next = outTargets[node][k];
+                if (next == via) {
+                    continue;
+                }
+                int candidate = distance + outWeights[node][k];
+                if (stamps[next] != generation || candidate < distances[next]) {
+                    stamps[next] = generation;
+                    distances[next] = candidate;
+                    witnessHeap.push((long) candidate << 32 | next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds {@code from -> to}, or lowers the weight of an existing edge between them.
+     */
+    private void addEdge(int from, int to, int weight, int middle) {
+        for (int k = 0; k < outCount[from]; k++) {
+            if (outTargets[from][k] == to) {
+                if (weight < outWeights[from][k]) {
+                    outWeights[from][k] = weight;
+                    outMiddles[from][k] = middle;
+                    for (int j = 0; j < inCount[to]; j++) {
+                        if (inSources[to][j] == from) {
+                            inWeights[to][j] = weight;
+                        }
+                    }
+                }
+                return;
+            }
+        }
+        int k = outCount[from]++;
+        if (k == outTargets[from].length) {
+            outTargets[from] = Arrays.copyOf(outTargets[from], k * 2);
+            outWeights[from] = Arrays.copyOf(outWeights[from], k * 2);
+            outMiddles[from] = Arrays.copyOf(outMiddles[from], k * 2);
+        }
+        outTargets[from][k] = to;
+        outWeights[from][k] = weight;
+        outMiddles[from][k] = middle;
+        int j = inCount[to]++;
+        if (j == inSources[to].length) {
+            inSources[to] = Arrays.copyOf(inSources[to], j * 2);
+            inWeights[to] = Arrays.copyOf(inWeights[to], j * 2);
+        }
+        inSources[to][j] = from;
+        inWeights[to][j] = weight;
+    }
+
+    private ContractionHierarchy build(int[] ranks) {
+        int[] forwardFirst = new int[nodeCount + 1];
+        int[] backwardFirst = new int[nodeCount + 1];
+        for (int i = 0; i < upwardCount; i += 4) {
+            if (upward[i + 1] >= 0) {
+                forwardFirst[upward[i] + 1]++;
+            } else {
+                backwardFirst[upward[i] + 1]++;
+            }
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            forwardFirst[node + 1] += forwardFirst[node];
+            backwardFirst[node + 1] += backwardFirst[node];
+        }
+        int[] forwardTargets = new int[forwardFirst[nodeCount]];
+        int[] forwardWeights = new int[forwardTargets.length];
+        int[] forwardMiddles = new int[forwardTargets.length];
+        int[] backwardSources = new int[backwardFirst[nodeCount]];
+        int[] backwardWeights = new int[backwardSources.length];
+        int[] backwardMiddles = new int[backwardSources.length];
+        int[] forwardNext = Arrays.copyOf(forwardFirst, nodeCount);
+        int[] backwardNext = Arrays.copyOf(backwardFirst, nodeCount);
+        for (int i = 0; i < upwardCount; i += 4) {
+            int node = upward[i];
+            int other = upward[i + 1];
+            if (other >= 0) {
+                int slot = forwardNext[node]++;
+                forwardTargets[slot] = other;
+                forwardWeights[slot] = upward[i + 2];
+                forwardMiddles[slot] = upward[i + 3];
+            } else {
+                int slot = backwardNext[node]++;
+                backwardSources[slot] = ~other;
+                backwardWeights[slot] = upward[i + 2];
+                backwardMiddles[slot] = upward[i + 3];
+            }
+        }
+        return new ContractionHierarchy(graph, ranks, forwardFirst, forwardTargets, forwardWeights,
+                forwardMiddles, backwardFirst, backwardSources, backwardWeights, backwardMiddles);
+    }
+}
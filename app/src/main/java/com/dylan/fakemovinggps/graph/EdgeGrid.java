@@ -0,0 +1,152 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the edges of a {@link RoadGraph}, used to find the roads near a recorded
+ * fix. Every edge is listed in each cell its bounding box touches; a query collects the edges of
+ * the cells overlapping the search box once each, the caller measures the exact distances.
+ */
+class EdgeGrid {
+
+    private static final int EDGES_PER_CELL = 4;
+    private static final int MAX_CELLS = 1 << 22;
+    private static final double METERS_PER_E7 = Math.toRadians(1) * GeoUtils.EARTH_RADIUS / GraphFile.E7;
+
+    private final RoadGraph graph;
+    private final long minLatitude;     // 1e-7 degrees
+    private final long minLongitude;
+    private final long cellHeight;
+    private final long cellWidth;
+    private final int rows;
+    private final int columns;
+    private final int[] cellStart;
+    private final int[] cellEdges;
+
+    // query state
+    private final int[] stamps;
+    private int generation;
+    private int[] result = new int[64];
+
+    /**
+     * @param sources start node of every edge
+     */
+    EdgeGrid(RoadGraph graph, int[] sources) {
+        this.graph = graph;
+        int n = graph.getNodeCount();
+        int m = graph.getEdgeCount();
+        long south = Integer.MAX_VALUE;
+        long north = Integer.MIN_VALUE;
+        long west = Integer.MAX_VALUE;
+        long east = Integer.MIN_VALUE;
+        for (int node = 0; node < n; node++) {
+            south = Math.min(south, graph.getLatitudeE7(node));
+            north = Math.max(north, graph.getLatitudeE7(node));
+            west = Math.min(west, graph.getLongitudeE7(node));
+            east = Math.max(east, graph.getLongitudeE7(node));
+        }
+        if (n == 0) {
+            south = north = west = east = 0;
+        }
+        double cos = Math.cos(Math.toRadians((south + north) / 2.0 / GraphFile.E7));
+        double height = Math.max(1, north - south);
+        double width = Math.max(1, (east - west) * cos);
+        int cells = Math.max(1, Math.min(MAX_CELLS, m / EDGES_PER_CELL));
+        columns = (int) Math.max(1, Math.min(cells, Math.round(Math.sqrt(cells * width / height))));
+        rows = Math.max(1, cells / columns);
+        minLatitude = south;
+        minLongitude = west;
+        cellHeight = (north - south) / rows + 1;
+        cellWidth = (east - west) / columns + 1;
+
+        cellStart = new int[rows * columns + 1];
+        int[] box = new int[4];
+        for (int edge = 0; edge < m; edge++) {
+            bounds(sources[edge], graph.getTarget(edge), box);
+            for (int r = box[0]; r <= box[1]; r++) {
+                for (int c = box[2]; c <= box[3]; c++) {
+                    cellStart[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        int[] next = Arrays.copyOf(cellStart, rows * columns);
+        cellEdges = new int[cellStart[rows * columns]];
+        for (int edge = 0; edge < m; edge++) {
+            bounds(sources[edge], graph.getTarget(edge), box);
+            for (int r = box[0]; r <= box[1]; r++) {
+                for (int c = box[2]; c <= box[3]; c++) {
+                    cellEdges[next[r * columns + c]++] = edge;
+                }
+            }
+        }
+        stamps = new int[m];
+    }
+
+    // first and last row and column covered by the segment a-b
+    private void bounds(int a, int b, int[] box) {
+        box[0] = row(Math.min(graph.getLatitudeE7(a), graph.getLatitudeE7(b)));
+        box[1] = row(Math.max(graph.getLatitudeE7(a), graph.getLatitudeE7(b)));
+        box[2] = column(Math.min(graph.getLongitudeE7(a), graph.getLongitudeE7(b)));
+        box[3] = column(Math.max(graph.getLongitudeE7(a), graph.getLongitudeE7(b)));
+    }
+
+    private int row(long latitude) {
+        return (int) Math.max(0, Math.min(rows - 1, (latitude - minLatitude) / cellHeight));
+    }
+
+    private int column(long longitude) {
+        return (int) Math.max(0, Math.min(columns - 1, (longitude - minLongitude) / cellWidth));
+    }
+
+    /**
+     * Collects the edges whose cells overlap the box of {@code radius} meters around the
+     * coordinate; they are returned by {@link #getResult()}.
+     *
+     * @return number of edges found
+     */
+    int query(double latitude, double longitude, double radius) {
+        long dLat = (long) Math.ceil(radius / METERS_PER_E7);
+        long dLon = (long) Math.ceil(radius / (METERS_PER_E7 * Math.cos(Math.toRadians(latitude))));
+        long lat = Math.round(latitude * GraphFile.E7);
+        long lon = Math.round(longitude * GraphFile.E7);
+        int top = row(lat - dLat);
+        int bottom = row(lat + dLat);
+        int left = column(lon - dLon);
+        int right = column(lon + dLon);
+
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        int count = 0;
+        for (int r = top; r <= bottom; r++) {
+            for (int c = left; c <= right; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int edge = cellEdges[k];
+                    if (stamps[edge] == generation) {
+                        continue;
+                    }
+                    stamps[edge] = generation;
+                    if (count == result.length) {
+                        result = Arrays.copyOf(result, count * 2);
+                    }
+                    result[count++] = edge;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return edges of the last query, valid up to its count
+     */
+    int[] getResult() {
+        return result;
+    }
+}
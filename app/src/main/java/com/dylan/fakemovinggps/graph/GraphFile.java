@@ -0,0 +1,27 @@
+package com.dylan.fakemovinggps.graph;
+
+/**
+ * Layout of the binary road graph format read by {@link RoadGraph}. All values are little
+ * endian ints, so every section can be bulk-read straight into an array.
+ * <pre>
+ * header   magic, version, nodeCount, edgeCount (int), maxSpeed (float, m/s)
+ * nodes    latitudes, then longitudes (int[nodeCount], 1e-7 degrees)
+ * offsets  first outgoing edge of every node plus the total edge count (int[nodeCount + 1])
+ * edges    targets, then travel times (int[edgeCount], ms)
+ * </pre>
+ * Edges are sorted by source node (compressed sparse row). A two-way road is stored as two
+ * edges. {@code maxSpeed} bounds the speed on every edge, which keeps the A* heuristic of
+ * {@link Router} admissible.
+ */
+public class GraphFile {
+
+    public static final int MAGIC = 0x464D4747; // "FMGG"
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 5 * 4;
+
+    public static final double E7 = 1e7;
+
+    private GraphFile() {
+    }
+}
@@ -0,0 +1,70 @@
+package com.dylan.fakemovinggps.graph;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Loads a {@link GraphFile} picked by the user and prepares a {@link Router} for it off the main
+ * thread.
+ */
+public class GraphLoadTask extends AsyncTask<Uri, Void, Router> {
+    private static final String TAG = GraphLoadTask.class.getSimpleName();
+
+    public interface Callback {
+        void onGraphLoaded(Router router);
+
+        void onGraphFailed(IOException error);
+    }
+
+    private final ContentResolver contentResolver;
+    private final Callback callback;
+    private IOException error;
+
+    public GraphLoadTask(ContentResolver contentResolver, Callback callback) {
+        this.contentResolver = contentResolver;
+        this.callback = callback;
+    }
+
+    @Override
+    protected Router doInBackground(Uri... uris) {
+        try {
+            ParcelFileDescriptor descriptor = contentResolver.openFileDescriptor(uris[0], "r");
+            if (descriptor == null) {
+                throw new IOException("Cannot open " + uris[0]);
+            }
+            FileInputStream in = new FileInputStream(descriptor.getFileDescriptor());
+            try {
+                long start = System.nanoTime();
+                Router router = new AStarRouter(RoadGraph.read(in.getChannel()));
+                DLog.d(TAG, "loaded " + router.getGraph().getNodeCount() + " nodes and "
+                        + router.getGraph().getEdgeCount() + " edges in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+                return router;
+            } finally {
+                in.close();
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (SecurityException e) {
+            error = new IOException(e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @Override
+    protected void onPostExecute(Router router) {
+        if (router != null) {
+            callback.onGraphLoaded(router);
+        } else if (error != null) {
+            callback.onGraphFailed(error);
+        }
+    }
+}
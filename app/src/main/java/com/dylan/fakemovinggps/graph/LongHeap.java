@@ -0,0 +1,62 @@
+package com.dylan.fakemovinggps.graph;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of longs. The graph searches pack {@code (distance << 32) | node} into each
+ * entry, so the heap orders by distance without any objects and stale entries are skipped when
+ * popped instead of being decreased in place.
+ */
+final class LongHeap {
+
+    private long[] entries = new long[256];
+    private int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    long peek() {
+        return entries[0];
+    }
+
+    void push(long entry) {
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (entries[parent] <= entry) {
+                break;
+            }
+            entries[i] = entries[parent];
+            i = parent;
+        }
+        entries[i] = entry;
+    }
+
+    long pop() {
+        long top = entries[0];
+        long last = entries[--size];
+        int i = 0;
+        int half = size >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && entries[child + 1] < entries[child]) {
+                child++;
+            }
+            if (entries[child] >= last) {
+                break;
+            }
+            entries[i] = entries[child];
+            i = child;
+        }
+        entries[i] = last;
+        return top;
+    }
+}
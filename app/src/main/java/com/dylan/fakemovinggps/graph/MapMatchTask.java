@@ -0,0 +1,49 @@
+package com.dylan.fakemovinggps.graph;
+
+import android.os.AsyncTask;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.Route;
+
+/**
+ * Snaps a recorded or imported track onto a loaded graph with {@link MapMatcher}. Long tracks
+ * take a while, so run it with {@link AsyncTask#THREAD_POOL_EXECUTOR} to keep routing queries
+ * responsive; pass the track through {@link Route#view()}.
+ */
+public class MapMatchTask extends AsyncTask<Route, Void, Route> {
+    private static final String TAG = MapMatchTask.class.getSimpleName();
+
+    public interface Callback {
+        /**
+         * @param route the matched route, or null if the track is nowhere near the roads
+         */
+        void onRouteMatched(Route route);
+    }
+
+    private final RoadGraph graph;
+    private final Callback callback;
+
+    public MapMatchTask(RoadGraph graph, Callback callback) {
+        this.graph = graph;
+        this.callback = callback;
+    }
+
+    @Override
+    protected Route doInBackground(Route... tracks) {
+        try {
+            long start = System.nanoTime();
+            Route route = MapMatcher.match(graph, tracks[0], MapMatcher.DEFAULT_ACCURACY);
+            DLog.d(TAG, "matched " + tracks[0].size() + " points in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            return route;
+        } catch (InterruptedException e) {
+            DLog.d(TAG, "matching cancelled");
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Route route) {
+        callback.onRouteMatched(route);
+    }
+}
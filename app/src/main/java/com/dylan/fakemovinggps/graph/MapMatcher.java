@@ -0,0 +1,543 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+import com.dylan.fakemovinggps.route.Route;
+
+import java.util.Arrays;
+
+/**
+ * Snaps a noisy track onto a {@link RoadGraph} with a hidden Markov model solved by Viterbi, as
+ * described by Newson and Krumm: the hidden states of a fix are the points of the roads within
+ * the search radius, scored by their distance from the fix, and a transition between two fixes
+ * is scored by how much the driving distance differs from the straight line between them.
+ * <p>
+ * The matcher works in a single streaming pass. Only the last {@link #WINDOW} fixes are kept;
+ * as soon as the surviving paths agree on the state of the oldest fixes those are decided and
+ * passed to the {@link Callback}, together with the road geometry connecting them. A window
+ * that never converges is decided from its best path once full, which bounds memory regardless
+ * of the track length. Fixes without any road nearby are dropped, and the model restarts when
+ * no road connects two fixes.
+ * <p>
+ * Not thread-safe; the graph itself may be shared by several matchers.
+ */
+public class MapMatcher {
+
+    public static final double DEFAULT_ACCURACY = 10;   // meters, standard deviation of the fixes
+    public static final int WINDOW = 64;                // fixes
+
+    private static final int MAX_CANDIDATES = 8;
+    private static final double SEARCH_RADIUS_SIGMAS = 5;
+    private static final double MIN_SEARCH_RADIUS = 25; // meters
+    private static final double BETA = 5;               // meters, scale of the transition score
+    private static final double MAX_DETOUR = 2;         // driving distance over straight distance
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+    private static final double UNITS_PER_METER = 10;   // search distances are in decimeters
+
+    public interface Callback {
+        /**
+         * Receives the matched track in order: the snapped fixes and the road nodes between them.
+         */
+        void onMatchedPoint(double latitude, double longitude);
+    }
+
+    private final RoadGraph graph;
+    private final Callback callback;
+    private final double sigma;
+    private final double searchRadius;
+    private final int[] sources;
+    private final float[] lengths;
+    private final EdgeGrid grid;
+
+    // ring buffer of the undecided fixes, MAX_CANDIDATES slots per fix
+    private final double[] fixLatitudes = new double[WINDOW];
+    private final double[] fixLongitudes = new double[WINDOW];
+    private final double[] limits = new double[WINDOW];
+    private final int[] candidateCounts = new int[WINDOW];
+    private final int[] candidateEdges = new int[WINDOW * MAX_CANDIDATES];
+    private final double[] candidateFractions = new double[WINDOW * MAX_CANDIDATES];
+    private final double[] scores = new double[WINDOW * MAX_CANDIDATES];
+    private final int[] back = new int[WINDOW * MAX_CANDIDATES];
+    private final int[] decisions = new int[WINDOW];
+    private final boolean[] marks = new boolean[MAX_CANDIDATES];
+    private final boolean[] nextMarks = new boolean[MAX_CANDIDATES];
+    private int first;      // oldest undecided fix, counted from the start of the current chain
+    private int last = -1;  // newest fix
+
+    // candidates of the fix being added
+    private final int[] foundEdges = new int[MAX_CANDIDATES];
+    private final double[] foundFractions = new double[MAX_CANDIDATES];
+    private final double[] foundDistances = new double[MAX_CANDIDATES];
+    private final double[] foundScores = new double[MAX_CANDIDATES];
+    private final int[] foundBack = new int[MAX_CANDIDATES];
+    private int foundCount;
+
+    // last emitted state
+    private boolean hasEmitted;
+    private int emittedEdge;
+    private double emittedFraction;
+    private double emittedLatitude = Double.NaN;
+    private double emittedLongitude = Double.NaN;
+
+    // distance search
+    private final int[] distances;
+    private final int[] parents;
+    private final int[] stamps;
+    private int generation;
+    private final int[] targetMarks;
+    private int targetMark;
+    private final LongHeap heap = new LongHeap();
+    private int[] path = new int[64];
+
+    private long droppedCount;
+    private long breakCount;
+
+    public MapMatcher(RoadGraph graph, Callback callback) {
+        this(graph, DEFAULT_ACCURACY, callback);
+    }
+
+    /**
+     * @param accuracy standard deviation of the fix positions in meters
+     */
+    public MapMatcher(RoadGraph graph, double accuracy, Callback callback) {
+        this.graph = graph;
+        this.callback = callback;
+        this.sigma = accuracy;
+        this.searchRadius = Math.max(MIN_SEARCH_RADIUS, SEARCH_RADIUS_SIGMAS * accuracy);
+        int n = graph.getNodeCount();
+        int m = graph.getEdgeCount();
+        sources = new int[m];
+        lengths = new float[m];
+        for (int node = 0; node < n; node++) {
+            for (int e = graph.getFirstEdge(node); e < graph.getFirstEdge(node + 1); e++) {
+                int target = graph.getTarget(e);
+                sources[e] = node;
+                lengths[e] = (float) GeoUtils.distance(graph.getLatitude(node), graph.getLongitude(node),
+                        graph.getLatitude(target), graph.getLongitude(target));
+            }
+        }
+        grid = new EdgeGrid(graph, sources);
+        distances = new int[n];
+        parents = new int[n];
+        stamps = new int[n];
+        targetMarks = new int[n];
+    }
+
+    /**
+     * Matches a whole track and collects the result into a route played with the speed profile
+     * of the track.
+     *
+     * @return the matched route, or null if no fix is near a road
+     */
+    public static Route match(RoadGraph graph, Route track, double accuracy)
+            throws InterruptedException {
+        final Route.Builder builder = new Route.Builder(track.size())
+                .setSpeedProfile(track.getSpeedProfile());
+        MapMatcher matcher = new MapMatcher(graph, accuracy, new Callback() {
+            @Override
+            public void onMatchedPoint(double latitude, double longitude) {
+                builder.add(latitude, longitude);
+            }
+        });
+        for (int i = 0; i < track.size(); i++) {
+            if ((i & 1023) == 0 && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            matcher.add(track.getLatitude(i), track.getLongitude(i));
+        }
+        matcher.finish();
+        return builder.size() > 0 ? builder.build() : null;
+    }
+
+    /**
+     * Feeds the next fix of the track.
+     */
+    public void add(double latitude, double longitude) {
+        if (last >= 0 && GeoUtils.distance(fixLatitudes[slot(last)], fixLongitudes[slot(last)],
+                latitude, longitude) < 2 * sigma) {
+            // too close to tell the direction of travel, it would only add back and forth noise
+            return;
+        }
+        findCandidates(latitude, longitude);
+        if (foundCount == 0) {
+            droppedCount++;
+            return;
+        }
+        if (last >= 0) {
+            if (last - first + 1 == WINDOW) {
+                decideOldest();
+            }
+            if (!transition(latitude, longitude)) {
+                breakCount++;
+                flush();
+            }
+        }
+        if (last < 0) {
+            start(latitude, longitude);
+        }
+        converge();
+    }
+
+    /**
+     * Decides and emits the remaining fixes. The matcher can be reused for another track.
+     */
+    public void finish() {
+        flush();
+        hasEmitted = false;
+        emittedLatitude = Double.NaN;
+        emittedLongitude = Double.NaN;
+    }
+
+    /**
+     * @return fixes dropped because no road was within the search radius
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return times the model had to restart because no road connected two fixes
+     */
+    public long getBreakCount() {
+        return breakCount;
+    }
+
+    private static int slot(int step) {
+        return step % WINDOW;
+    }
+
+    private double emission(double distance) {
+        double z = distance / sigma;
+        return -0.5 * z * z;
+    }
+
+    // the closest road points within the search radius, nearest first
+    private void findCandidates(double latitude, double longitude) {
+        foundCount = 0;
+        int count = grid.query(latitude, longitude, searchRadius);
+        int[] edges = grid.getResult();
+        double cos = Math.cos(Math.toRadians(latitude));
+        for (int i = 0; i < count; i++) {
+            int edge = edges[i];
+            int a = sources[edge];
+            int b = graph.getTarget(edge);
+            double ax = (graph.getLongitude(a) - longitude) * cos * METERS_PER_DEGREE;
+            double ay = (graph.getLatitude(a) - latitude) * METERS_PER_DEGREE;
+            double dx = (graph.getLongitude(b) - longitude) * cos * METERS_PER_DEGREE - ax;
+            double dy = (graph.getLatitude(b) - latitude) * METERS_PER_DEGREE - ay;
+            double squared = dx * dx + dy * dy;
+            double t = squared > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / squared)) : 0;
+            double px = ax + t * dx;
+            double py = ay + t * dy;
+            double distance = Math.sqrt(px * px + py * py);
+            if (distance > searchRadius
+                    || (foundCount == MAX_CANDIDATES && distance >= foundDistances[foundCount - 1])) {
+                continue;
+            }
+            int k = Math.min(foundCount, MAX_CANDIDATES - 1);
+            while (k > 0 && foundDistances[k - 1] > distance) {
+                foundEdges[k] = foundEdges[k - 1];
+                foundFractions[k] = foundFractions[k - 1];
+                foundDistances[k] = foundDistances[k - 1];
+                k--;
+            }
+            foundEdges[k] = edge;
+            foundFractions[k] = t;
+            foundDistances[k] = distance;
+            foundCount = Math.min(MAX_CANDIDATES, foundCount + 1);
+        }
+    }
+
+    // first fix of a chain: only the emission scores count
+    private void start(double latitude, double longitude) {
+        first = 0;
+        last = 0;
+        store(0, latitude, longitude, 0);
+        for (int k = 0; k < foundCount; k++) {
+            scores[k] = emission(foundDistances[k]);
+            back[k] = -1;
+        }
+    }
+
+    private void store(int step, double latitude, double longitude, double limit) {
+        int slot = slot(step);
+        fixLatitudes[slot] = latitude;
+        fixLongitudes[slot] = longitude;
+        limits[slot] = limit;
+        candidateCounts[slot] = foundCount;
+        for (int k = 0; k < foundCount; k++) {
+            candidateEdges[slot * MAX_CANDIDATES + k] = foundEdges[k];
+            candidateFractions[slot * MAX_CANDIDATES + k] = foundFractions[k];
+        }
+    }
+
+    /**
+     * Viterbi step from the newest fix to the found candidates.
+     *
+     * @return false if no candidate can be reached from any surviving state
+     */
+    private boolean transition(double latitude, double longitude) {
+        int previous = slot(last);
+        double straight = GeoUtils.distance(fixLatitudes[previous], fixLongitudes[previous],
+                latitude, longitude);
+        double limit = MAX_DETOUR * straight + 2 * searchRadius;
+
+        int base = slot(last + 1) * MAX_CANDIDATES;
+        Arrays.fill(foundScores, Double.NEGATIVE_INFINITY);
+        for (int p = 0; p < candidateCounts[previous]; p++) {
+            double score = scores[previous * MAX_CANDIDATES + p];
+            if (score == Double.NEGATIVE_INFINITY) {
+                continue;
+            }
+            int fromEdge = candidateEdges[previous * MAX_CANDIDATES + p];
+            double fromFraction = candidateFractions[previous * MAX_CANDIDATES + p];
+            targetMark++;
+            int targets = 0;
+            for (int k = 0; k < foundCount; k++) {
+                int node = sources[foundEdges[k]];
+                if (targetMarks[node] != targetMark) {
+                    targetMarks[node] = targetMark;
+                    targets++;
+                }
+            }
+            search(fromEdge, fromFraction, limit, targets);
+            for (int k = 0; k < foundCount; k++) {
+                double driven = drivingDistance(fromEdge, fromFraction, foundEdges[k],
+                        foundFractions[k], limit);
+                if (driven < 0) {
+                    continue;
+                }
+                double candidate = score - Math.abs(driven - straight) / BETA;
+                if (candidate > foundScores[k]) {
+                    foundScores[k] = candidate;
+                    foundBack[k] = p;
+                }
+            }
+        }
+
+        double best = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < foundCount; k++) {
+            foundScores[k] += emission(foundDistances[k]);
+            best = Math.max(best, foundScores[k]);
+        }
+        if (best == Double.NEGATIVE_INFINITY) {
+            return false;
+        }
+        last++;
+        store(last, latitude, longitude, limit);
+        for (int k = 0; k < foundCount; k++) {
+            // keep the scores near zero over long tracks
+            scores[base + k] = foundScores[k] - best;
+            back[base + k] = foundBack[k];
+        }
+        return true;
+    }
+
+    /**
+     * @return meters driven from one road point to another, or -1 if the last search did not
+     * reach it within {@code limit}
+     */
+    private double drivingDistance(int fromEdge, double fromFraction, int toEdge, double toFraction,
+                                   double limit) {
+        if (isAhead(fromEdge, fromFraction, toEdge, toFraction)) {
+            return Math.max(0, toFraction - fromFraction) * lengths[fromEdge];
+        }
+        int node = sources[toEdge];
+        if (stamps[node] != generation || distances[node] > limit * UNITS_PER_METER) {
+            return -1;
+        }
+        return distances[node] / UNITS_PER_METER + toFraction * lengths[toEdge];
+    }
+
+    // Whether the second road point follows the first on the same edge. A fix projected slightly
+    // behind the previous one is noise, not a loop around the block.
+    private boolean isAhead(int fromEdge, double fromFraction, int toEdge, double toFraction) {
+        return fromEdge == toEdge && (fromFraction - toFraction) * lengths[fromEdge] <= 2 * sigma;
+    }
+
+    // Dijkstra by length from the end of fromEdge until the marked nodes are settled or the
+    // limit is exceeded
+    private void search(int fromEdge, double fromFraction, double limit, int targets) {
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamps, 0);
+            generation = 1;
+        }
+        int maxDistance = (int) (limit * UNITS_PER_METER);
+        int start = graph.getTarget(fromEdge);
+        heap.clear();
+        stamps[start] = generation;
+        distances[start] = (int) ((1 - fromFraction) * lengths[fromEdge] * UNITS_PER_METER);
+        parents[start] = -1;
+        heap.push((long) distances[start] << 32 | start);
+        while (!heap.isEmpty()) {
+            long top = heap.pop();
+            int node = (int) top;
+            int distance = (int) (top >>> 32);
+            if (distance > distances[node]) {
+                continue;
+            }
+            if (distance > maxDistance) {
+                break;
+            }
+            if (targetMarks[node] == targetMark) {
+                targetMarks[node] = 0;
+                if (--targets == 0) {
+                    break;
+                }
+            }
+            for (int e = graph.getFirstEdge(node); e < graph.getFirstEdge(node + 1); e++) {
+                int next = graph.getTarget(e);
+                int candidate = distance + (int) (lengths[e] * UNITS_PER_METER);
+                if (stamps[next] != generation || candidate < distances[next]) {
+                    stamps[next] = generation;
+                    distances[next] = candidate;
+                    parents[next] = node;
+                    heap.push((long) candidate << 32 | next);
+                }
+            }
+        }
+    }
+
+    // decides every fix whose state all surviving paths agree on
+    private void converge() {
+        int count = 0;
+        int only = -1;
+        int slot = slot(last);
+        for (int k = 0; k < candidateCounts[slot]; k++) {
+            marks[k] = scores[slot * MAX_CANDIDATES + k] != Double.NEGATIVE_INFINITY;
+            if (marks[k]) {
+                count++;
+                only = k;
+            }
+        }
+        for (int step = last; step >= first; step--) {
+            slot = slot(step);
+            if (count == 1) {
+                for (int k = 0; k < candidateCounts[slot]; k++) {
+                    if (marks[k]) {
+                        only = k;
+                    }
+                }
+                decide(step, only);
+                return;
+            }
+            if (step == first) {
+                return;
+            }
+            Arrays.fill(nextMarks, false);
+            count = 0;
+            for (int k = 0; k < candidateCounts[slot]; k++) {
+                int p = back[slot * MAX_CANDIDATES + k];
+                if (marks[k] && !nextMarks[p]) {
+                    nextMarks[p] = true;
+                    count++;
+                }
+            }
+            System.arraycopy(nextMarks, 0, marks, 0, MAX_CANDIDATES);
+        }
+    }
+
+    // the window is full without converging: settle the oldest fix on the current best path
+    private void decideOldest() {
+        decide(first, trace(bestCandidate(), first));
+    }
+
+    // decides everything left on the best path and ends the chain
+    private void flush() {
+        if (last >= 0) {
+            decide(last, bestCandidate());
+        }
+        first = 0;
+        last = -1;
+    }
+
+    private int bestCandidate() {
+        int slot = slot(last);
+        int best = 0;
+        for (int k = 1; k < candidateCounts[slot]; k++) {
+            if (scores[slot * MAX_CANDIDATES + k] > scores[slot * MAX_CANDIDATES + best]) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    // state at {@code step} on the path ending in candidate k of the newest fix
+    private int trace(int k, int step) {
+        for (int s = last; s > step; s--) {
+            k = back[slot(s) * MAX_CANDIDATES + k];
+        }
+        return k;
+    }
+
+    /**
+     * Emits the fixes from the oldest undecided one to {@code step}, which is in state k, and
+     * drops the paths that disagree with the decision.
+     */
+    private void decide(int step, int k) {
+        for (int s = step; s >= first; s--) {
+            decisions[slot(s)] = k;
+            k = back[slot(s) * MAX_CANDIDATES + k];
+        }
+        for (int s = first; s <= step; s++) {
+            int index = slot(s) * MAX_CANDIDATES + decisions[slot(s)];
+            emit(s, candidateEdges[index], candidateFractions[index]);
+        }
+        int slot = slot(step);
+        for (int c = 0; c < candidateCounts[slot]; c++) {
+            if (c != decisions[slot]) {
+                scores[slot * MAX_CANDIDATES + c] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        for (int s = step + 1; s <= last; s++) {
+            int previous = slot(s - 1);
+            slot = slot(s);
+            for (int c = 0; c < candidateCounts[slot]; c++) {
+                int p = back[slot * MAX_CANDIDATES + c];
+                if (scores[previous * MAX_CANDIDATES + p] == Double.NEGATIVE_INFINITY) {
+                    scores[slot * MAX_CANDIDATES + c] = Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+        first = step + 1;
+    }
+
+    private void emit(int step, int edge, double fraction) {
+        if (hasEmitted && step > 0 && isAhead(emittedEdge, emittedFraction, edge, fraction)) {
+            fraction = Math.max(fraction, emittedFraction);
+        } else if (hasEmitted && step > 0) {
+            // the road between the previous decision and this one
+            targetMark++;
+            targetMarks[sources[edge]] = targetMark;
+            search(emittedEdge, emittedFraction, limits[slot(step)], 1);
+            int node = sources[edge];
+            if (stamps[node] == generation
+                    && distances[node] <= limits[slot(step)] * UNITS_PER_METER) {
+                int length = 0;
+                for (; node >= 0; node = parents[node]) {
+                    if (length == path.length) {
+                        path = Arrays.copyOf(path, length * 2);
+                    }
+                    path[length++] = node;
+                }
+                for (int i = length - 1; i >= 0; i--) {
+                    output(graph.getLatitude(path[i]), graph.getLongitude(path[i]));
+                }
+            }
+        }
+        int a = sources[edge];
+        int b = graph.getTarget(edge);
+        output(graph.getLatitude(a) + fraction * (graph.getLatitude(b) - graph.getLatitude(a)),
+                graph.getLongitude(a) + fraction * (graph.getLongitude(b) - graph.getLongitude(a)));
+        hasEmitted = true;
+        emittedEdge = edge;
+        emittedFraction = fraction;
+    }
+
+    private void output(double latitude, double longitude) {
+        if (latitude != emittedLatitude || longitude != emittedLongitude) {
+            callback.onMatchedPoint(latitude, longitude);
+            emittedLatitude = latitude;
+            emittedLongitude = longitude;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+
+/**
+ * Uniform grid over the nodes of a {@link RoadGraph}, used to snap a tapped coordinate to the
+ * closest node. Cells are sized for a handful of nodes each and stored in row form like the
+ * graph itself; a lookup scans rings of cells around the query until no closer node can exist.
+ */
+class NodeGrid {
+
+    private static final int NODES_PER_CELL = 4;
+    private static final int MAX_CELLS = 1 << 22;
+    private static final double METERS_PER_E7 = Math.toRadians(1) * GeoUtils.EARTH_RADIUS / GraphFile.E7;
+
+    private final RoadGraph graph;
+    private final long minLatitude;     // 1e-7 degrees
+    private final long minLongitude;
+    private final long cellHeight;
+    private final long cellWidth;
+    private final int rows;
+    private final int columns;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+
+    NodeGrid(RoadGraph graph) {
+        this.graph = graph;
+        int n = graph.getNodeCount();
+        long south = Integer.MAX_VALUE;
+        long north = Integer.MIN_VALUE;
+        long west = Integer.MAX_VALUE;
+        long east = Integer.MIN_VALUE;
+        for (int node = 0; node < n; node++) {
+            south = Math.min(south, graph.getLatitudeE7(node));
+            north = Math.max(north, graph.getLatitudeE7(node));
+            west = Math.min(west, graph.getLongitudeE7(node));
+            east = Math.max(east, graph.getLongitudeE7(node));
+        }
+        if (n == 0) {
+            south = north = west = east = 0;
+        }
+        double cos = Math.cos(Math.toRadians((south + north) / 2.0 / GraphFile.E7));
+        double height = Math.max(1, north - south);
+        double width = Math.max(1, (east - west) * cos);
+        int cells = Math.max(1, Math.min(MAX_CELLS, n / NODES_PER_CELL));
+        columns = (int) Math.max(1, Math.min(cells, Math.round(Math.sqrt(cells * width / height))));
+        rows = Math.max(1, cells / columns);
+        minLatitude = south;
+        minLongitude = west;
+        cellHeight = (north - south) / rows + 1;
+        cellWidth = (east - west) / columns + 1;
+
+        cellStart = new int[rows * columns + 1];
+        int[] cellOf = new int[n];
+        for (int node = 0; node < n; node++) {
+            int cell = row(graph.getLatitudeE7(node)) * columns + column(graph.getLongitudeE7(node));
+            cellOf[node] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int cell = 0; cell < rows * columns; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        int[] next = new int[rows * columns];
+        System.arraycopy(cellStart, 0, next, 0, next.length);
+        cellNodes = new int[n];
+        for (int node = 0; node < n; node++) {
+            cellNodes[next[cellOf[node]]++] = node;
+        }
+    }
+
+    private int row(long latitude) {
+        return (int) Math.max(0, Math.min(rows - 1, (latitude - minLatitude) / cellHeight));
+    }
+
+    private int column(long longitude) {
+        return (int) Math.max(0, Math.min(columns - 1, (longitude - minLongitude) / cellWidth));
+    }
+
+    /**
+     * @param maxDistance meters
+     * @return the node closest to the coordinate within {@code maxDistance}, or -1
+     */
+    int nearest(double latitude, double longitude, double maxDistance) {
+        long lat = Math.round(latitude * GraphFile.E7);
+        long lon = Math.round(longitude * GraphFile.E7);
+        double metersY = METERS_PER_E7;
+        double metersX = METERS_PER_E7 * Math.cos(Math.toRadians(latitude));
+        double ringStep = Math.min(cellHeight * metersY, cellWidth * metersX);
+        int centerRow = row(lat);
+        int centerColumn = column(lon);
+        int maxRing = Math.max(rows, columns);
+
+        int best = -1;
+        double bestSquared = maxDistance * maxDistance;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // every cell of this ring is at least (ring - 1) cells away from the query
+            double bound = (ring - 1) * ringStep;
+            if (ring > 1 && bound * bound > bestSquared) {
+                break;
+            }
+            int top = centerRow - ring;
+            int bottom = centerRow + ring;
+            for (int r = Math.max(0, top); r <= Math.min(rows - 1, bottom); r++) {
+                boolean edgeRow = r == top || r == bottom;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = centerColumn - ring; c <= centerColumn + ring; c += Math.max(1, step)) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int node = cellNodes[k];
+                        double dy = (graph.getLatitudeE7(node) - lat) * metersY;
+                        double dx = (graph.getLongitudeE7(node) - lon) * metersX;
+                        double squared = dx * dx + dy * dy;
+                        if (squared < bestSquared) {
+                            bestSquared = squared;
+                            best = node;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,261 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Directed road graph in compressed sparse row form: the outgoing edges of node {@code n} are
+ * {@code getFirstEdge(n) .. getFirstEdge(n + 1) - 1}. Everything lives in six int arrays, so a
+ * city graph of a few hundred thousand nodes takes a few megabytes and the router touches no
+ * objects while searching.
+ */
+public class RoadGraph {
+
+    private final int[] latitudes;      // 1e-7 degrees
+    private final int[] longitudes;
+    private final int[] firstEdge;
+    private final int[] targets;
+    private final int[] weights;        // ms
+    private final float maxSpeed;       // m/s
+
+    RoadGraph(int[] latitudes, int[] longitudes, int[] firstEdge, int[] targets, int[] weights,
+              float maxSpeed) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstEdge = firstEdge;
+        this.targets = targets;
+        this.weights = weights;
+        this.maxSpeed = maxSpeed;
+    }
+
+    public static RoadGraph read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return read(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a {@link GraphFile} from the start of {@code channel}; the channel is not closed.
+     */
+    public static RoadGraph read(FileChannel channel) throws IOException {
+        if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("Graph file too large: " + channel.size());
+        }
+        return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    public static RoadGraph read(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < GraphFile.HEADER_SIZE || buffer.getInt(0) != GraphFile.MAGIC) {
+            throw new IOException("Not a graph file");
+        }
+        int version = buffer.getInt(4);
+        if (version != GraphFile.VERSION) {
+            throw new IOException("Unsupported graph version " + version);
+        }
+        int nodeCount = buffer.getInt(8);
+        int edgeCount = buffer.getInt(12);
+        float maxSpeed = buffer.getFloat(16);
+        long expected = GraphFile.HEADER_SIZE + 4L * (3L * nodeCount + 1 + 2L * edgeCount);
+        if (nodeCount < 0 || edgeCount < 0 || !(maxSpeed > 0) || buffer.capacity() < expected) {
+            throw new IOException("Corrupt graph header");
+        }
+        ByteBuffer body = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        body.position(GraphFile.HEADER_SIZE);
+        IntBuffer ints = body.asIntBuffer();
+        int[] latitudes = new int[nodeCount];
+        int[] longitudes = new int[nodeCount];
+        int[] firstEdge = new int[nodeCount + 1];
+        int[] targets = new int[edgeCount];
+        int[] weights = new int[edgeCount];
+        ints.get(latitudes);
+        ints.get(longitudes);
+        ints.get(firstEdge);
+        ints.get(targets);
+        ints.get(weights);
+
+        if (firstEdge[0] != 0 || firstEdge[nodeCount] != edgeCount) {
+            throw new IOException("Corrupt edge offsets");
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (firstEdge[node] > firstEdge[node + 1]) {
+                throw new IOException("Corrupt edge offsets");
+            }
+        }
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (targets[edge] < 0 || targets[edge] >= nodeCount || weights[edge] < 0) {
+                throw new IOException("Corrupt edge " + edge);
+            }
+        }
+        return new RoadGraph(latitudes, longitudes, firstEdge, targets, weights, maxSpeed);
+    }
+
+    public int getNodeCount() {
+        return latitudes.length;
+    }
+
+    public int getEdgeCount() {
+        return targets.length;
+    }
+
+    public double getLatitude(int node) {
+        return latitudes[node] / GraphFile.E7;
+    }
+
+    public double getLongitude(int node) {
+        return longitudes[node] / GraphFile.E7;
+    }
+
+    int getLatitudeE7(int node) {
+        return latitudes[node];
+    }
+
+    int getLongitudeE7(int node) {
+        return longitudes[node];
+    }
+
+    public int getFirstEdge(int node) {
+        return firstEdge[node];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    /**
+     * @return travel time along {@code edge} in ms
+     */
+    public int getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @return upper bound of the speed on any edge in m/s
+     */
+    public float getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Writes the graph in the {@link GraphFile} format.
+     */
+    public void write(File file) throws IOException {
+        int nodeCount = getNodeCount();
+        int edgeCount = getEdgeCount();
+        ByteBuffer buffer = ByteBuffer.allocate(GraphFile.HEADER_SIZE
+                + 4 * (3 * nodeCount + 1 + 2 * edgeCount)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(GraphFile.MAGIC);
+        buffer.putInt(GraphFile.VERSION);
+        buffer.putInt(nodeCount);
+        buffer.putInt(edgeCount);
+        buffer.putFloat(maxSpeed);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(latitudes);
+        ints.put(longitudes);
+        ints.put(firstEdge);
+        ints.put(targets);
+        ints.put(weights);
+        buffer.clear();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Collects nodes and edges in any order and sorts the edges into row form.
+     */
+    public static class Builder {
+        private int[] latitudes = new int[16];
+        private int[] longitudes = new int[16];
+        private int nodeCount;
+        private int[] sources = new int[16];
+        private int[] targets = new int[16];
+        private int[] weights = new int[16];
+        private int edgeCount;
+        private float maxSpeed;
+
+        /**
+         * @return id of the new node
+         */
+        public int addNode(double latitude, double longitude) {
+            if (nodeCount == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, nodeCount * 2);
+                longitudes = Arrays.copyOf(longitudes, nodeCount * 2);
+            }
+            latitudes[nodeCount] = (int) Math.round(latitude * GraphFile.E7);
+            longitudes[nodeCount] = (int) Math.round(longitude * GraphFile.E7);
+            return nodeCount++;
+        }
+
+        /**
+         * Adds a one-way road; its travel time is the length between the two nodes at
+         * {@code speed}, rounded up to the millisecond.
+         *
+         * @param speed m/s
+         */
+        public Builder addEdge(int from, int to, double speed) {
+            if (!(speed > 0)) {
+                throw new IllegalArgumentException("Speed must be positive");
+            }
+            double length = GeoUtils.distance(latitudes[from] / GraphFile.E7,
+                    longitudes[from] / GraphFile.E7, latitudes[to] / GraphFile.E7,
+                    longitudes[to] / GraphFile.E7);
+            int weight = (int) Math.max(1, Math.ceil(length / speed * 1000));
+            maxSpeed = Math.max(maxSpeed, (float) speed);
+            if (edgeCount == sources.length) {
+                sources = Arrays.copyOf(sources, edgeCount * 2);
+                targets = Arrays.copyOf(targets, edgeCount * 2);
+                weights = Arrays.copyOf(weights, edgeCount * 2);
+            }
+            sources[edgeCount] = from;
+            targets[edgeCount] = to;
+            weights[edgeCount] = weight;
+            edgeCount++;
+            return this;
+        }
+
+        public Builder addRoad(int a, int b, double speed) {
+            return addEdge(a, b, speed).addEdge(b, a, speed);
+        }
+
+        public RoadGraph build() {
+            int[] firstEdge = new int[nodeCount + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                firstEdge[sources[e] + 1]++;
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                firstEdge[node + 1] += firstEdge[node];
+            }
+            int[] next = Arrays.copyOf(firstEdge, nodeCount);
+            int[] sortedTargets = new int[edgeCount];
+            int[] sortedWeights = new int[edgeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                int slot = next[sources[e]]++;
+                sortedTargets[slot] = targets[e];
+                sortedWeights[slot] = weights[e];
+            }
+            return new RoadGraph(Arrays.copyOf(latitudes, nodeCount),
+                    Arrays.copyOf(longitudes, nodeCount), firstEdge, sortedTargets, sortedWeights,
+                    edgeCount == 0 ? 1 : maxSpeed);
+        }
+    }
+}
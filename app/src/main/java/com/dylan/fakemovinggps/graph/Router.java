@@ -0,0 +1,70 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+/**
+ * Fastest-path search over a {@link RoadGraph}: {@link AStarRouter} works on the plain graph,
+ * {@link ChRouter} on a {@link ContractionHierarchy} built from it. A router keeps its search
+ * state between queries and is not thread-safe; use one per thread.
+ */
+public abstract class Router {
+
+    private final RoadGraph graph;
+    private final NodeGrid grid;
+
+    Router(RoadGraph graph) {
+        this.graph = graph;
+        this.grid = new NodeGrid(graph);
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param maxDistance meters
+     * @return the node closest to the coordinate within {@code maxDistance}, or -1
+     */
+    public int nearestNode(double latitude, double longitude, double maxDistance) {
+        return grid.nearest(latitude, longitude, maxDistance);
+    }
+
+    /**
+     * Finds the fastest path between the nodes closest to two coordinates and plays it with
+     * {@code speedProfile}.
+     *
+     * @param maxSnapDistance how far in meters a coordinate may be from the road network
+     * @return the route, or null if a coordinate is off the network or no path exists
+     */
+    public Route route(double fromLatitude, double fromLongitude, double toLatitude,
+                       double toLongitude, double maxSnapDistance, SpeedProfile speedProfile) {
+        int source = nearestNode(fromLatitude, fromLongitude, maxSnapDistance);
+        int target = nearestNode(toLatitude, toLongitude, maxSnapDistance);
+        if (source < 0 || target < 0 || findPath(source, target) < 0) {
+            return null;
+        }
+        int[] path = getPath();
+        Route.Builder builder = new Route.Builder(path.length).setSpeedProfile(speedProfile);
+        for (int node : path) {
+            builder.add(graph.getLatitude(node), graph.getLongitude(node));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return travel time of the fastest path in ms, or -1 if {@code target} is unreachable
+     * @see #getPath()
+     */
+    public abstract int findPath(int source, int target);
+
+    /**
+     * @return nodes of the last path found, source first
+     */
+    public abstract int[] getPath();
+
+    /**
+     * @return nodes settled by the last search, a measure of its cost
+     */
+    public abstract int getSettledCount();
+}
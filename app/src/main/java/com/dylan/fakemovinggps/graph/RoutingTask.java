@@ -0,0 +1,58 @@
+package com.dylan.fakemovinggps.graph;
+
+import android.os.AsyncTask;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+/**
+ * Runs a single {@link Router} query off the main thread. Tasks share the default serial
+ * executor, so queries on the same router never overlap.
+ */
+public class RoutingTask extends AsyncTask<Void, Void, Route> {
+    private static final String TAG = RoutingTask.class.getSimpleName();
+
+    public static final double MAX_SNAP_DISTANCE = 500; // meters
+
+    public interface Callback {
+        /**
+         * @param route the fastest route, or null if no road connects the two points
+         */
+        void onRouteFound(Route route);
+    }
+
+    private final Router router;
+    private final double fromLatitude;
+    private final double fromLongitude;
+    private final double toLatitude;
+    private final double toLongitude;
+    private final SpeedProfile speedProfile;
+    private final Callback callback;
+
+    public RoutingTask(Router router, double fromLatitude, double fromLongitude, double toLatitude,
+                       double toLongitude, SpeedProfile speedProfile, Callback callback) {
+        this.router = router;
+        this.fromLatitude = fromLatitude;
+        this.fromLongitude = fromLongitude;
+        this.toLatitude = toLatitude;
+        this.toLongitude = toLongitude;
+        this.speedProfile = speedProfile;
+        this.callback = callback;
+    }
+
+    @Override
+    protected Route doInBackground(Void... params) {
+        long start = System.nanoTime();
+        Route route = router.route(fromLatitude, fromLongitude, toLatitude, toLongitude,
+                MAX_SNAP_DISTANCE, speedProfile);
+        DLog.d(TAG, "settled " + router.getSettledCount() + " nodes in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        return route;
+    }
+
+    @Override
+    protected void onPostExecute(Route route) {
+        callback.onRouteFound(route);
+    }
+}
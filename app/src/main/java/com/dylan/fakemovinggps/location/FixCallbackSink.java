@@ -0,0 +1,223 @@
+package com.dylan.fakemovinggps.location;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.MockFix;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards the emitted fixes to the {@link IFixCallback}s of other processes in batches, so a
+ * client at 50 Hz gets a few binder transactions per second instead of one per tick. The tick
+ * thread only copies each fix into the pending batch of every callback; a delivery thread sends
+ * a batch once it is full or has waited for the callback's maximum delay.
+ */
+public class FixCallbackSink implements FixSink {
+    private static final String TAG = FixCallbackSink.class.getSimpleName();
+
+    // 36 bytes per fix, the largest batch stays far below the oneway transaction buffer
+    public static final int MAX_BATCH_SIZE = 1024;
+
+    private final CopyOnWriteArrayList<Batcher> mBatchers = new CopyOnWriteArrayList<>();
+    private HandlerThread mDeliveryThread;
+    private Handler mDeliveryHandler;
+
+    /**
+     * @param batchSize      fixes per batch, clamped to [1, {@link #MAX_BATCH_SIZE}]
+     * @param maxDelayMillis longest a fix waits for its batch to fill up
+     */
+    public synchronized void register(IFixCallback callback, int batchSize, long maxDelayMillis) {
+        unregister(callback);
+        if (mDeliveryThread == null) {
+            mDeliveryThread = new HandlerThread(TAG);
+            mDeliveryThread.start();
+            mDeliveryHandler = new Handler(mDeliveryThread.getLooper());
+        }
+        Batcher batcher = new Batcher(callback, Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE)),
+                Math.max(0, maxDelayMillis), mDeliveryHandler);
+        try {
+            callback.asBinder().linkToDeath(batcher, 0);
+        } catch (RemoteException e) {
+            // already dead
+            return;
+        }
+        mBatchers.add(batcher);
+    }
+
+    public synchronized void unregister(IFixCallback callback) {
+        IBinder binder = callback.asBinder();
+        for (Batcher batcher : mBatchers) {
+            if (batcher.callback.asBinder() == binder) {
+                remove(batcher);
+            }
+        }
+    }
+
+    private synchronized void remove(Batcher batcher) {
+        if (mBatchers.remove(batcher)) {
+            batcher.callback.asBinder().unlinkToDeath(batcher, 0);
+            batcher.handler.removeCallbacks(batcher);
+        }
+    }
+
+    /**
+     * Drops every callback and stops the delivery thread.
+     */
+    public synchronized void release() {
+        for (Batcher batcher : mBatchers) {
+            remove(batcher);
+        }
+        if (mDeliveryThread != null) {
+            mDeliveryThread.quit();
+            mDeliveryThread = null;
+            mDeliveryHandler = null;
+        }
+    }
+
+    @Override
+    public void start() {
+    }
+
+    /**
+     * Sends the pending fixes right away, clients get the last fixes of a run without waiting.
+     */
+    @Override
+    public void shutdown() {
+        for (Batcher batcher : mBatchers) {
+            batcher.flush();
+        }
+    }
+
+    @Override
+    public void emit(MockFix fix) {
+        for (Batcher batcher : mBatchers) {
+            batcher.add(fix);
+        }
+    }
+
+    // Double buffered: the tick thread fills the pending arrays under the lock, the delivery
+    // thread swaps them for the sent ones and marshals those outside of it.
+    private final class Batcher implements Runnable, IBinder.DeathRecipient {
+        final IFixCallback callback;
+        final int capacity;
+        final long maxDelayMillis;
+        final Handler handler;
+
+        private double[] latitudes;
+        private double[] longitudes;
+        private float[] speeds;
+        private float[] bearings;
+        private float[] accuracies;
+        private long[] times;
+        private int count;
+        private int dropped;
+
+        private double[] sentLatitudes;
+        private double[] sentLongitudes;
+        private float[] sentSpeeds;
+        private float[] sentBearings;
+        private float[] sentAccuracies;
+        private long[] sentTimes;
+
+        Batcher(IFixCallback callback, int capacity, long maxDelayMillis, Handler handler) {
+            this.callback = callback;
+            this.capacity = capacity;
+            this.maxDelayMillis = maxDelayMillis;
+            this.handler = handler;
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            speeds = new float[capacity];
+            bearings = new float[capacity];
+            accuracies = new float[capacity];
+            times = new long[capacity];
+            sentLatitudes = new double[capacity];
+            sentLongitudes = new double[capacity];
+            sentSpeeds = new float[capacity];
+            sentBearings = new float[capacity];
+            sentAccuracies = new float[capacity];
+            sentTimes = new long[capacity];
+        }
+
+        synchronized void add(MockFix fix) {
+            if (count == capacity) {
+                // the delivery thread has not picked up the full batch yet
+                dropped++;
+                return;
+            }
+            latitudes[count] = fix.latitude;
+            longitudes[count] = fix.longitude;
+            speeds[count] = fix.speed;
+            bearings[count] = fix.bearing;
+            accuracies[count] = fix.accuracy;
+            times[count] = fix.time;
+            count++;
+            if (count == capacity) {
+                flush();
+            } else if (count == 1) {
+                handler.postDelayed(this, maxDelayMillis);
+            }
+        }
+
+        synchronized void flush() {
+            handler.removeCallbacks(this);
+            if (count > 0) {
+                handler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int size;
+            int missed;
+            synchronized (this) {
+                size = count;
+                if (size == 0) {
+                    return;
+                }
+                double[] d = latitudes;
+                latitudes = sentLatitudes;
+                sentLatitudes = d;
+                d = longitudes;
+                longitudes = sentLongitudes;
+                sentLongitudes = d;
+                float[] f = speeds;
+                speeds = sentSpeeds;
+                sentSpeeds = f;
+                f = bearings;
+                bearings = sentBearings;
+                sentBearings = f;
+                f = accuracies;
+                accuracies = sentAccuracies;
+                sentAccuracies = f;
+                long[] l = times;
+                times = sentTimes;
+                sentTimes = l;
+                missed = dropped;
+                count = 0;
+                dropped = 0;
+            }
+            try {
+                if (size == capacity) {
+                    callback.onFixes(sentLatitudes, sentLongitudes, sentSpeeds, sentBearings,
+                            sentAccuracies, sentTimes, missed);
+                } else {
+                    callback.onFixes(Arrays.copyOf(sentLatitudes, size), Arrays.copyOf(sentLongitudes, size),
+                            Arrays.copyOf(sentSpeeds, size), Arrays.copyOf(sentBearings, size),
+                            Arrays.copyOf(sentAccuracies, size), Arrays.copyOf(sentTimes, size), missed);
+                }
+            } catch (RemoteException e) {
+                DLog.e(TAG, "cannot deliver " + size + " fixes", e);
+            }
+        }
+
+        @Override
+        public void binderDied() {
+            remove(this);
+        }
+    }
+}
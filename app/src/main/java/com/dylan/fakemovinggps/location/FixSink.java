@@ -0,0 +1,23 @@
+package com.dylan.fakemovinggps.location;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+/**
+ * Destination for simulated fixes. The players compute one {@link MockFix} per tick and hand the
+ * same instance to every sink on their playback thread, so a sink copies what it needs before
+ * {@link #emit(MockFix)} returns and must not allocate while doing so.
+ */
+public interface FixSink {
+
+    /**
+     * Called before a playback starts emitting.
+     */
+    void start();
+
+    void emit(MockFix fix);
+
+    /**
+     * Called after the players stopped emitting.
+     */
+    void shutdown();
+}
@@ -4,7 +4,6 @@ import android.Manifest;
 import android.content.Context;
 import android.location.Location;
 import android.os.Looper;
-import android.os.SystemClock;
 import android.support.annotation.RequiresPermission;
 
 import com.dylan.fakemovinggps.core.util.DLog;
@@ -14,9 +13,14 @@ import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 
-public class FusedLocationClientHelper {
+public class FusedLocationClientHelper extends MockLocationSink {
     private static final String TAG = FusedLocationClientHelper.class.getSimpleName();
 
+    public static final String FUSED_PROVIDER = "fused";
+    // setMockLocation parcels the Location later on the client's thread: a second of fixes at
+    // the highest tick rate before one is overwritten
+    private static final int LOCATION_RING_SIZE = TickScheduler.MAX_RATE;
+
     private final FusedLocationProviderClient fusedLocationClient;
     private MockLocationListener listener;
 
@@ -33,6 +37,7 @@ public class FusedLocationClientHelper {
     };
 
     public FusedLocationClientHelper(Context context, MockLocationListener listener) {
+        super(FUSED_PROVIDER, LOCATION_RING_SIZE);
         this.fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
         this.listener = listener;
     }
@@ -56,6 +61,7 @@ public class FusedLocationClientHelper {
             anyOf = {Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_FINE_LOCATION}
     )
     @SuppressWarnings("MissingPermission")
+    @Override
     public void start() {
         DLog.d(TAG, "start");
         fusedLocationClient.setMockMode(true);
@@ -65,27 +71,16 @@ public class FusedLocationClientHelper {
             anyOf = {Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_FINE_LOCATION}
     )
     @SuppressWarnings("MissingPermission")
-    public void setMockLocation(String locationProvider) {
-        DLog.d(TAG, "setMockLocation");
-        Location mockLocation = new Location(locationProvider);
-        mockLocation.setLatitude(1.2797677);
-        mockLocation.setLongitude(103.8459285);
-        mockLocation.setAltitude(0);
-        mockLocation.setTime(System.currentTimeMillis());
-        mockLocation.setAccuracy(1);
-        mockLocation.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
-
-        fusedLocationClient.setMockLocation(mockLocation);
-    }
-
-    public void clearMockLocation() {
-        // TODO
+    @Override
+    protected void setMockLocation(Location location) {
+        fusedLocationClient.setMockLocation(location);
     }
 
     @RequiresPermission(
             anyOf = {Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_FINE_LOCATION}
     )
     @SuppressWarnings("MissingPermission")
+    @Override
     public void shutdown() {
         DLog.d(TAG, "shutdown");
         fusedLocationClient.setMockMode(false);
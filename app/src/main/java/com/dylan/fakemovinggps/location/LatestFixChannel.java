@@ -0,0 +1,122 @@
+package com.dylan.fakemovinggps.location;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands the position being emitted to the UI of the same process. Only the latest fix is kept:
+ * a fix published before the UI read the previous one replaces it, so the player can tick at any
+ * rate while the UI does at most one update per wake-up.
+ * <p>
+ * One producer thread publishes and one consumer thread reads. The fix goes through a triple
+ * buffer, so neither side allocates, locks or waits for the other. Another thread may take over
+ * publishing only once the previous producer is known to have stopped, e.g. after joining it.
+ */
+public class LatestFixChannel {
+
+    public interface Listener {
+        /**
+         * Called on the consumer thread. The fix is only valid during the call.
+         */
+        void onLatestFix(MockFix fix);
+    }
+
+    /**
+     * Gets the consumer thread to run the drain task. Called on the producer thread, at most once
+     * until the task has started.
+     */
+    public interface Waker {
+        void wake(Runnable drain);
+    }
+
+    private static final class Slot {
+        final MockFix fix = new MockFix();
+        boolean fresh;
+    }
+
+    private final Waker waker;
+    private final AtomicReference<Slot> middle = new AtomicReference<>(new Slot());
+    private final AtomicBoolean awake = new AtomicBoolean();
+    private Slot producerSlot = new Slot();
+    private Slot consumerSlot = new Slot();
+    private volatile Listener listener;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            // cleared first, a fix published from here on wakes the consumer again
+            awake.set(false);
+            consumerSlot = middle.getAndSet(consumerSlot);
+            if (!consumerSlot.fresh) {
+                return;
+            }
+            consumerSlot.fresh = false;
+            Listener l = listener;
+            if (l != null) {
+                l.onLatestFix(consumerSlot.fix);
+            }
+        }
+    };
+
+    public LatestFixChannel(Waker waker) {
+        this.waker = waker;
+    }
+
+    /**
+     * @param listener receives the latest fix after each wake-up, or null to stop. Set it on the
+     *                 consumer thread; a new listener gets the last fix published.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null && awake.compareAndSet(false, true)) {
+            waker.wake(drain);
+        }
+    }
+
+    /**
+     * Called on the producer thread, copies the fix.
+     */
+    public void publish(MockFix fix) {
+        producerSlot.fix.set(fix);
+        producerSlot.fresh = true;
+        producerSlot = middle.getAndSet(producerSlot);
+        if (listener != null && awake.compareAndSet(false, true)) {
+            waker.wake(drain);
+        }
+    }
+
+    /**
+     * Drains the channel on the next frame of the main thread: however fast fixes come in, the
+     * main looper gets one message and one frame callback per frame at most.
+     */
+    public static class FrameWaker implements Waker {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private volatile Runnable drain;
+
+        private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                drain.run();
+            }
+        };
+
+        private final Runnable nextFrame = new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(frameCallback);
+            }
+        };
+
+        @Override
+        public void wake(Runnable drain) {
+            this.drain = drain;
+            handler.post(nextFrame);
+        }
+    }
+}
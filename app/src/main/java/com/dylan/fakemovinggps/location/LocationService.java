@@ -1,27 +1,70 @@
 package com.dylan.fakemovinggps.location;
 
+import android.app.Activity;
 import android.app.Service;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.location.Location;
 import android.location.LocationManager;
+import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.ResultReceiver;
 import android.support.annotation.Nullable;
 import android.support.v7.app.NotificationCompat;
 
 import com.dylan.fakemovinggps.R;
+import com.dylan.fakemovinggps.control.ControlServer;
 import com.dylan.fakemovinggps.core.permission.PermissionUtil;
 import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.geofence.Geofence;
+import com.dylan.fakemovinggps.geofence.GeofenceEngine;
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.NoiseModel;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SegmentIndex;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+import com.dylan.fakemovinggps.track.MappedRoute;
+import com.dylan.fakemovinggps.track.Polyline;
+import com.dylan.fakemovinggps.track.RouteFileWriter;
 import com.dylan.fakemovinggps.util.Constant;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class LocationService extends Service implements MockLocationListener {
     private static final String TAG = LocationService.class.getSimpleName();
 
     private LocationBinder binder = new LocationBinder();
 
+    private static final double DEFAULT_LATITUDE = 1.2797677;
+    private static final double DEFAULT_LONGITUDE = 103.8459285;
+    private static final float NETWORK_ACCURACY = 20; // meters
+
     private MockLocationManager mMockLocationManager;
+    private MockLocationManager mNetworkMockLocationManager;
+    private FusedLocationClientHelper mFusedLocationClientHelper;
+    private FixSink[] mSinks;
+    private volatile Route mRoute;
+    private volatile SegmentIndex mSegmentIndex;
+    private ExecutorService mIndexExecutor;
+    private RoutePlayer mRoutePlayer;
+    private NmeaPlayer mNmeaPlayer;
+    private Uri mNmeaLog;
+    private TrackRecorder mTrackRecorder;
+    private Handler mMainHandler;
+    private volatile ControlServer mControlServer;
+    private FixCallbackSink mFixCallbackSink;
+    private final LatestFixChannel mFixChannel = new LatestFixChannel(new LatestFixChannel.FrameWaker());
 
     public boolean isMockLocationRunning = false;
 
@@ -37,6 +80,19 @@ public class LocationService extends Service implements MockLocationListener {
         super.onCreate();
 
         mMockLocationManager = new MockLocationManager(getApplicationContext(), LocationManager.GPS_PROVIDER, this);
+        mNetworkMockLocationManager = new MockLocationManager(getApplicationContext(), LocationManager.NETWORK_PROVIDER, null);
+        mNetworkMockLocationManager.setAccuracy(NETWORK_ACCURACY);
+        mFusedLocationClientHelper = new FusedLocationClientHelper(getApplicationContext(), null);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mFixCallbackSink = new FixCallbackSink();
+        mSinks = new FixSink[]{
+                mMockLocationManager, mNetworkMockLocationManager, mFusedLocationClientHelper,
+                new ControlServerSink(), mFixCallbackSink, new FixChannelSink()};
+        mRoutePlayer = new RoutePlayer(mSinks);
+        mIndexExecutor = Executors.newSingleThreadExecutor();
+        setRoute(Route.single(DEFAULT_LATITUDE, DEFAULT_LONGITUDE));
+        mNmeaPlayer = new NmeaPlayer(mSinks);
+        mTrackRecorder = new TrackRecorder();
 
         registerForLocationUpdates();
     }
@@ -51,16 +107,104 @@ public class LocationService extends Service implements MockLocationListener {
                 case Constant.Action.ACTION_STOP_FAKING_LOCATION:
                     processStopFakingLocation(intent);
                     break;
+                case Constant.Action.ACTION_START_RECORDING:
+                    startRecording();
+                    break;
+                case Constant.Action.ACTION_STOP_RECORDING:
+                    stopRecording();
+                    break;
+                case Constant.Action.ACTION_START_CONTROL_SERVER:
+                    processStartControlServer(intent);
+                    break;
+                case Constant.Action.ACTION_STOP_CONTROL_SERVER:
+                    stopControlServer();
+                    break;
             }
         }
         return START_NOT_STICKY;
     }
 
     private void processStartFakingLocation(Intent intent) {
+        String routeFile = intent.getStringExtra(Constant.Extra.EXTRA_ROUTE_FILE);
+        String encodedRoute = intent.getStringExtra(Constant.Extra.EXTRA_ROUTE);
+        if (routeFile != null) {
+            try {
+                File file = resolveIngestedFile(routeFile);
+                if (file != null) {
+                    openRouteFile(file);
+                } else {
+                    DLog.e(TAG, "ignoring route file outside the ingest directory: " + routeFile);
+                }
+            } catch (IOException e) {
+                DLog.e(TAG, "cannot open route file " + routeFile, e);
+            }
+        } else if (encodedRoute != null) {
+            try {
+                int precision = intent.getIntExtra(Constant.Extra.EXTRA_ROUTE_PRECISION,
+                        Polyline.DEFAULT_PRECISION);
+                double speed = intent.getDoubleExtra(Constant.Extra.EXTRA_SPEED, Route.DEFAULT_SPEED);
+                setRoute(Polyline.decode(encodedRoute, precision, SpeedProfile.of(speed)));
+            } catch (IllegalArgumentException e) {
+                DLog.e(TAG, "invalid route extra", e);
+            }
+        }
+        if (intent.hasExtra(Constant.Extra.EXTRA_RATE)) {
+            setRate(intent.getIntExtra(Constant.Extra.EXTRA_RATE, RoutePlayer.DEFAULT_RATE));
+        }
+        String policy = intent.getStringExtra(Constant.Extra.EXTRA_MISSED_TICK_POLICY);
+        if (policy != null) {
+            try {
+                setMissedTickPolicy(TickScheduler.MissedTickPolicy.valueOf(policy));
+            } catch (IllegalArgumentException e) {
+                DLog.e(TAG, "ignoring unknown missed tick policy " + policy);
+            }
+        }
+        if (intent.hasExtra(Constant.Extra.EXTRA_NOISE_SEED)) {
+            setNoiseModel(readNoiseModel(intent));
+        }
+        startFaking();
+    }
+
+    private static NoiseModel readNoiseModel(Intent intent) {
+        NoiseModel model = new NoiseModel(intent.getLongExtra(Constant.Extra.EXTRA_NOISE_SEED, 0))
+                .setDrift(intent.getDoubleExtra(Constant.Extra.EXTRA_NOISE_DRIFT_SIGMA,
+                        NoiseModel.DEFAULT_DRIFT_SIGMA),
+                        intent.getDoubleExtra(Constant.Extra.EXTRA_NOISE_DRIFT_TAU,
+                                NoiseModel.DEFAULT_DRIFT_TAU))
+                .setAccuracyJitter(intent.getDoubleExtra(Constant.Extra.EXTRA_NOISE_ACCURACY_JITTER,
+                        NoiseModel.DEFAULT_ACCURACY_JITTER))
+                .setMultipath(intent.getDoubleExtra(Constant.Extra.EXTRA_NOISE_MULTIPATH_RATE,
+                        NoiseModel.DEFAULT_MULTIPATH_RATE),
+                        intent.getDoubleExtra(Constant.Extra.EXTRA_NOISE_MULTIPATH_OFFSET,
+                                NoiseModel.DEFAULT_MULTIPATH_OFFSET));
+        // the constructor drew the initial drift with the default sigma
+        model.reset();
+        return model;
+    }
+
+    private void processStartControlServer(Intent intent) {
+        String token = startControlServer(intent.getIntExtra(Constant.Extra.EXTRA_PORT, ControlServer.DEFAULT_PORT));
+        ResultReceiver receiver = intent.getParcelableExtra(Constant.Extra.EXTRA_RESULT_RECEIVER);
+        if (receiver != null) {
+            Bundle result = new Bundle();
+            if (token != null) {
+                result.putString(Constant.Extra.EXTRA_CONTROL_TOKEN, token);
+                result.putInt(Constant.Extra.EXTRA_PORT, mControlServer.getPort());
+            }
+            receiver.send(token != null ? Activity.RESULT_OK : Activity.RESULT_CANCELED, result);
+        }
+    }
+
+    private boolean startFaking() {
+        if (isMockLocationRunning) {
+            return true;
+        }
         if (startMockLocation()) {
             showNotification();
             sendBroadcast(Constant.Callback.START_FAKING_LOCATION_SUCCESSFULLY);
+            return true;
         }
+        return false;
     }
 
     private void processStopFakingLocation(Intent intent) {
@@ -70,8 +214,24 @@ public class LocationService extends Service implements MockLocationListener {
     @Override
     public void onDestroy() {
         DLog.d(TAG, "onDestroy");
+        stopControlServer();
         stopMockLocation();
         unregisterForLocationUpdates();
+        if (mRoutePlayer != null) {
+            mRoutePlayer.release();
+        }
+        if (mNmeaPlayer != null) {
+            mNmeaPlayer.stop();
+        }
+        if (mTrackRecorder != null) {
+            mTrackRecorder.release();
+        }
+        if (mIndexExecutor != null) {
+            mIndexExecutor.shutdownNow();
+        }
+        if (mFixCallbackSink != null) {
+            mFixCallbackSink.release();
+        }
         super.onDestroy();
     }
 
@@ -88,24 +248,328 @@ public class LocationService extends Service implements MockLocationListener {
         }
     }
 
+    /**
+     * Starts streaming the fixes received from the real provider into a new track file.
+     *
+     * @return the track file
+     */
+    public File startRecording() {
+        File directory = new File(getFilesDir(), Constant.TRACK_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            DLog.e(TAG, "cannot create " + directory);
+            return null;
+        }
+        File file = new File(directory, "track-" + System.currentTimeMillis() + Constant.TRACK_EXTENSION);
+        mTrackRecorder.start(file);
+        return file;
+    }
+
+    public void stopRecording() {
+        mTrackRecorder.stop();
+    }
+
+    public boolean isRecording() {
+        return mTrackRecorder != null && mTrackRecorder.isRecording();
+    }
+
     public boolean startMockLocation() {
+        int started = 0;
         try {
-            if (mMockLocationManager != null) {
-                mMockLocationManager.start();
-                mMockLocationManager.setMockLocation();
+            if (mSinks != null) {
+                for (FixSink sink : mSinks) {
+                    sink.start();
+                    started++;
+                }
+                if (mNmeaLog == null || !startNmeaPlayer()) {
+                    mRoutePlayer.start();
+                }
             }
         } catch (SecurityException e) {
             e.printStackTrace();
+            shutdownSinks(started);
             sendBroadcast(Constant.Callback.REQUEST_ALLOW_MOCK_LOCATIONS_APPS);
             return false;
         } catch (IllegalArgumentException e) {
             e.printStackTrace();
+            shutdownSinks(started);
             return false;
         }
         isMockLocationRunning = true;
         return true;
     }
 
+    // undoes a partial start, so no test provider is left behind for the next attempt
+    private void shutdownSinks(int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                mSinks[i].shutdown();
+            } catch (SecurityException | IllegalArgumentException e) {
+                DLog.e(TAG, "cannot shut down " + mSinks[i].getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the route being played. Takes effect immediately if faking is running.
+     */
+    public void setRoute(Route route) {
+        mRoute = route;
+        buildSegmentIndex(route);
+        if (mRoutePlayer != null) {
+            mRoutePlayer.setRoute(route);
+            if (mNmeaLog != null) {
+                mNmeaLog = null;
+                mNmeaPlayer.stop();
+                if (isMockLocationRunning) {
+                    mRoutePlayer.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the route last passed to {@link #setRoute(Route)}; read it on another thread than
+     * the player only through {@link Route#view()}
+     */
+    public Route getRoute() {
+        return mRoute;
+    }
+
+    /**
+     * @return the spatial index of the current route, or null while it is still being built
+     */
+    public SegmentIndex getSegmentIndex() {
+        return mSegmentIndex;
+    }
+
+    private void buildSegmentIndex(final Route route) {
+        mSegmentIndex = null;
+        if (mIndexExecutor == null) {
+            return;
+        }
+        final Route view = route.view();
+        mIndexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mRoute != route) {
+                    return;
+                }
+                long start = System.nanoTime();
+                SegmentIndex index = SegmentIndex.build(view);
+                DLog.d(TAG, "indexed " + route.size() + " points in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+                if (mRoute == route) {
+                    mSegmentIndex = index;
+                }
+            }
+        });
+    }
+
+    /**
+     * Replays a raw NMEA log with its original timing instead of a route, until
+     * {@link #setRoute(Route)} is called. Takes effect immediately if faking is running.
+     */
+    public void playNmeaLog(Uri log) {
+        mNmeaLog = log;
+        if (isMockLocationRunning) {
+            mRoutePlayer.stop();
+            if (!startNmeaPlayer()) {
+                mRoutePlayer.start();
+            }
+        }
+    }
+
+    private boolean startNmeaPlayer() {
+        try {
+            InputStream in = getContentResolver().openInputStream(mNmeaLog);
+            if (in == null) {
+                throw new IOException("no content");
+            }
+            mNmeaPlayer.start(in);
+            return true;
+        } catch (IOException e) {
+            DLog.e(TAG, "cannot open NMEA log " + mNmeaLog, e);
+            mNmeaLog = null;
+            return false;
+        }
+    }
+
+    /**
+     * Memory-maps a route file written by {@link RouteFileWriter} and plays it. Only the chunk
+     * being played is decoded, so the file size does not matter.
+     */
+    public void openRouteFile(File file) throws IOException {
+        setRoute(MappedRoute.open(file));
+    }
+
+    /**
+     * @return the file at {@code path} if it was written by {@link RouteIngestProvider}, null
+     * for any other path, including ones that lead out of its directory through ".." or links
+     */
+    private File resolveIngestedFile(String path) throws IOException {
+        File directory = RouteIngestProvider.getIngestDirectory(this).getCanonicalFile();
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(directory, path);
+        }
+        file = file.getCanonicalFile();
+        return directory.equals(file.getParentFile()) ? file : null;
+    }
+
+    /**
+     * @param hz fixes per second of the route playback, clamped to
+     *           [{@link TickScheduler#MIN_RATE}, {@link TickScheduler#MAX_RATE}]. Takes effect
+     *           immediately if faking is running.
+     */
+    public void setRate(int hz) {
+        if (mRoutePlayer != null) {
+            mRoutePlayer.setRate(hz);
+        }
+    }
+
+    public void setMissedTickPolicy(TickScheduler.MissedTickPolicy policy) {
+        if (mRoutePlayer != null) {
+            mRoutePlayer.setMissedTickPolicy(policy);
+        }
+    }
+
+    /**
+     * @param noiseModel error model for the simulated fixes, or null for exact positions. Fixes
+     *                   are exact until a model is set.
+     */
+    public void setNoiseModel(NoiseModel noiseModel) {
+        if (mRoutePlayer != null) {
+            mRoutePlayer.setNoiseModel(noiseModel);
+        }
+    }
+
+    /**
+     * Reports every fence the simulated position enters or leaves with a
+     * {@link Constant.Callback#GEOFENCE_TRANSITION} broadcast, so the events can be compared with
+     * the ones the app under test receives.
+     *
+     * @param fences the fences to evaluate, or null to stop evaluating
+     */
+    public void setGeofences(Collection<Geofence> fences) {
+        if (mRoutePlayer == null) {
+            return;
+        }
+        if (fences == null) {
+            mRoutePlayer.setGeofences(null);
+            return;
+        }
+        GeofenceEngine engine = new GeofenceEngine(fences);
+        engine.setListener(new GeofenceEngine.Listener() {
+            @Override
+            public void onGeofenceTransition(Geofence fence, int transition) {
+                DLog.d(TAG, (transition == Geofence.TRANSITION_ENTER ? "enter " : "exit ") + fence);
+                Intent intent = new Intent();
+                intent.setAction(Constant.Callback.GEOFENCE_TRANSITION);
+                intent.putExtra(Constant.Extra.EXTRA_GEOFENCE_ID, fence.getId());
+                intent.putExtra(Constant.Extra.EXTRA_GEOFENCE_TRANSITION, transition);
+                // fence ids and positions are test data, only the rigs driving the app get them
+                sendBroadcast(intent, Constant.PERMISSION_CONTROL);
+            }
+        });
+        mRoutePlayer.setGeofences(engine);
+    }
+
+    /**
+     * Holds the route playback at its current position; NMEA replay cannot be paused.
+     *
+     * @return false if nothing is playing a route
+     */
+    public boolean pauseMockLocation() {
+        if (!isMockLocationRunning || mNmeaLog != null || !mRoutePlayer.isPlaying()) {
+            return false;
+        }
+        mRoutePlayer.pause();
+        return true;
+    }
+
+    public boolean resumeMockLocation() {
+        if (!isMockLocationPaused()) {
+            return false;
+        }
+        mRoutePlayer.resume();
+        return true;
+    }
+
+    public boolean isMockLocationPaused() {
+        return isMockLocationRunning && mNmeaLog == null && !mRoutePlayer.isPlaying();
+    }
+
+    /**
+     * Starts the localhost {@link ControlServer} for test rigs, see its documentation for the
+     * endpoints. Its commands run on the main thread like the ones of the UI.
+     *
+     * @return the token the clients have to present, to be handed to the caller only; null if
+     * the server could not be started or is already running
+     */
+    public String startControlServer(int port) {
+        if (mControlServer != null) {
+            DLog.e(TAG, "control server already running, stop it for a new token");
+            return null;
+        }
+        String token = ControlServer.newToken();
+        ControlServer server = new ControlServer(new Control(), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mMainHandler.post(command);
+            }
+        }, token);
+        try {
+            server.start(port);
+            mControlServer = server;
+            DLog.d(TAG, "control server listening on port " + server.getPort());
+            return token;
+        } catch (IOException e) {
+            DLog.e(TAG, "cannot start control server on port " + port, e);
+            return null;
+        }
+    }
+
+    public void stopControlServer() {
+        ControlServer server = mControlServer;
+        if (server != null) {
+            mControlServer = null;
+            server.stop();
+            DLog.d(TAG, "control server stopped");
+        }
+    }
+
+    public void seekToDistance(double distance) {
+        if (mRoutePlayer != null) {
+            mRoutePlayer.seekToDistance(distance);
+        }
+    }
+
+    public double getProgress() {
+        return mRoutePlayer != null ? mRoutePlayer.getProgress() : 0;
+    }
+
+    /**
+     * @return the position being emitted, for the UI of this process; read on the main thread
+     */
+    public LatestFixChannel getFixChannel() {
+        return mFixChannel;
+    }
+
+    /**
+     * @return the commands of the control server, for the other control interfaces of this
+     * process; call them on the main thread
+     */
+    public ControlServer.Controller getController() {
+        return new Control();
+    }
+
+    /**
+     * @return the sink delivering fixes to the {@link IFixCallback}s of other processes
+     */
+    public FixCallbackSink getFixCallbackSink() {
+        return mFixCallbackSink;
+    }
+
     private void showNotification() {
         Bitmap icon = BitmapFactory.decodeResource(getResources(), R.mipmap.ic_launcher);
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
@@ -119,8 +583,12 @@ public class LocationService extends Service implements MockLocationListener {
     public boolean stopMockLocation() {
         if (isMockLocationRunning) {
             try {
-                if (mMockLocationManager != null) {
-                    mMockLocationManager.shutdown();
+                if (mSinks != null) {
+                    mRoutePlayer.stop();
+                    mNmeaPlayer.stop();
+                    for (FixSink sink : mSinks) {
+                        sink.shutdown();
+                    }
                 }
             } catch (SecurityException e) {
                 e.printStackTrace();
@@ -142,24 +610,108 @@ public class LocationService extends Service implements MockLocationListener {
         DLog.d(TAG, "onLocationChanged");
         if (location != null) {
             DLog.d(TAG, "onLocationChanged " + location.getLatitude() + ", " + location.getLongitude());
-            //sendBroadcastUpdatedLocation(location);
+            if (mTrackRecorder != null) {
+                mTrackRecorder.record(location);
+            }
         }
     }
 
-    private void sendBroadcastUpdatedLocation(Location location) {
-        Intent intent = new Intent();
-        intent.setAction(Constant.Callback.LOCATION_UPDATE);
-        intent.putExtra("lat", location.getLatitude());
-        intent.putExtra("lon", location.getLongitude());
-        sendBroadcast(intent);
-    }
-
     private void sendBroadcast(String action) {
         Intent intent = new Intent();
         intent.setAction(action);
         sendBroadcast(intent);
     }
 
+    // forwards the emitted fixes to the control server's WebSocket clients
+    private class ControlServerSink implements FixSink {
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public void emit(MockFix fix) {
+            ControlServer server = mControlServer;
+            if (server != null) {
+                server.publish(fix);
+            }
+        }
+    }
+
+    // publishes the emitted fixes to the UI; the players stop synchronously before another one
+    // starts, so whichever is playing is the only producer
+    private class FixChannelSink implements FixSink {
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public void emit(MockFix fix) {
+            mFixChannel.publish(fix);
+        }
+    }
+
+    private class Control implements ControlServer.Controller {
+
+        @Override
+        public void setRoute(Route route) {
+            LocationService.this.setRoute(route);
+        }
+
+        @Override
+        public boolean start() {
+            return startFaking();
+        }
+
+        @Override
+        public boolean stop() {
+            return stopMockLocation();
+        }
+
+        @Override
+        public boolean pause() {
+            return pauseMockLocation();
+        }
+
+        @Override
+        public boolean resume() {
+            return resumeMockLocation();
+        }
+
+        @Override
+        public boolean seekToDistance(double distance) {
+            if (mNmeaLog != null) {
+                return false;
+            }
+            LocationService.this.seekToDistance(distance);
+            return true;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return isMockLocationRunning;
+        }
+
+        @Override
+        public boolean isPaused() {
+            return isMockLocationPaused();
+        }
+
+        @Override
+        public double getProgress() {
+            return LocationService.this.getProgress();
+        }
+    }
+
     public class LocationBinder extends Binder {
         public LocationService getService() {
             return LocationService.this;
@@ -7,12 +7,11 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.support.annotation.RequiresPermission;
 
 import com.dylan.fakemovinggps.core.util.DLog;
 
-public class MockLocationManager implements LocationListener {
+public class MockLocationManager extends MockLocationSink implements LocationListener {
     public static final String TAG = MockLocationManager.class.getSimpleName();
 
     private final LocationManager locationManager;
@@ -20,6 +19,7 @@ public class MockLocationManager implements LocationListener {
     private MockLocationListener listener;
 
     public MockLocationManager(Context context, String locationProvider, MockLocationListener listener) {
+        super(locationProvider);
         this.locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
         this.locationProvider = locationProvider;
         this.listener = listener;
@@ -59,6 +59,7 @@ public class MockLocationManager implements LocationListener {
         // do nothing
     }
 
+    @Override
     public void start() {
         DLog.d(TAG, "start");
         locationManager.addTestProvider(
@@ -75,23 +76,20 @@ public class MockLocationManager implements LocationListener {
         locationManager.setTestProviderEnabled(locationProvider, true);
     }
 
-    public void setMockLocation() {
-        DLog.d(TAG, "setMockLocation");
-        Location mockLocation = new Location(locationProvider);
-        mockLocation.setLatitude(1.2797677);
-        mockLocation.setLongitude(103.8459285);
-        mockLocation.setAltitude(0);
-        mockLocation.setTime(System.currentTimeMillis());
-        mockLocation.setAccuracy(1);
-        mockLocation.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
-
-        locationManager.setTestProviderLocation(locationProvider, mockLocation);
+    /**
+     * The same {@link Location} instance is refilled for every fix; the framework copies it into
+     * a parcel, so reusing it afterwards is safe.
+     */
+    @Override
+    protected void setMockLocation(Location location) {
+        locationManager.setTestProviderLocation(locationProvider, location);
     }
 
     public void clearMockLocation() {
         locationManager.clearTestProviderLocation(locationProvider);
     }
 
+    @Override
     public void shutdown() {
         DLog.d(TAG, "shutdown");
         locationManager.removeTestProvider(locationProvider);
@@ -0,0 +1,79 @@
+package com.dylan.fakemovinggps.location;
+
+import android.location.Location;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+/**
+ * {@link FixSink} feeding a location provider. Each sink applies its own accuracy and timestamp
+ * settings while copying the fix into a {@link Location} it owns, so emitting never allocates.
+ * <p>
+ * A sink whose destination reads the Location after {@link #setMockLocation(Location)} returns
+ * owns a ring of them instead, and a Location is only reused after as many fixes as the ring
+ * holds.
+ */
+public abstract class MockLocationSink implements FixSink {
+
+    private final Location[] locations;
+    private int next;
+
+    private float accuracy;
+    private long timeOffsetNanos;
+
+    protected MockLocationSink(String provider) {
+        this(provider, 1);
+    }
+
+    /**
+     * @param ringSize number of Locations emitted before the first one is reused
+     */
+    protected MockLocationSink(String provider, int ringSize) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("Ring size must be at least 1");
+        }
+        locations = new Location[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            locations[i] = new Location(provider);
+        }
+    }
+
+    /**
+     * @param accuracy reported accuracy in meters, or 0 to report the accuracy of the fix
+     */
+    public void setAccuracy(float accuracy) {
+        this.accuracy = Math.max(0, accuracy);
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @param timeOffsetMillis shift applied to both timestamps of every fix, negative values make
+     *                         the sink report fixes as older than they are
+     */
+    public void setTimeOffset(long timeOffsetMillis) {
+        this.timeOffsetNanos = timeOffsetMillis * 1000000L;
+    }
+
+    public long getTimeOffset() {
+        return timeOffsetNanos / 1000000L;
+    }
+
+    protected abstract void setMockLocation(Location location);
+
+    @Override
+    public void emit(MockFix fix) {
+        Location location = locations[next];
+        next = next + 1 == locations.length ? 0 : next + 1;
+        location.setLatitude(fix.latitude);
+        location.setLongitude(fix.longitude);
+        location.setAltitude(fix.altitude);
+        location.setSpeed(fix.speed);
+        location.setBearing(fix.bearing);
+        location.setAccuracy(accuracy > 0 ? accuracy : fix.accuracy);
+        location.setTime(fix.time + timeOffsetNanos / 1000000L);
+        location.setElapsedRealtimeNanos(fix.elapsedRealtimeNanos + timeOffsetNanos);
+        setMockLocation(location);
+    }
+}
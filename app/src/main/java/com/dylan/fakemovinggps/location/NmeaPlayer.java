@@ -0,0 +1,133 @@
+package com.dylan.fakemovinggps.location;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.track.NmeaParser;
+import com.dylan.fakemovinggps.track.TrackWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays a raw NMEA log into a set of {@link FixSink}s, keeping the spacing between
+ * the recorded epochs. The log is parsed lazily on the playback thread one epoch ahead of its
+ * emission, so its length does not matter. Timestamps are rebased to the time of playback.
+ * <p>
+ * The player emits from its own thread; it must not run at the same time as a
+ * {@link RoutePlayer} feeding the same sinks. {@link #stop()} waits for the thread to end, so a
+ * player started after it returns is the only one emitting.
+ */
+public class NmeaPlayer {
+    private static final String TAG = NmeaPlayer.class.getSimpleName();
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final float DEFAULT_ACCURACY = 5; // m, when the log has no HDOP
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final FixSink[] sinks;
+    private Thread thread;
+
+    public NmeaPlayer(FixSink... sinks) {
+        this.sinks = sinks;
+    }
+
+    public synchronized boolean isPlaying() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Starts replaying {@code log} from its first epoch, stopping any previous playback. The
+     * stream is closed when playback ends.
+     */
+    public synchronized void start(final InputStream log) {
+        stop();
+        DLog.d(TAG, "start");
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                try {
+                    play(log);
+                } finally {
+                    try {
+                        log.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Stops playback and waits for the playback thread to end.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            DLog.d(TAG, "stop");
+            thread.interrupt();
+            try {
+                thread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                // blocked reading the log, it ends without emitting once the read returns
+                DLog.e(TAG, "playback thread still running after " + STOP_TIMEOUT_MILLIS + " ms");
+            }
+            thread = null;
+        }
+    }
+
+    private void play(InputStream log) {
+        NmeaParser parser = new NmeaParser(log);
+        MockFix fix = new MockFix();
+        long firstLogTime = 0;
+        long startNanos = 0;
+        long epochs = 0;
+        try {
+            int flags;
+            while (!Thread.currentThread().isInterrupted() && (flags = parser.next(fix)) >= 0) {
+                long now = SystemClock.elapsedRealtimeNanos();
+                long offset = fix.time - firstLogTime;
+                if (epochs == 0 || offset < 0) {
+                    // first epoch, or the log jumped back in time: restart the clock from here
+                    firstLogTime = fix.time;
+                    startNanos = now;
+                    offset = 0;
+                }
+                long due = startNanos + offset * NANOS_PER_MILLI;
+                long delayMillis = (due - now) / NANOS_PER_MILLI;
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+                if ((flags & TrackWriter.FLAG_ACCURACY) == 0) {
+                    fix.accuracy = DEFAULT_ACCURACY;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                fix.time = System.currentTimeMillis();
+                fix.elapsedRealtimeNanos = SystemClock.elapsedRealtimeNanos();
+                for (FixSink sink : sinks) {
+                    sink.emit(fix);
+                }
+                epochs++;
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            DLog.e(TAG, "cannot read NMEA log", e);
+        } catch (SecurityException e) {
+            DLog.e(TAG, "mock locations not allowed", e);
+        } catch (IllegalArgumentException e) {
+            // the test providers were removed while stopping
+            DLog.d(TAG, "providers gone: " + e.getMessage());
+        }
+        DLog.d(TAG, "played " + epochs + " epochs from " + parser.getSentenceCount()
+                + " sentences, rejected " + parser.getRejectedCount() + " lines");
+    }
+}
@@ -0,0 +1,359 @@
+package com.dylan.fakemovinggps.location;
+
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.geofence.Geofence;
+import com.dylan.fakemovinggps.route.Route;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The component other apps bind with {@link com.dylan.fakemovinggps.util.Constant.Action#ACTION_BIND_CONTROL}
+ * to get an {@link ILocationControl}. It is exported to holders of the CONTROL permission in
+ * place of {@link LocationService}, so binding is all they can do: the start commands of the
+ * location service, like the control server and recording, stay private to this app.
+ * <p>
+ * The service keeps {@link LocationService} bound while it lives. Commands that arrive before
+ * that connection is up wait for it on the main thread.
+ */
+public class RemoteControlService extends Service {
+    private static final String TAG = RemoteControlService.class.getSimpleName();
+
+    private final RemoteControl mRemoteControl = new RemoteControl();
+    private Handler mMainHandler;
+    // main thread only
+    private LocationService mLocationService;
+    private final List<Runnable> mPending = new ArrayList<>();
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mLocationService = ((LocationService.LocationBinder) service).getService();
+            for (Runnable command : mPending) {
+                command.run();
+            }
+            mPending.clear();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mLocationService = null;
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        DLog.d(TAG, "onCreate");
+        super.onCreate();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        bindService(new Intent(this, LocationService.class), mConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mRemoteControl;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        mRemoteControl.clearBuilders();
+        return false;
+    }
+
+    @Override
+    public void onDestroy() {
+        DLog.d(TAG, "onDestroy");
+        unbindService(mConnection);
+        mLocationService = null;
+        mPending.clear();
+        super.onDestroy();
+    }
+
+    /**
+     * Runs {@code command} on the main thread once the location service is connected.
+     */
+    private void post(final Runnable command) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mLocationService != null) {
+                    command.run();
+                } else {
+                    mPending.add(command);
+                }
+            }
+        });
+    }
+
+    /**
+     * Arguments are checked on the binder thread, then the commands are posted to the main thread:
+     * oneway calls of one client arrive in order and the main thread keeps that order, next to
+     * the commands of the UI and the control server. Each calling process collects its own route,
+     * so clients uploading at the same time don't mix their waypoints; the committed route is
+     * shared like the rest of the playback state.
+     */
+    private class RemoteControl extends ILocationControl.Stub {
+        // keyed by calling pid, main thread only
+        private final Map<Integer, Route.Builder> mBuilders = new HashMap<>();
+        private Route.Builder mCommittedBuilder;
+        private Route mCommitted;
+        // shared by all clients like the route, main thread only
+        private final List<Geofence> mGeofences = new ArrayList<>();
+
+        @Override
+        public void beginRoute() {
+            final int client = Binder.getCallingPid();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mBuilders.put(client, new Route.Builder());
+                }
+            });
+        }
+
+        @Override
+        public void addWaypoints(final double[] latitudes, final double[] longitudes) {
+            if (latitudes == null || longitudes == null || latitudes.length != longitudes.length) {
+                DLog.e(TAG, "ignoring waypoints with mismatched coordinates");
+                return;
+            }
+            for (int i = 0; i < latitudes.length; i++) {
+                if (!isValidCoordinate(latitudes[i], longitudes[i])) {
+                    DLog.e(TAG, "ignoring waypoints, invalid coordinate at " + i);
+                    return;
+                }
+            }
+            final int client = Binder.getCallingPid();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    Route.Builder builder = mBuilders.get(client);
+                    if (builder == null) {
+                        builder = new Route.Builder();
+                        mBuilders.put(client, builder);
+                    }
+                    for (int i = 0; i < latitudes.length; i++) {
+                        builder.add(latitudes[i], longitudes[i]);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void commitRoute(final double maxSpeed) {
+            if (!isValidSpeed(maxSpeed)) {
+                DLog.e(TAG, "ignoring route, invalid speed " + maxSpeed);
+                return;
+            }
+            final int client = Binder.getCallingPid();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    Route.Builder builder = mBuilders.remove(client);
+                    if (builder == null || builder.size() == 0) {
+                        DLog.e(TAG, "ignoring empty route");
+                        return;
+                    }
+                    mCommittedBuilder = builder;
+                    mCommitted = mCommittedBuilder.setSpeed(maxSpeed).build();
+                    mLocationService.getController().setRoute(mCommitted);
+                }
+            });
+        }
+
+        @Override
+        public void setSpeed(final double maxSpeed) {
+            if (!isValidSpeed(maxSpeed)) {
+                DLog.e(TAG, "ignoring invalid speed " + maxSpeed);
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCommitted == null || mLocationService.getRoute() != mCommitted) {
+                        DLog.e(TAG, "ignoring speed, the route was not committed remotely");
+                        return;
+                    }
+                    double travelled = mLocationService.getProgress() * mCommitted.getTotalDistance();
+                    mCommitted = mCommittedBuilder.setSpeed(maxSpeed).build();
+                    mLocationService.getController().setRoute(mCommitted);
+                    mLocationService.getController().seekToDistance(travelled);
+                }
+            });
+        }
+
+        @Override
+        public void seekToDistance(final double distance) {
+            if (Double.isNaN(distance)) {
+                DLog.e(TAG, "ignoring seek to NaN");
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getController().seekToDistance(distance);
+                }
+            });
+        }
+
+        @Override
+        public void start() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getController().start();
+                }
+            });
+        }
+
+        @Override
+        public void stop() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getController().stop();
+                }
+            });
+        }
+
+        @Override
+        public void pause() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getController().pause();
+                }
+            });
+        }
+
+        @Override
+        public void resume() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getController().resume();
+                }
+            });
+        }
+
+        @Override
+        public void registerFixCallback(final IFixCallback callback, final int batchSize,
+                                        final int maxDelayMillis) {
+            if (callback == null) {
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getFixCallbackSink().register(callback, batchSize, maxDelayMillis);
+                }
+            });
+        }
+
+        @Override
+        public void unregisterFixCallback(final IFixCallback callback) {
+            if (callback == null) {
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mLocationService.getFixCallbackSink().unregister(callback);
+                }
+            });
+        }
+
+        @Override
+        public void setCircleGeofences(final String[] ids, final double[] latitudes,
+                                       final double[] longitudes, final double[] radii) {
+            if (ids == null || latitudes == null || longitudes == null || radii == null
+                    || latitudes.length != ids.length || longitudes.length != ids.length
+                    || radii.length != ids.length) {
+                DLog.e(TAG, "ignoring geofences with mismatched arrays");
+                return;
+            }
+            final List<Geofence> fences = new ArrayList<>(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                if (!isValidCoordinate(latitudes[i], longitudes[i]) || !(radii[i] >= 0)
+                        || Double.isInfinite(radii[i])) {
+                    DLog.e(TAG, "ignoring geofences, invalid circle at " + i);
+                    return;
+                }
+                fences.add(Geofence.circle(ids[i], latitudes[i], longitudes[i], radii[i]));
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mGeofences.clear();
+                    mGeofences.addAll(fences);
+                    mLocationService.setGeofences(mGeofences);
+                }
+            });
+        }
+
+        @Override
+        public void addPolygonGeofence(String id, double[] latitudes, double[] longitudes) {
+            if (latitudes == null || longitudes == null || latitudes.length != longitudes.length) {
+                DLog.e(TAG, "ignoring polygon with mismatched coordinates");
+                return;
+            }
+            for (int i = 0; i < latitudes.length; i++) {
+                if (!isValidCoordinate(latitudes[i], longitudes[i])) {
+                    DLog.e(TAG, "ignoring polygon, invalid coordinate at " + i);
+                    return;
+                }
+            }
+            final Geofence fence;
+            try {
+                fence = Geofence.polygon(id, latitudes, longitudes);
+            } catch (IllegalArgumentException e) {
+                DLog.e(TAG, "ignoring polygon: " + e.getMessage());
+                return;
+            }
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mGeofences.add(fence);
+                    mLocationService.setGeofences(mGeofences);
+                }
+            });
+        }
+
+        @Override
+        public void clearGeofences() {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mGeofences.clear();
+                    mLocationService.setGeofences(null);
+                }
+            });
+        }
+
+        /**
+         * Drops the routes of clients that went away before committing them.
+         */
+        void clearBuilders() {
+            mBuilders.clear();
+        }
+
+        private boolean isValidSpeed(double speed) {
+            return speed > 0 && !Double.isInfinite(speed);
+        }
+
+        private boolean isValidCoordinate(double latitude, double longitude) {
+            return Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.dylan.fakemovinggps.location;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Xml;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+import com.dylan.fakemovinggps.track.GeoJsonImporter;
+import com.dylan.fakemovinggps.track.GpxImporter;
+import com.dylan.fakemovinggps.track.KmlImporter;
+import com.dylan.fakemovinggps.track.Polyline;
+import com.dylan.fakemovinggps.track.RouteFileWriter;
+import com.dylan.fakemovinggps.track.RouteFormat;
+import com.dylan.fakemovinggps.util.Constant;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams a route of any size into {@link LocationService}, bypassing the 1 MB binder limit
+ * that intent extras run into. An automation app holding
+ * {@code com.dylan.fakemovinggps.permission.CONTROL} opens {@link #ROUTE_URI} for writing and
+ * writes a GPX, KML or GeoJSON document in whatever chunks it likes:
+ * <pre>
+ * ParcelFileDescriptor pfd = resolver.openFileDescriptor(RouteIngestProvider.ROUTE_URI, "w");
+ * OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+ * ...
+ * out.close();
+ * </pre>
+ * An encoded polyline goes to {@code route/polyline?precision=6&speed=13.9} instead, with the
+ * same defaults as {@link Constant.Extra#EXTRA_ROUTE}.
+ * <p>
+ * The descriptor handed out is the write end of a pipe. A worker thread decodes from the read
+ * end while the data arrives and streams the points into a route file, so neither the document
+ * nor the route is held in memory. It then starts playing the file with
+ * {@link Constant.Action#ACTION_START_FAKING_LOCATION}. Streams are decoded one at a time in the
+ * order they were opened. If decoding fails the pipe is closed with an error, which the writer
+ * gets as an IOException from {@link ParcelFileDescriptor#checkError()}.
+ * <p>
+ * Decoding stops at the end of the document, so close the stream right after it. A writer that
+ * sends nothing for {@link #IDLE_TIMEOUT_SECONDS} gets its pipe closed with an error, so a
+ * stalled writer cannot hold up the streams queued behind it.
+ */
+public class RouteIngestProvider extends ContentProvider {
+    private static final String TAG = RouteIngestProvider.class.getSimpleName();
+
+    public static final String AUTHORITY = "com.dylan.fakemovinggps.routes";
+    public static final Uri ROUTE_URI = Uri.parse("content://" + AUTHORITY + "/route");
+
+    private static final String PATH_ROUTE = "route";
+    private static final String PATH_POLYLINE = "polyline";
+    private static final String PARAMETER_PRECISION = "precision";
+    private static final String PARAMETER_SPEED = "speed";
+    private static final String INGEST_DIRECTORY = "ingest";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    public static final int IDLE_TIMEOUT_SECONDS = 30;
+
+    private ExecutorService mExecutor;
+    private ScheduledExecutorService mWatchdog;
+
+    @Override
+    public boolean onCreate() {
+        mExecutor = Executors.newSingleThreadExecutor();
+        mWatchdog = Executors.newSingleThreadScheduledExecutor();
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!mode.startsWith("w")) {
+            throw new FileNotFoundException("Routes can only be written");
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty() || segments.size() > 2 || !PATH_ROUTE.equals(segments.get(0))
+                || (segments.size() == 2 && !PATH_POLYLINE.equals(segments.get(1)))) {
+            throw new FileNotFoundException("Unknown uri " + uri);
+        }
+        final boolean polyline = segments.size() == 2;
+        final int precision;
+        final double speed;
+        try {
+            String value = uri.getQueryParameter(PARAMETER_PRECISION);
+            precision = value != null ? Integer.parseInt(value) : Polyline.DEFAULT_PRECISION;
+            value = uri.getQueryParameter(PARAMETER_SPEED);
+            speed = value != null ? Double.parseDouble(value) : Route.DEFAULT_SPEED;
+        } catch (NumberFormatException e) {
+            throw new FileNotFoundException("Invalid parameter in " + uri);
+        }
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create pipe: " + e.getMessage());
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ingest(pipe[0], polyline, precision, speed);
+            }
+        });
+        return pipe[1];
+    }
+
+    private void ingest(ParcelFileDescriptor source, boolean polyline, int precision, double speed) {
+        long start = System.nanoTime();
+        File file = null;
+        String error = null;
+        IdleInputStream idle = new IdleInputStream(new FileInputStream(source.getFileDescriptor()), source);
+        ScheduledFuture<?> watchdog = mWatchdog.scheduleWithFixedDelay(idle, 1, 1, TimeUnit.SECONDS);
+        try {
+            SpeedProfile profile = SpeedProfile.of(polyline ? speed : Route.DEFAULT_SPEED);
+            InputStream in = new BufferedInputStream(idle, BUFFER_SIZE);
+            file = newRouteFile();
+            RouteFileWriter writer = new RouteFileWriter(file, profile);
+            try {
+                if (polyline) {
+                    Polyline.read(in, -1, precision, null, writer);
+                } else {
+                    switch (RouteFormat.detect(in)) {
+                        case KML:
+                            KmlImporter.read(Xml.newPullParser(), in, -1, null, writer);
+                            break;
+                        case GEOJSON:
+                            GeoJsonImporter.read(in, -1, null, writer);
+                            break;
+                        case NMEA:
+                            throw new IOException("NMEA logs cannot be streamed, import them as a file");
+                        default:
+                            GpxImporter.read(Xml.newPullParser(), in, -1, null, writer);
+                            break;
+                    }
+                }
+                // drop what already arrived after the document end, without waiting for more
+                byte[] rest = new byte[BUFFER_SIZE];
+                while (in.available() > 0 && in.read(rest) > 0) {
+                    // discard
+                }
+                writer.finish();
+            } finally {
+                writer.close();
+            }
+            deleteOthers(file);
+            DLog.d(TAG, "ingested " + writer.size() + " points in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException | RuntimeException e) {
+            DLog.e(TAG, idle.isTimedOut() ? "route writer idle" : "route ingestion failed", e);
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+            if (file != null && !file.delete()) {
+                DLog.e(TAG, "cannot delete " + file);
+            }
+            file = null;
+        } finally {
+            watchdog.cancel(false);
+            idle.closeSource(error);
+        }
+        if (file != null) {
+            Intent intent = new Intent(getContext(), LocationService.class);
+            intent.setAction(Constant.Action.ACTION_START_FAKING_LOCATION);
+            intent.putExtra(Constant.Extra.EXTRA_ROUTE_FILE, file.getAbsolutePath());
+            getContext().startService(intent);
+        }
+    }
+
+    /**
+     * @return the directory the ingested route files are written to
+     */
+    static File getIngestDirectory(Context context) {
+        return new File(context.getCacheDir(), INGEST_DIRECTORY);
+    }
+
+    // A fresh file per route: the service may still have the previous one mapped, and unlinking
+    // a mapped file is safe while truncating it is not.
+    private File newRouteFile() throws IOException {
+        File directory = getIngestDirectory(getContext());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return new File(directory, "route-" + System.nanoTime() + Constant.ROUTE_EXTENSION);
+    }
+
+    private void deleteOthers(File file) {
+        File[] old = file.getParentFile().listFiles();
+        if (old != null) {
+            for (File f : old) {
+                if (!f.equals(file) && !f.delete()) {
+                    DLog.e(TAG, "cannot delete " + f);
+                }
+            }
+        }
+    }
+
+    // Counts time without data on the ingest thread's reads, checked once a second on the
+    // watchdog thread. Closing the pipe also wakes up a read blocked on it.
+    private static class IdleInputStream extends FilterInputStream implements Runnable {
+        private final ParcelFileDescriptor source;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile long lastDataNanos = System.nanoTime();
+        private volatile boolean timedOut;
+
+        IdleInputStream(InputStream in, ParcelFileDescriptor source) {
+            super(in);
+            this.source = source;
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            lastDataNanos = System.nanoTime();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            lastDataNanos = System.nanoTime();
+            return n;
+        }
+
+        @Override
+        public void run() {
+            if (System.nanoTime() - lastDataNanos > TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECONDS)) {
+                timedOut = true;
+                closeSource("No data for " + IDLE_TIMEOUT_SECONDS + " s");
+            }
+        }
+
+        /**
+         * Closes the read end of the pipe once, reporting {@code error} to the writer if not null.
+         */
+        void closeSource(String error) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (error != null) {
+                    source.closeWithError(error);
+                } else {
+                    source.close();
+                }
+            } catch (IOException e) {
+                DLog.e(TAG, "cannot close pipe", e);
+            }
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Open " + ROUTE_URI + " for writing instead");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Open " + ROUTE_URI + " for writing instead");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Open " + ROUTE_URI + " for writing instead");
+    }
+}
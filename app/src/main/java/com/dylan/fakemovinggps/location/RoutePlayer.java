@@ -0,0 +1,201 @@
+package com.dylan.fakemovinggps.location;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.geofence.GeofenceEngine;
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.NoiseModel;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.RoutePlayback;
+
+/**
+ * Drives a set of {@link FixSink}s along a {@link Route}. The position is computed once
+ * per tick and the same fix is fanned out to every sink. Ticks come from a
+ * {@link TickScheduler}; the position is sampled at each tick's deadline, so a late tick never
+ * slows the playback down. All playback state is only touched on the tick thread and a steady
+ * state tick does not allocate.
+ */
+public class RoutePlayer implements TickScheduler.Callback {
+    private static final String TAG = RoutePlayer.class.getSimpleName();
+
+    public static final int DEFAULT_RATE = 1; // Hz
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private final FixSink[] sinks;
+    private final TickScheduler scheduler;
+    private final MockFix fix = new MockFix();
+
+    private volatile RoutePlayback playback;
+    private NoiseModel noiseModel;
+    private GeofenceEngine geofences;
+    private volatile boolean playing;
+
+    public RoutePlayer(FixSink... sinks) {
+        this.sinks = sinks;
+        this.scheduler = new TickScheduler(this);
+        this.scheduler.setRate(DEFAULT_RATE);
+    }
+
+    public void setRoute(final Route route) {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                playback = new RoutePlayback(route);
+            }
+        });
+    }
+
+    /**
+     * @param noiseModel error model applied to every fix, or null for exact positions. The model
+     *                   is reset whenever playback starts so a run can be replayed.
+     */
+    public void setNoiseModel(final NoiseModel noiseModel) {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                RoutePlayer.this.noiseModel = noiseModel;
+            }
+        });
+    }
+
+    /**
+     * @param geofences fences to evaluate against every emitted fix, or null. They are reset
+     *                  whenever playback starts, so the fences containing the start are entered.
+     */
+    public void setGeofences(final GeofenceEngine geofences) {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                RoutePlayer.this.geofences = geofences;
+            }
+        });
+    }
+
+    /**
+     * Jumps to {@code distance} meters along the current route.
+     */
+    public void seekToDistance(final double distance) {
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (playback != null) {
+                    playback.seekToDistance(distance);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return travelled part of the current route in [0, 1]; read from any thread, may lag one
+     * tick behind
+     */
+    public double getProgress() {
+        RoutePlayback current = playback;
+        return current != null ? current.getProgress() : 0;
+    }
+
+    public void setRate(int hz) {
+        scheduler.setRate(hz);
+    }
+
+    public void setMissedTickPolicy(TickScheduler.MissedTickPolicy policy) {
+        scheduler.setMissedTickPolicy(policy);
+    }
+
+    public TickScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public void start() {
+        DLog.d(TAG, "start");
+        playing = true;
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (playback != null) {
+                    playback.reset();
+                }
+                if (noiseModel != null) {
+                    noiseModel.reset();
+                }
+                if (geofences != null) {
+                    geofences.reset();
+                }
+            }
+        });
+        scheduler.start();
+    }
+
+    /**
+     * Stops ticking but keeps the position, unlike {@link #stop()} followed by {@link #start()}.
+     */
+    public void pause() {
+        DLog.d(TAG, "pause");
+        playing = false;
+        scheduler.stop();
+    }
+
+    /**
+     * Continues from where {@link #pause()} left off, without jumping ahead by the paused time.
+     */
+    public void resume() {
+        DLog.d(TAG, "resume");
+        playing = true;
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (playback != null) {
+                    // re-anchors the playback clock at the current position
+                    playback.seekToDistance(playback.getTravelled());
+                }
+            }
+        });
+        scheduler.start();
+    }
+
+    /**
+     * Stops ticking and waits for a tick in progress, so the sinks can be shut down right after.
+     */
+    public void stop() {
+        DLog.d(TAG, "stop");
+        playing = false;
+        scheduler.stop();
+        if (!scheduler.awaitIdle(STOP_TIMEOUT_MILLIS)) {
+            DLog.e(TAG, "tick still running after " + STOP_TIMEOUT_MILLIS + " ms");
+        }
+        scheduler.logStatistics();
+    }
+
+    public void release() {
+        stop();
+        scheduler.release();
+    }
+
+    @Override
+    public void onTick(long deadlineNanos) {
+        if (playback == null) {
+            return;
+        }
+        playback.sample(deadlineNanos, fix);
+        if (noiseModel != null) {
+            // nominal rather than measured tick spacing, so the noise replays exactly
+            noiseModel.apply(fix, 1.0 / scheduler.getRate());
+        }
+        for (FixSink sink : sinks) {
+            try {
+                sink.emit(fix);
+            } catch (IllegalArgumentException e) {
+                // the test provider was removed while stopping
+                DLog.d(TAG, "provider gone: " + e.getMessage());
+            } catch (SecurityException e) {
+                DLog.e(TAG, "mock locations not allowed", e);
+            }
+        }
+        if (geofences != null) {
+            geofences.update(fix.latitude, fix.longitude);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.dylan.fakemovinggps.location;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires {@link Callback#onTick(long)} at a fixed rate on a dedicated high priority thread.
+ * <p>
+ * Every tick has an absolute deadline {@code start + n * period} on the
+ * {@link SystemClock#elapsedRealtimeNanos()} clock, so late wake-ups never accumulate into drift.
+ * Since {@link Handler} only schedules with millisecond resolution the thread is woken slightly
+ * before the deadline and spins the remaining sub-millisecond part.
+ */
+public class TickScheduler {
+    private static final String TAG = TickScheduler.class.getSimpleName();
+
+    public static final int MIN_RATE = 1;   // Hz
+    public static final int MAX_RATE = 50;  // Hz
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final long SPIN_WINDOW = 1000000L;   // ns spent spinning before a deadline
+    private static final int MAX_CATCH_UP_TICKS = 10;
+
+    private static final long HISTOGRAM_BUCKET = 100000L;   // ns
+    private static final int HISTOGRAM_SIZE = 200;          // covers 0..20 ms lateness
+
+    public enum MissedTickPolicy {
+        /**
+         * Drop the ticks whose deadline already passed and continue with the next future one.
+         */
+        SKIP,
+        /**
+         * Fire the missed ticks back to back (bounded) so every deadline gets a callback.
+         */
+        CATCH_UP
+    }
+
+    public interface Callback {
+        /**
+         * @param deadlineNanos the ideal time of this tick on the elapsed realtime clock
+         */
+        void onTick(long deadlineNanos);
+    }
+
+    private final Callback callback;
+    private final int threadPriority;
+
+    private HandlerThread thread;
+    private Handler handler;
+
+    private volatile boolean running;
+    private long periodNanos = NANOS_PER_MILLI * 1000;
+    private long startNanos;
+    private long tickCount;
+    private MissedTickPolicy missedTickPolicy = MissedTickPolicy.SKIP;
+
+    private final int[] latenessHistogram = new int[HISTOGRAM_SIZE + 1];
+    private long ticksFired;
+    private long ticksMissed;
+    private long maxLatenessNanos;
+
+    private final Runnable wakeUp = new Runnable() {
+        @Override
+        public void run() {
+            onWakeUp();
+        }
+    };
+
+    public TickScheduler(Callback callback) {
+        this(callback, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+    }
+
+    public TickScheduler(Callback callback, int threadPriority) {
+        this.callback = callback;
+        this.threadPriority = threadPriority;
+    }
+
+    /**
+     * Runs {@code task} on the tick thread, starting the thread if needed.
+     */
+    public void post(Runnable task) {
+        ensureThread();
+        handler.post(task);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @param hz ticks per second, clamped to [{@link #MIN_RATE}, {@link #MAX_RATE}]
+     */
+    public void setRate(int hz) {
+        int rate = Math.max(MIN_RATE, Math.min(MAX_RATE, hz));
+        periodNanos = 1000000000L / rate;
+        if (running) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    restart();
+                }
+            });
+        }
+    }
+
+    public int getRate() {
+        return (int) (1000000000L / periodNanos);
+    }
+
+    /**
+     * @return spacing of the tick deadlines
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    public void setMissedTickPolicy(MissedTickPolicy policy) {
+        this.missedTickPolicy = policy;
+    }
+
+    public MissedTickPolicy getMissedTickPolicy() {
+        return missedTickPolicy;
+    }
+
+    public void start() {
+        ensureThread();
+        // set here so a stop() right after wins over the posted restart
+        running = true;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (running) {
+                    restart();
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        running = false;
+        if (handler != null) {
+            handler.removeCallbacks(wakeUp);
+        }
+    }
+
+    /**
+     * Blocks until the tick thread has finished the task it is running, such as a tick that
+     * began before {@link #stop()}. Returns at once when called on the tick thread.
+     *
+     * @return false if the thread was still busy after {@code timeoutMillis}
+     */
+    public boolean awaitIdle(long timeoutMillis) {
+        if (thread == null || Thread.currentThread() == thread) {
+            return true;
+        }
+        final CountDownLatch barrier = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                barrier.countDown();
+            }
+        });
+        try {
+            return barrier.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops ticking and terminates the tick thread.
+     */
+    public void release() {
+        stop();
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+    }
+
+    private void ensureThread() {
+        if (thread == null) {
+            thread = new HandlerThread(TAG, threadPriority);
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+    }
+
+    private void restart() {
+        handler.removeCallbacks(wakeUp);
+        startNanos = SystemClock.elapsedRealtimeNanos();
+        tickCount = 0;
+        handler.post(wakeUp);
+    }
+
+    private void onWakeUp() {
+        if (!running) {
+            return;
+        }
+        long deadline = startNanos + tickCount * periodNanos;
+        long now = SystemClock.elapsedRealtimeNanos();
+        while (now < deadline) {
+            now = SystemClock.elapsedRealtimeNanos();
+        }
+
+        long lateness = now - deadline;
+        if (lateness >= periodNanos) {
+            long missed = lateness / periodNanos;
+            if (missedTickPolicy == MissedTickPolicy.SKIP) {
+                ticksMissed += missed;
+                tickCount += missed;
+                deadline += missed * periodNanos;
+                lateness = now - deadline;
+            } else {
+                long burst = Math.min(missed, MAX_CATCH_UP_TICKS);
+                for (long i = 0; i < burst && running; i++) {
+                    fire(deadline, now - deadline);
+                    tickCount++;
+                    deadline += periodNanos;
+                }
+                if (missed > burst) {
+                    ticksMissed += missed - burst;
+                    tickCount += missed - burst;
+                    deadline += (missed - burst) * periodNanos;
+                }
+                lateness = now - deadline;
+            }
+        }
+        if (!running) {
+            return;
+        }
+        fire(deadline, lateness);
+        tickCount++;
+        scheduleNext();
+    }
+
+    private void fire(long deadline, long lateness) {
+        ticksFired++;
+        if (lateness > maxLatenessNanos) {
+            maxLatenessNanos = lateness;
+        }
+        latenessHistogram[(int) Math.min(HISTOGRAM_SIZE, lateness / HISTOGRAM_BUCKET)]++;
+        callback.onTick(deadline);
+    }
+
+    private void scheduleNext() {
+        long deadline = startNanos + tickCount * periodNanos;
+        long wakeAt = deadline - SPIN_WINDOW;
+        long delayMillis = (wakeAt - SystemClock.elapsedRealtimeNanos()) / NANOS_PER_MILLI;
+        if (delayMillis <= 0) {
+            handler.post(wakeUp);
+        } else {
+            handler.postAtTime(wakeUp, SystemClock.uptimeMillis() + delayMillis);
+        }
+    }
+
+    public void resetStatistics() {
+        Arrays.fill(latenessHistogram, 0);
+        ticksFired = 0;
+        ticksMissed = 0;
+        maxLatenessNanos = 0;
+    }
+
+    public long getTicksFired() {
+        return ticksFired;
+    }
+
+    public long getTicksMissed() {
+        return ticksMissed;
+    }
+
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * @param percentile in (0, 100]
+     * @return upper bound of the tick lateness at the given percentile in nanoseconds, with
+     * 0.1 ms resolution
+     */
+    public long getLatenessPercentile(double percentile) {
+        long total = 0;
+        for (int count : latenessHistogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < latenessHistogram.length; i++) {
+            seen += latenessHistogram[i];
+            if (seen >= threshold) {
+                return i == HISTOGRAM_SIZE ? maxLatenessNanos : (i + 1) * HISTOGRAM_BUCKET;
+            }
+        }
+        return maxLatenessNanos;
+    }
+
+    public void logStatistics() {
+        DLog.d(TAG, "ticks=" + ticksFired + " missed=" + ticksMissed
+                + " p99=" + getLatenessPercentile(99) / 1000 + "us"
+                + " max=" + maxLatenessNanos / 1000 + "us");
+    }
+}
@@ -0,0 +1,239 @@
+package com.dylan.fakemovinggps.location;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.track.TrackWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records received fixes into a {@link TrackWriter} file. {@link #record(Location)} only copies
+ * the fix into a small primitive ring buffer; encoding and file I/O happen on a background
+ * thread, so the caller's thread never blocks on storage.
+ * <p>
+ * Every buffered fix is tagged with its recording session, so fixes still queued when a new
+ * recording starts go to the old file and the new file only gets its own.
+ */
+public class TrackRecorder {
+    private static final String TAG = TrackRecorder.class.getSimpleName();
+
+    private static final int CAPACITY = 256;
+    private static final long FLUSH_INTERVAL = 5000; // ms
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    // ring buffer of pending fixes, guarded by this
+    private final long[] times = new long[CAPACITY];
+    private final double[] latitudes = new double[CAPACITY];
+    private final double[] longitudes = new double[CAPACITY];
+    private final double[] altitudes = new double[CAPACITY];
+    private final float[] speeds = new float[CAPACITY];
+    private final float[] bearings = new float[CAPACITY];
+    private final float[] accuracies = new float[CAPACITY];
+    private final int[] flags = new int[CAPACITY];
+    private final int[] sessions = new int[CAPACITY];
+    private int session;
+    private int head;
+    private int size;
+    private int dropped;
+    private boolean drainPending;
+
+    private File file;
+
+    // background thread only
+    private TrackWriter writer;
+    private int writerSession;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainPending();
+        }
+    };
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            drainPending();
+            try {
+                if (writer != null) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                DLog.e(TAG, "flush failed", e);
+            }
+            handler.postDelayed(this, FLUSH_INTERVAL);
+        }
+    };
+
+    public TrackRecorder() {
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public synchronized boolean isRecording() {
+        return file != null;
+    }
+
+    public synchronized File getFile() {
+        return file;
+    }
+
+    /**
+     * Starts appending fixes to {@code target}, stopping any previous recording first.
+     */
+    public void start(final File target) {
+        stop();
+        final int started;
+        synchronized (this) {
+            file = target;
+            started = ++session;
+            dropped = 0;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                writerSession = started;
+                try {
+                    writer = new TrackWriter(target);
+                    DLog.d(TAG, "recording to " + target);
+                } catch (IOException e) {
+                    DLog.e(TAG, "cannot open " + target, e);
+                    synchronized (TrackRecorder.this) {
+                        if (session == started) {
+                            file = null;
+                        }
+                    }
+                }
+                // fixes recorded before the writer was open
+                drainPending();
+            }
+        });
+        handler.postDelayed(flush, FLUSH_INTERVAL);
+    }
+
+    public void stop() {
+        final int lost;
+        synchronized (this) {
+            if (file == null) {
+                return;
+            }
+            file = null;
+            lost = dropped;
+        }
+        handler.removeCallbacks(flush);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                drainPending();
+                closeWriter(lost);
+            }
+        });
+    }
+
+    public void release() {
+        stop();
+        thread.quitSafely();
+    }
+
+    public void record(Location location) {
+        boolean post;
+        synchronized (this) {
+            if (file == null) {
+                return;
+            }
+            if (size == CAPACITY) {
+                dropped++;
+                return;
+            }
+            int i = (head + size) % CAPACITY;
+            times[i] = location.getTime();
+            latitudes[i] = location.getLatitude();
+            longitudes[i] = location.getLongitude();
+            altitudes[i] = location.getAltitude();
+            speeds[i] = location.getSpeed();
+            bearings[i] = location.getBearing();
+            accuracies[i] = location.getAccuracy();
+            flags[i] = (location.hasAltitude() ? TrackWriter.FLAG_ALTITUDE : 0)
+                    | (location.hasSpeed() ? TrackWriter.FLAG_SPEED : 0)
+                    | (location.hasBearing() ? TrackWriter.FLAG_BEARING : 0)
+                    | (location.hasAccuracy() ? TrackWriter.FLAG_ACCURACY : 0);
+            sessions[i] = session;
+            size++;
+            post = !drainPending;
+            drainPending = true;
+        }
+        if (post) {
+            handler.post(drain);
+        }
+    }
+
+    // writes the fixes of the open session, leaving those of a newer one for its writer
+    private void drainPending() {
+        while (true) {
+            long time;
+            double latitude;
+            double longitude;
+            double altitude;
+            float speed;
+            float bearing;
+            float accuracy;
+            int flag;
+            boolean same;
+            synchronized (this) {
+                if (size == 0) {
+                    drainPending = false;
+                    return;
+                }
+                if (sessions[head] - writerSession > 0) {
+                    // the newer session drains them once its writer is open
+                    return;
+                }
+                same = sessions[head] == writerSession;
+                time = times[head];
+                latitude = latitudes[head];
+                longitude = longitudes[head];
+                altitude = altitudes[head];
+                speed = speeds[head];
+                bearing = bearings[head];
+                accuracy = accuracies[head];
+                flag = flags[head];
+                head = (head + 1) % CAPACITY;
+                size--;
+            }
+            if (writer == null || !same) {
+                continue;
+            }
+            try {
+                writer.write(time, latitude, longitude, altitude, speed, bearing, accuracy, flag);
+            } catch (IOException e) {
+                DLog.e(TAG, "write failed", e);
+                int lost;
+                synchronized (this) {
+                    lost = dropped;
+                }
+                closeWriter(lost);
+            }
+        }
+    }
+
+    private void closeWriter(int lost) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            DLog.d(TAG, "recorded " + writer.getRecordCount() + " fixes, dropped " + lost);
+            writer.close();
+        } catch (IOException e) {
+            DLog.e(TAG, "close failed", e);
+        }
+        writer = null;
+    }
+}
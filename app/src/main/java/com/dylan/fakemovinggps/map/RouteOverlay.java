@@ -0,0 +1,197 @@
+package com.dylan.fakemovinggps.map;
+
+import android.graphics.Color;
+import android.os.AsyncTask;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.RouteLod;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.CameraPosition;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Draws a {@link Route} on the map at a level of detail matching the zoom. The levels are built
+ * once per route on background threads; on every camera stop the overlay picks the level whose
+ * tolerance is just below one pixel and only draws the parts of it near the visible region, so
+ * the number of drawn vertices follows the screen resolution rather than the route length.
+ */
+public class RouteOverlay implements GoogleMap.OnCameraIdleListener {
+    private static final String TAG = RouteOverlay.class.getSimpleName();
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PARALLELISM,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156543.03392;
+    private static final double VIEWPORT_MARGIN = 0.5;  // of the visible span, on every side
+    private static final float WIDTH = 8;               // px
+    private static final int COLOR = Color.argb(200, 33, 150, 243);
+
+    private final GoogleMap map;
+    private final List<Polyline> polylines = new ArrayList<>();
+
+    private LodTask task;
+    private RouteLod lod;
+    private int drawnLevel = -1;
+    private LatLngBounds drawnBounds;
+
+    public RouteOverlay(GoogleMap map) {
+        this.map = map;
+    }
+
+    /**
+     * Replaces the drawn route; the previous one stays visible until the new levels are ready.
+     */
+    public void setRoute(Route route) {
+        if (task != null) {
+            task.cancel(true);
+        }
+        if (route == null || route.size() < 2) {
+            task = null;
+            lod = null;
+            clear();
+            return;
+        }
+        task = new LodTask();
+        task.execute(route);
+    }
+
+    public void clear() {
+        for (Polyline polyline : polylines) {
+            polyline.remove();
+        }
+        polylines.clear();
+        drawnLevel = -1;
+        drawnBounds = null;
+    }
+
+    @Override
+    public void onCameraIdle() {
+        if (lod == null) {
+            return;
+        }
+        int level = RouteLod.selectLevel(getMetersPerPixel(map.getCameraPosition()));
+        LatLngBounds visible = map.getProjection().getVisibleRegion().latLngBounds;
+        if (level == drawnLevel && drawnBounds != null
+                && drawnBounds.contains(visible.southwest) && drawnBounds.contains(visible.northeast)) {
+            return;
+        }
+        draw(level, expand(visible));
+    }
+
+    /**
+     * @return ground resolution at the center of the camera
+     */
+    public static double getMetersPerPixel(CameraPosition camera) {
+        return METERS_PER_PIXEL_AT_ZOOM_0
+                * Math.cos(Math.toRadians(camera.target.latitude)) / Math.pow(2, camera.zoom);
+    }
+
+    private void draw(int level, LatLngBounds bounds) {
+        Route route = lod.getRoute();
+        int[] indices = lod.getLevel(level);
+        double south = bounds.southwest.latitude;
+        double north = bounds.northeast.latitude;
+        double west = bounds.southwest.longitude;
+        double east = bounds.northeast.longitude;
+        // a region across the antimeridian is not clipped
+        boolean clip = west <= east;
+
+        List<List<LatLng>> runs = new ArrayList<>();
+        List<LatLng> run = null;
+        for (int k = 0; k + 1 < indices.length; k++) {
+            int a = indices[k];
+            int b = indices[k + 1];
+            double latA = route.getLatitude(a);
+            double lonA = route.getLongitude(a);
+            double latB = route.getLatitude(b);
+            double lonB = route.getLongitude(b);
+            boolean visible = !clip || (Math.max(latA, latB) >= south && Math.min(latA, latB) <= north
+                    && Math.max(lonA, lonB) >= west && Math.min(lonA, lonB) <= east);
+            if (!visible) {
+                run = null;
+                continue;
+            }
+            if (run == null) {
+                run = new ArrayList<>();
+                run.add(new LatLng(latA, lonA));
+                runs.add(run);
+            }
+            run.add(new LatLng(latB, lonB));
+        }
+
+        for (int i = 0; i < runs.size(); i++) {
+            if (i < polylines.size()) {
+                polylines.get(i).setPoints(runs.get(i));
+            } else {
+                polylines.add(map.addPolyline(new PolylineOptions()
+                        .addAll(runs.get(i)).width(WIDTH).color(COLOR).geodesic(false)));
+            }
+        }
+        while (polylines.size() > runs.size()) {
+            polylines.remove(polylines.size() - 1).remove();
+        }
+        drawnLevel = level;
+        drawnBounds = bounds;
+        DLog.d(TAG, "level " + level + ": " + indices.length + " of " + route.size()
+                + " points, " + runs.size() + " visible runs");
+    }
+
+    private static LatLngBounds expand(LatLngBounds bounds) {
+        double latMargin = (bounds.northeast.latitude - bounds.southwest.latitude) * VIEWPORT_MARGIN;
+        double lonSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+        if (lonSpan < 0) {
+            return bounds;
+        }
+        double lonMargin = lonSpan * VIEWPORT_MARGIN;
+        return new LatLngBounds(
+                new LatLng(Math.max(-90, bounds.southwest.latitude - latMargin),
+                        Math.max(-180, bounds.southwest.longitude - lonMargin)),
+                new LatLng(Math.min(90, bounds.northeast.latitude + latMargin),
+                        Math.min(180, bounds.northeast.longitude + lonMargin)));
+    }
+
+    private class LodTask extends AsyncTask<Route, Void, RouteLod> {
+
+        @Override
+        protected RouteLod doInBackground(Route... routes) {
+            long start = System.nanoTime();
+            try {
+                RouteLod result = RouteLod.build(routes[0], EXECUTOR, PARALLELISM);
+                DLog.d(TAG, "levels of " + routes[0].size() + " points built in "
+                        + (System.nanoTime() - start) / 1000000 + " ms");
+                return result;
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(RouteLod result) {
+            if (task != this || result == null) {
+                return;
+            }
+            task = null;
+            lod = result;
+            clear();
+            onCameraIdle();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.dylan.fakemovinggps.track;
+
+/**
+ * Parses decimal numbers in place from a character buffer, so coordinate lists can be decoded
+ * without creating a String per number. Results are exact for up to 15 significant digits, which
+ * is well beyond the precision of any coordinate format.
+ */
+final class DecimalParser {
+    private static final int MAX_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private DecimalParser() {
+    }
+
+    /**
+     * @return the value of {@code chars[start, end)}, or NaN if it is not a plain decimal number
+     * with an optional sign, fraction and exponent
+     */
+    static double parse(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean anyDigit = false;
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+            anyDigit = true;
+            if (digits < MAX_DIGITS) {
+                mantissa = mantissa * 10 + (chars[i] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                scale++;
+            }
+        }
+        if (i < end && chars[i] == '.') {
+            for (i++; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    scale--;
+                }
+            }
+        }
+        if (!anyDigit) {
+            return Double.NaN;
+        }
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            int exponentStart = i;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                exponent = Math.min(1000, exponent * 10 + (chars[i] - '0'));
+            }
+            if (i == exponentStart) {
+                return Double.NaN;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != end) {
+            return Double.NaN;
+        }
+        double value = scale >= 0 ? mantissa * powerOfTen(scale) : mantissa / powerOfTen(-scale);
+        return negative ? -value : value;
+    }
+
+    private static double powerOfTen(int exponent) {
+        return exponent < POWERS_OF_TEN.length ? POWERS_OF_TEN[exponent] : Math.pow(10, exponent);
+    }
+}
@@ -0,0 +1,139 @@
+package com.dylan.fakemovinggps.track;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Streams the line geometry of a GeoJSON document into a {@link Route.Builder}. Every
+ * {@code LineString} and {@code MultiLineString} found in a FeatureCollection, Feature,
+ * GeometryCollection or bare geometry is appended in document order; properties and other
+ * members are skipped without being materialized.
+ * <p>
+ * Points are always ignored. Polygons are ignored when their {@code type} member precedes the
+ * {@code coordinates}, which is how every common writer orders them.
+ */
+public class GeoJsonImporter {
+
+    private static final String TYPE = "type";
+    private static final String COORDINATES = "coordinates";
+    private static final String GEOMETRY = "geometry";
+    private static final String FEATURES = "features";
+    private static final String GEOMETRIES = "geometries";
+    private static final String LINE_STRING = "LineString";
+    private static final String MULTI_LINE_STRING = "MultiLineString";
+
+    private static final int BYTES_PER_POINT_ESTIMATE = 40;
+
+    private GeoJsonImporter() {
+    }
+
+    /**
+     * @param in         the UTF-8 GeoJSON document, read to the end but not closed
+     * @param totalBytes size of {@code in} for progress reporting, or -1 if unknown
+     * @param listener   progress and cancellation, may be null
+     */
+    public static Route read(InputStream in, long totalBytes, ImportListener listener)
+            throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, BYTES_PER_POINT_ESTIMATE);
+        read(points);
+        return points.build("GeoJSON");
+    }
+
+    /**
+     * Streams the points into {@code out} instead of building a {@link Route}, for documents
+     * whose points may not fit in memory. The caller finishes {@code out}.
+     */
+    public static void read(InputStream in, long totalBytes, ImportListener listener,
+                            RouteFileWriter out) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, out);
+        read(points);
+        points.complete("GeoJSON");
+    }
+
+    private static void read(PointCollector points) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(points.getInput(), "UTF-8"));
+        try {
+            readObject(reader, points);
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed GeoJSON: " + e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed GeoJSON: " + e.getMessage(), e);
+        }
+    }
+
+    private static void readObject(JsonReader reader, PointCollector points) throws IOException {
+        String type = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (TYPE.equals(name) && token == JsonToken.STRING) {
+                type = reader.nextString();
+            } else if (COORDINATES.equals(name) && token == JsonToken.BEGIN_ARRAY
+                    && (type == null || LINE_STRING.equals(type) || MULTI_LINE_STRING.equals(type))) {
+                readCoordinates(reader, points);
+            } else if (GEOMETRY.equals(name) && token == JsonToken.BEGIN_OBJECT) {
+                readObject(reader, points);
+            } else if ((FEATURES.equals(name) || GEOMETRIES.equals(name))
+                    && token == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readObject(reader, points);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the {@code coordinates} member of a geometry, skipping it if it is a single position.
+     */
+    private static void readCoordinates(JsonReader reader, PointCollector points) throws IOException {
+        reader.beginArray();
+        boolean position = reader.hasNext() && reader.peek() == JsonToken.NUMBER;
+        while (reader.hasNext()) {
+            if (position) {
+                reader.skipValue();
+            } else {
+                readPositions(reader, points);
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads a position, or recursively an array of positions, in {@code [lon, lat, alt]} order.
+     */
+    private static void readPositions(JsonReader reader, PointCollector points) throws IOException {
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) {
+            double longitude = reader.nextDouble();
+            double latitude = reader.nextDouble();
+            while (reader.hasNext()) {
+                reader.skipValue();
+            }
+            if (!points.add(latitude, longitude)) {
+                throw new IOException("Invalid position [" + longitude + ", " + latitude + "]");
+            }
+            points.poll();
+        } else {
+            while (reader.hasNext()) {
+                readPositions(reader, points);
+            }
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,92 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams the points of a GPX file into a {@link Route.Builder}. Only {@code trkpt} and
+ * {@code rtept} coordinates are kept, so memory grows with the number of points and not with the
+ * size of the document; everything else (time, elevation, extensions) is skipped by the parser.
+ * <p>
+ * Track segments are joined in document order. A file holding both tracks and routes yields the
+ * points of whichever kind appears first.
+ */
+public class GpxImporter {
+
+    private static final String TRACK_POINT = "trkpt";
+    private static final String ROUTE_POINT = "rtept";
+    private static final String ATTRIBUTE_LATITUDE = "lat";
+    private static final String ATTRIBUTE_LONGITUDE = "lon";
+
+    private static final int BYTES_PER_POINT_ESTIMATE = 80;
+
+    private GpxImporter() {
+    }
+
+    /**
+     * @param parser     a fresh pull parser, e.g. {@code android.util.Xml.newPullParser()}
+     * @param in         the GPX document, read to the end but not closed
+     * @param totalBytes size of {@code in} for progress reporting, or -1 if unknown
+     * @param listener   progress and cancellation, may be null
+     */
+    public static Route read(XmlPullParser parser, InputStream in, long totalBytes,
+                             ImportListener listener) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, BYTES_PER_POINT_ESTIMATE);
+        read(parser, points);
+        return points.build("GPX");
+    }
+
+    /**
+     * Streams the points into {@code out} instead of building a {@link Route}, for documents
+     * whose points may not fit in memory. The caller finishes {@code out}.
+     */
+    public static void read(XmlPullParser parser, InputStream in, long totalBytes,
+                             ImportListener listener, RouteFileWriter out) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, out);
+        read(parser, points);
+        points.complete("GPX");
+    }
+
+    private static void read(XmlPullParser parser, PointCollector points) throws IOException {
+        try {
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(points.getInput(), null);
+
+            String pointTag = null;
+            int event = parser.getEventType();
+            while (event != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG) {
+                    String name = parser.getName();
+                    if (pointTag == null && (TRACK_POINT.equals(name) || ROUTE_POINT.equals(name))) {
+                        pointTag = name;
+                    }
+                    if (name.equals(pointTag)) {
+                        String latitude = parser.getAttributeValue(null, ATTRIBUTE_LATITUDE);
+                        String longitude = parser.getAttributeValue(null, ATTRIBUTE_LONGITUDE);
+                        if (!points.add(parseCoordinate(latitude), parseCoordinate(longitude))) {
+                            throw new IOException("Invalid " + pointTag + " '" + latitude + ","
+                                    + longitude + "' at line " + parser.getLineNumber());
+                        }
+                    }
+                }
+                points.poll();
+                event = parser.next();
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Malformed GPX: " + e.getMessage(), e);
+        }
+    }
+
+    private static double parseCoordinate(String value) {
+        try {
+            return value != null ? Double.parseDouble(value) : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.dylan.fakemovinggps.track;
+
+/**
+ * Observes a route import running on a worker thread.
+ */
+public interface ImportListener {
+
+    /**
+     * @param bytesRead  bytes consumed from the input so far
+     * @param totalBytes size of the input, or -1 if unknown
+     */
+    void onProgress(long bytesRead, long totalBytes);
+
+    /**
+     * Polled regularly by the importer; returning true aborts the import with an
+     * {@link java.io.InterruptedIOException}.
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,175 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams the line geometry of a KML file into a {@link Route.Builder}: the
+ * {@code <coordinates>} of every {@code LineString} and the {@code <gx:coord>} entries of every
+ * {@code gx:Track}, joined in document order. Points and polygons are ignored.
+ * <p>
+ * Coordinate text is parsed straight out of the parser's character buffer, so no String is
+ * created per point.
+ */
+public class KmlImporter {
+
+    private static final String LINE_STRING = "LineString";
+    private static final String COORDINATES = "coordinates";
+    private static final String TRACK = "Track";
+    private static final String TRACK_COORD = "coord";
+
+    private static final int BYTES_PER_POINT_ESTIMATE = 30;
+
+    private KmlImporter() {
+    }
+
+    /**
+     * @param parser     a fresh pull parser, e.g. {@code android.util.Xml.newPullParser()}
+     * @param in         the KML document, read to the end but not closed
+     * @param totalBytes size of {@code in} for progress reporting, or -1 if unknown
+     * @param listener   progress and cancellation, may be null
+     */
+    public static Route read(XmlPullParser parser, InputStream in, long totalBytes,
+                             ImportListener listener) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, BYTES_PER_POINT_ESTIMATE);
+        read(parser, points);
+        return points.build("KML");
+    }
+
+    /**
+     * Streams the points into {@code out} instead of building a {@link Route}, for documents
+     * whose points may not fit in memory. The caller finishes {@code out}.
+     */
+    public static void read(XmlPullParser parser, InputStream in, long totalBytes,
+                             ImportListener listener, RouteFileWriter out) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, out);
+        read(parser, points);
+        points.complete("KML");
+    }
+
+    private static void read(XmlPullParser parser, PointCollector points) throws IOException {
+        int[] range = new int[2];
+        try {
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(points.getInput(), null);
+
+            int lineStrings = 0;
+            int tracks = 0;
+            int event = parser.getEventType();
+            while (event != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.START_TAG) {
+                    String name = parser.getName();
+                    if (LINE_STRING.equals(name)) {
+                        lineStrings++;
+                    } else if (TRACK.equals(name)) {
+                        tracks++;
+                    } else if (lineStrings > 0 && COORDINATES.equals(name)) {
+                        event = parser.next();
+                        if (event == XmlPullParser.TEXT) {
+                            char[] text = parser.getTextCharacters(range);
+                            readTuples(text, range[0], range[0] + range[1], points, parser);
+                        }
+                        continue;
+                    } else if (tracks > 0 && TRACK_COORD.equals(name)) {
+                        event = parser.next();
+                        if (event == XmlPullParser.TEXT) {
+                            char[] text = parser.getTextCharacters(range);
+                            readTrackCoord(text, range[0], range[0] + range[1], points, parser);
+                        }
+                        continue;
+                    }
+                } else if (event == XmlPullParser.END_TAG) {
+                    String name = parser.getName();
+                    if (LINE_STRING.equals(name)) {
+                        lineStrings--;
+                    } else if (TRACK.equals(name)) {
+                        tracks--;
+                    }
+                }
+                points.poll();
+                event = parser.next();
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Malformed KML: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decodes whitespace separated {@code lon,lat[,alt]} tuples.
+     */
+    private static void readTuples(char[] text, int start, int end, PointCollector points,
+                                   XmlPullParser parser) throws IOException {
+        int i = start;
+        while (true) {
+            while (i < end && isWhitespace(text[i])) {
+                i++;
+            }
+            if (i == end) {
+                return;
+            }
+            int tupleStart = i;
+            while (i < end && !isWhitespace(text[i])) {
+                i++;
+            }
+            int firstComma = indexOf(text, ',', tupleStart, i);
+            int secondComma = indexOf(text, ',', firstComma + 1, i);
+            double longitude = DecimalParser.parse(text, tupleStart, firstComma);
+            double latitude = DecimalParser.parse(text, firstComma + 1, secondComma);
+            if (firstComma == i || !points.add(latitude, longitude)) {
+                throw invalid(text, tupleStart, i, parser);
+            }
+            points.poll();
+        }
+    }
+
+    /**
+     * Decodes a single whitespace separated {@code lon lat [alt]} triple.
+     */
+    private static void readTrackCoord(char[] text, int start, int end, PointCollector points,
+                                       XmlPullParser parser) throws IOException {
+        int i = start;
+        while (i < end && isWhitespace(text[i])) {
+            i++;
+        }
+        int longitudeStart = i;
+        while (i < end && !isWhitespace(text[i])) {
+            i++;
+        }
+        int longitudeEnd = i;
+        while (i < end && isWhitespace(text[i])) {
+            i++;
+        }
+        int latitudeStart = i;
+        while (i < end && !isWhitespace(text[i])) {
+            i++;
+        }
+        double longitude = DecimalParser.parse(text, longitudeStart, longitudeEnd);
+        double latitude = DecimalParser.parse(text, latitudeStart, i);
+        if (!points.add(latitude, longitude)) {
+            throw invalid(text, start, end, parser);
+        }
+    }
+
+    private static int indexOf(char[] text, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (text[i] == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static IOException invalid(char[] text, int start, int end, XmlPullParser parser) {
+        return new IOException("Invalid coordinate '" + new String(text, start, end - start).trim()
+                + "' near line " + parser.getLineNumber());
+    }
+}
@@ -0,0 +1,260 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link Route} backed by a memory-mapped {@link RouteFile}. Opening only reads the header; the
+ * chunk index is searched in place and a single chunk is decoded into reusable arrays when a
+ * lookup leaves the current one, so the Java heap cost is independent of the route length.
+ * <p>
+ * The decoded chunk is shared state: a mapped route must only be used from one thread at a time,
+ * which the playback engine guarantees by confining it to the tick thread. Other threads read
+ * through their own {@link #view()}.
+ */
+public class MappedRoute extends Route {
+
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer reader;
+    private final int size;
+    private final int chunkCount;
+    private final int indexOffset;
+    private final double totalDistance;
+    private final double duration;
+    private final SpeedProfile speedProfile;
+
+    // currently decoded chunk
+    private int chunk = -1;
+    private int chunkFirst;
+    private int decodedCount;   // points in the decoded chunk
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] distances;
+    private final double[] times;
+    private final double[] speeds;
+    private final float[] bearings;
+
+    private MappedRoute(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.reader = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < RouteFile.HEADER_SIZE || buffer.getInt(0) != RouteFile.MAGIC) {
+            throw new IOException("Not a route file");
+        }
+        int version = buffer.getInt(4);
+        if (version != RouteFile.VERSION) {
+            throw new IOException("Unsupported route version " + version);
+        }
+        size = buffer.getInt(RouteFile.OFFSET_POINT_COUNT);
+        int chunkSize = buffer.getInt(RouteFile.OFFSET_CHUNK_SIZE);
+        chunkCount = buffer.getInt(RouteFile.OFFSET_CHUNK_COUNT);
+        long index = buffer.getLong(RouteFile.OFFSET_INDEX);
+        if (size < 1 || chunkSize < 2 || chunkCount < 1
+                || index + (long) chunkCount * RouteFile.INDEX_ENTRY_SIZE > buffer.capacity()) {
+            throw new IOException("Corrupt route header");
+        }
+        indexOffset = (int) index;
+        totalDistance = buffer.getDouble(RouteFile.OFFSET_TOTAL_DISTANCE);
+        duration = buffer.getDouble(RouteFile.OFFSET_DURATION);
+        int p = RouteFile.OFFSET_PROFILE;
+        speedProfile = new SpeedProfile(buffer.getDouble(p), buffer.getDouble(p + 8),
+                buffer.getDouble(p + 16), buffer.getDouble(p + 24));
+
+        latitudes = new double[chunkSize];
+        longitudes = new double[chunkSize];
+        distances = new double[chunkSize];
+        times = new double[chunkSize];
+        speeds = new double[chunkSize];
+        bearings = new float[chunkSize];
+    }
+
+    public static MappedRoute open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Route file too large: " + channel.size());
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedRoute(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return a new mapped route sharing this mapping but decoding into its own arrays
+     */
+    @Override
+    public Route view() {
+        try {
+            return new MappedRoute(buffer);
+        } catch (IOException e) {
+            // the header was validated when this instance was opened
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getLatitude(int index) {
+        return latitudes[local(index)];
+    }
+
+    @Override
+    public double getLongitude(int index) {
+        return longitudes[local(index)];
+    }
+
+    @Override
+    public double getDistance(int index) {
+        return distances[local(index)];
+    }
+
+    @Override
+    public double getTime(int index) {
+        return times[local(index)];
+    }
+
+    @Override
+    public double getSpeed(int index) {
+        return speeds[local(index)];
+    }
+
+    @Override
+    public float getBearing(int index) {
+        // the overlapping last point of a chunk does not know the next segment
+        if (chunk < 0 || (index >= chunkFirst + decodedCount - 1 && chunk < chunkCount - 1)) {
+            decode(chunkOf(index));
+        }
+        return bearings[local(index)];
+    }
+
+    @Override
+    public SpeedProfile getSpeedProfile() {
+        return speedProfile;
+    }
+
+    @Override
+    public double getTotalDistance() {
+        return totalDistance;
+    }
+
+    @Override
+    public double getDuration() {
+        return duration;
+    }
+
+    @Override
+    public int findSegmentByDistance(double distance, int hint) {
+        return findSegment(false, distance);
+    }
+
+    @Override
+    public int findSegmentByTime(double seconds, int hint) {
+        return findSegment(true, seconds);
+    }
+
+    private int findSegment(boolean byTime, double value) {
+        if (size == 1) {
+            return 0;
+        }
+        double[] table = byTime ? times : distances;
+        boolean inChunk = chunk >= 0
+                && (value >= table[0] || chunk == 0)
+                && (value < table[decodedCount - 1] || chunk == chunkCount - 1);
+        if (!inChunk) {
+            decode(searchIndex(byTime ? 24 : 16, value));
+        }
+        int low = 0;
+        int high = decodedCount - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (table[mid] <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return chunkFirst + low;
+    }
+
+    // last chunk whose start value (at fieldOffset inside the index entry) is <= value
+    private int searchIndex(int fieldOffset, double value) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (buffer.getDouble(indexOffset + mid * RouteFile.INDEX_ENTRY_SIZE + fieldOffset) <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int chunkOf(int index) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (buffer.getInt(indexOffset + mid * RouteFile.INDEX_ENTRY_SIZE + 8) <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int local(int index) {
+        if (chunk < 0 || index < chunkFirst || index >= chunkFirst + decodedCount) {
+            decode(chunkOf(index));
+        }
+        return index - chunkFirst;
+    }
+
+    private void decode(int target) {
+        int entry = indexOffset + target * RouteFile.INDEX_ENTRY_SIZE;
+        int position = (int) buffer.getLong(entry);
+        chunkFirst = buffer.getInt(entry + 8);
+        double startDistance = buffer.getDouble(entry + 16);
+
+        ByteBuffer in = reader;
+        in.position(position);
+        int count = (int) VarInt.getUnsigned(in);
+        int lat = in.getInt();
+        int lon = in.getInt();
+        long millis = VarInt.getUnsigned(in);
+        latitudes[0] = lat / RouteFile.E7;
+        longitudes[0] = lon / RouteFile.E7;
+        times[0] = millis / 1000.0;
+        speeds[0] = VarInt.getUnsigned(in) / 100.0;
+        for (int i = 1; i < count; i++) {
+            lat += (int) VarInt.getSigned(in);
+            lon += (int) VarInt.getSigned(in);
+            millis += VarInt.getUnsigned(in);
+            latitudes[i] = lat / RouteFile.E7;
+            longitudes[i] = lon / RouteFile.E7;
+            times[i] = millis / 1000.0;
+            speeds[i] = VarInt.getUnsigned(in) / 100.0;
+        }
+        GeoUtils.cumulate(latitudes, longitudes, 0, count, startDistance, distances, bearings);
+        decodedCount = count;
+        chunk = target;
+    }
+}
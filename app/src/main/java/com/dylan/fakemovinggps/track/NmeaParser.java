@@ -0,0 +1,447 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams fixes out of a raw NMEA 0183 log. {@code RMC}, {@code GGA} and {@code VTG} sentences
+ * from any talker are merged into one fix per epoch: position from RMC or GGA, speed and course
+ * from RMC or VTG, altitude and HDOP from GGA and the date from RMC. Sentences with a bad
+ * checksum and epochs without a valid position are skipped.
+ * <p>
+ * Lines are copied into a reusable character buffer and fields are addressed by offset, so the
+ * parser allocates nothing per sentence; logs with tens of millions of lines stream in constant
+ * memory.
+ */
+public class NmeaParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 256;     // the standard allows 82
+    private static final int MAX_FIELDS = 32;
+
+    private static final double KNOTS = 1852.0 / 3600.0;   // m/s
+    private static final double KILOMETERS_PER_HOUR = 1 / 3.6;
+    private static final float ACCURACY_PER_HDOP = 5;      // m, typical user range error
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+
+    private final char[] line = new char[MAX_LINE_LENGTH];
+    private int lineLength;
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fieldCount;
+
+    // epoch being assembled
+    private boolean pending;
+    private long pendingTimeOfDay;
+    private boolean hasPosition;
+    private int flags;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private float speed;
+    private float bearing;
+    private float accuracy;
+
+    private long dateMillis;
+    private long lastTimeOfDay = -1;
+
+    private long sentenceCount;
+    private long rejectedCount;
+
+    public NmeaParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads up to the end of the next complete epoch.
+     *
+     * @param fix receives the position, with {@link MockFix#time} set to the UTC time of the
+     *            epoch; fields whose flag is not set are 0
+     * @return the {@link TrackWriter} {@code FLAG_*} bits of the fields present in the epoch, or
+     * -1 at the end of the log
+     */
+    public int next(MockFix fix) throws IOException {
+        while (readLine()) {
+            if (!splitSentence()) {
+                continue;
+            }
+            int type = fieldStart[0] + 2;   // skip the two talker characters
+            if (fieldEnd[0] - type != 3) {
+                continue;
+            }
+            boolean rmc = matches(type, 'R', 'M', 'C');
+            boolean gga = !rmc && matches(type, 'G', 'G', 'A');
+            if (rmc || gga) {
+                long timeOfDay = parseTimeOfDay(1);
+                if (timeOfDay < 0) {
+                    rejectedCount++;
+                    continue;
+                }
+                int result = -1;
+                if (pending && timeOfDay != pendingTimeOfDay) {
+                    result = finishEpoch(fix);
+                }
+                if (!pending) {
+                    beginEpoch(timeOfDay);
+                }
+                if (rmc) {
+                    applyRmc();
+                } else {
+                    applyGga();
+                }
+                if (result >= 0) {
+                    return result;
+                }
+            } else if (matches(type, 'V', 'T', 'G')) {
+                if (pending) {
+                    applyVtg();
+                }
+            }
+        }
+        if (pending) {
+            return finishEpoch(fix);
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of sentences with a valid checksum read so far
+     */
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    /**
+     * @return number of lines dropped for a bad checksum, bad syntax or excessive length
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private void beginEpoch(long timeOfDay) {
+        if (lastTimeOfDay >= 0 && timeOfDay < lastTimeOfDay - MILLIS_PER_DAY / 2) {
+            // midnight passed without an RMC to tell the new date
+            dateMillis += MILLIS_PER_DAY;
+        }
+        lastTimeOfDay = timeOfDay;
+        pending = true;
+        pendingTimeOfDay = timeOfDay;
+        hasPosition = false;
+        flags = 0;
+        altitude = 0;
+        speed = 0;
+        bearing = 0;
+        accuracy = 0;
+    }
+
+    /**
+     * Copies the pending epoch into {@code fix} and clears it.
+     *
+     * @return the epoch flags, or -1 if it had no valid position
+     */
+    private int finishEpoch(MockFix fix) {
+        pending = false;
+        if (!hasPosition) {
+            return -1;
+        }
+        fix.latitude = latitude;
+        fix.longitude = longitude;
+        fix.altitude = altitude;
+        fix.speed = speed;
+        fix.bearing = bearing;
+        fix.accuracy = accuracy;
+        fix.time = dateMillis + pendingTimeOfDay;
+        return flags;
+    }
+
+    private void applyRmc() {
+        // $--RMC,time,status,lat,N/S,lon,E/W,knots,course,ddmmyy,...
+        long date = parseDate(9);
+        if (date >= 0) {
+            dateMillis = date;
+        }
+        if (field(2) != 'A') {
+            return;
+        }
+        applyPosition(3);
+        double knots = number(7);
+        if (!Double.isNaN(knots)) {
+            speed = (float) (knots * KNOTS);
+            flags |= TrackWriter.FLAG_SPEED;
+        }
+        double course = number(8);
+        if (!Double.isNaN(course)) {
+            bearing = (float) course;
+            flags |= TrackWriter.FLAG_BEARING;
+        }
+    }
+
+    private void applyGga() {
+        // $--GGA,time,lat,N/S,lon,E/W,quality,satellites,hdop,altitude,M,separation,M,...
+        char quality = field(6);
+        if (quality == 0 || quality == '0') {
+            return;
+        }
+        applyPosition(2);
+        double hdop = number(8);
+        if (!Double.isNaN(hdop)) {
+            accuracy = (float) hdop * ACCURACY_PER_HDOP;
+            flags |= TrackWriter.FLAG_ACCURACY;
+        }
+        double mslAltitude = number(9);
+        if (!Double.isNaN(mslAltitude)) {
+            // Location expects height above the WGS84 ellipsoid
+            double separation = number(11);
+            altitude = Double.isNaN(separation) ? mslAltitude : mslAltitude + separation;
+            flags |= TrackWriter.FLAG_ALTITUDE;
+        }
+    }
+
+    private void applyVtg() {
+        // $--VTG,course,T,magnetic,M,knots,N,km/h,K,...
+        double course = number(1);
+        if (!Double.isNaN(course)) {
+            bearing = (float) course;
+            flags |= TrackWriter.FLAG_BEARING;
+        }
+        double kilometersPerHour = number(7);
+        double knots = number(5);
+        if (!Double.isNaN(kilometersPerHour)) {
+            speed = (float) (kilometersPerHour * KILOMETERS_PER_HOUR);
+            flags |= TrackWriter.FLAG_SPEED;
+        } else if (!Double.isNaN(knots)) {
+            speed = (float) (knots * KNOTS);
+            flags |= TrackWriter.FLAG_SPEED;
+        }
+    }
+
+    /**
+     * Reads {@code ddmm.mmmm,N/S,dddmm.mmmm,E/W} starting at {@code index}.
+     */
+    private void applyPosition(int index) {
+        double lat = parseAngle(index, 'S');
+        double lon = parseAngle(index + 2, 'W');
+        if (Math.abs(lat) <= 90 && Math.abs(lon) <= 180) {
+            latitude = lat;
+            longitude = lon;
+            hasPosition = true;
+        }
+    }
+
+    private double parseAngle(int index, char negativeHemisphere) {
+        double value = number(index);
+        char hemisphere = field(index + 1);
+        if (Double.isNaN(value) || hemisphere == 0) {
+            return Double.NaN;
+        }
+        int degrees = (int) (value / 100);
+        double minutes = value - degrees * 100;
+        if (minutes >= 60) {
+            return Double.NaN;
+        }
+        double angle = degrees + minutes / 60;
+        return hemisphere == negativeHemisphere ? -angle : angle;
+    }
+
+    /**
+     * @return milliseconds since midnight for {@code hhmmss.sss}, or -1
+     */
+    private long parseTimeOfDay(int index) {
+        if (index >= fieldCount || fieldEnd[index] - fieldStart[index] < 6) {
+            return -1;
+        }
+        int start = fieldStart[index];
+        int hours = twoDigits(start);
+        int minutes = twoDigits(start + 2);
+        double seconds = DecimalParser.parse(line, start + 4, fieldEnd[index]);
+        if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59
+                || !(seconds >= 0 && seconds < 61)) {
+            return -1;
+        }
+        return (hours * 3600L + minutes * 60L) * 1000L + Math.round(seconds * 1000);
+    }
+
+    /**
+     * @return milliseconds since the epoch for {@code ddmmyy}, or -1
+     */
+    private long parseDate(int index) {
+        if (index >= fieldCount || fieldEnd[index] - fieldStart[index] != 6) {
+            return -1;
+        }
+        int start = fieldStart[index];
+        int day = twoDigits(start);
+        int month = twoDigits(start + 2);
+        int year = twoDigits(start + 4);
+        if (day < 1 || day > 31 || month < 1 || month > 12 || year < 0) {
+            return -1;
+        }
+        year += year < 80 ? 2000 : 1900;
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private int twoDigits(int offset) {
+        int high = line[offset] - '0';
+        int low = line[offset + 1] - '0';
+        if (high < 0 || high > 9 || low < 0 || low > 9) {
+            return -1;
+        }
+        return high * 10 + low;
+    }
+
+    private double number(int index) {
+        if (index >= fieldCount || fieldStart[index] == fieldEnd[index]) {
+            return Double.NaN;
+        }
+        return DecimalParser.parse(line, fieldStart[index], fieldEnd[index]);
+    }
+
+    /**
+     * @return the first character of a field, or 0 if it is missing or empty
+     */
+    private char field(int index) {
+        if (index >= fieldCount || fieldStart[index] == fieldEnd[index]) {
+            return 0;
+        }
+        return line[fieldStart[index]];
+    }
+
+    private boolean matches(int offset, char a, char b, char c) {
+        return line[offset] == a && line[offset + 1] == b && line[offset + 2] == c;
+    }
+
+    /**
+     * Verifies the checksum of the sentence in {@link #line} and records its field boundaries.
+     * Field 0 is the address, e.g. {@code GPRMC}.
+     */
+    private boolean splitSentence() {
+        int length = lineLength;
+        int start = 0;
+        while (start < length && line[start] != '$') {
+            start++;
+        }
+        if (length - start < 7) {
+            return false;
+        }
+        int end = start + 1;
+        int checksum = 0;
+        while (end < length && line[end] != '*') {
+            checksum ^= line[end];
+            end++;
+        }
+        if (end < length) {
+            int expected = end + 2 < length ? hex(line[end + 1]) << 4 | hex(line[end + 2]) : -1;
+            if (expected != checksum) {
+                rejectedCount++;
+                return false;
+            }
+        }
+
+        fieldCount = 0;
+        int fieldFrom = start + 1;
+        for (int i = fieldFrom; i <= end; i++) {
+            if (i == end || line[i] == ',') {
+                if (fieldCount == MAX_FIELDS) {
+                    break;
+                }
+                fieldStart[fieldCount] = fieldFrom;
+                fieldEnd[fieldCount] = i;
+                fieldCount++;
+                fieldFrom = i + 1;
+            }
+        }
+        sentenceCount++;
+        return true;
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -256;
+    }
+
+    /**
+     * Copies the next line, without its terminator, into {@link #line}. Overlong lines are
+     * dropped.
+     *
+     * @return false at the end of the input
+     */
+    private boolean readLine() throws IOException {
+        while (true) {
+            int newline = -1;
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline < 0 && !endOfInput) {
+                if (position == 0 && limit == buffer.length) {
+                    // no line break in a full buffer, this is not NMEA
+                    rejectedCount++;
+                    limit = 0;
+                }
+                fill();
+                continue;
+            }
+            if (newline < 0 && position == limit) {
+                return false;
+            }
+            int end = newline < 0 ? limit : newline;
+            int start = position;
+            position = newline < 0 ? limit : newline + 1;
+            if (end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+            if (end - start > MAX_LINE_LENGTH) {
+                rejectedCount++;
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                line[i - start] = (char) (buffer[i] & 0xFF);
+            }
+            lineLength = end - start;
+            return true;
+        }
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            endOfInput = true;
+        } else {
+            limit += n;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Shared state of the streaming importers: the route under construction, or the route file the
+ * points go straight into, byte counting for progress and periodic polling of the
+ * {@link ImportListener}.
+ */
+class PointCollector {
+    private static final int POLL_INTERVAL = 1024;  // poll() calls between listener calls
+    private static final int MAX_PRESIZE = 1 << 20;
+
+    private final CountingInputStream input;
+    private final long totalBytes;
+    private final ImportListener listener;
+    private final Route.Builder builder;
+    private final RouteFileWriter writer;
+
+    private double lastLatitude = Double.NaN;
+    private double lastLongitude = Double.NaN;
+    private int polls;
+
+    /**
+     * @param bytesPerPoint rough size of one point in the source format, used to presize the
+     *                      builder when the input size is known
+     */
+    PointCollector(InputStream in, long totalBytes, ImportListener listener, int bytesPerPoint) {
+        this.input = new CountingInputStream(in);
+        this.totalBytes = totalBytes;
+        this.listener = listener;
+        this.builder = new Route.Builder(totalBytes > 0
+                ? (int) Math.min(MAX_PRESIZE, totalBytes / bytesPerPoint) : 1024);
+        this.writer = null;
+    }
+
+    PointCollector(InputStream in, long totalBytes, ImportListener listener, RouteFileWriter writer) {
+        this.input = new CountingInputStream(in);
+        this.totalBytes = totalBytes;
+        this.listener = listener;
+        this.builder = null;
+        this.writer = writer;
+    }
+
+    InputStream getInput() {
+        return input;
+    }
+
+    int size() {
+        return builder != null ? builder.size() : writer.size();
+    }
+
+    /**
+     * Appends a point unless it repeats the previous one; stationary loggers emit the same fix
+     * over and over, which would only add empty segments.
+     *
+     * @return false if the coordinates are out of range
+     */
+    boolean add(double latitude, double longitude) throws IOException {
+        if (!(Math.abs(latitude) <= 90) || !(Math.abs(longitude) <= 180)) {
+            return false;
+        }
+        if (latitude != lastLatitude || longitude != lastLongitude) {
+            if (builder != null) {
+                builder.add(latitude, longitude);
+            } else {
+                writer.add(latitude, longitude);
+            }
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return true;
+    }
+
+    /**
+     * Called by the importers for every unit of work; every {@link #POLL_INTERVAL} calls the
+     * listener gets a progress report and a chance to cancel.
+     */
+    void poll() throws InterruptedIOException {
+        if (listener != null && ++polls == POLL_INTERVAL) {
+            polls = 0;
+            if (listener.isCancelled()) {
+                throw new InterruptedIOException("Import cancelled");
+            }
+            listener.onProgress(input.getCount(), totalBytes);
+        }
+    }
+
+    void setSpeedProfile(SpeedProfile speedProfile) {
+        builder.setSpeedProfile(speedProfile);
+    }
+
+    Route build(String format) throws IOException {
+        complete(format);
+        return builder.build();
+    }
+
+    /**
+     * Checks that the document had points and reports the final progress.
+     */
+    void complete(String format) throws IOException {
+        if (size() == 0) {
+            throw new IOException(format + " has no route points");
+        }
+        if (listener != null) {
+            listener.onProgress(input.getCount(), totalBytes);
+        }
+    }
+}
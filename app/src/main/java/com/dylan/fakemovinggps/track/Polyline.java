@@ -0,0 +1,260 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Encoder and decoder for the Google encoded polyline format. The core works on {@code char[]}
+ * and primitive coordinate arrays; the String and {@link Route} variants only add a single copy
+ * at the boundary.
+ * <p>
+ * Precision 5 is the format used by the Google APIs, precision 6 the variant used by OSRM and
+ * Valhalla. Every point takes at most {@link #MAX_CHARS_PER_POINT} characters at either precision.
+ */
+public final class Polyline {
+
+    public static final int DEFAULT_PRECISION = 5;
+    public static final int MAX_CHARS_PER_POINT = 12;
+
+    private static final int CHUNK_BITS = 5;
+    private static final int CHUNK_MASK = 0x1F;
+    private static final int CONTINUATION = 0x20;
+    private static final int OFFSET = 63;
+    private static final int MAX_SHIFT = 25;    // six chunks cover the 30 bit values of precision 6
+    private static final int BYTES_PER_POINT_ESTIMATE = 8;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private Polyline() {
+    }
+
+    public static int maxEncodedLength(int pointCount) {
+        return pointCount * MAX_CHARS_PER_POINT;
+    }
+
+    /**
+     * @param out must have room for {@link #maxEncodedLength(int)} characters
+     * @return number of characters written
+     */
+    public static int encode(double[] latitudes, double[] longitudes, int offset, int count,
+                             int precision, char[] out, int outOffset) {
+        double factor = factor(precision);
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+        int position = outOffset;
+        for (int i = offset; i < offset + count; i++) {
+            long latitude = Math.round(latitudes[i] * factor);
+            long longitude = Math.round(longitudes[i] * factor);
+            position = put(latitude - lastLatitude, out, position);
+            position = put(longitude - lastLongitude, out, position);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return position - outOffset;
+    }
+
+    public static String encode(Route route, int precision) {
+        double factor = factor(precision);
+        char[] out = new char[maxEncodedLength(route.size())];
+        long lastLatitude = 0;
+        long lastLongitude = 0;
+        int position = 0;
+        for (int i = 0; i < route.size(); i++) {
+            long latitude = Math.round(route.getLatitude(i) * factor);
+            long longitude = Math.round(route.getLongitude(i) * factor);
+            position = put(latitude - lastLatitude, out, position);
+            position = put(longitude - lastLongitude, out, position);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return new String(out, 0, position);
+    }
+
+    public static String encode(Route route) {
+        return encode(route, DEFAULT_PRECISION);
+    }
+
+    private static int put(long delta, char[] out, int position) {
+        long value = delta < 0 ? ~(delta << 1) : delta << 1;
+        while (value >= CONTINUATION) {
+            out[position++] = (char) ((CONTINUATION | (value & CHUNK_MASK)) + OFFSET);
+            value >>>= CHUNK_BITS;
+        }
+        out[position++] = (char) (value + OFFSET);
+        return position;
+    }
+
+    /**
+     * @return number of points encoded in {@code chars[offset, offset + length)}, counting a
+     * trailing incomplete point as a whole one
+     */
+    public static int countPoints(char[] chars, int offset, int length) {
+        int values = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (chars[i] - OFFSET < CONTINUATION) {
+                values++;
+            }
+        }
+        return (values + 1) / 2;
+    }
+
+    /**
+     * Decodes {@code chars[offset, offset + length)} into the coordinate arrays, which must have
+     * room for {@link #countPoints(char[], int, int)} points from {@code outOffset}.
+     *
+     * @return number of decoded points
+     * @throws IllegalArgumentException if the input is not a valid polyline
+     */
+    public static int decode(char[] chars, int offset, int length, int precision,
+                             double[] latitudes, double[] longitudes, int outOffset) {
+        double factor = factor(precision);
+        int end = offset + length;
+        int position = offset;
+        int latitude = 0;
+        int longitude = 0;
+        int point = outOffset;
+        boolean expectLongitude = false;
+        while (position < end) {
+            int result = 0;
+            int shift = 0;
+            int chunk;
+            do {
+                if (position == end) {
+                    throw new IllegalArgumentException("Truncated polyline");
+                }
+                chunk = chars[position++] - OFFSET;
+                if (chunk < 0 || chunk > (CONTINUATION | CHUNK_MASK) || shift > MAX_SHIFT) {
+                    throw new IllegalArgumentException("Invalid polyline at " + (position - 1));
+                }
+                result |= (chunk & CHUNK_MASK) << shift;
+                shift += CHUNK_BITS;
+            } while (chunk >= CONTINUATION);
+            int delta = (result >>> 1) ^ -(result & 1);
+
+            if (expectLongitude) {
+                longitude += delta;
+                latitudes[point] = latitude / factor;
+                longitudes[point] = longitude / factor;
+                point++;
+            } else {
+                latitude += delta;
+            }
+            expectLongitude = !expectLongitude;
+        }
+        if (expectLongitude) {
+            throw new IllegalArgumentException("Truncated polyline");
+        }
+        return point - outOffset;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code encoded} is empty or not a valid polyline
+     */
+    public static Route decode(String encoded, int precision, SpeedProfile speedProfile) {
+        char[] chars = encoded.toCharArray();
+        int count = countPoints(chars, 0, chars.length);
+        if (count == 0) {
+            throw new IllegalArgumentException("Empty polyline");
+        }
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        decode(chars, 0, chars.length, precision, latitudes, longitudes, 0);
+        return Route.wrap(latitudes, longitudes, speedProfile);
+    }
+
+    public static Route decode(String encoded) {
+        return decode(encoded, DEFAULT_PRECISION, SpeedProfile.of(Route.DEFAULT_SPEED));
+    }
+
+    /**
+     * Streaming variant of {@link #decode(String, int, SpeedProfile)} for polylines too large to
+     * hold as a String: decodes while reading, so only the points are kept. Line breaks and other
+     * whitespace in the input are skipped.
+     *
+     * @param in         the polyline, read to the end but not closed
+     * @param totalBytes size of {@code in} for progress reporting, or -1 if unknown
+     * @param listener   progress and cancellation, may be null
+     */
+    public static Route read(InputStream in, long totalBytes, int precision, SpeedProfile speedProfile,
+                             ImportListener listener) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, BYTES_PER_POINT_ESTIMATE);
+        read(precision, points);
+        points.setSpeedProfile(speedProfile);
+        return points.build("Polyline");
+    }
+
+    /**
+     * Streams the points into {@code out} instead of building a {@link Route}; speeds come from
+     * the profile of {@code out}. The caller finishes {@code out}.
+     */
+    public static void read(InputStream in, long totalBytes, int precision, ImportListener listener,
+                            RouteFileWriter out) throws IOException {
+        PointCollector points = new PointCollector(in, totalBytes, listener, out);
+        read(precision, points);
+        points.complete("Polyline");
+    }
+
+    private static void read(int precision, PointCollector points) throws IOException {
+        double factor;
+        try {
+            factor = factor(precision);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        InputStream input = points.getInput();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long position = 0;
+        int latitude = 0;
+        int longitude = 0;
+        int result = 0;
+        int shift = 0;
+        boolean expectLongitude = false;
+        int n;
+        while ((n = input.read(buffer)) > 0) {
+            for (int i = 0; i < n; i++, position++) {
+                int c = buffer[i];
+                if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    continue;
+                }
+                int chunk = c - OFFSET;
+                if (chunk < 0 || chunk > (CONTINUATION | CHUNK_MASK) || shift > MAX_SHIFT) {
+                    throw new IOException("Invalid polyline at " + position);
+                }
+                result |= (chunk & CHUNK_MASK) << shift;
+                shift += CHUNK_BITS;
+                if (chunk >= CONTINUATION) {
+                    continue;
+                }
+                int delta = (result >>> 1) ^ -(result & 1);
+                result = 0;
+                shift = 0;
+                if (expectLongitude) {
+                    longitude += delta;
+                    if (!points.add(latitude / factor, longitude / factor)) {
+                        throw new IOException("Invalid point at " + position);
+                    }
+                } else {
+                    latitude += delta;
+                }
+                expectLongitude = !expectLongitude;
+            }
+            points.poll();
+        }
+        if (expectLongitude || shift > 0) {
+            throw new IOException("Truncated polyline");
+        }
+    }
+
+    private static double factor(int precision) {
+        if (precision < 0 || precision > 6) {
+            throw new IllegalArgumentException("Unsupported precision " + precision);
+        }
+        double factor = 1;
+        for (int i = 0; i < precision; i++) {
+            factor *= 10;
+        }
+        return factor;
+    }
+}
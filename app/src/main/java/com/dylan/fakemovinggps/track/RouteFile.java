@@ -0,0 +1,41 @@
+package com.dylan.fakemovinggps.track;
+
+/**
+ * Layout of the binary route format written by {@link RouteFileWriter} and read by
+ * {@link MappedRoute}. All fixed-width values are little endian.
+ * <pre>
+ * header   magic, version, pointCount, chunkSize, chunkCount (int), indexOffset (long),
+ *          totalDistance, duration, maxSpeed, maxAcceleration, maxDeceleration,
+ *          lateralAcceleration (double)
+ * chunk*   pointCount (varint), first latitude and longitude (int, 1e-7 degrees),
+ *          first time (varint, ms), first speed (varint, cm/s), then per following point
+ *          latitude and longitude deltas (zig-zag varint), time delta (varint, ms) and
+ *          speed (varint, cm/s)
+ * index    per chunk: byte offset (long), first point (int), point count (int),
+ *          start distance (double), start time (double)
+ * </pre>
+ * Every chunk except the last repeats the first point of the next chunk, so all segments can be
+ * interpolated from a single decoded chunk.
+ */
+public class RouteFile {
+
+    public static final int MAGIC = 0x464D4752; // "FMGR"
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 5 * 4 + 8 + 6 * 8;
+    public static final int INDEX_ENTRY_SIZE = 8 + 4 + 4 + 8 + 8;
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    static final int OFFSET_POINT_COUNT = 8;
+    static final int OFFSET_CHUNK_SIZE = 12;
+    static final int OFFSET_CHUNK_COUNT = 16;
+    static final int OFFSET_INDEX = 20;
+    static final int OFFSET_TOTAL_DISTANCE = 28;
+    static final int OFFSET_DURATION = 36;
+    static final int OFFSET_PROFILE = 44;
+
+    public static final double E7 = 1e7;
+
+    private RouteFile() {
+    }
+}
@@ -0,0 +1,248 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+import com.dylan.fakemovinggps.route.SpeedProfileStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a route in the {@link RouteFile} format, either from a {@link Route} with
+ * {@link #write(Route, File)} or one waypoint at a time with {@link #add(double, double)} and
+ * {@link #finish()}. Added waypoints go through a {@link SpeedProfileStream}, and only the chunk
+ * being filled is held in memory. Distances are recomputed from the quantized coordinates exactly
+ * as {@link MappedRoute} does when decoding, so the chunk index and the decoded values agree bit
+ * for bit.
+ */
+public class RouteFileWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int INITIAL_INDEX_ENTRIES = 64;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private ByteBuffer index;
+    private final int chunkSize;
+    private final SpeedProfile profile;
+    private final SpeedProfileStream stream;
+
+    // chunk being filled, its first point is the last point of the previous chunk
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final long[] millis;
+    private final long[] speeds;
+    private int chunkLength;
+    private int chunkFirst;
+    private double chunkDistance;
+    private int chunkCount;
+
+    private int size;
+    private double distance;
+    private boolean closed;
+
+    /**
+     * Starts a route file whose speeds and times are computed from {@code profile}.
+     */
+    public RouteFileWriter(File file, SpeedProfile profile) throws IOException {
+        this(file, profile, RouteFile.DEFAULT_CHUNK_SIZE, true);
+    }
+
+    private RouteFileWriter(File file, SpeedProfile profile, int chunkSize, boolean streaming)
+            throws IOException {
+        if (chunkSize < 2) {
+            throw new IllegalArgumentException("Chunk size must be at least 2");
+        }
+        this.chunkSize = chunkSize;
+        this.profile = profile;
+        latitudes = new int[chunkSize];
+        longitudes = new int[chunkSize];
+        millis = new long[chunkSize];
+        speeds = new long[chunkSize];
+        index = ByteBuffer.allocate(INITIAL_INDEX_ENTRIES * RouteFile.INDEX_ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int bufferSize = Math.max(BUFFER_SIZE, (chunkSize + 1) * 4 * VarInt.MAX_LENGTH);
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        stream = streaming ? new SpeedProfileStream(profile, new SpeedProfileStream.Output() {
+            @Override
+            public void onWaypoint(double latitude, double longitude, double speed, double time)
+                    throws IOException {
+                append(e7(latitude), e7(longitude), speed, time);
+            }
+        }) : null;
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            channel = raf.getChannel();
+            channel.position(RouteFile.HEADER_SIZE);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public static void write(Route route, File file) throws IOException {
+        write(route, file, RouteFile.DEFAULT_CHUNK_SIZE);
+    }
+
+    public static void write(Route route, File file, int chunkSize) throws IOException {
+        RouteFileWriter writer = new RouteFileWriter(file, route.getSpeedProfile(), chunkSize, false);
+        try {
+            for (int i = 0; i < route.size(); i++) {
+                writer.append(e7(route.getLatitude(i)), e7(route.getLongitude(i)),
+                        route.getSpeed(i), route.getTime(i));
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return number of waypoints added
+     */
+    public int size() {
+        return stream != null ? stream.size() : size;
+    }
+
+    /**
+     * Appends a waypoint; its speed and time are written once the route has run far enough past
+     * it to know them.
+     */
+    public void add(double latitude, double longitude) throws IOException {
+        // quantized first, so the profile sees the distances MappedRoute will decode
+        stream.add(e7(latitude) / RouteFile.E7, e7(longitude) / RouteFile.E7);
+    }
+
+    /**
+     * Writes the remaining waypoints, the index and the header, and closes the file.
+     */
+    public void finish() throws IOException {
+        if (stream != null) {
+            stream.finish();
+        }
+        if (size == 0) {
+            throw new IllegalStateException("Route needs at least one waypoint");
+        }
+        if (chunkLength > 1 || chunkCount == 0) {
+            writeChunk();
+        }
+        drain(channel, buffer);
+
+        long indexOffset = channel.position();
+        index.flip();
+        while (index.hasRemaining()) {
+            channel.write(index);
+        }
+
+        buffer.putInt(RouteFile.MAGIC);
+        buffer.putInt(RouteFile.VERSION);
+        buffer.putInt(size);
+        buffer.putInt(chunkSize);
+        buffer.putInt(chunkCount);
+        buffer.putLong(indexOffset);
+        buffer.putDouble(distance);
+        buffer.putDouble(millis[chunkLength - 1] / 1000.0);
+        buffer.putDouble(profile.getMaxSpeed());
+        buffer.putDouble(profile.getMaxAcceleration());
+        buffer.putDouble(profile.getMaxDeceleration());
+        buffer.putDouble(profile.getLateralAcceleration());
+        channel.position(0);
+        drain(channel, buffer);
+        close();
+    }
+
+    /**
+     * Closes the file, which is incomplete unless {@link #finish()} was called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            raf.close();
+        }
+    }
+
+    private void append(int lat, int lon, double speed, double time) throws IOException {
+        long ms = Math.round(time * 1000);
+        if (chunkLength > 0) {
+            int last = chunkLength - 1;
+            distance += GeoUtils.distance(latitudes[last] / RouteFile.E7, longitudes[last] / RouteFile.E7,
+                    lat / RouteFile.E7, lon / RouteFile.E7);
+            ms = Math.max(millis[last], ms);
+        }
+        latitudes[chunkLength] = lat;
+        longitudes[chunkLength] = lon;
+        millis[chunkLength] = ms;
+        speeds[chunkLength] = centimeters(speed);
+        chunkLength++;
+        size++;
+        if (chunkLength == chunkSize) {
+            writeChunk();
+            latitudes[0] = latitudes[chunkSize - 1];
+            longitudes[0] = longitudes[chunkSize - 1];
+            millis[0] = millis[chunkSize - 1];
+            speeds[0] = speeds[chunkSize - 1];
+            chunkLength = 1;
+            chunkFirst += chunkSize - 1;
+            chunkDistance = distance;
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        if (buffer.remaining() < (chunkLength + 1) * 4 * VarInt.MAX_LENGTH) {
+            drain(channel, buffer);
+        }
+        if (!index.hasRemaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(index.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            index.flip();
+            grown.put(index);
+            index = grown;
+        }
+        index.putLong(channel.position() + buffer.position());
+        index.putInt(chunkFirst);
+        index.putInt(chunkLength);
+        index.putDouble(chunkDistance);
+        index.putDouble(millis[0] / 1000.0);
+        chunkCount++;
+
+        VarInt.putUnsigned(buffer, chunkLength);
+        buffer.putInt(latitudes[0]);
+        buffer.putInt(longitudes[0]);
+        VarInt.putUnsigned(buffer, millis[0]);
+        VarInt.putUnsigned(buffer, speeds[0]);
+        for (int i = 1; i < chunkLength; i++) {
+            VarInt.putSigned(buffer, latitudes[i] - latitudes[i - 1]);
+            VarInt.putSigned(buffer, longitudes[i] - longitudes[i - 1]);
+            VarInt.putUnsigned(buffer, millis[i] - millis[i - 1]);
+            VarInt.putUnsigned(buffer, speeds[i]);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int e7(double degrees) {
+        if (!(Math.abs(degrees) <= 180)) {
+            throw new IllegalArgumentException("Coordinate out of range: " + degrees);
+        }
+        return (int) Math.round(degrees * RouteFile.E7);
+    }
+
+    private static long centimeters(double speed) {
+        return Math.max(0, Math.round(speed * 100));
+    }
+}
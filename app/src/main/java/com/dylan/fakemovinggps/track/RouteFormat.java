@@ -0,0 +1,52 @@
+package com.dylan.fakemovinggps.track;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Route file formats that can be imported, plus raw NMEA logs which are replayed rather than
+ * converted. Formats are told apart by their first bytes rather than by file
+ * name or mime type, which document providers report inconsistently.
+ */
+public enum RouteFormat {
+    GPX, KML, GEOJSON, NMEA;
+
+    private static final int SNIFF_LENGTH = 1024;
+
+    /**
+     * Peeks at the start of {@code in} and resets it afterwards.
+     *
+     * @param in a stream supporting {@link InputStream#mark(int)}
+     */
+    public static RouteFormat detect(InputStream in) throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+        in.mark(SNIFF_LENGTH);
+        int length = 0;
+        int n;
+        while (length < SNIFF_LENGTH && (n = in.read(head, length, SNIFF_LENGTH - length)) > 0) {
+            length += n;
+        }
+        in.reset();
+
+        String text = new String(head, 0, length, "ISO-8859-1");
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                return GEOJSON;
+            }
+            if (c == '$') {
+                return NMEA;
+            }
+            if (c == '<') {
+                break;
+            }
+        }
+        if (text.contains("<kml")) {
+            return KML;
+        }
+        if (text.contains("<gpx")) {
+            return GPX;
+        }
+        throw new IOException("Unknown route format");
+    }
+}
@@ -0,0 +1,114 @@
+package com.dylan.fakemovinggps.track;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Xml;
+
+import com.dylan.fakemovinggps.core.util.DLog;
+import com.dylan.fakemovinggps.route.Route;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Imports a GPX, KML or GeoJSON route file picked by the user off the main thread. Progress and
+ * the result are delivered to the {@link Callback} on the main thread; {@link #cancel(boolean)}
+ * stops the parser at its next poll.
+ */
+public class RouteImportTask extends AsyncTask<Uri, Integer, Route> implements ImportListener {
+    private static final String TAG = RouteImportTask.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface Callback {
+        /**
+         * @param percent 0..100, or -1 if the size of the input is unknown
+         */
+        void onImportProgress(int percent);
+
+        void onImportFinished(Route route);
+
+        /**
+         * The picked file is a raw NMEA log, which is replayed with its own timing instead of
+         * being converted to a route.
+         */
+        void onNmeaLogPicked(Uri log);
+
+        void onImportFailed(IOException error);
+    }
+
+    private final ContentResolver contentResolver;
+    private final Callback callback;
+    private IOException error;
+    private Uri nmeaLog;
+    private int lastPercent = -2;
+
+    public RouteImportTask(ContentResolver contentResolver, Callback callback) {
+        this.contentResolver = contentResolver;
+        this.callback = callback;
+    }
+
+    @Override
+    protected Route doInBackground(Uri... uris) {
+        try {
+            AssetFileDescriptor descriptor = contentResolver.openAssetFileDescriptor(uris[0], "r");
+            if (descriptor == null) {
+                throw new IOException("Cannot open " + uris[0]);
+            }
+            InputStream in = new BufferedInputStream(descriptor.createInputStream(), BUFFER_SIZE);
+            try {
+                long length = descriptor.getLength();
+                switch (RouteFormat.detect(in)) {
+                    case KML:
+                        return KmlImporter.read(Xml.newPullParser(), in, length, this);
+                    case GEOJSON:
+                        return GeoJsonImporter.read(in, length, this);
+                    case NMEA:
+                        nmeaLog = uris[0];
+                        return null;
+                    default:
+                        return GpxImporter.read(Xml.newPullParser(), in, length, this);
+                }
+            } finally {
+                in.close();
+                descriptor.close();
+            }
+        } catch (InterruptedIOException e) {
+            DLog.d(TAG, "import cancelled");
+        } catch (IOException e) {
+            error = e;
+        } catch (SecurityException e) {
+            error = new IOException(e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @Override
+    public void onProgress(long bytesRead, long totalBytes) {
+        int percent = totalBytes > 0 ? (int) Math.min(100, bytesRead * 100 / totalBytes) : -1;
+        if (percent != lastPercent) {
+            lastPercent = percent;
+            publishProgress(percent);
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        callback.onImportProgress(values[0]);
+    }
+
+    @Override
+    protected void onPostExecute(Route route) {
+        if (route != null) {
+            callback.onImportFinished(route);
+        } else if (nmeaLog != null) {
+            callback.onNmeaLogPicked(nmeaLog);
+        } else if (error != null) {
+            callback.onImportFailed(error);
+        }
+    }
+}
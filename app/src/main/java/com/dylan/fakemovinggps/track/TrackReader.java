@@ -0,0 +1,113 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decodes files written by {@link TrackWriter}. A record cut off at the end of the file, as left
+ * behind by a crash during recording, is ignored.
+ */
+public class TrackReader {
+
+    public interface Callback {
+        void onFix(long time, double latitude, double longitude, double altitude, float speed,
+                   float bearing, float accuracy, int flags);
+    }
+
+    private TrackReader() {
+    }
+
+    /**
+     * @return number of decoded records
+     */
+    public static long read(File file, Callback callback) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, callback);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static long read(ByteBuffer buffer, Callback callback) throws IOException {
+        if (buffer.remaining() < 5 || buffer.getInt() != TrackWriter.MAGIC) {
+            throw new IOException("Not a track file");
+        }
+        int version = buffer.get();
+        if (version != TrackWriter.VERSION) {
+            throw new IOException("Unsupported track version " + version);
+        }
+
+        long count = 0;
+        long time = 0;
+        long lat = 0;
+        long lon = 0;
+        long alt = 0;
+        while (buffer.hasRemaining()) {
+            try {
+                int flags = buffer.get() & 0xFF;
+                if ((flags & TrackWriter.FLAG_KEYFRAME) != 0) {
+                    time = 0;
+                    lat = 0;
+                    lon = 0;
+                    alt = 0;
+                }
+                long nextTime = time + VarInt.getSigned(buffer);
+                long nextLat = lat + VarInt.getSigned(buffer);
+                long nextLon = lon + VarInt.getSigned(buffer);
+                long nextAlt = alt;
+                float speed = 0;
+                float bearing = 0;
+                float accuracy = 0;
+                if ((flags & TrackWriter.FLAG_ALTITUDE) != 0) {
+                    nextAlt += VarInt.getSigned(buffer);
+                }
+                if ((flags & TrackWriter.FLAG_SPEED) != 0) {
+                    speed = VarInt.getUnsigned(buffer) / 100f;
+                }
+                if ((flags & TrackWriter.FLAG_BEARING) != 0) {
+                    bearing = VarInt.getUnsigned(buffer) / 100f;
+                }
+                if ((flags & TrackWriter.FLAG_ACCURACY) != 0) {
+                    accuracy = VarInt.getUnsigned(buffer) / 100f;
+                }
+                time = nextTime;
+                lat = nextLat;
+                lon = nextLon;
+                alt = nextAlt;
+                callback.onFix(time, lat / TrackWriter.E7, lon / TrackWriter.E7, alt / 100.0,
+                        speed, bearing, accuracy, flags);
+                count++;
+            } catch (BufferUnderflowException e) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Loads the recorded positions of {@code file} as a route.
+     */
+    public static Route readRoute(File file) throws IOException {
+        final Route.Builder builder = new Route.Builder(1024);
+        read(file, new Callback() {
+            @Override
+            public void onFix(long time, double latitude, double longitude, double altitude,
+                              float speed, float bearing, float accuracy, int flags) {
+                builder.add(latitude, longitude);
+            }
+        });
+        if (builder.size() == 0) {
+            throw new IOException("Track has no fixes");
+        }
+        return builder.build();
+    }
+}
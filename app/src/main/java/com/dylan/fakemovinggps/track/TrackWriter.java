@@ -0,0 +1,129 @@
+package com.dylan.fakemovinggps.track;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only writer for recorded tracks.
+ * <p>
+ * A file starts with {@link #MAGIC} and {@link #VERSION}. Every record is a flags byte followed
+ * by zig-zag varints: time (ms), latitude and longitude (1e-7 degrees) as deltas to the previous
+ * record, then the optional altitude (cm, delta), speed (cm/s), bearing (1/100 degree) and
+ * accuracy (cm) selected by the flags. Each writer session begins with a {@link #FLAG_KEYFRAME}
+ * record holding absolute values, so reopening a file in append mode needs no previous state and
+ * a truncated tail only loses the last record.
+ * <p>
+ * Records are collected in a direct buffer and written to the {@link FileChannel} when it fills
+ * up or on {@link #flush()}. Not thread safe; use from a single writer thread.
+ */
+public class TrackWriter implements Closeable {
+
+    public static final int MAGIC = 0x464D4754; // "FMGT"
+    public static final int VERSION = 1;
+
+    public static final int FLAG_KEYFRAME = 1;
+    public static final int FLAG_ALTITUDE = 1 << 1;
+    public static final int FLAG_SPEED = 1 << 2;
+    public static final int FLAG_BEARING = 1 << 3;
+    public static final int FLAG_ACCURACY = 1 << 4;
+
+    public static final double E7 = 1e7;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RECORD_SIZE = 1 + 7 * VarInt.MAX_LENGTH;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private boolean keyframe = true;
+    private long lastTime;
+    private long lastLatitude;
+    private long lastLongitude;
+    private long lastAltitude;
+    private long recordCount;
+
+    public TrackWriter(File file) throws IOException {
+        channel = new FileOutputStream(file, true).getChannel();
+        if (channel.size() == 0) {
+            buffer.putInt(MAGIC);
+            buffer.put((byte) VERSION);
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @param flags combination of the optional field flags; the keyframe flag is managed here
+     */
+    public void write(long time, double latitude, double longitude, double altitude, float speed,
+                      float bearing, float accuracy, int flags) throws IOException {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            drain();
+        }
+        long lat = Math.round(latitude * E7);
+        long lon = Math.round(longitude * E7);
+        long alt = Math.round(altitude * 100);
+        flags &= ~FLAG_KEYFRAME;
+        if (keyframe) {
+            flags |= FLAG_KEYFRAME;
+            lastTime = 0;
+            lastLatitude = 0;
+            lastLongitude = 0;
+            lastAltitude = 0;
+            keyframe = false;
+        }
+
+        buffer.put((byte) flags);
+        VarInt.putSigned(buffer, time - lastTime);
+        VarInt.putSigned(buffer, lat - lastLatitude);
+        VarInt.putSigned(buffer, lon - lastLongitude);
+        if ((flags & FLAG_ALTITUDE) != 0) {
+            VarInt.putSigned(buffer, alt - lastAltitude);
+            lastAltitude = alt;
+        }
+        if ((flags & FLAG_SPEED) != 0) {
+            VarInt.putUnsigned(buffer, Math.max(0, Math.round(speed * 100)));
+        }
+        if ((flags & FLAG_BEARING) != 0) {
+            VarInt.putUnsigned(buffer, Math.max(0, Math.round(bearing * 100)));
+        }
+        if ((flags & FLAG_ACCURACY) != 0) {
+            VarInt.putUnsigned(buffer, Math.max(0, Math.round(accuracy * 100)));
+        }
+        lastTime = time;
+        lastLatitude = lat;
+        lastLongitude = lon;
+        recordCount++;
+    }
+
+    /**
+     * Writes buffered records to the file and forces them to storage.
+     */
+    public void flush() throws IOException {
+        drain();
+        channel.force(false);
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
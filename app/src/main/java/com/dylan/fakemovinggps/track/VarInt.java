@@ -0,0 +1,58 @@
+package com.dylan.fakemovinggps.track;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128 varints with zig-zag encoding for signed values, read and written directly on
+ * {@link ByteBuffer}s.
+ */
+public class VarInt {
+
+    public static final int MAX_LENGTH = 10; // bytes for a 64-bit value
+
+    private VarInt() {
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void putUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static void putSigned(ByteBuffer buffer, long value) {
+        putUnsigned(buffer, zigZag(value));
+    }
+
+    /**
+     * @throws java.nio.BufferUnderflowException if the buffer ends inside the varint
+     */
+    public static long getUnsigned(ByteBuffer buffer) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+            if (shift >= 64) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+        }
+    }
+
+    public static long getSigned(ByteBuffer buffer) {
+        return unZigZag(getUnsigned(buffer));
+    }
+}
@@ -3,19 +3,125 @@ package com.dylan.fakemovinggps.util;
 public class Constant {
 
     public static final String ACTION_PREFIX = "com.dylan.fakemovinggps";
+    public static final String PERMISSION_CONTROL = ACTION_PREFIX + ".permission.CONTROL";
 
     public interface Action {
         String ACTION_START_FAKING_LOCATION = ACTION_PREFIX + ".ACTION_START_FAKING_LOCATION";
         String ACTION_STOP_FAKING_LOCATION = ACTION_PREFIX + ".ACTION_STOP_FAKING_LOCATION";
+        String ACTION_START_RECORDING = ACTION_PREFIX + ".ACTION_START_RECORDING";
+        String ACTION_STOP_RECORDING = ACTION_PREFIX + ".ACTION_STOP_RECORDING";
+        String ACTION_START_CONTROL_SERVER = ACTION_PREFIX + ".ACTION_START_CONTROL_SERVER";
+        String ACTION_STOP_CONTROL_SERVER = ACTION_PREFIX + ".ACTION_STOP_CONTROL_SERVER";
+        /**
+         * Binds {@link com.dylan.fakemovinggps.location.RemoteControlService} as an
+         * {@link com.dylan.fakemovinggps.location.ILocationControl} from another app.
+         */
+        String ACTION_BIND_CONTROL = ACTION_PREFIX + ".ACTION_BIND_CONTROL";
 
     }
 
+    public interface Extra {
+        /**
+         * Route to play with {@link Action#ACTION_START_FAKING_LOCATION}, as an encoded polyline.
+         */
+        String EXTRA_ROUTE = ACTION_PREFIX + ".EXTRA_ROUTE";
+        /**
+         * Decimal digits of {@link #EXTRA_ROUTE}, 5 (default) or 6.
+         */
+        String EXTRA_ROUTE_PRECISION = ACTION_PREFIX + ".EXTRA_ROUTE_PRECISION";
+        /**
+         * Maximum speed along {@link #EXTRA_ROUTE} in m/s.
+         */
+        String EXTRA_SPEED = ACTION_PREFIX + ".EXTRA_SPEED";
+        /**
+         * Path of a route file to play with {@link Action#ACTION_START_FAKING_LOCATION}, takes
+         * precedence over {@link #EXTRA_ROUTE}. Only files written by
+         * {@link com.dylan.fakemovinggps.location.RouteIngestProvider} into its cache directory
+         * are played; the path is either absolute or relative to that directory.
+         */
+        String EXTRA_ROUTE_FILE = ACTION_PREFIX + ".EXTRA_ROUTE_FILE";
+        /**
+         * Fixes per second of {@link Action#ACTION_START_FAKING_LOCATION}, clamped to
+         * [{@link com.dylan.fakemovinggps.location.TickScheduler#MIN_RATE},
+         * {@link com.dylan.fakemovinggps.location.TickScheduler#MAX_RATE}]. The rate stays in
+         * effect for later starts; it is
+         * {@link com.dylan.fakemovinggps.location.RoutePlayer#DEFAULT_RATE} until set.
+         */
+        String EXTRA_RATE = ACTION_PREFIX + ".EXTRA_RATE";
+        /**
+         * Name of a {@link com.dylan.fakemovinggps.location.TickScheduler.MissedTickPolicy} for
+         * {@link Action#ACTION_START_FAKING_LOCATION}, kept like {@link #EXTRA_RATE}; SKIP until
+         * set.
+         */
+        String EXTRA_MISSED_TICK_POLICY = ACTION_PREFIX + ".EXTRA_MISSED_TICK_POLICY";
+        /**
+         * Seed of a {@link com.dylan.fakemovinggps.route.NoiseModel} for
+         * {@link Action#ACTION_START_FAKING_LOCATION}, as a long. Turns on simulated GPS error
+         * with the parameters of the EXTRA_NOISE_* extras, each defaulting to the NoiseModel
+         * default; the same seed and parameters replay the same errors. The model stays in effect
+         * for later starts; fixes are exact until it is set.
+         */
+        String EXTRA_NOISE_SEED = ACTION_PREFIX + ".EXTRA_NOISE_SEED";
+        /**
+         * Standard deviation of the slowly wandering position error in meters, a double.
+         */
+        String EXTRA_NOISE_DRIFT_SIGMA = ACTION_PREFIX + ".EXTRA_NOISE_DRIFT_SIGMA";
+        /**
+         * Correlation time of the position error in seconds, a double.
+         */
+        String EXTRA_NOISE_DRIFT_TAU = ACTION_PREFIX + ".EXTRA_NOISE_DRIFT_TAU";
+        /**
+         * Relative spread of the reported accuracy around the actual error, a double.
+         */
+        String EXTRA_NOISE_ACCURACY_JITTER = ACTION_PREFIX + ".EXTRA_NOISE_ACCURACY_JITTER";
+        /**
+         * Mean number of multipath jumps per second, a double.
+         */
+        String EXTRA_NOISE_MULTIPATH_RATE = ACTION_PREFIX + ".EXTRA_NOISE_MULTIPATH_RATE";
+        /**
+         * Largest multipath jump in meters, a double.
+         */
+        String EXTRA_NOISE_MULTIPATH_OFFSET = ACTION_PREFIX + ".EXTRA_NOISE_MULTIPATH_OFFSET";
+        /**
+         * Id of the fence in a {@link Callback#GEOFENCE_TRANSITION}.
+         */
+        String EXTRA_GEOFENCE_ID = ACTION_PREFIX + ".EXTRA_GEOFENCE_ID";
+        /**
+         * {@link com.dylan.fakemovinggps.geofence.Geofence#TRANSITION_ENTER} or
+         * {@link com.dylan.fakemovinggps.geofence.Geofence#TRANSITION_EXIT}.
+         */
+        String EXTRA_GEOFENCE_TRANSITION = ACTION_PREFIX + ".EXTRA_GEOFENCE_TRANSITION";
+        /**
+         * Port of {@link Action#ACTION_START_CONTROL_SERVER}, defaults to
+         * {@link com.dylan.fakemovinggps.control.ControlServer#DEFAULT_PORT}.
+         */
+        String EXTRA_PORT = ACTION_PREFIX + ".EXTRA_PORT";
+        /**
+         * {@link android.os.ResultReceiver} of {@link Action#ACTION_START_CONTROL_SERVER}. Gets
+         * RESULT_OK with {@link #EXTRA_CONTROL_TOKEN} and {@link #EXTRA_PORT} once the server
+         * runs, RESULT_CANCELED otherwise.
+         */
+        String EXTRA_RESULT_RECEIVER = ACTION_PREFIX + ".EXTRA_RESULT_RECEIVER";
+        /**
+         * Token the control server clients have to present.
+         */
+        String EXTRA_CONTROL_TOKEN = ACTION_PREFIX + ".EXTRA_CONTROL_TOKEN";
+    }
+
     public interface Callback {
         String REQUEST_ALLOW_MOCK_LOCATIONS_APPS = ACTION_PREFIX + ".REQUEST_ALLOW_MOCK_LOCATIONS_APPS";
 
         String START_FAKING_LOCATION_SUCCESSFULLY = ACTION_PREFIX + ".START_FAKING_LOCATION_SUCCESSFULLY";
-        String LOCATION_UPDATE = ACTION_PREFIX + ".LOCATION_UPDATE";
+        /**
+         * Sent when the simulated position crosses a fence, only to apps holding
+         * {@link #PERMISSION_CONTROL}.
+         */
+        String GEOFENCE_TRANSITION = ACTION_PREFIX + ".GEOFENCE_TRANSITION";
     }
 
+    public static final String TRACK_DIRECTORY = "tracks";
+    public static final String TRACK_EXTENSION = ".fmgt";
+    public static final String ROUTE_EXTENSION = ".fmgr";
+
     public static final int ID_SERVICE_NOTIFICATION = 13;
 }
@@ -0,0 +1,367 @@
+package com.dylan.fakemovinggps.control;
+
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.Route;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ControlServerTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    // polyline of the Google documentation example, three points
+    private static final String POLYLINE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+
+    private static class FakeController implements ControlServer.Controller {
+        final List<String> calls = new ArrayList<>();
+        Route route;
+        boolean running;
+        boolean paused;
+        double distance;
+
+        @Override
+        public synchronized void setRoute(Route route) {
+            calls.add("route");
+            this.route = route;
+        }
+
+        @Override
+        public synchronized boolean start() {
+            calls.add("start");
+            running = true;
+            return true;
+        }
+
+        @Override
+        public synchronized boolean stop() {
+            calls.add("stop");
+            boolean was = running;
+            running = false;
+            return was;
+        }
+
+        @Override
+        public synchronized boolean pause() {
+            calls.add("pause");
+            if (!running || paused) {
+                return false;
+            }
+            paused = true;
+            return true;
+        }
+
+        @Override
+        public synchronized boolean resume() {
+            calls.add("resume");
+            boolean was = paused;
+            paused = false;
+            return was;
+        }
+
+        @Override
+        public synchronized boolean seekToDistance(double distance) {
+            calls.add("seek");
+            this.distance = distance;
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public synchronized boolean isPaused() {
+            return paused;
+        }
+
+        @Override
+        public double getProgress() {
+            return 0.5;
+        }
+    }
+
+    private FakeController controller;
+    private ExecutorService mainThread;
+    private ControlServer server;
+    private String token;
+
+    @Before
+    public void setUp() throws IOException {
+        controller = new FakeController();
+        mainThread = Executors.newSingleThreadExecutor();
+        token = ControlServer.newToken();
+        server = new ControlServer(controller, mainThread, token);
+        server.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        mainThread.shutdownNow();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    private String request(String method, String target, String body) {
+        return request(method, target, "Authorization: Bearer " + token + "\r\n", body);
+    }
+
+    private String request(String method, String target, String headers, String body) {
+        byte[] content = body.getBytes(StandardCharsets.US_ASCII);
+        return method + " " + target + " HTTP/1.1\r\nHost: 127.0.0.1:" + server.getPort()
+                + "\r\n" + headers + "Content-Length: " + content.length + "\r\n\r\n" + body;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    // status code and body of the next response
+    private static String[] readResponse(InputStream in) throws IOException {
+        String status = readLine(in).split(" ")[1];
+        int length = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(15).trim());
+            }
+        }
+        byte[] body = new byte[length];
+        new DataInputStream(in).readFully(body);
+        return new String[]{status, new String(body, StandardCharsets.UTF_8)};
+    }
+
+    private void upgrade(Socket socket) throws IOException {
+        socket.getOutputStream().write(("GET /fixes?token=" + token + " HTTP/1.1\r\nHost: 127.0.0.1:"
+                + server.getPort() + "\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        assertEquals("HTTP/1.1 101 Switching Protocols", readLine(in));
+        boolean accepted = false;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            // the example key and answer of RFC 6455
+            accepted |= line.equals("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=");
+        }
+        assertTrue(accepted);
+    }
+
+    private static String readTextFrame(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        assertEquals(0x81, data.readUnsignedByte());
+        int length = data.readUnsignedByte();
+        if (length == 126) {
+            length = data.readUnsignedShort();
+        }
+        byte[] payload = new byte[length];
+        data.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    private static MockFix fix(double latitude) {
+        MockFix fix = new MockFix();
+        fix.latitude = latitude;
+        fix.longitude = 103.85;
+        fix.speed = 13.9f;
+        fix.accuracy = 3;
+        return fix;
+    }
+
+    @Test
+    public void pipelinedCommands_runInOrder() throws IOException {
+        Socket socket = connect();
+        OutputStream out = socket.getOutputStream();
+        out.write((request("POST", "/route?precision=5&speed=20", POLYLINE)
+                + request("POST", "/start", "")
+                + request("POST", "/seek?distance=150.5", "")
+                + request("POST", "/pause", "")
+                + request("POST", "/pause", "")
+                + request("GET", "/status", "")).getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        String[][] responses = new String[6][];
+        for (int i = 0; i < responses.length; i++) {
+            responses[i] = readResponse(in);
+            assertEquals("200", responses[i][0]);
+        }
+        socket.close();
+
+        assertEquals("[route, start, seek, pause, pause]", controller.calls.toString());
+        assertEquals(3, controller.route.size());
+        assertEquals(20, controller.route.getSpeedProfile().getMaxSpeed(), 0);
+        assertEquals(150.5, controller.distance, 0);
+        assertTrue(responses[3][1].startsWith("{\"ok\":true,\"running\":true,\"paused\":true"));
+        assertTrue(responses[4][1].startsWith("{\"ok\":false"));
+        assertEquals("{\"ok\":true,\"running\":true,\"paused\":true,\"progress\":0.5}", responses[5][1]);
+    }
+
+    @Test
+    public void badRequests_areRejected() throws IOException {
+        String[][] cases = {
+                {request("POST", "/route", "not a polyline!"), "400"},
+                {request("POST", "/seek", ""), "400"},
+                {request("GET", "/start", ""), "405"},
+                {request("GET", "/teleport", ""), "404"},
+                {"GARBAGE\r\n\r\n", "400"},
+        };
+        for (String[] c : cases) {
+            Socket socket = connect();
+            socket.getOutputStream().write(c[0].getBytes(StandardCharsets.US_ASCII));
+            String[] response = readResponse(socket.getInputStream());
+            assertEquals(c[0], c[1], response[0]);
+            assertTrue(response[1].startsWith("{\"error\":"));
+            // errors close the connection
+            assertEquals(-1, socket.getInputStream().read());
+            socket.close();
+        }
+        assertTrue(controller.calls.isEmpty());
+    }
+
+    @Test
+    public void unauthorizedRequests_areRejected() throws IOException {
+        String port = String.valueOf(server.getPort());
+        String[][] cases = {
+                // no token, wrong token
+                {request("POST", "/start", "", ""), "401"},
+                {request("POST", "/start?token=0123456789abcdef0123456789abcdef", "", ""), "401"},
+                {request("POST", "/start", "Authorization: Bearer " + token + "x\r\n", ""), "401"},
+                // a web page: cross-origin, or DNS rebinding to another host name
+                {request("POST", "/start", "Authorization: Bearer " + token
+                        + "\r\nOrigin: http://example.com\r\n", ""), "403"},
+                {request("POST", "/start", "Authorization: Bearer " + token + "\r\n", "")
+                        .replace("127.0.0.1:" + port, "attacker.example:" + port), "403"},
+                {request("GET", "/fixes", "Upgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n", ""), "401"},
+                // refused before the body would be read
+                {request("POST", "/route", "Content-Length: 100000000\r\n", "")
+                        .replace("Content-Length: 0\r\n", ""), "401"},
+        };
+        for (String[] c : cases) {
+            Socket socket = connect();
+            socket.getOutputStream().write(c[0].getBytes(StandardCharsets.US_ASCII));
+            assertEquals(c[0], c[1], readResponse(socket.getInputStream())[0]);
+            socket.close();
+        }
+        assertTrue(controller.calls.isEmpty());
+    }
+
+    @Test
+    public void webSocket_streamsEveryFix() throws IOException {
+        Socket socket = connect();
+        upgrade(socket);
+        InputStream in = socket.getInputStream();
+        for (int i = 0; i < 20; i++) {
+            server.publish(fix(1.25 + i));
+            String json = readTextFrame(in);
+            assertTrue(json, json.startsWith("{\"latitude\":" + (1.25 + i) + ",\"longitude\":103.85"));
+        }
+
+        // a ping is answered, a close is echoed
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[]{(byte) 0x89, (byte) 0x82, 1, 2, 3, 4, 'h' ^ 1, 'i' ^ 2});
+        DataInputStream data = new DataInputStream(in);
+        assertEquals(0x8A, data.readUnsignedByte());
+        assertEquals(2, data.readUnsignedByte());
+        assertEquals('h', data.readUnsignedByte());
+        assertEquals('i', data.readUnsignedByte());
+        out.write(new byte[]{(byte) 0x88, (byte) 0x80, 0, 0, 0, 0});
+        assertEquals(0x88, data.readUnsignedByte());
+        socket.close();
+    }
+
+    /**
+     * Synthetic benchmark: one selector thread fanning fixes out to 500 WebSocket clients with
+     * -Dbenchmark=true, 100 otherwise.
+     */
+    @Test
+    public void manyClients_shareOneThread() throws IOException {
+        int clients = BENCHMARK ? 500 : 100;
+        Socket[] sockets = new Socket[clients];
+        for (int i = 0; i < clients; i++) {
+            sockets[i] = connect();
+            upgrade(sockets[i]);
+        }
+        // plain requests still get through while all of them are connected
+        Socket command = connect();
+        command.getOutputStream().write(request("POST", "/start", "").getBytes(StandardCharsets.US_ASCII));
+        assertEquals("200", readResponse(command.getInputStream())[0]);
+        command.close();
+
+        long worst = 0;
+        long total = 0;
+        int rounds = 20;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            server.publish(fix(round));
+            for (Socket socket : sockets) {
+                String json = readTextFrame(socket.getInputStream());
+                assertTrue(json.startsWith("{\"latitude\":" + (double) round + ","));
+            }
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            worst = Math.max(worst, elapsed);
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (BENCHMARK) {
+            System.out.println("control server: fix to " + clients + " clients in "
+                    + total / rounds / 1000 + " us mean, " + worst / 1000 + " us worst");
+        }
+        assertTrue(worst < 1000000000L);
+    }
+
+    @Test
+    public void slowClient_missesFixesInsteadOfQueueing() throws IOException {
+        Socket socket = connect();
+        upgrade(socket);
+        socket.setReceiveBufferSize(1024);
+        MockFix fix = fix(1.3);
+        for (int i = 0; i < 100000; i++) {
+            fix.time = i;
+            server.publish(fix);
+        }
+        // the stream continues with recent fixes once the client reads again
+        server.publish(fix(99));
+        String json;
+        int frames = 0;
+        do {
+            json = readTextFrame(socket.getInputStream());
+            frames++;
+        } while (!json.startsWith("{\"latitude\":99.0"));
+        socket.close();
+        assertTrue(frames < 100000);
+    }
+}
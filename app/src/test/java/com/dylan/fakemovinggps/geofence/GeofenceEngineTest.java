@@ -0,0 +1,203 @@
+package com.dylan.fakemovinggps.geofence;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceEngineTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static final double LATITUDE = 1.30;
+    private static final double LONGITUDE = 103.85;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+
+    // circles and star shaped polygons scattered over a square of the given size in meters
+    private static List<Geofence> randomFences(int count, double extent, long seed) {
+        Random random = new Random(seed);
+        double cos = Math.cos(Math.toRadians(LATITUDE));
+        List<Geofence> fences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = LATITUDE + random.nextDouble() * extent / METERS_PER_DEGREE;
+            double lon = LONGITUDE + random.nextDouble() * extent / (METERS_PER_DEGREE * cos);
+            double size = 20 + random.nextDouble() * 280;
+            if (random.nextBoolean()) {
+                fences.add(Geofence.circle("c" + i, lat, lon, size));
+            } else {
+                int vertices = 3 + random.nextInt(10);
+                double[] lats = new double[vertices];
+                double[] lons = new double[vertices];
+                for (int v = 0; v < vertices; v++) {
+                    double angle = 2 * Math.PI * v / vertices;
+                    double r = size * (0.3 + 0.7 * random.nextDouble());
+                    lats[v] = lat + r * Math.sin(angle) / METERS_PER_DEGREE;
+                    lons[v] = lon + r * Math.cos(angle) / (METERS_PER_DEGREE * cos);
+                }
+                fences.add(Geofence.polygon("p" + i, lats, lons));
+            }
+        }
+        return fences;
+    }
+
+    // reference: crossing test on raw coordinates, haversine for circles
+    private static boolean contains(Geofence fence, double lat, double lon) {
+        if (fence.isCircle()) {
+            return GeoUtils.distance(fence.getLatitude(), fence.getLongitude(), lat, lon) <= fence.getRadius();
+        }
+        boolean in = false;
+        int n = fence.getVertexCount();
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            double yi = fence.getVertexLatitude(i);
+            double yj = fence.getVertexLatitude(j);
+            double xi = fence.getVertexLongitude(i);
+            double xj = fence.getVertexLongitude(j);
+            if ((yi > lat) != (yj > lat) && lon < (xj - xi) * (lat - yi) / (yj - yi) + xi) {
+                in = !in;
+            }
+        }
+        return in;
+    }
+
+    private static class Counter implements GeofenceEngine.Listener {
+        int enters;
+        int exits;
+
+        @Override
+        public void onGeofenceTransition(Geofence fence, int transition) {
+            if (transition == Geofence.TRANSITION_ENTER) {
+                enters++;
+            } else {
+                exits++;
+            }
+        }
+    }
+
+    @Test
+    public void randomWalk_matchesBruteForce() {
+        List<Geofence> fences = randomFences(2000, 5000, 1);
+        GeofenceEngine engine = new GeofenceEngine(fences);
+        Counter counter = new Counter();
+        engine.setListener(counter);
+        boolean[] expected = new boolean[fences.size()];
+        Random random = new Random(2);
+        double lat = LATITUDE + 0.02;
+        double lon = LONGITUDE + 0.02;
+        int changes = 0;
+        for (int step = 0; step < 5000; step++) {
+            if (random.nextInt(500) == 0) {
+                // seek somewhere else
+                lat = LATITUDE + random.nextDouble() * 0.045;
+                lon = LONGITUDE + random.nextDouble() * 0.045;
+            } else {
+                lat += random.nextGaussian() * 15 / METERS_PER_DEGREE;
+                lon += random.nextGaussian() * 15 / METERS_PER_DEGREE;
+            }
+            int transitions = engine.update(lat, lon);
+            int expectedTransitions = 0;
+            int insideCount = 0;
+            for (int f = 0; f < fences.size(); f++) {
+                boolean in = contains(fences.get(f), lat, lon);
+                if (in != expected[f]) {
+                    expected[f] = in;
+                    expectedTransitions++;
+                }
+                if (in) {
+                    insideCount++;
+                }
+                assertEquals(fences.get(f) + " at step " + step, in, engine.isInside(f));
+            }
+            changes += expectedTransitions;
+            assertEquals(expectedTransitions, transitions);
+            assertEquals(insideCount, engine.getInsideCount());
+        }
+        assertTrue(changes > 100);
+        assertEquals(changes, counter.enters + counter.exits);
+    }
+
+    @Test
+    public void circle_reportsEnterAndExit() {
+        Geofence fence = Geofence.circle("home", LATITUDE, LONGITUDE, 100);
+        GeofenceEngine engine = new GeofenceEngine(Arrays.asList(fence));
+        Counter counter = new Counter();
+        engine.setListener(counter);
+        for (int meters = -300; meters <= 300; meters += 10) {
+            engine.update(LATITUDE + meters / METERS_PER_DEGREE, LONGITUDE);
+        }
+        assertEquals(1, counter.enters);
+        assertEquals(1, counter.exits);
+
+        // a reset forgets the state, the next update enters again
+        engine.update(LATITUDE, LONGITUDE);
+        engine.reset();
+        assertEquals(0, engine.getInsideCount());
+        assertEquals(1, engine.update(LATITUDE, LONGITUDE));
+        assertEquals(3, counter.enters);
+        assertEquals(1, counter.exits);
+    }
+
+    @Test
+    public void polygon_closingVertexIsOptional() {
+        double[] lats = {0, 0, 1, 1, 0};
+        double[] lons = {0, 1, 1, 0, 0};
+        Geofence fence = Geofence.polygon("square", lats, lons);
+        assertEquals(4, fence.getVertexCount());
+        GeofenceEngine engine = new GeofenceEngine(Arrays.asList(fence));
+        engine.update(0.5, 0.5);
+        assertTrue(engine.isInside(0));
+        engine.update(0.5, 1.5);
+        assertEquals(0, engine.getInsideCount());
+    }
+
+    /**
+     * Synthetic benchmark: a drive at 50 km/h and 10 Hz through 20k fences over 10 x 10 km, for
+     * 200k ticks with -Dbenchmark=true and 20k otherwise.
+     */
+    @Test
+    public void denseFences_tickInMicroseconds() {
+        List<Geofence> fences = randomFences(20000, 10000, 3);
+        long start = System.nanoTime();
+        GeofenceEngine engine = new GeofenceEngine(fences);
+        long build = System.nanoTime() - start;
+        Counter counter = new Counter();
+        engine.setListener(counter);
+
+        int ticks = BENCHMARK ? 200000 : 20000;
+        double[] lats = new double[ticks];
+        double[] lons = new double[ticks];
+        Random random = new Random(4);
+        double heading = 0;
+        double lat = LATITUDE + 0.045;
+        double lon = LONGITUDE + 0.045;
+        for (int i = 0; i < ticks; i++) {
+            heading += random.nextGaussian() * 0.05;
+            lat += 1.39 * Math.cos(heading) / METERS_PER_DEGREE;
+            lon += 1.39 * Math.sin(heading) / METERS_PER_DEGREE;
+            lats[i] = lat;
+            lons[i] = lon;
+        }
+        for (int i = 0; i < ticks; i++) {
+            engine.update(lats[i], lons[i]);
+        }
+        engine.reset();
+        counter.enters = counter.exits = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            engine.update(lats[i], lons[i]);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (BENCHMARK) {
+            System.out.println("geofences: " + fences.size() + " fences indexed in " + build / 1000000
+                    + " ms, " + elapsed / ticks + " ns/tick, " + counter.enters + " enters");
+        }
+        assertTrue(counter.enters > 0);
+        assertTrue(elapsed / ticks < 50000);
+    }
+}
@@ -0,0 +1,118 @@
+package com.dylan.fakemovinggps.graph;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContractionHierarchyTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static void assertPath(RoadGraph graph, int[] path, int source, int target, int time) {
+        assertEquals(source, path[0]);
+        assertEquals(target, path[path.length - 1]);
+        int sum = 0;
+        for (int i = 0; i + 1 < path.length; i++) {
+            int best = Integer.MAX_VALUE;
+            for (int e = graph.getFirstEdge(path[i]); e < graph.getFirstEdge(path[i] + 1); e++) {
+                if (graph.getTarget(e) == path[i + 1]) {
+                    best = Math.min(best, graph.getWeight(e));
+                }
+            }
+            assertTrue("no road " + path[i] + " -> " + path[i + 1], best != Integer.MAX_VALUE);
+            sum += best;
+        }
+        assertEquals(time, sum);
+    }
+
+    @Test
+    public void queries_matchAStar() throws Exception {
+        RoadGraph graph = RouterTest.grid(60, 1);
+        ChRouter ch = new ChRouter(ContractionHierarchy.build(graph));
+        AStarRouter astar = new AStarRouter(graph);
+        Random random = new Random(2);
+        for (int q = 0; q < 500; q++) {
+            int source = random.nextInt(graph.getNodeCount());
+            int target = random.nextInt(graph.getNodeCount());
+            int expected = astar.findPath(source, target);
+            int time = ch.findPath(source, target);
+            assertEquals(source + " -> " + target, expected, time);
+            if (time >= 0) {
+                assertPath(graph, ch.getPath(), source, target, time);
+            }
+        }
+    }
+
+    @Test
+    public void trivialGraphs() throws Exception {
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        int a = builder.addNode(0, 0);
+        int b = builder.addNode(0, 0.001);
+        builder.addNode(1, 1);
+        builder.addEdge(a, b, 10);
+        ChRouter router = new ChRouter(ContractionHierarchy.build(builder.build()));
+        assertEquals(0, router.findPath(a, a));
+        assertEquals(1, router.getPath().length);
+        assertTrue(router.findPath(a, b) > 0);
+        assertEquals(2, router.getPath().length);
+        assertEquals(-1, router.findPath(b, a));
+        assertEquals(-1, router.findPath(a, 2));
+    }
+
+    /**
+     * Synthetic benchmark: contraction time and query cost against A* on a city sized grid with
+     * -Dbenchmark=true, otherwise only the checks on a small grid.
+     */
+    @Test
+    public void gridBenchmark() throws Exception {
+        int size = BENCHMARK ? 250 : 80;
+        RoadGraph graph = RouterTest.grid(size, 3);
+        long start = System.nanoTime();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph);
+        long contraction = System.nanoTime() - start;
+        ChRouter ch = new ChRouter(hierarchy);
+        AStarRouter astar = new AStarRouter(graph);
+
+        int queries = 200;
+        int[] sources = new int[queries];
+        int[] targets = new int[queries];
+        Random random = new Random(4);
+        for (int q = 0; q < queries; q++) {
+            sources[q] = random.nextInt(graph.getNodeCount());
+            targets[q] = random.nextInt(graph.getNodeCount());
+        }
+        int[] expected = new int[queries];
+        long astarSettled = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            expected[q] = astar.findPath(sources[q], targets[q]);
+            astarSettled += astar.getSettledCount();
+        }
+        long astarTime = System.nanoTime() - start;
+
+        // warm up, then measure
+        for (int q = 0; q < queries; q++) {
+            assertEquals(expected[q], ch.findPath(sources[q], targets[q]));
+        }
+        long chSettled = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            ch.findPath(sources[q], targets[q]);
+            chSettled += ch.getSettledCount();
+        }
+        long chTime = System.nanoTime() - start;
+
+        if (BENCHMARK) {
+            System.out.println("ch on " + graph.getNodeCount() + " nodes: contraction "
+                    + contraction / 1000000 + " ms, " + hierarchy.getShortcutCount() + " shortcuts");
+            System.out.println("  a*: " + astarTime / queries / 1000 + " us/query, "
+                    + astarSettled / queries + " settled");
+            System.out.println("  ch: " + chTime / queries / 1000 + " us/query, "
+                    + chSettled / queries + " settled");
+        }
+        assertTrue(chSettled < astarSettled);
+    }
+}
@@ -0,0 +1,147 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SegmentIndex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class MapMatcherTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+    private static final double ON_ROAD = 0.5; // meters
+
+    // drives random legs between grid nodes until the path is at least minLength meters
+    private static Route drive(RoadGraph graph, double minLength, long seed) {
+        Random random = new Random(seed);
+        AStarRouter router = new AStarRouter(graph);
+        Route.Builder builder = new Route.Builder();
+        int node = random.nextInt(graph.getNodeCount());
+        double length = 0;
+        while (length < minLength) {
+            int target = random.nextInt(graph.getNodeCount());
+            if (router.findPath(node, target) < 0) {
+                continue;
+            }
+            int[] path = router.getPath();
+            for (int i = builder.size() == 0 ? 0 : 1; i < path.length; i++) {
+                if (i > 0) {
+                    length += GeoUtils.distance(graph.getLatitude(path[i - 1]), graph.getLongitude(path[i - 1]),
+                            graph.getLatitude(path[i]), graph.getLongitude(path[i]));
+                }
+                builder.add(graph.getLatitude(path[i]), graph.getLongitude(path[i]));
+            }
+            node = target;
+        }
+        return builder.build();
+    }
+
+    // a fix every step meters along the route with gaussian noise, fed to the matcher
+    private static long record(Route route, double step, double noise, long seed, MapMatcher matcher) {
+        Random random = new Random(seed);
+        long fixes = 0;
+        int segment = 0;
+        for (double d = 0; d <= route.getTotalDistance(); d += step) {
+            segment = route.findSegmentByDistance(d, segment);
+            double length = route.getDistance(segment + 1) - route.getDistance(segment);
+            double t = length > 0 ? (d - route.getDistance(segment)) / length : 0;
+            double lat = route.getLatitude(segment)
+                    + t * (route.getLatitude(segment + 1) - route.getLatitude(segment));
+            double lon = route.getLongitude(segment)
+                    + t * (route.getLongitude(segment + 1) - route.getLongitude(segment));
+            lat += random.nextGaussian() * noise / METERS_PER_DEGREE;
+            lon += random.nextGaussian() * noise / (METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            matcher.add(lat, lon);
+            fixes++;
+        }
+        matcher.finish();
+        return fixes;
+    }
+
+    private static class Checker implements MapMatcher.Callback {
+        private final SegmentIndex truth;
+        long points;
+        long onRoute;
+
+        Checker(Route route) {
+            truth = SegmentIndex.build(route);
+        }
+
+        @Override
+        public void onMatchedPoint(double latitude, double longitude) {
+            points++;
+            if (truth.nearest(latitude, longitude, ON_ROAD) >= 0) {
+                onRoute++;
+            }
+        }
+    }
+
+    @Test
+    public void noisyTrack_snapsOntoDrivenRoads() {
+        RoadGraph graph = RouterTest.grid(40, 5);
+        Route driven = drive(graph, 20000, 6);
+        Checker checker = new Checker(driven);
+        MapMatcher matcher = new MapMatcher(graph, 8, checker);
+        record(driven, 20, 8, 7, matcher);
+
+        assertEquals(0, matcher.getDroppedCount());
+        assertEquals(0, matcher.getBreakCount());
+        assertTrue(checker.points > 0);
+        assertTrue(checker.onRoute + " of " + checker.points + " on the driven roads",
+                checker.onRoute >= checker.points * 0.99);
+    }
+
+    @Test
+    public void match_buildsRoute() throws Exception {
+        RoadGraph graph = RouterTest.grid(10, 8);
+        Route driven = drive(graph, 2000, 9);
+        Route matched = MapMatcher.match(graph, driven, MapMatcher.DEFAULT_ACCURACY);
+        assertNotNull(matched);
+        assertEquals(driven.getLatitude(0), matched.getLatitude(0), 1e-6);
+        assertEquals(driven.getLongitude(0), matched.getLongitude(0), 1e-6);
+        assertEquals(driven.getTotalDistance(), matched.getTotalDistance(), 1);
+    }
+
+    @Test
+    public void offRoadFixes_areDropped() {
+        RoadGraph graph = RouterTest.grid(10, 8);
+        Checker checker = new Checker(drive(graph, 2000, 9));
+        MapMatcher matcher = new MapMatcher(graph, checker);
+        matcher.add(0, 0);
+        matcher.finish();
+        assertEquals(1, matcher.getDroppedCount());
+        assertEquals(0, checker.points);
+    }
+
+    /**
+     * Synthetic benchmark: a 100k fix track matched in one streaming pass with -Dbenchmark=true,
+     * a tenth of it otherwise.
+     */
+    @Test
+    public void longTrack_streams() {
+        RoadGraph graph = RouterTest.grid(100, 10);
+        int expectedFixes = BENCHMARK ? 100000 : 10000;
+        Route driven = drive(graph, 15 * expectedFixes, 11);
+        Checker checker = new Checker(driven);
+        MapMatcher matcher = new MapMatcher(graph, 5, checker);
+        long start = System.nanoTime();
+        long fixes = record(driven, 15, 5, 12, matcher);
+        long elapsed = System.nanoTime() - start;
+        if (BENCHMARK) {
+            System.out.println("matched " + fixes + " fixes in " + elapsed / 1000000 + " ms, "
+                    + checker.onRoute + " of " + checker.points + " points on the driven roads");
+        }
+
+        assertTrue(fixes >= expectedFixes);
+        assertEquals(0, matcher.getBreakCount());
+        assertTrue(checker.onRoute >= checker.points * 0.99);
+    }
+}
@@ -0,0 +1,225 @@
+package com.dylan.fakemovinggps.graph;
+
+import com.dylan.fakemovinggps.route.GeoUtils;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RouterTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static final double SPACING = 0.001; // degrees, ~110 m
+
+    /**
+     * Jittered city block grid with random speeds, a few one-way streets and missing roads.
+     */
+    static RoadGraph grid(int size, long seed) {
+        Random random = new Random(seed);
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                builder.addNode(1.28 + row * SPACING + (random.nextDouble() - 0.5) * SPACING * 0.3,
+                        103.84 + column * SPACING + (random.nextDouble() - 0.5) * SPACING * 0.3);
+            }
+        }
+        double[] speeds = {8.3, 13.9, 19.4, 27.8};
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int node = row * size + column;
+                if (column + 1 < size) {
+                    connect(builder, random, node, node + 1, speeds);
+                }
+                if (row + 1 < size) {
+                    connect(builder, random, node, node + size, speeds);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static void connect(RoadGraph.Builder builder, Random random, int a, int b, double[] speeds) {
+        double speed = speeds[random.nextInt(speeds.length)];
+        double kind = random.nextDouble();
+        if (kind < 0.05) {
+            return;
+        } else if (kind < 0.15) {
+            builder.addEdge(a, b, speed);
+        } else {
+            builder.addRoad(a, b, speed);
+        }
+    }
+
+    // reference: plain Dijkstra with boxed entries
+    private static int dijkstra(RoadGraph graph, int source, int target) {
+        int[] times = new int[graph.getNodeCount()];
+        Arrays.fill(times, Integer.MAX_VALUE);
+        times[source] = 0;
+        PriorityQueue<long[]> queue = new PriorityQueue<>(16, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        queue.add(new long[]{0, source});
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int node = (int) entry[1];
+            if (entry[0] > times[node]) {
+                continue;
+            }
+            if (node == target) {
+                return times[node];
+            }
+            for (int edge = graph.getFirstEdge(node); edge < graph.getFirstEdge(node + 1); edge++) {
+                int next = graph.getTarget(edge);
+                int time = times[node] + graph.getWeight(edge);
+                if (time < times[next]) {
+                    times[next] = time;
+                    queue.add(new long[]{time, next});
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void findPath_matchesDijkstra() {
+        RoadGraph graph = grid(60, 1);
+        AStarRouter router = new AStarRouter(graph);
+        Random random = new Random(2);
+        for (int q = 0; q < 200; q++) {
+            int source = random.nextInt(graph.getNodeCount());
+            int target = random.nextInt(graph.getNodeCount());
+            int expected = dijkstra(graph, source, target);
+            int time = router.findPath(source, target);
+            assertEquals(expected, time);
+            if (time < 0) {
+                continue;
+            }
+            int[] path = router.getPath();
+            assertEquals(source, path[0]);
+            assertEquals(target, path[path.length - 1]);
+            int sum = 0;
+            for (int i = 0; i + 1 < path.length; i++) {
+                int best = Integer.MAX_VALUE;
+                for (int e = graph.getFirstEdge(path[i]); e < graph.getFirstEdge(path[i] + 1); e++) {
+                    if (graph.getTarget(e) == path[i + 1]) {
+                        best = Math.min(best, graph.getWeight(e));
+                    }
+                }
+                assertTrue(best != Integer.MAX_VALUE);
+                sum += best;
+            }
+            assertEquals(time, sum);
+        }
+    }
+
+    @Test
+    public void nearestNode_matchesLinearScan() {
+        RoadGraph graph = grid(50, 3);
+        AStarRouter router = new AStarRouter(graph);
+        Random random = new Random(4);
+        for (int q = 0; q < 500; q++) {
+            double lat = 1.28 + (random.nextDouble() * 1.2 - 0.1) * 50 * SPACING;
+            double lon = 103.84 + (random.nextDouble() * 1.2 - 0.1) * 50 * SPACING;
+            double best = Double.POSITIVE_INFINITY;
+            for (int node = 0; node < graph.getNodeCount(); node++) {
+                best = Math.min(best, GeoUtils.distance(lat, lon, graph.getLatitude(node),
+                        graph.getLongitude(node)));
+            }
+            int node = router.nearestNode(lat, lon, Double.POSITIVE_INFINITY);
+            assertEquals(best, GeoUtils.distance(lat, lon, graph.getLatitude(node),
+                    graph.getLongitude(node)), 0.01);
+        }
+        assertEquals(-1, router.nearestNode(2.0, 103.84, 1000));
+    }
+
+    @Test
+    public void route_followsGraph() {
+        RoadGraph graph = new RoadGraph.Builder().build();
+        assertEquals(-1, new AStarRouter(graph).nearestNode(0, 0, 100));
+
+        RoadGraph.Builder builder = new RoadGraph.Builder();
+        int a = builder.addNode(0, 0);
+        int b = builder.addNode(0, 0.001);
+        int c = builder.addNode(0.001, 0.001);
+        int d = builder.addNode(0.001, 0);
+        builder.addRoad(a, b, 10).addRoad(b, c, 10).addRoad(a, d, 2).addRoad(d, c, 2);
+        AStarRouter router = new AStarRouter(builder.build());
+        Route route = router.route(0, 0, 0.001, 0.001, 50, SpeedProfile.of(10));
+        assertNotNull(route);
+        assertEquals(3, route.size());
+        assertEquals(0.001, route.getLongitude(1), 1e-9);
+        assertNull(router.route(0, 0, 0.01, 0.01, 50, SpeedProfile.of(10)));
+    }
+
+    @Test
+    public void file_roundTrips() throws Exception {
+        RoadGraph graph = grid(20, 5);
+        File file = File.createTempFile("graph", ".fmgg");
+        try {
+            graph.write(file);
+            RoadGraph read = RoadGraph.read(file);
+            assertEquals(graph.getNodeCount(), read.getNodeCount());
+            assertEquals(graph.getEdgeCount(), read.getEdgeCount());
+            assertEquals(graph.getMaxSpeed(), read.getMaxSpeed(), 0);
+            int[] expected = new int[graph.getEdgeCount() * 2];
+            int[] actual = new int[read.getEdgeCount() * 2];
+            for (int e = 0; e < graph.getEdgeCount(); e++) {
+                expected[2 * e] = graph.getTarget(e);
+                expected[2 * e + 1] = graph.getWeight(e);
+                actual[2 * e] = read.getTarget(e);
+                actual[2 * e + 1] = read.getWeight(e);
+            }
+            assertArrayEquals(expected, actual);
+            assertEquals(graph.getLatitude(7), read.getLatitude(7), 0);
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void cityQueries_areFast() {
+        int size = BENCHMARK ? 400 : 100; // 160k nodes, ~570k edges at full size
+        RoadGraph graph = grid(size, 6);
+        AStarRouter router = new AStarRouter(graph);
+        Random random = new Random(7);
+        int queries = 100;
+        int[] sources = new int[queries];
+        int[] targets = new int[queries];
+        int[] results = new int[queries];
+        long settled = 0;
+        long worst = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            sources[q] = random.nextInt(graph.getNodeCount());
+            targets[q] = random.nextInt(graph.getNodeCount());
+            long begin = System.nanoTime();
+            results[q] = router.findPath(sources[q], targets[q]);
+            worst = Math.max(worst, System.nanoTime() - begin);
+            settled += router.getSettledCount();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (BENCHMARK) {
+            System.out.println("a* on " + graph.getNodeCount() + " nodes: " + elapsed / queries / 1000
+                    + " us/query, worst " + worst / 1000 + " us, " + settled / queries + " settled");
+        }
+        for (int q = 0; q < 10; q++) {
+            assertEquals(dijkstra(graph, sources[q], targets[q]), results[q]);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.dylan.fakemovinggps.location;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LatestFixChannelTest {
+
+    // queues the drain task instead of running it, the test is the consumer thread
+    private static class QueueWaker implements LatestFixChannel.Waker {
+        final BlockingQueue<Runnable> wakes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void wake(Runnable drain) {
+            wakes.add(drain);
+        }
+    }
+
+    private static MockFix fix(double latitude) {
+        MockFix fix = new MockFix();
+        fix.latitude = latitude;
+        fix.longitude = -latitude;
+        return fix;
+    }
+
+    @Test
+    public void burst_wakesOnceAndDeliversLatest() {
+        QueueWaker waker = new QueueWaker();
+        LatestFixChannel channel = new LatestFixChannel(waker);
+        final List<Double> received = new ArrayList<>();
+        channel.setListener(new LatestFixChannel.Listener() {
+            @Override
+            public void onLatestFix(MockFix fix) {
+                received.add(fix.latitude);
+            }
+        });
+        // nothing published yet: the wake-up of the new listener delivers nothing
+        waker.wakes.poll().run();
+        assertTrue(received.isEmpty());
+
+        for (int i = 1; i <= 100; i++) {
+            channel.publish(fix(i));
+        }
+        assertEquals(1, waker.wakes.size());
+        waker.wakes.poll().run();
+        assertEquals("[100.0]", received.toString());
+
+        // a wake-up without a new fix delivers nothing, the next fix wakes again
+        channel.publish(fix(101));
+        waker.wakes.poll().run();
+        assertEquals("[100.0, 101.0]", received.toString());
+        assertNull(waker.wakes.poll());
+    }
+
+    @Test
+    public void withoutListener_nothingWakes() {
+        QueueWaker waker = new QueueWaker();
+        LatestFixChannel channel = new LatestFixChannel(waker);
+        channel.publish(fix(1));
+        channel.publish(fix(2));
+        assertNull(waker.wakes.poll());
+
+        // a late listener still gets the last fix
+        final AtomicReference<Double> received = new AtomicReference<>();
+        channel.setListener(new LatestFixChannel.Listener() {
+            @Override
+            public void onLatestFix(MockFix fix) {
+                received.set(fix.latitude);
+            }
+        });
+        waker.wakes.poll().run();
+        assertEquals(2.0, received.get(), 0);
+    }
+
+    @Test
+    public void concurrentProducer_neverTearsFixes() throws InterruptedException {
+        final QueueWaker waker = new QueueWaker();
+        final LatestFixChannel channel = new LatestFixChannel(waker);
+        final double[] last = {0};
+        final int[] torn = {0};
+        channel.setListener(new LatestFixChannel.Listener() {
+            @Override
+            public void onLatestFix(MockFix fix) {
+                if (fix.longitude != -fix.latitude || fix.latitude < last[0]) {
+                    torn[0]++;
+                }
+                last[0] = fix.latitude;
+            }
+        });
+        final int fixes = 1000000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                MockFix fix = new MockFix();
+                for (int i = 1; i <= fixes; i++) {
+                    fix.latitude = i;
+                    fix.longitude = -i;
+                    channel.publish(fix);
+                }
+            }
+        });
+        producer.start();
+        int wakes = 0;
+        while (producer.isAlive() || !waker.wakes.isEmpty()) {
+            Runnable drain = waker.wakes.poll(10, TimeUnit.MILLISECONDS);
+            if (drain != null) {
+                drain.run();
+                wakes++;
+            }
+        }
+        producer.join();
+        assertEquals(0, torn[0]);
+        assertEquals(fixes, last[0], 0);
+        assertTrue(wakes < fixes);
+    }
+}
@@ -0,0 +1,128 @@
+package com.dylan.fakemovinggps.location;
+
+import android.location.Location;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+// real Location objects, so the copies and the allocation check are measured on framework code
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class MockLocationSinkTest {
+
+    private static class RecordingSink extends MockLocationSink {
+        final Location[] emitted;
+        int count;
+
+        RecordingSink(int ringSize, int capacity) {
+            super("test", ringSize);
+            emitted = new Location[capacity];
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        protected void setMockLocation(Location location) {
+            emitted[count++ % emitted.length] = location;
+        }
+    }
+
+    @Test
+    public void ring_reusesLocationOnlyAfterFullCycle() {
+        int ringSize = 4;
+        RecordingSink sink = new RecordingSink(ringSize, 3 * ringSize);
+        MockFix fix = new MockFix();
+        for (int i = 0; i < 3 * ringSize; i++) {
+            sink.emit(fix);
+        }
+        for (int i = 0; i + ringSize < sink.count; i++) {
+            for (int j = i + 1; j < i + ringSize; j++) {
+                assertNotSame(sink.emitted[i], sink.emitted[j]);
+            }
+            assertSame(sink.emitted[i], sink.emitted[i + ringSize]);
+        }
+    }
+
+    @Test
+    public void emit_copiesFixWithSinkSettings() {
+        RecordingSink sink = new RecordingSink(2, 2);
+        MockFix fix = new MockFix();
+        fix.latitude = 1.28;
+        fix.longitude = 103.84;
+        fix.altitude = 12;
+        fix.speed = 8.5f;
+        fix.bearing = 90;
+        fix.accuracy = 4;
+        fix.time = 1500000000000L;
+        fix.elapsedRealtimeNanos = 7000000000L;
+        sink.emit(fix);
+        Location location = sink.emitted[0];
+        assertEquals("test", location.getProvider());
+        assertEquals(1.28, location.getLatitude(), 0);
+        assertEquals(103.84, location.getLongitude(), 0);
+        assertEquals(12, location.getAltitude(), 0);
+        assertEquals(8.5f, location.getSpeed(), 0);
+        assertEquals(90, location.getBearing(), 0);
+        assertEquals(4, location.getAccuracy(), 0);
+        assertEquals(1500000000000L, location.getTime());
+        assertEquals(7000000000L, location.getElapsedRealtimeNanos());
+
+        sink.setAccuracy(25);
+        sink.setTimeOffset(-2000);
+        sink.emit(fix);
+        location = sink.emitted[1];
+        assertEquals(25, location.getAccuracy(), 0);
+        assertEquals(1499999998000L, location.getTime());
+        assertEquals(5000000000L, location.getElapsedRealtimeNanos());
+    }
+
+    @Test
+    public void emit_doesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        RecordingSink single = new RecordingSink(1, 16);
+        RecordingSink ring = new RecordingSink(TickScheduler.MAX_RATE, 16);
+        MockFix fix = new MockFix();
+        for (int i = 0; i < 20000; i++) {
+            single.emit(fix);
+            ring.emit(fix);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int fixes = 10000;
+        for (int i = 0; i < fixes; i++) {
+            fix.latitude = i * 1e-5;
+            single.emit(fix);
+            ring.emit(fix);
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+        assertEquals((fixes - 1) * 1e-5, ring.emitted[(ring.count - 1) % 16].getLatitude(), 0);
+
+        // slack for the counter itself, any per-fix allocation is far above it
+        assertTrue("allocated " + (after - before) + " bytes for " + fixes + " fixes",
+                after - before <= 1024);
+    }
+}
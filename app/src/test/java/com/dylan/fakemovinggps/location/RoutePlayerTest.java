@@ -0,0 +1,32 @@
+package com.dylan.fakemovinggps.location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RoutePlayerTest {
+
+    @Test
+    public void rate_setsTickPeriod() {
+        RoutePlayer player = new RoutePlayer();
+        TickScheduler scheduler = player.getScheduler();
+        assertEquals(1000000000L / RoutePlayer.DEFAULT_RATE, scheduler.getPeriodNanos());
+
+        player.setRate(10);
+        assertEquals(100000000L, scheduler.getPeriodNanos());
+        assertEquals(10, scheduler.getRate());
+
+        player.setRate(1000);
+        assertEquals(1000000000L / TickScheduler.MAX_RATE, scheduler.getPeriodNanos());
+        player.setRate(0);
+        assertEquals(1000000000L / TickScheduler.MIN_RATE, scheduler.getPeriodNanos());
+    }
+
+    @Test
+    public void missedTickPolicy_reachesScheduler() {
+        RoutePlayer player = new RoutePlayer();
+        assertEquals(TickScheduler.MissedTickPolicy.SKIP, player.getScheduler().getMissedTickPolicy());
+        player.setMissedTickPolicy(TickScheduler.MissedTickPolicy.CATCH_UP);
+        assertEquals(TickScheduler.MissedTickPolicy.CATCH_UP, player.getScheduler().getMissedTickPolicy());
+    }
+}
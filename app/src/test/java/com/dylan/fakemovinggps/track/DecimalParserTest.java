@@ -0,0 +1,39 @@
+package com.dylan.fakemovinggps.track;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecimalParserTest {
+
+    private static double parse(String s) {
+        char[] chars = ("  " + s + "  ").toCharArray();
+        return DecimalParser.parse(chars, 2, 2 + s.length());
+    }
+
+    @Test
+    public void matchesDoubleParseDouble() {
+        String[] values = {"0", "-0.5", "+103.8459285", "1.2797677", "180", "-179.9999999",
+                "1e3", "2.5E-4", "0.000000123", "12345678901234567890", ".5", "5."};
+        for (String value : values) {
+            assertEquals(value, Double.parseDouble(value), parse(value), 0);
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            String value = String.format(Locale.ROOT, "%.7f", (random.nextDouble() - 0.5) * 360);
+            assertEquals(value, Double.parseDouble(value), parse(value), 0);
+        }
+    }
+
+    @Test
+    public void rejectsMalformedNumbers() {
+        String[] values = {"", "-", ".", "1.2.3", "1e", "1,5", "abc", "1 2"};
+        for (String value : values) {
+            assertTrue(value, Double.isNaN(parse(value)));
+        }
+    }
+}
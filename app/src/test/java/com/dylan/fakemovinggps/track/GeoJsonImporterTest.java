@@ -0,0 +1,86 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class GeoJsonImporterTest {
+
+    private static Route read(InputStream in) throws IOException {
+        try {
+            return GeoJsonImporter.read(in, -1, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Route read(String document) throws IOException {
+        return read(new ByteArrayInputStream(document.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static void assertPoints(double[][] expected, Route route) {
+        assertEquals(expected.length, route.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i][0], route.getLatitude(i), 0);
+            assertEquals(expected[i][1], route.getLongitude(i), 0);
+        }
+    }
+
+    @Test
+    public void fixture_readsLinesOfEveryFeatureInOrder() throws IOException {
+        Route route = read(GeoJsonImporterTest.class.getResourceAsStream("route.geojson"));
+        // points and the polygon are skipped, the repeated position is dropped
+        assertPoints(new double[][]{{1.282, 103.859}, {1.2825, 103.8595}, {1.283, 103.8601},
+                {1.2835, 103.8607}, {-1.284, -103.8613}}, route);
+    }
+
+    @Test
+    public void bareGeometry_isRead() throws IOException {
+        Route route = read("{\"coordinates\": [[103.5, 1.5], [103.6, 1.6]], \"type\": \"LineString\"}");
+        assertPoints(new double[][]{{1.5, 103.5}, {1.6, 103.6}}, route);
+    }
+
+    @Test
+    public void noLineGeometry_fails() {
+        try {
+            read("{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [103.5, 1.5]}}");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no route points"));
+        }
+    }
+
+    @Test
+    public void invalidPosition_fails() {
+        try {
+            read("{\"type\": \"LineString\", \"coordinates\": [[103.5, 1.5], [103.5, 91]]}");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid position"));
+        }
+    }
+
+    @Test
+    public void malformedDocument_fails() {
+        try {
+            read("{\"type\": \"LineString\", \"coordinates\": [[103.5, 1.5], [103.5, \"x\"]]}");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed GeoJSON"));
+        }
+    }
+}
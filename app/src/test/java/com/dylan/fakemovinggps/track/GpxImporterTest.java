@@ -0,0 +1,153 @@
+package com.dylan.fakemovinggps.track;
+
+import android.util.Xml;
+
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class GpxImporterTest {
+
+    // the track points of route.gpx, without the repeated fix
+    private static final double[][] FIXTURE = {
+            {1.282, 103.859}, {1.2825, 103.8595}, {1.283, 103.8601}, {-1.2835, -103.8607}};
+
+    private static Route read(InputStream in, ImportListener listener) throws IOException {
+        try {
+            return GpxImporter.read(Xml.newPullParser(), in, -1, listener);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Route read(String document) throws IOException {
+        return read(new ByteArrayInputStream(document.getBytes(Charset.forName("UTF-8"))), null);
+    }
+
+    private static InputStream fixture() {
+        return GpxImporterTest.class.getResourceAsStream("route.gpx");
+    }
+
+    private static void assertPoints(double[][] expected, Route route) {
+        assertEquals(expected.length, route.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i][0], route.getLatitude(i), 0);
+            assertEquals(expected[i][1], route.getLongitude(i), 0);
+        }
+    }
+
+    @Test
+    public void fixture_readsTrackPointsInOrder() throws IOException {
+        final long[] progress = {-1};
+        Route route = read(fixture(), new ImportListener() {
+            @Override
+            public void onProgress(long bytesRead, long totalBytes) {
+                progress[0] = bytesRead;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        // segments joined, the route after the track ignored
+        assertPoints(FIXTURE, route);
+        assertTrue(progress[0] > 0);
+    }
+
+    @Test
+    public void routePoints_readWithoutTrack() throws IOException {
+        Route route = read("<gpx><rte><rtept lat=\"1.5\" lon=\"103.5\"/><rtept lat=\"1.6\" lon=\"103.6\"/></rte></gpx>");
+        assertPoints(new double[][]{{1.5, 103.5}, {1.6, 103.6}}, route);
+    }
+
+    @Test
+    public void streamedIntoFile_matchesRoute() throws IOException {
+        File file = File.createTempFile("route", RouteFile.class.getSimpleName());
+        try {
+            RouteFileWriter writer = new RouteFileWriter(file, SpeedProfile.of(Route.DEFAULT_SPEED));
+            InputStream in = fixture();
+            try {
+                GpxImporter.read(Xml.newPullParser(), in, -1, null, writer);
+            } finally {
+                in.close();
+            }
+            writer.finish();
+            assertPoints(FIXTURE, MappedRoute.open(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void noPoints_fails() {
+        try {
+            read("<gpx><wpt lat=\"1.5\" lon=\"103.5\"/></gpx>");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no route points"));
+        }
+    }
+
+    @Test
+    public void invalidCoordinate_failsWithLine() {
+        try {
+            read("<gpx>\n<trk><trkseg>\n<trkpt lat=\"1.5\" lon=\"103.5\"/>\n<trkpt lat=\"91\" lon=\"103.5\"/>\n</trkseg></trk></gpx>");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("line 4"));
+        }
+    }
+
+    @Test
+    public void malformedDocument_fails() {
+        try {
+            read("<gpx><trk><trkseg><trkpt lat=\"1.5\" lon=\"103.5\"></trkseg></gpx>");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed GPX"));
+        }
+    }
+
+    @Test
+    public void cancelled_stopsImport() throws IOException {
+        StringBuilder document = new StringBuilder("<gpx><trk><trkseg>");
+        for (int i = 0; i < 10000; i++) {
+            document.append("<trkpt lat=\"1.").append(i).append("\" lon=\"103.5\"/>");
+        }
+        document.append("</trkseg></trk></gpx>");
+        try {
+            read(new ByteArrayInputStream(document.toString().getBytes(Charset.forName("UTF-8"))),
+                    new ImportListener() {
+                        @Override
+                        public void onProgress(long bytesRead, long totalBytes) {
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return true;
+                        }
+                    });
+            fail();
+        } catch (InterruptedIOException expected) {
+            // cancelled at the first poll
+        }
+    }
+}
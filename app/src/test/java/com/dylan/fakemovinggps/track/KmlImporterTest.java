@@ -0,0 +1,85 @@
+package com.dylan.fakemovinggps.track;
+
+import android.util.Xml;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class KmlImporterTest {
+
+    private static Route read(InputStream in) throws IOException {
+        try {
+            return KmlImporter.read(Xml.newPullParser(), in, -1, null);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Route read(String document) throws IOException {
+        return read(new ByteArrayInputStream(document.getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private static void assertPoints(double[][] expected, Route route) {
+        assertEquals(expected.length, route.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i][0], route.getLatitude(i), 0);
+            assertEquals(expected[i][1], route.getLongitude(i), 0);
+        }
+    }
+
+    @Test
+    public void fixture_readsLineStringsAndTracksInOrder() throws IOException {
+        Route route = read(KmlImporterTest.class.getResourceAsStream("route.kml"));
+        // the point and the polygon ring are skipped, the repeated tuple is dropped
+        assertPoints(new double[][]{{1.282, 103.859}, {1.2825, 103.8595}, {1.283, 103.8601},
+                {1.2835, 103.8607}, {-1.284, -103.8613}}, route);
+    }
+
+    @Test
+    public void noLineGeometry_fails() {
+        try {
+            read("<kml><Placemark><Point><coordinates>103.5,1.5</coordinates></Point></Placemark></kml>");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no route points"));
+        }
+    }
+
+    @Test
+    public void invalidTuple_fails() {
+        String[] tuples = {"103.5", "103.5,abc", "103.5,95", "181,1.5"};
+        for (String tuple : tuples) {
+            try {
+                read("<kml><LineString><coordinates>103.4,1.4 " + tuple + "</coordinates></LineString></kml>");
+                fail(tuple);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Invalid coordinate '" + tuple + "'"));
+            }
+        }
+    }
+
+    @Test
+    public void malformedDocument_fails() {
+        try {
+            read("<kml><LineString><coordinates>103.4,1.4</LineString></kml>");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed KML"));
+        }
+    }
+}
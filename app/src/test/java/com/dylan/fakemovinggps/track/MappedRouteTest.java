@@ -0,0 +1,185 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.RouteCursor;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedRouteTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static Route randomRoute(int points) {
+        Route.Builder builder = new Route.Builder(points);
+        Random random = new Random(3);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < points; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.0004;
+            lon += random.nextDouble() * 0.00003;
+            builder.add(lat, lon);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void roundTrip_matchesInMemoryRoute() throws Exception {
+        Route route = randomRoute(100000);
+        File file = File.createTempFile("route", RouteFile.class.getSimpleName());
+        try {
+            RouteFileWriter.write(route, file, 256);
+            MappedRoute mapped = MappedRoute.open(file);
+
+            assertEquals(route.size(), mapped.size());
+            assertEquals(route.getTotalDistance(), mapped.getTotalDistance(), route.getTotalDistance() * 1e-5);
+            assertEquals(route.getDuration(), mapped.getDuration(), 0.001);
+            assertEquals(mapped.getDistance(mapped.size() - 1), mapped.getTotalDistance(), 0);
+            assertTrue(file.length() < route.size() * 12L);
+
+            Random random = new Random(5);
+            for (int i = 0; i < 10000; i++) {
+                int index = random.nextInt(route.size());
+                assertEquals(route.getLatitude(index), mapped.getLatitude(index), 1e-7);
+                assertEquals(route.getLongitude(index), mapped.getLongitude(index), 1e-7);
+                assertEquals(route.getTime(index), mapped.getTime(index), 0.001);
+                assertEquals(route.getSpeed(index), mapped.getSpeed(index), 0.01);
+                if (index < route.size() - 1 && route.getDistance(index + 1) - route.getDistance(index) > 5) {
+                    // E7 quantization moves the end points by up to a centimeter
+                    assertEquals(route.getBearing(index), mapped.getBearing(index), 0.5);
+                }
+            }
+
+            RouteCursor expected = new RouteCursor(route);
+            RouteCursor actual = new RouteCursor(mapped);
+            MockFix a = new MockFix();
+            MockFix b = new MockFix();
+            for (double t = 0; t < route.getDuration() + 10; t += 0.5) {
+                expected.moveToTime(t);
+                actual.moveToTime(t);
+                expected.getPosition(a);
+                actual.getPosition(b);
+                assertEquals(a.latitude, b.latitude, 1e-6);
+                assertEquals(a.longitude, b.longitude, 1e-6);
+                assertEquals(a.speed, b.speed, 0.05);
+            }
+            assertTrue(actual.isFinished());
+
+            actual.moveToDistance(route.getTotalDistance() / 3);
+            expected.moveToDistance(route.getTotalDistance() / 3);
+            assertEquals(expected.getSegment(), actual.getSegment(), 1);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void incrementalWriter_matchesWrittenRoute() throws Exception {
+        // on E7 coordinates, the streamed profile sees the same distances and bearings
+        Route random = randomRoute(50000);
+        Route.Builder builder = new Route.Builder(random.size());
+        for (int i = 0; i < random.size(); i++) {
+            builder.add(Math.round(random.getLatitude(i) * RouteFile.E7) / RouteFile.E7,
+                    Math.round(random.getLongitude(i) * RouteFile.E7) / RouteFile.E7);
+        }
+        Route route = builder.build();
+        File written = File.createTempFile("route", RouteFile.class.getSimpleName());
+        File streamed = File.createTempFile("route", RouteFile.class.getSimpleName());
+        try {
+            RouteFileWriter.write(route, written);
+            RouteFileWriter writer = new RouteFileWriter(streamed, route.getSpeedProfile());
+            for (int i = 0; i < route.size(); i++) {
+                writer.add(route.getLatitude(i), route.getLongitude(i));
+            }
+            writer.finish();
+            assertEquals(route.size(), writer.size());
+
+            MappedRoute expected = MappedRoute.open(written);
+            MappedRoute actual = MappedRoute.open(streamed);
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.getTotalDistance(), actual.getTotalDistance(), 0);
+            assertEquals(expected.getDuration(), actual.getDuration(), 0.001);
+            for (int i = 0; i < route.size(); i += 7) {
+                assertEquals(expected.getLatitude(i), actual.getLatitude(i), 0);
+                assertEquals(expected.getLongitude(i), actual.getLongitude(i), 0);
+                assertEquals(expected.getTime(i), actual.getTime(i), 0.001);
+                assertEquals(expected.getSpeed(i), actual.getSpeed(i), 0.01);
+            }
+        } finally {
+            written.delete();
+            streamed.delete();
+        }
+    }
+
+    @Test
+    public void open_isIndependentOfRouteLength() throws Exception {
+        // the small route first, so that class loading is not counted against the large one
+        long smallBytes = openAndSeek(randomRoute(1000));
+        long largeBytes = openAndSeek(randomRoute(BENCHMARK ? 1000000 : 200000));
+        // copying the points to the heap would take several MB
+        assertTrue(largeBytes - smallBytes < 64 * 1024);
+    }
+
+    /**
+     * Writes the route, opens it and seeks to the middle.
+     *
+     * @return bytes allocated by opening and seeking, or 0 if the JVM cannot tell
+     */
+    private static long openAndSeek(Route route) throws Exception {
+        File file = File.createTempFile("route", RouteFile.class.getSimpleName());
+        try {
+            RouteFileWriter.write(route, file);
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            MappedRoute mapped = MappedRoute.open(file);
+            RouteCursor cursor = new RouteCursor(mapped);
+            cursor.moveToTime(mapped.getDuration() / 2);
+            long elapsed = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocated;
+            if (BENCHMARK) {
+                System.out.println("open + first seek, " + route.size() + " points, "
+                        + file.length() / 1024 + " KB: " + elapsed / 1000 + " us, "
+                        + allocated + " B allocated");
+            }
+            RouteCursor expected = new RouteCursor(route);
+            expected.moveToTime(route.getDuration() / 2);
+            assertEquals(expected.getProgress(), cursor.getProgress(), 1e-4);
+            return allocated;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void singlePoint() throws Exception {
+        File file = File.createTempFile("route", RouteFile.class.getSimpleName());
+        try {
+            RouteFileWriter.write(Route.single(1.5, 103.5), file);
+            MappedRoute mapped = MappedRoute.open(file);
+            RouteCursor cursor = new RouteCursor(mapped);
+            cursor.moveToTime(10);
+            MockFix fix = new MockFix();
+            cursor.getPosition(fix);
+            assertEquals(1.5, fix.latitude, 1e-7);
+            assertTrue(cursor.isFinished());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.MockFix;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class NmeaParserTest {
+
+    private static String sentence(String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            checksum ^= body.charAt(i);
+        }
+        return String.format("$%s*%02X\r\n", body, checksum);
+    }
+
+    private static NmeaParser parser(String log) throws Exception {
+        return new NmeaParser(new ByteArrayInputStream(log.getBytes("US-ASCII")));
+    }
+
+    @Test
+    public void sentencesOfOneEpoch_areMerged() throws Exception {
+        NmeaParser parser = parser(
+                sentence("GPRMC,123519.00,A,4807.038,N,01131.000,E,022.4,084.4,230394,003.1,W")
+                        + sentence("GPGGA,123519.00,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,")
+                        + sentence("GPVTG,054.7,T,034.4,M,005.5,N,010.2,K")
+                        + sentence("GNRMC,123520.50,A,4807.100,N,01131.100,E,0.0,,230394,,"));
+        MockFix fix = new MockFix();
+
+        int flags = parser.next(fix);
+        assertEquals(TrackWriter.FLAG_ALTITUDE | TrackWriter.FLAG_SPEED | TrackWriter.FLAG_BEARING
+                | TrackWriter.FLAG_ACCURACY, flags);
+        assertEquals(48.1173, fix.latitude, 1e-9);
+        assertEquals(11.516666667, fix.longitude, 1e-9);
+        assertEquals(545.4 + 46.9, fix.altitude, 1e-9);
+        assertEquals(10.2 / 3.6, fix.speed, 1e-5);
+        assertEquals(54.7, fix.bearing, 1e-5);
+        assertEquals(4.5, fix.accuracy, 1e-5);
+        assertEquals(764426119000L, fix.time);   // 1994-03-23T12:35:19Z
+
+        flags = parser.next(fix);
+        assertEquals(TrackWriter.FLAG_SPEED, flags);
+        assertEquals(764426120500L, fix.time);
+        assertEquals(0, fix.speed, 0);
+
+        assertEquals(-1, parser.next(fix));
+        assertEquals(4, parser.getSentenceCount());
+    }
+
+    @Test
+    public void invalidSentences_areSkipped() throws Exception {
+        String good = sentence("GPGGA,000001,0130.000,S,10350.000,W,1,08,1.0,10,M,,M,,");
+        NmeaParser parser = parser("garbage\n"
+                + sentence("GPRMC,000000,V,,,,,,,010120,,")
+                + good.replace("*", "0*")
+                + sentence("GPGGA,000002,0130.000,S,10350.000,W,0,00,,,M,,M,,")
+                + good);
+        MockFix fix = new MockFix();
+
+        assertEquals(TrackWriter.FLAG_ALTITUDE | TrackWriter.FLAG_ACCURACY, parser.next(fix));
+        assertEquals(-1.5, fix.latitude, 1e-9);
+        assertEquals(-103.833333333, fix.longitude, 1e-9);
+        assertEquals(NmeaParser.daysFromCivil(2020, 1, 1) * 86400000L + 1000L, fix.time);
+        assertEquals(-1, parser.next(fix));
+        assertEquals(1, parser.getRejectedCount());
+    }
+
+    @Test
+    public void midnight_advancesTheDate() throws Exception {
+        NmeaParser parser = parser(
+                sentence("GPGGA,235959.0,0100.000,N,10300.000,E,1,08,1.0,10,M,,M,,")
+                        + sentence("GPGGA,000000.0,0100.001,N,10300.000,E,1,08,1.0,10,M,,M,,"));
+        MockFix fix = new MockFix();
+        parser.next(fix);
+        long first = fix.time;
+        parser.next(fix);
+        assertEquals(1000, fix.time - first);
+    }
+
+    @Test
+    public void streaming_doesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 60; i++) {
+            String time = String.format("1235%02d.00", i);
+            log.append(sentence("GPRMC," + time + ",A,4807.038,N,01131.000,E,022.4,084.4,230394,,"))
+                    .append(sentence("GPGGA," + time + ",4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,"))
+                    .append(sentence("GPVTG,054.7,T,034.4,M,005.5,N,010.2,K"));
+        }
+        final byte[] minute = log.toString().getBytes("US-ASCII");
+        // the same minute over and over, as a log of unbounded length
+        InputStream endless = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() {
+                int b = minute[position];
+                position = (position + 1) % minute.length;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                for (int i = 0; i < length; i++) {
+                    buffer[offset + i] = minute[position];
+                    position = (position + 1) % minute.length;
+                }
+                return length;
+            }
+        };
+        NmeaParser parser = new NmeaParser(endless);
+        MockFix fix = new MockFix();
+        for (int i = 0; i < 100000; i++) {
+            parser.next(fix);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int epochs = 100000;
+        for (int i = 0; i < epochs; i++) {
+            parser.next(fix);
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        assertEquals("bytes allocated per epoch", 0, (after - before) / epochs);
+        assertEquals(48.1173, fix.latitude, 1e-9);
+    }
+}
@@ -0,0 +1,204 @@
+package com.dylan.fakemovinggps.track;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Encoded polyline throughput of {@link Polyline} against the usual StringBuilder and
+ * List&lt;LatLng&gt; implementation. Prints ns and allocated bytes per point; the assertions
+ * check that both produce the same output, not absolute timings. The full size run and the
+ * printout only happen with -Dbenchmark=true.
+ */
+public class PolylineBenchmark {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+    private static final int POINTS = BENCHMARK ? 200000 : 20000;
+    private static final int ROUNDS = BENCHMARK ? 10 : 1;
+
+    private static double[] latitudes;
+    private static double[] longitudes;
+
+    /**
+     * Stand-in for the Maps API LatLng, which is not available on the host JVM.
+     */
+    private static class LatLng {
+        final double latitude;
+        final double longitude;
+
+        LatLng(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    @BeforeClass
+    public static void buildPoints() {
+        latitudes = new double[POINTS];
+        longitudes = new double[POINTS];
+        Random random = new Random(42);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < POINTS; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.002;
+            lon += random.nextDouble() * 0.0002;
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+        }
+    }
+
+    @Test
+    public void encode() {
+        List<LatLng> points = toList();
+        char[] out = new char[Polyline.maxEncodedLength(POINTS)];
+
+        String naive = null;
+        int length = 0;
+        long naiveTime = Long.MAX_VALUE;
+        long fastTime = Long.MAX_VALUE;
+        long naiveBytes = 0;
+        long fastBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            naive = naiveEncode(points);
+            naiveTime = Math.min(naiveTime, System.nanoTime() - start);
+            naiveBytes = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            length = Polyline.encode(latitudes, longitudes, 0, POINTS, 5, out, 0);
+            fastTime = Math.min(fastTime, System.nanoTime() - start);
+            fastBytes = allocatedBytes() - allocated;
+        }
+
+        if (BENCHMARK) {
+            System.out.println("encode: naive " + naiveTime / POINTS + " ns/point "
+                    + naiveBytes / POINTS + " B/point, char[] " + fastTime / POINTS + " ns/point "
+                    + fastBytes / POINTS + " B/point");
+        }
+        assertEquals(naive, new String(out, 0, length));
+    }
+
+    @Test
+    public void decode() {
+        String encoded = naiveEncode(toList());
+        char[] chars = encoded.toCharArray();
+        double[] lats = new double[POINTS];
+        double[] lons = new double[POINTS];
+
+        List<LatLng> naive = null;
+        int count = 0;
+        long naiveTime = Long.MAX_VALUE;
+        long fastTime = Long.MAX_VALUE;
+        long naiveBytes = 0;
+        long fastBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            naive = naiveDecode(encoded);
+            naiveTime = Math.min(naiveTime, System.nanoTime() - start);
+            naiveBytes = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            count = Polyline.decode(chars, 0, chars.length, 5, lats, lons, 0);
+            fastTime = Math.min(fastTime, System.nanoTime() - start);
+            fastBytes = allocatedBytes() - allocated;
+        }
+
+        if (BENCHMARK) {
+            System.out.println("decode: naive " + naiveTime / POINTS + " ns/point "
+                    + naiveBytes / POINTS + " B/point, char[] " + fastTime / POINTS + " ns/point "
+                    + fastBytes / POINTS + " B/point");
+        }
+        assertEquals(naive.size(), count);
+        assertEquals(POINTS, Polyline.countPoints(chars, 0, chars.length));
+        for (int i = 0; i < count; i++) {
+            // the naive version multiplies by 1e-5, which is not always correctly rounded
+            assertEquals(naive.get(i).latitude, lats[i], 1e-12);
+            assertEquals(naive.get(i).longitude, lons[i], 1e-12);
+            assertEquals(latitudes[i], lats[i], 0.5e-5 + 1e-12);
+        }
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, or 0 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static List<LatLng> toList() {
+        List<LatLng> points = new ArrayList<LatLng>(POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            points.add(new LatLng(latitudes[i], longitudes[i]));
+        }
+        return points;
+    }
+
+    private static String naiveEncode(List<LatLng> points) {
+        StringBuilder result = new StringBuilder();
+        long lastLat = 0;
+        long lastLng = 0;
+        for (LatLng point : points) {
+            long lat = Math.round(point.latitude * 1e5);
+            long lng = Math.round(point.longitude * 1e5);
+            naiveEncodeValue(lat - lastLat, result);
+            naiveEncodeValue(lng - lastLng, result);
+            lastLat = lat;
+            lastLng = lng;
+        }
+        return result.toString();
+    }
+
+    private static void naiveEncodeValue(long v, StringBuilder result) {
+        v = v < 0 ? ~(v << 1) : v << 1;
+        while (v >= 0x20) {
+            result.append(Character.toChars((int) ((0x20 | (v & 0x1f)) + 63)));
+            v >>= 5;
+        }
+        result.append(Character.toChars((int) (v + 63)));
+    }
+
+    private static List<LatLng> naiveDecode(String encoded) {
+        List<LatLng> points = new ArrayList<LatLng>();
+        int index = 0;
+        int lat = 0;
+        int lng = 0;
+        while (index < encoded.length()) {
+            int result = 1;
+            int shift = 0;
+            int b;
+            do {
+                b = encoded.charAt(index++) - 63 - 1;
+                result += b << shift;
+                shift += 5;
+            } while (b >= 0x1f);
+            lat += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            result = 1;
+            shift = 0;
+            do {
+                b = encoded.charAt(index++) - 63 - 1;
+                result += b << shift;
+                shift += 5;
+            } while (b >= 0x1f);
+            lng += (result & 1) != 0 ? ~(result >> 1) : (result >> 1);
+
+            points.add(new LatLng(lat * 1e-5, lng * 1e-5));
+        }
+        return points;
+    }
+}
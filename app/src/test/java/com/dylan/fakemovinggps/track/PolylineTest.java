@@ -0,0 +1,107 @@
+package com.dylan.fakemovinggps.track;
+
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.SpeedProfile;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PolylineTest {
+
+    private static void randomWalk(double[] latitudes, double[] longitudes, long seed) {
+        Random random = new Random(seed);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < latitudes.length; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.002;
+            lon += random.nextDouble() * 0.0002;
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+        }
+    }
+
+    @Test
+    public void referenceExample() {
+        String encoded = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+        Route route = Polyline.decode(encoded);
+        assertEquals(3, route.size());
+        assertEquals(38.5, route.getLatitude(0), 0);
+        assertEquals(-120.2, route.getLongitude(0), 0);
+        assertEquals(40.7, route.getLatitude(1), 0);
+        assertEquals(-120.95, route.getLongitude(1), 0);
+        assertEquals(43.252, route.getLatitude(2), 0);
+        assertEquals(-126.453, route.getLongitude(2), 0);
+        assertEquals(encoded, Polyline.encode(route));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedInput_isRejected() {
+        Polyline.decode("_p~iF~ps|U_ulL");
+    }
+
+    @Test
+    public void read_decodesTrickledStream() throws IOException {
+        double[] lats = new double[10000];
+        double[] lons = new double[10000];
+        randomWalk(lats, lons, 42);
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] += i * 1e-4;
+        }
+        char[] chars = new char[Polyline.maxEncodedLength(lats.length)];
+        int length = Polyline.encode(lats, lons, 0, lats.length, 6, chars, 0);
+        // line breaks anywhere, and a stream that hands out a few bytes per read like a pipe
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(chars[i]);
+            if (i % 76 == 75) {
+                text.append("\r\n");
+            }
+        }
+        final Random random = new Random(7);
+        InputStream in = new ByteArrayInputStream(text.toString().getBytes("US-ASCII")) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1 + random.nextInt(13)));
+            }
+        };
+
+        Route route = Polyline.read(in, -1, 6, SpeedProfile.of(20), null);
+        Route expected = Polyline.decode(new String(chars, 0, length), 6, SpeedProfile.of(20));
+        assertEquals(expected.size(), route.size());
+        for (int i = 0; i < route.size(); i++) {
+            assertEquals(expected.getLatitude(i), route.getLatitude(i), 0);
+            assertEquals(expected.getLongitude(i), route.getLongitude(i), 0);
+        }
+        assertEquals(20, route.getSpeedProfile().getMaxSpeed(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsTruncatedStream() throws IOException {
+        Polyline.read(new ByteArrayInputStream("_p~iF~ps|U_ulL".getBytes("US-ASCII")), -1,
+                5, SpeedProfile.of(Route.DEFAULT_SPEED), null);
+    }
+
+    @Test
+    public void encodeDecode_roundTrips() {
+        double[] lats = new double[5000];
+        double[] lons = new double[5000];
+        randomWalk(lats, lons, 3);
+        char[] chars = new char[Polyline.maxEncodedLength(lats.length)];
+        int length = Polyline.encode(lats, lons, 0, lats.length, 5, chars, 0);
+        assertEquals(lats.length, Polyline.countPoints(chars, 0, length));
+
+        double[] decodedLats = new double[lats.length];
+        double[] decodedLons = new double[lats.length];
+        assertEquals(lats.length, Polyline.decode(chars, 0, length, 5, decodedLats, decodedLons, 0));
+        for (int i = 0; i < lats.length; i++) {
+            assertEquals(lats[i], decodedLats[i], 0.5e-5 + 1e-12);
+            assertEquals(lons[i], decodedLons[i], 0.5e-5 + 1e-12);
+        }
+    }
+}
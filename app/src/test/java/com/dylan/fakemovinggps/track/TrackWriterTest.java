@@ -0,0 +1,80 @@
+package com.dylan.fakemovinggps.track;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrackWriterTest {
+
+    private static final int FLAGS = TrackWriter.FLAG_ALTITUDE | TrackWriter.FLAG_SPEED
+            | TrackWriter.FLAG_BEARING | TrackWriter.FLAG_ACCURACY;
+
+    @Test
+    public void appendedSessions_roundTrip() throws Exception {
+        File file = File.createTempFile("track", TrackWriter.class.getSimpleName());
+        file.delete();
+        try {
+            for (int session = 0; session < 2; session++) {
+                TrackWriter writer = new TrackWriter(file);
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(1500000000000L + session * 10000000L + i * 1000L,
+                            1.28 + i * 1e-5, 103.84 - i * 2e-5, 10 + i * 0.01, 13.5f, 90.25f, 4.5f, FLAGS);
+                }
+                writer.close();
+            }
+
+            final double[] last = new double[6];
+            long count = TrackReader.read(file, new TrackReader.Callback() {
+                @Override
+                public void onFix(long time, double latitude, double longitude, double altitude,
+                                  float speed, float bearing, float accuracy, int flags) {
+                    last[0] = time;
+                    last[1] = latitude;
+                    last[2] = longitude;
+                    last[3] = altitude;
+                    last[4] = speed;
+                    last[5] = bearing;
+                }
+            });
+
+            assertEquals(2000, count);
+            assertEquals(1500000000000L + 10000000L + 999 * 1000L, (long) last[0]);
+            assertEquals(1.28 + 999 * 1e-5, last[1], 1e-7);
+            assertEquals(103.84 - 999 * 2e-5, last[2], 1e-7);
+            assertEquals(10 + 999 * 0.01, last[3], 0.01);
+            assertEquals(13.5, last[4], 0.01);
+            assertEquals(90.25, last[5], 0.01);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void truncatedTail_isIgnored() throws Exception {
+        File file = File.createTempFile("track", TrackWriter.class.getSimpleName());
+        file.delete();
+        try {
+            TrackWriter writer = new TrackWriter(file);
+            for (int i = 0; i < 10; i++) {
+                writer.write(i * 1000L, 1.28 + i * 1e-4, 103.84, 0, 0, 0, 0, 0);
+            }
+            writer.close();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 1);
+            raf.close();
+
+            long count = TrackReader.read(file, new TrackReader.Callback() {
+                @Override
+                public void onFix(long time, double latitude, double longitude, double altitude,
+                                  float speed, float bearing, float accuracy, int flags) {
+                }
+            });
+            assertEquals(9, count);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.dylan.fakemovinggps.fleet;
+
+/**
+ * State of every virtual device, one primitive array per field rather than one object per
+ * device: a tick walks the arrays front to back, 100k devices take about 8 MB and the garbage
+ * collector has nothing to trace.
+ * <p>
+ * Each device plays one of the simulator's routes in a loop, shifted by its own start offset and
+ * at its own pace. The fix fields hold the result of the last tick; a
+ * {@link FleetSimulator.Sink} reads them for the devices it is handed while other workers write
+ * other ranges.
+ */
+public class Fleet {
+
+    private final int size;
+
+    // assignment
+    final int[] routes;
+    final double[] offsets;     // seconds into the route at simulation time 0
+    final float[] paces;        // playback speed factor
+
+    // playback and noise state
+    final int[] segments;       // segment hint for the next lookup
+    final long[] randomStates;  // SplitMix64
+    final double[] driftNorth;  // meters
+    final double[] driftEast;
+
+    // fix of the last tick
+    final double[] latitudes;
+    final double[] longitudes;
+    final float[] speeds;       // m/s
+    final float[] bearings;     // degrees
+    final float[] accuracies;   // meters
+
+    public Fleet(int size) {
+        this.size = size;
+        routes = new int[size];
+        offsets = new double[size];
+        paces = new float[size];
+        segments = new int[size];
+        randomStates = new long[size];
+        driftNorth = new double[size];
+        driftEast = new double[size];
+        latitudes = new double[size];
+        longitudes = new double[size];
+        speeds = new float[size];
+        bearings = new float[size];
+        accuracies = new float[size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getRoute(int device) {
+        return routes[device];
+    }
+
+    public double getLatitude(int device) {
+        return latitudes[device];
+    }
+
+    public double getLongitude(int device) {
+        return longitudes[device];
+    }
+
+    public float getSpeed(int device) {
+        return speeds[device];
+    }
+
+    public float getBearing(int device) {
+        return bearings[device];
+    }
+
+    public float getAccuracy(int device) {
+        return accuracies[device];
+    }
+}
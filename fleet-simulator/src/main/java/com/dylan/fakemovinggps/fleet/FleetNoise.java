@@ -0,0 +1,53 @@
+package com.dylan.fakemovinggps.fleet;
+
+import com.dylan.fakemovinggps.route.NoiseKernel;
+import com.dylan.fakemovinggps.route.NoiseModel;
+
+/**
+ * The error model of {@link NoiseModel} for a whole {@link Fleet}: the same {@link NoiseKernel}
+ * with the same defaults, but the generator and drift state of every device live in the fleet's
+ * arrays instead of one object per device. Each device has its own SplitMix64 stream, so the
+ * result does not depend on which worker thread steps it.
+ * <p>
+ * The parameters are read-only during a tick; change them between ticks only.
+ */
+public class FleetNoise {
+
+    private final NoiseKernel kernel = new NoiseKernel();
+
+    public FleetNoise setDrift(double sigma, double tau) {
+        kernel.setDrift(sigma, tau);
+        return this;
+    }
+
+    public FleetNoise setAccuracyJitter(double jitter) {
+        kernel.setAccuracyJitter(jitter);
+        return this;
+    }
+
+    /**
+     * @param ratePerSecond mean number of jumps per second of simulated time
+     */
+    public FleetNoise setMultipath(double ratePerSecond, double maxOffset) {
+        kernel.setMultipath(ratePerSecond, maxOffset);
+        return this;
+    }
+
+    /**
+     * Seeds the generator of every device from {@code seed} and draws its initial drift.
+     */
+    void reset(Fleet fleet, long seed) {
+        for (int d = 0; d < fleet.size(); d++) {
+            kernel.reset(fleet.randomStates, fleet.driftNorth, fleet.driftEast, d, seed);
+        }
+    }
+
+    /**
+     * Advances the error processes of {@code device} by {@code dtSeconds} and perturbs its fix in
+     * place. Allocates nothing and touches only the device's own slots.
+     */
+    void apply(Fleet fleet, int device, double dtSeconds) {
+        kernel.apply(fleet.randomStates, fleet.driftNorth, fleet.driftEast, device, dtSeconds,
+                fleet.latitudes, fleet.longitudes, fleet.accuracies);
+    }
+}
@@ -0,0 +1,204 @@
+package com.dylan.fakemovinggps.fleet;
+
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.RouteCursor;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves a {@link Fleet} of virtual devices along a set of routes with the same kinematics as the
+ * app's playback, for generating load on a backend.
+ * <p>
+ * A tick splits the devices into ranges of {@link #CHUNK} on a work-stealing pool; every range
+ * is computed and handed to the {@link Sink} by the worker that took it, so a slow consumer only
+ * holds up its own range while idle workers steal the rest. Devices only write their own array
+ * slots, which keeps the result identical for any number of threads. A tick allocates only the
+ * fork/join tasks and, per range, a fix and a {@link RouteCursor} for each route in it.
+ * <p>
+ * {@link #tick} and the setters must be called from one thread at a time. The routes are read
+ * from all workers concurrently and must allow that, as heap routes do.
+ */
+public class FleetSimulator {
+
+    public interface Sink {
+        /**
+         * Called on a pool worker once devices {@code [from, to)} have their fix for the tick.
+         * Ranges never overlap but arrive concurrently and in any order.
+         *
+         * @param time wall clock of the tick, ms
+         */
+        void onFixes(Fleet fleet, int from, int to, long time);
+    }
+
+    static final int CHUNK = 2048;
+
+    private static final float MIN_PACE = 0.8f;
+    private static final float MAX_PACE = 1.2f;
+
+    private final Route[] routes;
+    private final double[] durations;
+    private final Fleet fleet;
+    private final long seed;
+    private final ForkJoinPool pool;
+
+    private FleetNoise noise;
+    private Sink sink;
+    private double lastElapsed = -1;
+
+    // parameters of the running tick, published to the workers by ForkJoinPool.invoke()
+    private double tickElapsed;
+    private double tickDelta;
+    private long tickTime;
+
+    /**
+     * Spreads {@code devices} over the routes in contiguous blocks, each with a random start
+     * offset and a pace between 0.8 and 1.2 of the route's speed profile.
+     *
+     * @param threads parallelism of the pool
+     */
+    public FleetSimulator(Route[] routes, int devices, int threads, long seed) {
+        if (routes.length == 0) {
+            throw new IllegalArgumentException("No routes");
+        }
+        this.routes = routes.clone();
+        durations = new double[routes.length];
+        for (int r = 0; r < routes.length; r++) {
+            durations[r] = routes[r].getDuration();
+        }
+        fleet = new Fleet(devices);
+        this.seed = seed;
+        pool = new ForkJoinPool(threads);
+
+        Random random = new Random(seed);
+        for (int d = 0; d < devices; d++) {
+            int route = (int) ((long) d * routes.length / devices);
+            assign(d, route, random.nextDouble() * durations[route],
+                    MIN_PACE + random.nextFloat() * (MAX_PACE - MIN_PACE));
+        }
+    }
+
+    /**
+     * Puts {@code device} on a route.
+     *
+     * @param offset seconds into the route at elapsed time 0
+     * @param pace   playback speed factor
+     */
+    public void assign(int device, int route, double offset, float pace) {
+        if (route < 0 || route >= routes.length) {
+            throw new IllegalArgumentException("Invalid route " + route);
+        }
+        fleet.routes[device] = route;
+        fleet.offsets[device] = offset;
+        fleet.paces[device] = pace;
+        fleet.segments[device] = 0;
+    }
+
+    public Fleet getFleet() {
+        return fleet;
+    }
+
+    public Route getRoute(int index) {
+        return routes[index];
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * @param noise error model applied to every fix, null for exact positions with an accuracy of
+     *              1 m. Reseeds the noise of every device.
+     */
+    public void setNoise(FleetNoise noise) {
+        this.noise = noise;
+        if (noise != null) {
+            noise.reset(fleet, seed);
+        }
+    }
+
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Computes the fix of every device at {@code elapsedSeconds} of simulation time and hands
+     * them to the sink; returns once all ranges are done.
+     *
+     * @param time wall clock passed on to the sink, ms
+     */
+    public void tick(double elapsedSeconds, long time) {
+        tickDelta = lastElapsed < 0 ? 0 : Math.max(0, elapsedSeconds - lastElapsed);
+        tickElapsed = elapsedSeconds;
+        tickTime = time;
+        lastElapsed = elapsedSeconds;
+        pool.invoke(new Step(0, fleet.size()));
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private class Step extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Step(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Step(from, middle), new Step(middle, to));
+                return;
+            }
+            MockFix fix = new MockFix();
+            RouteCursor cursor = null;
+            for (int d = from; d < to; d++) {
+                // devices come in blocks per route, so this is rarely more than one cursor
+                Route route = routes[fleet.routes[d]];
+                if (cursor == null || cursor.getRoute() != route) {
+                    cursor = new RouteCursor(route);
+                }
+                move(d, cursor, fix);
+            }
+            Sink sink = FleetSimulator.this.sink;
+            if (sink != null) {
+                sink.onFixes(fleet, from, to, tickTime);
+            }
+        }
+    }
+
+    // plays the device's route in a loop, resuming the lookup from its saved segment
+    private void move(int d, RouteCursor cursor, MockFix fix) {
+        double duration = durations[fleet.routes[d]];
+        double pace = fleet.paces[d];
+        double seconds = fleet.offsets[d] + tickElapsed * pace;
+        if (duration > 0) {
+            seconds %= duration;
+            if (seconds < 0) {
+                seconds += duration;
+            }
+        }
+        cursor.setSegment(fleet.segments[d]);
+        cursor.moveToTime(seconds);
+        cursor.getPosition(fix);
+        fleet.segments[d] = cursor.getSegment();
+        fleet.latitudes[d] = fix.latitude;
+        fleet.longitudes[d] = fix.longitude;
+        fleet.speeds[d] = (float) (fix.speed * pace);
+        fleet.bearings[d] = fix.bearing;
+        if (noise != null) {
+            noise.apply(fleet, d, tickDelta);
+        } else {
+            fleet.accuracies[d] = 1;
+        }
+    }
+}
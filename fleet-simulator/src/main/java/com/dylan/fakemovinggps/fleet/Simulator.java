@@ -0,0 +1,96 @@
+package com.dylan.fakemovinggps.fleet;
+
+import com.dylan.fakemovinggps.route.Route;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line entry point: {@code simulator <devices> [seconds] [hz] [threads]}. Runs the
+ * devices on synthetic routes in real time and prints the tick cost; embed a
+ * {@link FleetSimulator} with a {@link FleetSimulator.Sink} to send the fixes somewhere.
+ */
+public class Simulator {
+
+    private static final int ROUTES = 64;
+    private static final int ROUTE_POINTS = 500;
+    private static final double LATITUDE = 1.30;
+    private static final double LONGITUDE = 103.85;
+    private static final double METERS_PER_DEGREE = 111195;
+
+    private Simulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println("usage: simulator <devices> [seconds] [hz] [threads]");
+            System.exit(2);
+        }
+        int devices = Integer.parseInt(args[0]);
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        double hz = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+
+        FleetSimulator simulator = new FleetSimulator(randomRoutes(ROUTES, 1), devices, threads, 1);
+        simulator.setNoise(new FleetNoise());
+        final AtomicLong fixes = new AtomicLong();
+        simulator.setSink(new FleetSimulator.Sink() {
+            @Override
+            public void onFixes(Fleet fleet, int from, int to, long time) {
+                fixes.addAndGet(to - from);
+            }
+        });
+
+        int ticks = (int) Math.max(1, Math.round(seconds * hz));
+        long period = (long) (1e9 / hz);
+        long total = 0;
+        long worst = 0;
+        int late = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            // absolute deadlines, so a slow tick does not shift the ones after it
+            long deadline = start + i * period;
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            long begin = System.nanoTime();
+            simulator.tick(i / hz, System.currentTimeMillis());
+            long elapsed = System.nanoTime() - begin;
+            total += elapsed;
+            worst = Math.max(worst, elapsed);
+            if (begin + elapsed > deadline + period) {
+                late++;
+            }
+        }
+        simulator.shutdown();
+        System.out.println(devices + " devices, " + ticks + " ticks at " + hz + " Hz on "
+                + simulator.getParallelism() + " threads: " + fixes.get() + " fixes, "
+                + total / ticks / 1000 + " us/tick mean, " + worst / 1000 + " us worst, "
+                + late + " late");
+    }
+
+    // random walks of ROUTE_POINTS waypoints 50 to 150 m apart around the same center
+    static Route[] randomRoutes(int count, long seed) {
+        Random random = new Random(seed);
+        double cos = Math.cos(Math.toRadians(LATITUDE));
+        Route[] routes = new Route[count];
+        for (int r = 0; r < count; r++) {
+            Route.Builder builder = new Route.Builder(ROUTE_POINTS);
+            double lat = LATITUDE + (random.nextDouble() - 0.5) * 0.1;
+            double lon = LONGITUDE + (random.nextDouble() - 0.5) * 0.1;
+            double heading = random.nextDouble() * 2 * Math.PI;
+            for (int i = 0; i < ROUTE_POINTS; i++) {
+                builder.add(lat, lon);
+                heading += random.nextGaussian() * 0.5;
+                double step = 50 + random.nextDouble() * 100;
+                lat += step * Math.cos(heading) / METERS_PER_DEGREE;
+                lon += step * Math.sin(heading) / (METERS_PER_DEGREE * cos);
+            }
+            routes[r] = builder.setSpeed(Route.DEFAULT_SPEED).build();
+        }
+        return routes;
+    }
+}
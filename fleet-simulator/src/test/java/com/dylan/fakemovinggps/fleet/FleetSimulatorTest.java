@@ -0,0 +1,96 @@
+package com.dylan.fakemovinggps.fleet;
+
+import com.dylan.fakemovinggps.route.MockFix;
+import com.dylan.fakemovinggps.route.Route;
+import com.dylan.fakemovinggps.route.RouteCursor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FleetSimulatorTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    @Test
+    public void exactPositions_matchRouteCursor() {
+        Route[] routes = Simulator.randomRoutes(2, 5);
+        FleetSimulator simulator = new FleetSimulator(routes, 2, 1, 5);
+        simulator.assign(0, 0, 0, 1);
+        simulator.assign(1, 1, 100, 1);
+        Fleet fleet = simulator.getFleet();
+        RouteCursor first = new RouteCursor(routes[0]);
+        RouteCursor second = new RouteCursor(routes[1]);
+        MockFix fix = new MockFix();
+        for (int t = 0; t < 3600; t += 7) {
+            simulator.tick(t, 0);
+            first.moveToTime(t);
+            first.getPosition(fix);
+            assertEquals(fix.latitude, fleet.getLatitude(0), 1e-12);
+            assertEquals(fix.longitude, fleet.getLongitude(0), 1e-12);
+            assertEquals(fix.speed, fleet.getSpeed(0), 1e-4);
+            assertEquals(fix.bearing, fleet.getBearing(0), 0);
+            second.moveToTime(100 + t);
+            second.getPosition(fix);
+            assertEquals(fix.latitude, fleet.getLatitude(1), 1e-12);
+            assertEquals(fix.longitude, fleet.getLongitude(1), 1e-12);
+        }
+        simulator.shutdown();
+    }
+
+    @Test
+    public void noisyFleet_sameForAnyParallelism() {
+        Route[] routes = Simulator.randomRoutes(8, 6);
+        FleetSimulator serial = new FleetSimulator(routes, 10000, 1, 7);
+        FleetSimulator parallel = new FleetSimulator(routes, 10000, 4, 7);
+        serial.setNoise(new FleetNoise());
+        parallel.setNoise(new FleetNoise());
+        for (int t = 0; t < 30; t++) {
+            serial.tick(t, 0);
+            parallel.tick(t, 0);
+        }
+        Fleet a = serial.getFleet();
+        Fleet b = parallel.getFleet();
+        for (int d = 0; d < a.size(); d++) {
+            assertEquals(Double.doubleToLongBits(a.getLatitude(d)), Double.doubleToLongBits(b.getLatitude(d)));
+            assertEquals(Double.doubleToLongBits(a.getLongitude(d)), Double.doubleToLongBits(b.getLongitude(d)));
+            assertEquals(Float.floatToIntBits(a.getAccuracy(d)), Float.floatToIntBits(b.getAccuracy(d)));
+        }
+        serial.shutdown();
+        parallel.shutdown();
+    }
+
+    /**
+     * Synthetic benchmark: 100k noisy devices at 1 Hz on a single worker with -Dbenchmark=true,
+     * 10k otherwise.
+     */
+    @Test
+    public void hundredThousandDevices_fitOneCore() {
+        int devices = BENCHMARK ? 100000 : 10000;
+        FleetSimulator simulator = new FleetSimulator(Simulator.randomRoutes(64, 1), devices, 1, 1);
+        simulator.setNoise(new FleetNoise());
+        final long[] fixes = new long[1];
+        simulator.setSink(new FleetSimulator.Sink() {
+            @Override
+            public void onFixes(Fleet fleet, int from, int to, long time) {
+                fixes[0] += to - from;
+            }
+        });
+        for (int t = 0; t < 20; t++) {
+            simulator.tick(t, 0);
+        }
+        int ticks = BENCHMARK ? 100 : 20;
+        long start = System.nanoTime();
+        for (int t = 20; t < 20 + ticks; t++) {
+            simulator.tick(t, 0);
+        }
+        long elapsed = (System.nanoTime() - start) / ticks;
+        simulator.shutdown();
+        if (BENCHMARK) {
+            System.out.println("fleet: " + devices + " devices, " + elapsed / 1000 + " us/tick on one worker");
+        }
+        assertEquals((long) devices * (20 + ticks), fixes[0]);
+        assertTrue(elapsed < 250000000L);
+    }
+}
@@ -0,0 +1,274 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes an OSMData PrimitiveBlock and reports its nodes and ways to a {@link Visitor}.
+ * Whatever the caller does not ask for is skipped without decoding, including the string table
+ * when only nodes are wanted. Relations and metadata are always skipped. A parser keeps its
+ * scratch arrays between blocks and is not thread-safe.
+ */
+final class BlockParser {
+
+    interface Visitor {
+        /**
+         * @param latitude  1e-7 degrees
+         * @param longitude 1e-7 degrees
+         */
+        void onNode(long id, int latitude, int longitude);
+
+        /**
+         * The arrays are reused for the next way.
+         */
+        void onWay(long id, long[] refs, int refCount, String[] keys, String[] values, int tagCount);
+    }
+
+    private final ProtoReader proto = new ProtoReader();
+
+    private String[] strings = new String[1024];
+    private int stringCount;
+    private long granularity;
+    private long latitudeOffset;
+    private long longitudeOffset;
+
+    private long[] ids = new long[8192];
+    private long[] latitudes = new long[8192];
+    private long[] longitudes = new long[8192];
+    private long[] refs = new long[256];
+    private String[] keys = new String[32];
+    private String[] values = new String[32];
+
+    void parse(byte[] block, boolean wantNodes, boolean wantWays, Visitor visitor) throws IOException {
+        // the groups come before granularity and offsets in the encoding, so read those first
+        stringCount = 0;
+        granularity = 100;
+        latitudeOffset = 0;
+        longitudeOffset = 0;
+        proto.reset(block, 0, block.length);
+        while (proto.next()) {
+            switch (proto.field()) {
+                case 1:
+                    if (wantWays) {
+                        readStrings();
+                    } else {
+                        proto.skip();
+                    }
+                    break;
+                case 17:
+                    granularity = proto.varint();
+                    break;
+                case 19:
+                    latitudeOffset = proto.varint();
+                    break;
+                case 20:
+                    longitudeOffset = proto.varint();
+                    break;
+                default:
+                    proto.skip();
+            }
+        }
+
+        proto.reset(block, 0, block.length);
+        while (proto.next()) {
+            if (proto.field() != 2) {
+                proto.skip();
+                continue;
+            }
+            int group = proto.enter();
+            while (proto.next()) {
+                switch (proto.field()) {
+                    case 1:
+                        if (wantNodes) {
+                            readNode(visitor);
+                        } else {
+                            proto.skip();
+                        }
+                        break;
+                    case 2:
+                        if (wantNodes) {
+                            readDenseNodes(visitor);
+                        } else {
+                            proto.skip();
+                        }
+                        break;
+                    case 3:
+                        if (wantWays) {
+                            readWay(visitor);
+                        } else {
+                            proto.skip();
+                        }
+                        break;
+                    default:
+                        proto.skip();
+                }
+            }
+            proto.exit(group);
+        }
+    }
+
+    private void readStrings() throws IOException {
+        int table = proto.enter();
+        while (proto.next()) {
+            if (proto.field() == 1) {
+                if (stringCount == strings.length) {
+                    strings = Arrays.copyOf(strings, stringCount * 2);
+                }
+                strings[stringCount++] = proto.string();
+            } else {
+                proto.skip();
+            }
+        }
+        proto.exit(table);
+    }
+
+    private int latitude(long raw) {
+        // nanodegrees to 1e-7 degrees
+        return (int) Math.round((latitudeOffset + granularity * raw) / 100.0);
+    }
+
+    private int longitude(long raw) {
+        return (int) Math.round((longitudeOffset + granularity * raw) / 100.0);
+    }
+
+    private void readNode(Visitor visitor) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        int node = proto.enter();
+        while (proto.next()) {
+            switch (proto.field()) {
+                case 1:
+                    id = proto.sint64();
+                    break;
+                case 8:
+                    lat = proto.sint64();
+                    break;
+                case 9:
+                    lon = proto.sint64();
+                    break;
+                default:
+                    proto.skip();
+            }
+        }
+        proto.exit(node);
+        visitor.onNode(id, latitude(lat), longitude(lon));
+    }
+
+    private void readDenseNodes(Visitor visitor) throws IOException {
+        int idCount = 0;
+        int latitudeCount = 0;
+        int longitudeCount = 0;
+        int dense = proto.enter();
+        while (proto.next()) {
+            switch (proto.field()) {
+                case 1:
+                    idCount = readDeltas(0);
+                    break;
+                case 8:
+                    latitudeCount = readDeltas(1);
+                    break;
+                case 9:
+                    longitudeCount = readDeltas(2);
+                    break;
+                default:
+                    proto.skip();
+            }
+        }
+        proto.exit(dense);
+        if (idCount != latitudeCount || idCount != longitudeCount) {
+            throw new IOException("Dense node arrays differ in length");
+        }
+        for (int i = 0; i < idCount; i++) {
+            visitor.onNode(ids[i], latitude(latitudes[i]), longitude(longitudes[i]));
+        }
+    }
+
+    // decodes a packed delta-coded sint64 field into ids, latitudes or longitudes
+    private int readDeltas(int target) throws IOException {
+        long[] values = target == 0 ? ids : target == 1 ? latitudes : longitudes;
+        int count = 0;
+        long value = 0;
+        int packed = proto.enter();
+        while (proto.hasRemaining()) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            value += proto.sint64();
+            values[count++] = value;
+        }
+        proto.exit(packed);
+        if (target == 0) {
+            ids = values;
+        } else if (target == 1) {
+            latitudes = values;
+        } else {
+            longitudes = values;
+        }
+        return count;
+    }
+
+    private void readWay(Visitor visitor) throws IOException {
+        long id = 0;
+        int keyCount = 0;
+        int valueCount = 0;
+        int refCount = 0;
+        int way = proto.enter();
+        while (proto.next()) {
+            switch (proto.field()) {
+                case 1:
+                    id = proto.varint();
+                    break;
+                case 2:
+                    keyCount = readTags(true);
+                    break;
+                case 3:
+                    valueCount = readTags(false);
+                    break;
+                case 8: {
+                    long ref = 0;
+                    int packed = proto.enter();
+                    while (proto.hasRemaining()) {
+                        if (refCount == refs.length) {
+                            refs = Arrays.copyOf(refs, refCount * 2);
+                        }
+                        ref += proto.sint64();
+                        refs[refCount++] = ref;
+                    }
+                    proto.exit(packed);
+                    break;
+                }
+                default:
+                    proto.skip();
+            }
+        }
+        proto.exit(way);
+        if (keyCount != valueCount) {
+            throw new IOException("Way " + id + " has " + keyCount + " keys and " + valueCount + " values");
+        }
+        visitor.onWay(id, refs, refCount, keys, values, keyCount);
+    }
+
+    private int readTags(boolean isKey) throws IOException {
+        String[] target = isKey ? keys : values;
+        int count = 0;
+        int packed = proto.enter();
+        while (proto.hasRemaining()) {
+            int index = proto.int32();
+            if (index < 0 || index >= stringCount) {
+                throw new IOException("String index " + index + " out of range");
+            }
+            if (count == target.length) {
+                target = Arrays.copyOf(target, count * 2);
+            }
+            target[count++] = strings[index];
+        }
+        proto.exit(packed);
+        if (isKey) {
+            keys = target;
+        } else {
+            values = target;
+        }
+        return count;
+    }
+}
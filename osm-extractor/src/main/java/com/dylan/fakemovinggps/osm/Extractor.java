@@ -0,0 +1,24 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.io.File;
+
+/**
+ * Command line entry point: {@code extractor <input.osm.pbf> <output.fmgg> [threads]}.
+ */
+public class Extractor {
+
+    private Extractor() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: extractor <input.osm.pbf> <output.fmgg> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length == 3 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        new GraphExtractor(new File(args[0]), threads, System.out).extract(new File(args[1]));
+        System.out.println("done in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
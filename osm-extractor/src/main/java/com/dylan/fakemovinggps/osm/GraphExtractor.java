@@ -0,0 +1,429 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns an OSM PBF extract into a routable graph file in three streaming passes:
+ * <ol>
+ * <li>ways: drivable ways are spooled to a temporary file and their node ids collected</li>
+ * <li>nodes: the coordinates of the collected ids are looked up</li>
+ * <li>edges: the spooled ways are cut into edges between consecutive nodes, nodes without
+ * coordinates or edges are dropped and the edges are sorted into row form</li>
+ * </ol>
+ * Blocks are inflated and decoded on a thread pool with a bounded number in flight, and nothing
+ * proportional to the input is kept, so the heap only grows with the routable part of the map:
+ * about 8 bytes per collected id during the node pass and 12 bytes per edge in the last one.
+ */
+public class GraphExtractor {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BLOCKS_PER_THREAD = 2;
+    private static final double EARTH_RADIUS = 6371008.8; // meters
+    private static final double E7 = 1e7;
+
+    private final File input;
+    private final int threads;
+    private final PrintStream log;
+
+    private final ThreadLocal<BlockParser> parsers = new ThreadLocal<BlockParser>() {
+        @Override
+        protected BlockParser initialValue() {
+            return new BlockParser();
+        }
+    };
+
+    public GraphExtractor(File input, int threads, PrintStream log) {
+        this.input = input;
+        this.threads = Math.max(1, threads);
+        this.log = log;
+    }
+
+    public void extract(File output) throws IOException, InterruptedException {
+        File ways = File.createTempFile("ways", ".tmp", output.getAbsoluteFile().getParentFile());
+        try {
+            long start = System.nanoTime();
+            NodeIdSet ids = spoolWays(ways);
+            log.println("ways: " + ids.size() + " nodes referenced, " + ways.length() / 1024
+                    + " KB spooled in " + elapsed(start));
+
+            start = System.nanoTime();
+            int[] latitudes = new int[ids.size()];
+            int[] longitudes = new int[ids.size()];
+            int found = readNodes(ids, latitudes, longitudes);
+            log.println("nodes: " + found + " of " + ids.size() + " located in " + elapsed(start));
+
+            start = System.nanoTime();
+            buildGraph(ways, ids, latitudes, longitudes, output);
+            log.println("edges: written to " + output + " in " + elapsed(start));
+        } finally {
+            if (!ways.delete()) {
+                ways.deleteOnExit();
+            }
+        }
+    }
+
+    private static String elapsed(long start) {
+        return (System.nanoTime() - start) / 1000000 + " ms";
+    }
+
+    // pass 1
+
+    /**
+     * Drivable ways of one block: refs of all ways back to back.
+     */
+    private static class WayBatch {
+        long[] refs = new long[1024];
+        int refCount;
+        int[] sizes = new int[64];
+        byte[] directions = new byte[64];
+        short[] speeds = new short[64];    // dm/s
+        int wayCount;
+    }
+
+    private NodeIdSet spoolWays(File file) throws IOException, InterruptedException {
+        final NodeIdSet ids = new NodeIdSet();
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        try {
+            forEachBlock(new BlockTask<WayBatch>() {
+                @Override
+                public WayBatch decode(byte[] block) throws IOException {
+                    final WayBatch batch = new WayBatch();
+                    final RoadFilter filter = new RoadFilter();
+                    parsers.get().parse(block, false, true, new BlockParser.Visitor() {
+                        @Override
+                        public void onNode(long id, int latitude, int longitude) {
+                        }
+
+                        @Override
+                        public void onWay(long id, long[] refs, int refCount, String[] keys,
+                                          String[] values, int tagCount) {
+                            if (refCount < 2 || !filter.accept(keys, values, tagCount)) {
+                                return;
+                            }
+                            add(batch, refs, refCount, filter);
+                        }
+                    });
+                    return batch;
+                }
+
+                @Override
+                public void consume(WayBatch batch) throws IOException {
+                    int offset = 0;
+                    for (int way = 0; way < batch.wayCount; way++) {
+                        int size = batch.sizes[way];
+                        writeVarint(out, size);
+                        out.writeByte(batch.directions[way]);
+                        writeVarint(out, batch.speeds[way]);
+                        long previous = 0;
+                        for (int i = offset; i < offset + size; i++) {
+                            long ref = batch.refs[i];
+                            long delta = ref - previous;
+                            writeVarint(out, (delta << 1) ^ (delta >> 63));
+                            previous = ref;
+                            ids.add(ref);
+                        }
+                        offset += size;
+                    }
+                }
+            });
+        } finally {
+            out.close();
+        }
+        ids.flush();
+        return ids;
+    }
+
+    private static void add(WayBatch batch, long[] refs, int refCount, RoadFilter filter) {
+        if (batch.wayCount == batch.sizes.length) {
+            int capacity = batch.wayCount * 2;
+            batch.sizes = Arrays.copyOf(batch.sizes, capacity);
+            batch.directions = Arrays.copyOf(batch.directions, capacity);
+            batch.speeds = Arrays.copyOf(batch.speeds, capacity);
+        }
+        if (batch.refCount + refCount > batch.refs.length) {
+            batch.refs = Arrays.copyOf(batch.refs, Math.max(batch.refs.length * 2, batch.refCount + refCount));
+        }
+        System.arraycopy(refs, 0, batch.refs, batch.refCount, refCount);
+        batch.refCount += refCount;
+        batch.sizes[batch.wayCount] = refCount;
+        batch.directions[batch.wayCount] = (byte) filter.getDirection();
+        batch.speeds[batch.wayCount] = (short) Math.min(Short.MAX_VALUE, Math.round(filter.getSpeed() * 10));
+        batch.wayCount++;
+    }
+
+    // pass 2
+
+    private int readNodes(final NodeIdSet ids, final int[] latitudes, final int[] longitudes)
+            throws IOException, InterruptedException {
+        final boolean[] located = new boolean[ids.size()];
+        // every worker writes distinct slots; the futures publish the writes to this thread
+        forEachBlock(new BlockTask<Void>() {
+            @Override
+            public Void decode(byte[] block) throws IOException {
+                parsers.get().parse(block, true, false, new BlockParser.Visitor() {
+                    @Override
+                    public void onNode(long id, int latitude, int longitude) {
+                        int index = ids.indexOf(id);
+                        if (index >= 0) {
+                            latitudes[index] = latitude;
+                            longitudes[index] = longitude;
+                            located[index] = true;
+                        }
+                    }
+
+                    @Override
+                    public void onWay(long id, long[] refs, int refCount, String[] keys,
+                                      String[] values, int tagCount) {
+                    }
+                });
+                return null;
+            }
+
+            @Override
+            public void consume(Void result) {
+            }
+        });
+        int found = 0;
+        for (int i = 0; i < located.length; i++) {
+            if (located[i]) {
+                found++;
+            } else {
+                latitudes[i] = Integer.MIN_VALUE;
+            }
+        }
+        return found;
+    }
+
+    // pass 3
+
+    private void buildGraph(File ways, NodeIdSet ids, int[] latitudes, int[] longitudes, File output)
+            throws IOException {
+        int[] sources = new int[1024];
+        int[] targets = new int[1024];
+        int[] weights = new int[1024];
+        int edgeCount = 0;
+        float maxSpeed = 0;
+        long[] refs = new long[256];
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(ways), BUFFER_SIZE));
+        try {
+            while (true) {
+                int size;
+                try {
+                    size = (int) readVarint(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                int direction = in.readByte();
+                double speed = readVarint(in) / 10.0;
+                if (refs.length < size) {
+                    refs = new long[size];
+                }
+                long ref = 0;
+                for (int i = 0; i < size; i++) {
+                    long zigzag = readVarint(in);
+                    ref += (zigzag >>> 1) ^ -(zigzag & 1);
+                    refs[i] = ref;
+                }
+                if (!(speed > 0)) {
+                    continue;
+                }
+                maxSpeed = Math.max(maxSpeed, (float) speed);
+
+                int previous = -1;
+                for (int i = 0; i < size; i++) {
+                    int node = ids.indexOf(refs[i]);
+                    if (latitudes[node] == Integer.MIN_VALUE) {
+                        // outside the extract; the way continues after the gap
+                        previous = -1;
+                        continue;
+                    }
+                    if (previous >= 0 && previous != node) {
+                        int weight = weight(latitudes, longitudes, previous, node, speed);
+                        int needed = edgeCount + 2;
+                        if (needed > sources.length) {
+                            int capacity = Math.max(needed, sources.length + (sources.length >> 1));
+                            sources = Arrays.copyOf(sources, capacity);
+                            targets = Arrays.copyOf(targets, capacity);
+                            weights = Arrays.copyOf(weights, capacity);
+                        }
+                        if (direction != RoadFilter.BACKWARD) {
+                            sources[edgeCount] = previous;
+                            targets[edgeCount] = node;
+                            weights[edgeCount++] = weight;
+                        }
+                        if (direction != RoadFilter.FORWARD) {
+                            sources[edgeCount] = node;
+                            targets[edgeCount] = previous;
+                            weights[edgeCount++] = weight;
+                        }
+                    }
+                    previous = node;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        // drop nodes that ended up without edges and renumber the rest in id order
+        int[] remap = new int[latitudes.length];
+        Arrays.fill(remap, -1);
+        for (int e = 0; e < edgeCount; e++) {
+            remap[sources[e]] = 0;
+            remap[targets[e]] = 0;
+        }
+        int nodeCount = 0;
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] == 0) {
+                remap[i] = nodeCount++;
+            }
+        }
+        int[] nodeLatitudes = new int[nodeCount];
+        int[] nodeLongitudes = new int[nodeCount];
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] >= 0) {
+                nodeLatitudes[remap[i]] = latitudes[i];
+                nodeLongitudes[remap[i]] = longitudes[i];
+            }
+        }
+
+        int[] firstEdge = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            firstEdge[remap[sources[e]] + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            firstEdge[node + 1] += firstEdge[node];
+        }
+        int[] next = Arrays.copyOf(firstEdge, nodeCount);
+        int[] sortedTargets = new int[edgeCount];
+        int[] sortedWeights = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            int slot = next[remap[sources[e]]]++;
+            sortedTargets[slot] = remap[targets[e]];
+            sortedWeights[slot] = weights[e];
+        }
+        log.println("graph: " + nodeCount + " nodes, " + edgeCount + " edges");
+        GraphWriter.write(output, nodeLatitudes, nodeLongitudes, firstEdge, sortedTargets,
+                sortedWeights, edgeCount == 0 ? 1 : maxSpeed);
+    }
+
+    /**
+     * @return travel time in ms, rounded up so that {@code maxSpeed} stays an upper bound
+     */
+    static int weight(int[] latitudes, int[] longitudes, int a, int b, double speed) {
+        double lat1 = Math.toRadians(latitudes[a] / E7);
+        double lat2 = Math.toRadians(latitudes[b] / E7);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians((longitudes[b] - (double) longitudes[a]) / E7);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        double length = 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+        return (int) Math.max(1, Math.ceil(length / speed * 1000));
+    }
+
+    // block pipeline
+
+    private interface BlockTask<T> {
+        /**
+         * Runs on a worker thread.
+         */
+        T decode(byte[] block) throws IOException;
+
+        /**
+         * Runs on the calling thread, in file order.
+         */
+        void consume(T result) throws IOException;
+    }
+
+    private <T> void forEachBlock(final BlockTask<T> task) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+        InputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE);
+        PbfReader reader = new PbfReader(in);
+        try {
+            while (reader.next()) {
+                final byte[] blob = reader.getBlob();
+                if (PbfReader.TYPE_HEADER.equals(reader.getType())) {
+                    PbfReader.checkHeader(PbfReader.inflate(blob));
+                    continue;
+                }
+                if (!PbfReader.TYPE_DATA.equals(reader.getType())) {
+                    continue;
+                }
+                pending.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws IOException {
+                        return task.decode(PbfReader.inflate(blob));
+                    }
+                }));
+                if (pending.size() >= threads * BLOCKS_PER_THREAD) {
+                    task.consume(get(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                task.consume(get(pending.poll()));
+            }
+        } finally {
+            executor.shutdownNow();
+            reader.close();
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in way spool");
+    }
+}
@@ -0,0 +1,72 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the road graph format read by the app's {@code RoadGraph}; see {@code GraphFile} there
+ * for the layout. Arrays are streamed through a small buffer, so the file may be larger than
+ * what fits in one byte buffer.
+ */
+final class GraphWriter {
+
+    static final int MAGIC = 0x464D4747; // "FMGG"
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private GraphWriter() {
+    }
+
+    /**
+     * @param firstEdge edge offsets in row form, {@code nodeCount + 1} entries
+     * @param weights   travel times in ms
+     * @param maxSpeed  upper bound of the speed on any edge in m/s
+     */
+    static void write(File file, int[] latitudes, int[] longitudes, int[] firstEdge, int[] targets,
+                      int[] weights, float maxSpeed) throws IOException {
+        int nodeCount = latitudes.length;
+        int edgeCount = targets.length;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(nodeCount);
+            buffer.putInt(edgeCount);
+            buffer.putFloat(maxSpeed);
+            put(channel, buffer, latitudes, nodeCount);
+            put(channel, buffer, longitudes, nodeCount);
+            put(channel, buffer, firstEdge, nodeCount + 1);
+            put(channel, buffer, targets, edgeCount);
+            put(channel, buffer, weights, edgeCount);
+            drain(channel, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void put(FileChannel channel, ByteBuffer buffer, int[] values, int count)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < 4) {
+                drain(channel, buffer);
+            }
+            buffer.putInt(values[i]);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,72 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.util.Arrays;
+
+/**
+ * Sorted set of OSM node ids, filled in any order with duplicates. Ids are buffered and merged
+ * into the sorted array in batches, so the heap peaks at about twice the number of distinct ids
+ * rather than the number of references. The position of an id in the set becomes its node index
+ * in the graph.
+ */
+final class NodeIdSet {
+
+    private static final int BATCH_SIZE = 1 << 22;
+
+    private long[] sorted = new long[0];
+    private int size;
+    private final long[] batch = new long[BATCH_SIZE];
+    private int batchSize;
+
+    void add(long id) {
+        if (batchSize == batch.length) {
+            flush();
+        }
+        batch[batchSize++] = id;
+    }
+
+    /**
+     * Merges the buffered ids; call once before the lookups.
+     */
+    void flush() {
+        if (batchSize == 0) {
+            return;
+        }
+        Arrays.sort(batch, 0, batchSize);
+        int unique = 0;
+        for (int i = 0; i < batchSize; i++) {
+            if (unique == 0 || batch[i] != batch[unique - 1]) {
+                batch[unique++] = batch[i];
+            }
+        }
+        long[] merged = new long[size + unique];
+        int a = 0;
+        int b = 0;
+        int n = 0;
+        while (a < size || b < unique) {
+            long next;
+            if (b == unique || (a < size && sorted[a] <= batch[b])) {
+                next = sorted[a++];
+            } else {
+                next = batch[b++];
+            }
+            if (n == 0 || merged[n - 1] != next) {
+                merged[n++] = next;
+            }
+        }
+        sorted = n == merged.length ? merged : Arrays.copyOf(merged, n);
+        size = n;
+        batchSize = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return position of {@code id} in the set, or -1
+     */
+    int indexOf(long id) {
+        int index = Arrays.binarySearch(sorted, 0, size, id);
+        return index >= 0 ? index : -1;
+    }
+}
@@ -0,0 +1,171 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Splits an OSM PBF file into its blocks. Reading only copies the compressed bytes of a block;
+ * {@link #inflate(byte[])} is meant to run on a worker thread.
+ */
+final class PbfReader implements Closeable {
+
+    static final String TYPE_HEADER = "OSMHeader";
+    static final String TYPE_DATA = "OSMData";
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private final DataInputStream in;
+    private final ProtoReader proto = new ProtoReader();
+    private byte[] header = new byte[256];
+    private String type;
+    private byte[] blob;
+    private long position;
+
+    PbfReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Reads the next block.
+     *
+     * @return false at the end of the file
+     */
+    boolean next() throws IOException {
+        int headerSize;
+        try {
+            headerSize = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (headerSize <= 0 || headerSize > MAX_HEADER_SIZE) {
+            throw new IOException("Invalid block header size " + headerSize + " at " + position);
+        }
+        if (header.length < headerSize) {
+            header = new byte[headerSize];
+        }
+        in.readFully(header, 0, headerSize);
+
+        type = null;
+        int size = -1;
+        proto.reset(header, 0, headerSize);
+        while (proto.next()) {
+            switch (proto.field()) {
+                case 1:
+                    type = proto.string();
+                    break;
+                case 3:
+                    size = proto.int32();
+                    break;
+                default:
+                    proto.skip();
+            }
+        }
+        if (type == null || size < 0 || size > MAX_BLOB_SIZE) {
+            throw new IOException("Invalid block header at " + position);
+        }
+        blob = new byte[size];
+        in.readFully(blob);
+        position += 4 + headerSize + size;
+        return true;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return the encoded Blob message of the current block; a new array for every block
+     */
+    byte[] getBlob() {
+        return blob;
+    }
+
+    /**
+     * @return bytes of the file consumed so far
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Decodes a Blob message into the block it contains.
+     */
+    static byte[] inflate(byte[] blob) throws IOException {
+        ProtoReader proto = new ProtoReader();
+        proto.reset(blob, 0, blob.length);
+        int rawSize = -1;
+        int zlibOffset = -1;
+        int zlibLength = 0;
+        while (proto.next()) {
+            switch (proto.field()) {
+                case 1: {
+                    int offset = proto.bytes();
+                    byte[] raw = new byte[proto.lastLength()];
+                    System.arraycopy(blob, offset, raw, 0, raw.length);
+                    return raw;
+                }
+                case 2:
+                    rawSize = proto.int32();
+                    break;
+                case 3:
+                    zlibOffset = proto.bytes();
+                    zlibLength = proto.lastLength();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported block compression " + proto.field());
+                default:
+                    proto.skip();
+            }
+        }
+        if (zlibOffset < 0 || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Empty or invalid blob");
+        }
+        byte[] raw = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, zlibOffset, zlibLength);
+            int length = inflater.inflate(raw);
+            if (length != rawSize || !inflater.finished()) {
+                throw new IOException("Blob inflated to " + length + " bytes, expected " + rawSize);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt zlib data", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    /**
+     * Checks that a decoded OSMHeader block asks for nothing beyond what {@link BlockParser}
+     * understands.
+     */
+    static void checkHeader(byte[] block) throws IOException {
+        ProtoReader proto = new ProtoReader();
+        proto.reset(block, 0, block.length);
+        while (proto.next()) {
+            if (proto.field() == 4) {
+                String feature = proto.string();
+                if (!feature.equals("OsmSchema-V0.6") && !feature.equals("DenseNodes")) {
+                    throw new IOException("Unsupported required feature " + feature);
+                }
+            } else {
+                proto.skip();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
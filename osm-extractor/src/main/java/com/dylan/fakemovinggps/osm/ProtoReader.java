@@ -0,0 +1,163 @@
+package com.dylan.fakemovinggps.osm;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal protocol buffer decoder over a byte array, just enough for the OSM PBF messages.
+ * Nested messages and packed fields are read in place by narrowing the limit with
+ * {@link #enter()} and restoring it with {@link #exit(int)}, so decoding allocates nothing but
+ * the strings of the string table.
+ */
+final class ProtoReader {
+
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int FIXED32 = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private int field;
+    private int wireType;
+    private int lastLength;
+
+    void reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Reads the next field key.
+     *
+     * @return false at the end of the current message
+     */
+    boolean next() throws IOException {
+        if (position >= limit) {
+            return false;
+        }
+        long key = varint();
+        field = (int) (key >>> 3);
+        wireType = (int) (key & 7);
+        return true;
+    }
+
+    int field() {
+        return field;
+    }
+
+    int wireType() {
+        return wireType;
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    long varint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw new IOException("Truncated varint");
+            }
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    long sint64() throws IOException {
+        long value = varint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    int int32() throws IOException {
+        return (int) varint();
+    }
+
+    /**
+     * Narrows the limit to the length-delimited field that follows.
+     *
+     * @return the enclosing limit, to pass to {@link #exit(int)}
+     */
+    int enter() throws IOException {
+        int length = length();
+        int enclosing = limit;
+        limit = position + length;
+        return enclosing;
+    }
+
+    /**
+     * Skips what is left of the entered field and restores the enclosing limit.
+     */
+    void exit(int enclosing) {
+        position = limit;
+        limit = enclosing;
+    }
+
+    /**
+     * @return offset of the bytes of the length-delimited field that follows, which are skipped;
+     * see {@link #lastLength()}
+     */
+    int bytes() throws IOException {
+        int length = length();
+        int offset = position;
+        position += length;
+        lastLength = length;
+        return offset;
+    }
+
+    int lastLength() {
+        return lastLength;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    String string() throws IOException {
+        int offset = bytes();
+        return new String(buffer, offset, lastLength, UTF_8);
+    }
+
+    void skip() throws IOException {
+        switch (wireType) {
+            case VARINT:
+                varint();
+                break;
+            case FIXED64:
+                advance(8);
+                break;
+            case LENGTH_DELIMITED:
+                advance(length());
+                break;
+            case FIXED32:
+                advance(4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + wireType);
+        }
+    }
+
+    private int length() throws IOException {
+        long length = varint();
+        if (length < 0 || length > limit - position) {
+            throw new IOException("Field length " + length + " exceeds message");
+        }
+        return (int) length;
+    }
+
+    private void advance(int count) throws IOException {
+        if (count > limit - position) {
+            throw new IOException("Truncated message");
+        }
+        position += count;
+    }
+}
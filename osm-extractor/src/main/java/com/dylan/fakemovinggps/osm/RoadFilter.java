@@ -0,0 +1,147 @@
+package com.dylan.fakemovinggps.osm;
+
+/**
+ * Decides from its tags whether a way is open to cars, and with which speed and direction.
+ * Speeds come from {@code maxspeed} where it is a plain number, and otherwise from a default per
+ * highway class.
+ */
+final class RoadFilter {
+
+    static final int BOTH = 0;
+    static final int FORWARD = 1;
+    static final int BACKWARD = 2;
+
+    private static final double KMH = 1 / 3.6;  // m/s
+    private static final double MPH = 1.609344 / 3.6;
+    private static final double WALK = 7 * KMH;
+
+    private int direction;
+    private double speed;
+
+    /**
+     * @return whether the way is a drivable road; if so {@link #getSpeed()} and
+     * {@link #getDirection()} describe it
+     */
+    boolean accept(String[] keys, String[] values, int count) {
+        String highway = get(keys, values, count, "highway");
+        if (highway == null) {
+            return false;
+        }
+        double defaultSpeed = defaultSpeed(highway);
+        if (defaultSpeed <= 0
+                || "yes".equals(get(keys, values, count, "area"))
+                || isDenied(get(keys, values, count, "access"))
+                || isDenied(get(keys, values, count, "motor_vehicle"))
+                || isDenied(get(keys, values, count, "motorcar"))) {
+            return false;
+        }
+        String service = get(keys, values, count, "service");
+        if (highway.equals("service") && ("parking_aisle".equals(service) || "driveway".equals(service))) {
+            return false;
+        }
+
+        double maxSpeed = parseSpeed(get(keys, values, count, "maxspeed"));
+        speed = maxSpeed > 0 ? maxSpeed : defaultSpeed;
+
+        String oneway = get(keys, values, count, "oneway");
+        String junction = get(keys, values, count, "junction");
+        if ("yes".equals(oneway) || "true".equals(oneway) || "1".equals(oneway)) {
+            direction = FORWARD;
+        } else if ("-1".equals(oneway) || "reverse".equals(oneway)) {
+            direction = BACKWARD;
+        } else if ("no".equals(oneway)) {
+            direction = BOTH;
+        } else if (highway.equals("motorway") || "roundabout".equals(junction)
+                || "circular".equals(junction)) {
+            direction = FORWARD;
+        } else {
+            direction = BOTH;
+        }
+        return true;
+    }
+
+    /**
+     * @return m/s
+     */
+    double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return {@link #BOTH}, {@link #FORWARD} or {@link #BACKWARD}
+     */
+    int getDirection() {
+        return direction;
+    }
+
+    private static boolean isDenied(String access) {
+        return "no".equals(access) || "private".equals(access);
+    }
+
+    private static String get(String[] keys, String[] values, int count, String key) {
+        for (int i = 0; i < count; i++) {
+            if (key.equals(keys[i])) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return m/s, or 0 if the class is not drivable
+     */
+    static double defaultSpeed(String highway) {
+        switch (highway) {
+            case "motorway":
+                return 110 * KMH;
+            case "trunk":
+                return 90 * KMH;
+            case "primary":
+                return 70 * KMH;
+            case "secondary":
+                return 60 * KMH;
+            case "motorway_link":
+                return 60 * KMH;
+            case "tertiary":
+            case "trunk_link":
+            case "primary_link":
+                return 50 * KMH;
+            case "unclassified":
+            case "secondary_link":
+                return 40 * KMH;
+            case "residential":
+            case "tertiary_link":
+            case "road":
+                return 30 * KMH;
+            case "service":
+                return 20 * KMH;
+            case "living_street":
+                return 10 * KMH;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Parses "50", "50 km/h", "30 mph" or "walk".
+     *
+     * @return m/s, or 0 if the value is missing or symbolic
+     */
+    static double parseSpeed(String value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value.equals("walk")) {
+            return WALK;
+        }
+        int end = 0;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+        if (end == 0 || end > 3) {
+            return 0;
+        }
+        int number = Integer.parseInt(value.substring(0, end));
+        return number * (value.endsWith("mph") ? MPH : KMH);
+    }
+}
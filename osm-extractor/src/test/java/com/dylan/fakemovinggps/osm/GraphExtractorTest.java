@@ -0,0 +1,345 @@
+package com.dylan.fakemovinggps.osm;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GraphExtractorTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static final PrintStream QUIET = new PrintStream(new ByteArrayOutputStream());
+
+    /**
+     * Just enough of a protocol buffer encoder to write PBF test files.
+     */
+    private static class Proto {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Proto varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Proto key(int field, int wireType) {
+            return varint(field << 3 | wireType);
+        }
+
+        Proto uint(int field, long value) {
+            return key(field, 0).varint(value);
+        }
+
+        Proto sint(int field, long value) {
+            return uint(field, (value << 1) ^ (value >> 63));
+        }
+
+        Proto bytes(int field, byte[] value) {
+            key(field, 2).varint(value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        Proto string(int field, String value) throws IOException {
+            return bytes(field, value.getBytes("UTF-8"));
+        }
+
+        Proto message(int field, Proto message) {
+            return bytes(field, message.out.toByteArray());
+        }
+
+        Proto packedDeltas(int field, long[] values) {
+            Proto packed = new Proto();
+            long previous = 0;
+            for (long value : values) {
+                long delta = value - previous;
+                packed.varint((delta << 1) ^ (delta >> 63));
+                previous = value;
+            }
+            return message(field, packed);
+        }
+
+        Proto packed(int field, int[] values) {
+            Proto packed = new Proto();
+            for (int value : values) {
+                packed.varint(value);
+            }
+            return message(field, packed);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Writes OSM PBF files with one dense node block and one way block per call.
+     */
+    private static class PbfWriter {
+        private final DataOutputStream out;
+        private final List<String> strings = new ArrayList<>();
+
+        PbfWriter(File file) throws IOException {
+            out = new DataOutputStream(new FileOutputStream(file));
+            writeBlock("OSMHeader", new Proto().string(4, "OsmSchema-V0.6").string(4, "DenseNodes")
+                    .toByteArray());
+        }
+
+        void writeBlock(String type, byte[] block) throws IOException {
+            Deflater deflater = new Deflater();
+            deflater.setInput(block);
+            deflater.finish();
+            byte[] buffer = new byte[block.length + 64];
+            int length = deflater.deflate(buffer);
+            deflater.end();
+            byte[] blob = new Proto().uint(2, block.length)
+                    .bytes(3, Arrays.copyOf(buffer, length)).toByteArray();
+            byte[] header = new Proto().string(1, type).uint(3, blob.length).toByteArray();
+            out.writeInt(header.length);
+            out.write(header);
+            out.write(blob);
+        }
+
+        /**
+         * @param coordinates latitude, longitude per node in degrees
+         */
+        void writeNodes(long[] ids, double[] coordinates) throws IOException {
+            long[] latitudes = new long[ids.length];
+            long[] longitudes = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                // default granularity of 100 nanodegrees
+                latitudes[i] = Math.round(coordinates[2 * i] * 1e7);
+                longitudes[i] = Math.round(coordinates[2 * i + 1] * 1e7);
+            }
+            Proto dense = new Proto().packedDeltas(1, ids).packedDeltas(8, latitudes)
+                    .packedDeltas(9, longitudes);
+            Proto group = new Proto().message(2, dense);
+            writeBlock("OSMData", new Proto().message(1, new Proto()).message(2, group).toByteArray());
+        }
+
+        /**
+         * @param tags key, value, ... per way
+         */
+        void writeWays(long[][] refs, String[][] tags) throws IOException {
+            strings.clear();
+            strings.add("");
+            Proto group = new Proto();
+            for (int w = 0; w < refs.length; w++) {
+                int[] keys = new int[tags[w].length / 2];
+                int[] values = new int[keys.length];
+                for (int t = 0; t < keys.length; t++) {
+                    keys[t] = index(tags[w][2 * t]);
+                    values[t] = index(tags[w][2 * t + 1]);
+                }
+                group.message(3, new Proto().uint(1, w + 1).packed(2, keys).packed(3, values)
+                        .packedDeltas(8, refs[w]));
+            }
+            Proto table = new Proto();
+            for (String string : strings) {
+                table.string(1, string);
+            }
+            // granularity after the groups, as real writers order fields by number
+            writeBlock("OSMData", new Proto().message(1, table).message(2, group)
+                    .uint(17, 100).toByteArray());
+        }
+
+        private int index(String string) {
+            int index = strings.indexOf(string);
+            if (index < 0) {
+                strings.add(string);
+                index = strings.size() - 1;
+            }
+            return index;
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class Graph {
+        int[] latitudes;
+        int[] longitudes;
+        int[] firstEdge;
+        int[] targets;
+        int[] weights;
+        float maxSpeed;
+
+        static Graph read(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                assertEquals(GraphWriter.MAGIC, buffer.getInt());
+                assertEquals(GraphWriter.VERSION, buffer.getInt());
+                Graph graph = new Graph();
+                int nodes = buffer.getInt();
+                int edges = buffer.getInt();
+                graph.maxSpeed = buffer.getFloat();
+                graph.latitudes = ints(buffer, nodes);
+                graph.longitudes = ints(buffer, nodes);
+                graph.firstEdge = ints(buffer, nodes + 1);
+                graph.targets = ints(buffer, edges);
+                graph.weights = ints(buffer, edges);
+                assertFalse(buffer.hasRemaining());
+                return graph;
+            } finally {
+                raf.close();
+            }
+        }
+
+        private static int[] ints(ByteBuffer buffer, int count) {
+            int[] values = new int[count];
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + 4 * count);
+            return values;
+        }
+
+        int node(double latitude, double longitude) {
+            for (int i = 0; i < latitudes.length; i++) {
+                if (latitudes[i] == Math.round(latitude * 1e7) && longitudes[i] == Math.round(longitude * 1e7)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean hasEdge(int from, int to) {
+            for (int e = firstEdge[from]; e < firstEdge[from + 1]; e++) {
+                if (targets[e] == to) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void extract_keepsDrivableWays() throws Exception {
+        File pbf = File.createTempFile("test", ".osm.pbf");
+        File output = File.createTempFile("test", ".fmgg");
+        try {
+            PbfWriter writer = new PbfWriter(pbf);
+            writer.writeNodes(new long[]{10, 11, 12, 13, 14, 15, 16},
+                    new double[]{1.0, 103.0, 1.0, 103.001, 1.0, 103.002, 1.001, 103.0,
+                            1.001, 103.001, 1.002, 103.0, 1.002, 103.001});
+            writer.writeWays(new long[][]{
+                    {10, 11, 12},       // two-way residential
+                    {13, 14},           // one-way primary
+                    {15, 16},           // footway, dropped
+                    {11, 14},           // private, dropped
+                    {12, 99, 13},       // 99 is outside the extract
+                    {14, 11}            // reversed one-way
+            }, new String[][]{
+                    {"highway", "residential"},
+                    {"highway", "primary", "oneway", "yes", "maxspeed", "80"},
+                    {"highway", "footway"},
+                    {"highway", "service", "access", "private"},
+                    {"highway", "tertiary"},
+                    {"highway", "secondary", "oneway", "-1", "maxspeed", "30 mph"}
+            });
+            writer.close();
+
+            new GraphExtractor(pbf, 2, QUIET).extract(output);
+            Graph graph = Graph.read(output);
+
+            int a = graph.node(1.0, 103.0);
+            int b = graph.node(1.0, 103.001);
+            int c = graph.node(1.0, 103.002);
+            int d = graph.node(1.001, 103.0);
+            int e = graph.node(1.001, 103.001);
+            assertEquals(5, graph.latitudes.length);
+            assertEquals(-1, graph.node(1.002, 103.0));
+            assertTrue(graph.hasEdge(a, b) && graph.hasEdge(b, a));
+            assertTrue(graph.hasEdge(b, c) && graph.hasEdge(c, b));
+            assertTrue(graph.hasEdge(d, e) && !graph.hasEdge(e, d));
+            assertTrue(graph.hasEdge(b, e) && !graph.hasEdge(e, b));
+            assertFalse(graph.hasEdge(c, d) || graph.hasEdge(d, c));
+            assertEquals(6, graph.targets.length);
+            assertEquals(80 / 3.6, graph.maxSpeed, 0.05);
+
+            // ~111 m at 80 km/h
+            for (int edge = graph.firstEdge[d]; edge < graph.firstEdge[d + 1]; edge++) {
+                assertEquals(5004, graph.weights[edge], 10);
+            }
+        } finally {
+            assertTrue(pbf.delete());
+            assertTrue(output.delete());
+        }
+    }
+
+    @Test
+    public void extract_largeGrid() throws Exception {
+        // several node and way blocks even at the default size
+        int size = BENCHMARK ? 500 : 100;
+        File pbf = File.createTempFile("grid", ".osm.pbf");
+        File output = File.createTempFile("grid", ".fmgg");
+        try {
+            PbfWriter writer = new PbfWriter(pbf);
+            int perBlock = 8000;
+            for (int first = 0; first < size * size; first += perBlock) {
+                int count = Math.min(perBlock, size * size - first);
+                long[] ids = new long[count];
+                double[] coordinates = new double[2 * count];
+                for (int i = 0; i < count; i++) {
+                    int node = first + i;
+                    ids[i] = 1000 + node;
+                    coordinates[2 * i] = 1.0 + node / size * 0.001;
+                    coordinates[2 * i + 1] = 103.0 + node % size * 0.001;
+                }
+                writer.writeNodes(ids, coordinates);
+            }
+            long[][] refs = new long[2 * size][size];
+            String[][] tags = new String[2 * size][];
+            for (int line = 0; line < size; line++) {
+                for (int i = 0; i < size; i++) {
+                    refs[line][i] = 1000 + line * size + i;
+                    refs[size + line][i] = 1000 + i * size + line;
+                }
+                tags[line] = new String[]{"highway", "residential"};
+                tags[size + line] = new String[]{"highway", "primary"};
+            }
+            for (int first = 0; first < 2 * size; first += 100) {
+                writer.writeWays(Arrays.copyOfRange(refs, first, first + 100),
+                        Arrays.copyOfRange(tags, first, first + 100));
+            }
+            writer.close();
+
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            long start = System.nanoTime();
+            new GraphExtractor(pbf, threads, QUIET).extract(output);
+            long elapsed = System.nanoTime() - start;
+            Graph graph = Graph.read(output);
+            if (BENCHMARK) {
+                System.out.println("extracted " + graph.latitudes.length + " nodes and "
+                        + graph.targets.length + " edges from " + pbf.length() / 1024 + " KB in "
+                        + elapsed / 1000000 + " ms on " + threads + " threads");
+            }
+            assertEquals(size * size, graph.latitudes.length);
+            assertEquals(4 * size * (size - 1), graph.targets.length);
+        } finally {
+            assertTrue(pbf.delete());
+            assertTrue(output.delete());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * {@link Route} held entirely in primitive arrays on the heap.
+ */
+class ArrayRoute extends Route {
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] distances;   // meters from the first waypoint
+    private final double[] times;       // seconds from the first waypoint
+    private final double[] speeds;      // m/s at each waypoint
+    private final float[] bearings;     // degrees, of the segment starting at each waypoint
+    private final SpeedProfile speedProfile;
+
+    ArrayRoute(double[] latitudes, double[] longitudes, SpeedProfile speedProfile) {
+        if (latitudes.length == 0 || latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Route needs at least one waypoint");
+        }
+        int n = latitudes.length;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.speedProfile = speedProfile;
+        this.distances = new double[n];
+        this.times = new double[n];
+        this.speeds = new double[n];
+        this.bearings = new float[n];
+        GeoUtils.cumulate(latitudes, longitudes, 0, n, 0, distances, bearings);
+        speedProfile.compute(distances, bearings, speeds, times);
+    }
+
+    @Override
+    public int size() {
+        return latitudes.length;
+    }
+
+    @Override
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    @Override
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    @Override
+    public double getDistance(int index) {
+        return distances[index];
+    }
+
+    @Override
+    public double getTime(int index) {
+        return times[index];
+    }
+
+    @Override
+    public double getSpeed(int index) {
+        return speeds[index];
+    }
+
+    @Override
+    public float getBearing(int index) {
+        return bearings[index];
+    }
+
+    @Override
+    public SpeedProfile getSpeedProfile() {
+        return speedProfile;
+    }
+}
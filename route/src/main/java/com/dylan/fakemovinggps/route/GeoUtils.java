@@ -0,0 +1,55 @@
+package com.dylan.fakemovinggps.route;
+
+public class GeoUtils {
+
+    public static final double EARTH_RADIUS = 6371008.8; // meters
+
+    private GeoUtils() {
+    }
+
+    /**
+     * Great-circle distance in meters between two coordinates (haversine).
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double sinPhi = Math.sin(dPhi / 2);
+        double sinLambda = Math.sin(dLambda / 2);
+        double a = sinPhi * sinPhi + Math.cos(phi1) * Math.cos(phi2) * sinLambda * sinLambda;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Initial bearing in degrees [0, 360) from the first to the second coordinate.
+     */
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double y = Math.sin(dLambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLambda);
+        double deg = Math.toDegrees(Math.atan2(y, x));
+        return deg < 0 ? deg + 360 : deg;
+    }
+
+    /**
+     * Fills the cumulative distance and segment bearing for {@code count} points starting at
+     * {@code offset}. The last point repeats the bearing of the final segment.
+     *
+     * @param startDistance cumulative distance of the first point
+     */
+    public static void cumulate(double[] latitudes, double[] longitudes, int offset, int count,
+                                double startDistance, double[] distances, float[] bearings) {
+        distances[offset] = startDistance;
+        for (int i = offset + 1; i < offset + count; i++) {
+            distances[i] = distances[i - 1] + distance(
+                    latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+            bearings[i - 1] = (float) bearing(
+                    latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        int last = offset + count - 1;
+        bearings[last] = count > 1 ? bearings[last - 1] : 0;
+    }
+}
@@ -0,0 +1,27 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * Mutable position sample produced by the playback engine. One instance is reused for every tick
+ * so the emission path does not allocate.
+ */
+public class MockFix {
+    public double latitude;
+    public double longitude;
+    public double altitude;
+    public float speed;       // m/s
+    public float bearing;     // degrees
+    public float accuracy;    // meters
+    public long time;         // wall clock, ms
+    public long elapsedRealtimeNanos;
+
+    public void set(MockFix other) {
+        latitude = other.latitude;
+        longitude = other.longitude;
+        altitude = other.altitude;
+        speed = other.speed;
+        bearing = other.bearing;
+        accuracy = other.accuracy;
+        time = other.time;
+        elapsedRealtimeNanos = other.elapsedRealtimeNanos;
+    }
+}
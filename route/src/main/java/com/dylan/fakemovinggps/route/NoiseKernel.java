@@ -0,0 +1,110 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * The error processes of {@link NoiseModel} without state of their own: the generator and drift
+ * of every stream live in arrays owned by the caller and are addressed by a slot. A
+ * {@link NoiseModel} keeps a single slot, a fleet of simulated devices one per device.
+ * <p>
+ * Every slot has its own SplitMix64 stream and gaussians are drawn with Box-Muller, which keeps
+ * nothing between calls, so {@link #apply} only touches its own slot and different slots may be
+ * stepped from different threads. The parameters are read-only while applying; change them
+ * between steps only.
+ */
+public final class NoiseKernel {
+
+    private static final double METERS_PER_DEGREE = Math.PI * GeoUtils.EARTH_RADIUS / 180;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private double driftSigma = NoiseModel.DEFAULT_DRIFT_SIGMA;
+    private double driftTau = NoiseModel.DEFAULT_DRIFT_TAU;
+    private double accuracyJitter = NoiseModel.DEFAULT_ACCURACY_JITTER;
+    private double multipathRate = NoiseModel.DEFAULT_MULTIPATH_RATE;
+    private double multipathOffset = NoiseModel.DEFAULT_MULTIPATH_OFFSET;
+
+    public void setDrift(double sigma, double tau) {
+        this.driftSigma = Math.max(0, sigma);
+        this.driftTau = Math.max(1e-3, tau);
+    }
+
+    public void setAccuracyJitter(double jitter) {
+        this.accuracyJitter = Math.max(0, jitter);
+    }
+
+    /**
+     * @param ratePerSecond mean number of jumps per second of simulated time
+     */
+    public void setMultipath(double ratePerSecond, double maxOffset) {
+        this.multipathRate = Math.max(0, ratePerSecond);
+        this.multipathOffset = Math.max(0, maxOffset);
+    }
+
+    /**
+     * Seeds the generator of {@code slot} from {@code seed} and the slot number, and draws its
+     * initial drift.
+     */
+    public void reset(long[] states, double[] north, double[] east, int slot, long seed) {
+        states[slot] = mix(seed + slot * GOLDEN_GAMMA);
+        double radius = driftSigma * gaussianRadius(states, slot);
+        double angle = 2 * Math.PI * nextDouble(states, slot);
+        north[slot] = radius * Math.cos(angle);
+        east[slot] = radius * Math.sin(angle);
+    }
+
+    /**
+     * Advances the error processes of {@code slot} by {@code dtSeconds} and perturbs the position
+     * and accuracy in the same slot of the fix arrays in place. Allocates nothing.
+     */
+    public void apply(long[] states, double[] north, double[] east, int slot, double dtSeconds,
+                      double[] latitudes, double[] longitudes, float[] accuracies) {
+        double decay = Math.exp(-dtSeconds / driftTau);
+        double diffusion = driftSigma * Math.sqrt(1 - decay * decay);
+        double radius = diffusion * gaussianRadius(states, slot);
+        double angle = 2 * Math.PI * nextDouble(states, slot);
+        double driftNorth = north[slot] * decay + radius * Math.cos(angle);
+        double driftEast = east[slot] * decay + radius * Math.sin(angle);
+        north[slot] = driftNorth;
+        east[slot] = driftEast;
+
+        double errorNorth = driftNorth;
+        double errorEast = driftEast;
+        // chance of at least one jump of a Poisson process within the step
+        double multipathProbability = -Math.expm1(-multipathRate * dtSeconds);
+        if (nextDouble(states, slot) < multipathProbability) {
+            double direction = 2 * Math.PI * nextDouble(states, slot);
+            double offset = multipathOffset * (0.5 + 0.5 * nextDouble(states, slot));
+            errorNorth += offset * Math.cos(direction);
+            errorEast += offset * Math.sin(direction);
+        }
+
+        double latitude = latitudes[slot] + errorNorth / METERS_PER_DEGREE;
+        latitudes[slot] = latitude;
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        if (cosLat > 1e-9) {
+            longitudes[slot] += errorEast / (METERS_PER_DEGREE * cosLat);
+        }
+
+        double drift = Math.sqrt(driftNorth * driftNorth + driftEast * driftEast);
+        double jitter = gaussianRadius(states, slot) * Math.cos(2 * Math.PI * nextDouble(states, slot));
+        double accuracy = Math.max(drift, driftSigma) * (1 + accuracyJitter * jitter);
+        accuracies[slot] = (float) Math.max(NoiseModel.MIN_ACCURACY, accuracy);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double nextDouble(long[] states, int slot) {
+        long state = states[slot] + GOLDEN_GAMMA;
+        states[slot] = state;
+        return (mix(state) >>> 11) * 0x1.0p-53;
+    }
+
+    // Box-Muller: radius * cos(angle) and radius * sin(angle) with a uniform angle are two
+    // independent standard gaussians
+    private static double gaussianRadius(long[] states, int slot) {
+        return Math.sqrt(-2 * Math.log(1 - nextDouble(states, slot)));
+    }
+}
@@ -0,0 +1,82 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * Reproducible GPS error model applied on top of the simulated position.
+ * <ul>
+ * <li>Position drift: independent first-order Gauss-Markov processes for the north and east
+ * error, with standard deviation {@code driftSigma} and correlation time {@code driftTau}.</li>
+ * <li>Accuracy jitter: the reported accuracy follows the drift magnitude with gaussian jitter.</li>
+ * <li>Multipath: at {@code multipathRate} jumps per second of simulated time the position jumps
+ * by up to {@code multipathOffset} meters in a random direction while the accuracy stays
+ * optimistic. The rate does not depend on how often fixes are applied.</li>
+ * </ul>
+ * All randomness comes from a seeded SplitMix64 generator, so the same seed and the same sequence
+ * of time steps replay bit-for-bit and {@link #apply} never allocates. The processes themselves
+ * are in {@link NoiseKernel}; this class holds the state of a single stream.
+ */
+public class NoiseModel {
+
+    public static final double DEFAULT_DRIFT_SIGMA = 3;     // meters
+    public static final double DEFAULT_DRIFT_TAU = 30;      // seconds
+    public static final double DEFAULT_ACCURACY_JITTER = 0.2;
+    public static final double DEFAULT_MULTIPATH_RATE = 0.02;  // per second
+    public static final double DEFAULT_MULTIPATH_OFFSET = 40; // meters
+    public static final float MIN_ACCURACY = 1;               // meters
+
+    private final long seed;
+    private final NoiseKernel kernel = new NoiseKernel();
+
+    // the kernel's state and fix arrays, one slot each
+    private final long[] state = new long[1];
+    private final double[] north = new double[1];   // meters
+    private final double[] east = new double[1];    // meters
+    private final double[] latitude = new double[1];
+    private final double[] longitude = new double[1];
+    private final float[] accuracy = new float[1];
+
+    public NoiseModel(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    /**
+     * Restarts the random sequence and the drift from the seed.
+     */
+    public void reset() {
+        kernel.reset(state, north, east, 0, seed);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public NoiseModel setDrift(double sigma, double tau) {
+        kernel.setDrift(sigma, tau);
+        return this;
+    }
+
+    public NoiseModel setAccuracyJitter(double jitter) {
+        kernel.setAccuracyJitter(jitter);
+        return this;
+    }
+
+    /**
+     * @param ratePerSecond mean number of jumps per second of simulated time
+     */
+    public NoiseModel setMultipath(double ratePerSecond, double maxOffset) {
+        kernel.setMultipath(ratePerSecond, maxOffset);
+        return this;
+    }
+
+    /**
+     * Advances the error processes by {@code dtSeconds} and perturbs {@code fix} in place.
+     */
+    public void apply(MockFix fix, double dtSeconds) {
+        latitude[0] = fix.latitude;
+        longitude[0] = fix.longitude;
+        kernel.apply(state, north, east, 0, dtSeconds, latitude, longitude, accuracy);
+        fix.latitude = latitude[0];
+        fix.longitude = longitude[0];
+        fix.accuracy = accuracy[0];
+    }
+}
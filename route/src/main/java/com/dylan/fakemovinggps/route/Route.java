@@ -0,0 +1,181 @@
+package com.dylan.fakemovinggps.route;
+
+import java.util.Arrays;
+
+/**
+ * Polyline with a precomputed {@link SpeedProfile}: for every waypoint the cumulative distance,
+ * cumulative time, speed and the bearing of the segment starting there are known up front, so
+ * positions can be located by binary search instead of walking the segments and a playback tick
+ * is only a table lookup.
+ * <p>
+ * Routes built with {@link Builder} keep everything in primitive arrays on the heap; routes
+ * opened from a file are backed by a memory map and decoded chunk by chunk, see
+ * {@code com.dylan.fakemovinggps.track.MappedRoute} in the app.
+ */
+public abstract class Route {
+
+    public static final double DEFAULT_SPEED = 13.9; // m/s, ~50 km/h
+
+    private static final int MAX_LINEAR_STEPS = 8;
+
+    public static Route single(double latitude, double longitude) {
+        return new Builder(1).add(latitude, longitude).build();
+    }
+
+    /**
+     * Builds a route around existing coordinate arrays without copying them; the caller must not
+     * modify them afterwards.
+     */
+    public static Route wrap(double[] latitudes, double[] longitudes, SpeedProfile speedProfile) {
+        return new ArrayRoute(latitudes, longitudes, speedProfile);
+    }
+
+    public abstract int size();
+
+    public abstract double getLatitude(int index);
+
+    public abstract double getLongitude(int index);
+
+    /**
+     * @return distance in meters from the first waypoint to the waypoint at {@code index}
+     */
+    public abstract double getDistance(int index);
+
+    /**
+     * @return playback time in seconds from the first waypoint to the waypoint at {@code index}
+     */
+    public abstract double getTime(int index);
+
+    /**
+     * @return planned speed in m/s when passing the waypoint at {@code index}
+     */
+    public abstract double getSpeed(int index);
+
+    /**
+     * @return bearing in degrees of the segment starting at {@code index}; the last waypoint
+     * repeats the bearing of the final segment
+     */
+    public abstract float getBearing(int index);
+
+    public abstract SpeedProfile getSpeedProfile();
+
+    /**
+     * @return an instance of this route that may be read on another thread concurrently with
+     * this one. Heap routes are immutable and return themselves.
+     */
+    public Route view() {
+        return this;
+    }
+
+    public double getTotalDistance() {
+        return getDistance(size() - 1);
+    }
+
+    public double getDuration() {
+        return getTime(size() - 1);
+    }
+
+    /**
+     * @param hint segment to start looking from, usually the previous result
+     * @return index {@code i} in [0, size - 2] of the segment containing {@code distance},
+     * clamped at both ends
+     */
+    public int findSegmentByDistance(double distance, int hint) {
+        return findSegment(false, distance, hint);
+    }
+
+    /**
+     * @see #findSegmentByDistance(double, int)
+     */
+    public int findSegmentByTime(double seconds, int hint) {
+        return findSegment(true, seconds, hint);
+    }
+
+    private double valueAt(boolean byTime, int index) {
+        return byTime ? getTime(index) : getDistance(index);
+    }
+
+    // Walks forward a few steps from the hint, which resolves the playback case in O(1), and
+    // falls back to a binary search for anything further away.
+    private int findSegment(boolean byTime, double value, int hint) {
+        int lastSegment = size() - 2;
+        if (lastSegment < 0) {
+            return 0;
+        }
+        int i = Math.max(0, Math.min(hint, lastSegment));
+        if (value >= valueAt(byTime, i)) {
+            for (int step = 0; step < MAX_LINEAR_STEPS; step++) {
+                if (i == lastSegment || value < valueAt(byTime, i + 1)) {
+                    return i;
+                }
+                i++;
+            }
+            return search(byTime, i, lastSegment, value);
+        }
+        return search(byTime, 0, i, value);
+    }
+
+    // largest index in [low, high] whose value is <= the target
+    private int search(boolean byTime, int low, int high, double value) {
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (valueAt(byTime, mid) <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public static class Builder {
+        private double[] latitudes;
+        private double[] longitudes;
+        private int size;
+        private SpeedProfile speedProfile = SpeedProfile.of(DEFAULT_SPEED);
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(1, expectedSize);
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+        }
+
+        public Builder add(double latitude, double longitude) {
+            if (size == latitudes.length) {
+                int capacity = size + (size >> 1) + 1;
+                latitudes = Arrays.copyOf(latitudes, capacity);
+                longitudes = Arrays.copyOf(longitudes, capacity);
+            }
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+            return this;
+        }
+
+        /**
+         * Uses the default kinematic profile capped at {@code maxSpeed} m/s.
+         */
+        public Builder setSpeed(double maxSpeed) {
+            this.speedProfile = SpeedProfile.of(maxSpeed);
+            return this;
+        }
+
+        public Builder setSpeedProfile(SpeedProfile speedProfile) {
+            this.speedProfile = speedProfile;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Route build() {
+            return new ArrayRoute(Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size),
+                    speedProfile);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * Position on a {@link Route}, addressed either by travelled distance or by playback time.
+ * Lookups start from the current segment (see {@link Route#findSegmentByTime(double, int)}), so
+ * sequential playback costs O(1) per move and seeks O(log n).
+ */
+public class RouteCursor {
+
+    private final Route route;
+    private final SegmentMotion motion = new SegmentMotion();
+    private int motionSegment = -1;
+
+    private int segment;          // index of the segment start waypoint
+    private double fraction;      // travelled part of the segment [0, 1]
+    private double timeFraction;  // elapsed part of the segment's duration [0, 1]
+
+    public RouteCursor(Route route) {
+        this.route = route;
+    }
+
+    public void reset() {
+        segment = 0;
+        fraction = 0;
+        timeFraction = 0;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    /**
+     * Starts the next lookup from {@code segment}, e.g. one saved earlier with
+     * {@link #getSegment()}. The position is undefined until the next move.
+     */
+    public void setSegment(int segment) {
+        this.segment = Math.max(0, Math.min(route.size() - 2, segment));
+    }
+
+    public double getTravelled() {
+        if (route.size() == 1) {
+            return 0;
+        }
+        double start = route.getDistance(segment);
+        return start + (route.getDistance(segment + 1) - start) * fraction;
+    }
+
+    public double getTime() {
+        if (route.size() == 1) {
+            return 0;
+        }
+        double start = route.getTime(segment);
+        return start + (route.getTime(segment + 1) - start) * timeFraction;
+    }
+
+    /**
+     * @return travelled part of the route in [0, 1]
+     */
+    public double getProgress() {
+        double total = route.getTotalDistance();
+        return total > 0 ? getTravelled() / total : 1;
+    }
+
+    public boolean isFinished() {
+        return route.size() == 1 || (segment == route.size() - 2 && fraction >= 1);
+    }
+
+    /**
+     * Moves the cursor to {@code distance} meters from the route start.
+     */
+    public void moveToDistance(double distance) {
+        if (route.size() == 1) {
+            return;
+        }
+        segment = route.findSegmentByDistance(distance, segment);
+        fraction = fractionOf(route.getDistance(segment), route.getDistance(segment + 1), distance);
+        timeFraction = timeFractionOf(fraction);
+    }
+
+    /**
+     * Moves the cursor to {@code seconds} of playback time from the route start.
+     */
+    public void moveToTime(double seconds) {
+        if (route.size() == 1) {
+            return;
+        }
+        segment = route.findSegmentByTime(seconds, segment);
+        timeFraction = fractionOf(route.getTime(segment), route.getTime(segment + 1), seconds);
+        fraction = distanceFractionOf(timeFraction);
+    }
+
+    private static double fractionOf(double start, double end, double value) {
+        double span = end - start;
+        if (span > 0) {
+            return Math.max(0, Math.min(1, (value - start) / span));
+        }
+        return value >= start ? 1 : 0;
+    }
+
+    // motion of the current segment, scaled to its table entries so both ends always match
+    private SegmentMotion motion() {
+        if (motionSegment != segment) {
+            motion.set(route.getDistance(segment + 1) - route.getDistance(segment), route.getSpeed(segment),
+                    route.getSpeed(segment + 1), route.getSpeedProfile());
+            motionSegment = segment;
+        }
+        return motion;
+    }
+
+    private double distanceFractionOf(double f) {
+        SegmentMotion m = motion();
+        return m.getLength() > 0 ? m.distanceAt(f * m.getDuration()) / m.getLength() : f;
+    }
+
+    /**
+     * Where speed changes linearly with time inside a segment (constant acceleration), the travelled
+     * part after a fraction f of the segment's duration is f * (2 * v0 + (v1 - v0) * f) / (v0 + v1).
+     *
+     * @param v0 speed at the segment start
+     * @param v1 speed at the segment end
+     * @return travelled part of the segment in [0, 1]
+     */
+    public static double distanceFraction(double v0, double v1, double f) {
+        double sum = v0 + v1;
+        return sum > 0 ? f * (2 * v0 + (v1 - v0) * f) / sum : f;
+    }
+
+    private double timeFractionOf(double f) {
+        SegmentMotion m = motion();
+        return m.getDuration() > 0 ? m.timeAt(f * m.getLength()) / m.getDuration() : f;
+    }
+
+    /**
+     * @return interpolated speed in m/s at the current position
+     */
+    public double getSpeed() {
+        if (route.size() == 1) {
+            return 0;
+        }
+        SegmentMotion m = motion();
+        return m.speedAt(timeFraction * m.getDuration());
+    }
+
+    /**
+     * Writes the interpolated position, speed and the bearing of the current segment into
+     * {@code fix}.
+     */
+    public void getPosition(MockFix fix) {
+        fix.bearing = route.getBearing(segment);
+        fix.speed = (float) getSpeed();
+        if (route.size() == 1) {
+            fix.latitude = route.getLatitude(0);
+            fix.longitude = route.getLongitude(0);
+            return;
+        }
+        double lat1 = route.getLatitude(segment);
+        double lon1 = route.getLongitude(segment);
+        fix.latitude = lat1 + (route.getLatitude(segment + 1) - lat1) * fraction;
+        fix.longitude = lon1 + (route.getLongitude(segment + 1) - lon1) * fraction;
+    }
+}
@@ -0,0 +1,244 @@
+package com.dylan.fakemovinggps.route;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Levels of detail of a {@link Route} for display, computed once with a hierarchical
+ * Douglas-Peucker pass.
+ * <p>
+ * Instead of running the simplification once per tolerance, a single pass records for every
+ * point the largest tolerance at which Douglas-Peucker would still keep it (its significance,
+ * capped by the significance of the split that exposed it). Keeping the points whose
+ * significance exceeds a tolerance gives exactly the Douglas-Peucker result for that tolerance,
+ * and the levels nest. Level {@code k} uses a tolerance of {@code MIN_TOLERANCE * 2^k}, which
+ * matches the halving of the map resolution with every zoom level.
+ * <p>
+ * The pass is iterative with an explicit stack, so it handles any route length, and runs in
+ * parallel over chunks whose end points are always kept. Chunks are read from the route one at
+ * a time and at most {@code parallelism} are in flight, so besides the levels themselves a
+ * build only needs a byte per point.
+ */
+public class RouteLod {
+
+    public static final double MIN_TOLERANCE = 0.25;  // meters
+    public static final int LEVEL_COUNT = 16;         // up to 8 km
+    public static final int CHUNK_SIZE = 65536;
+
+    private final Route route;
+    private final int[][] levels;
+
+    private RouteLod(Route route, int[][] levels) {
+        this.route = route;
+        this.levels = levels;
+    }
+
+    /**
+     * @param executor    runs the chunks of the simplification; the calling thread waits for them,
+     *                    so it must not be one of the executor's own threads
+     * @param parallelism chunks handed to the executor at the same time
+     */
+    public static RouteLod build(Route route, ExecutorService executor, int parallelism)
+            throws InterruptedException {
+        route = route.view();
+        int n = route.size();
+        // number of levels that keep each point
+        final byte[] ranks = new byte[n];
+        if (n > 0) {
+            Deque<Future<?>> running = new ArrayDeque<Future<?>>();
+            try {
+                for (int start = 0; start < n - 1; start += CHUNK_SIZE) {
+                    // read on this thread: file backed routes only support access from one thread
+                    final Chunk chunk = new Chunk(route, start, Math.min(n - 1, start + CHUNK_SIZE));
+                    Runnable task = new Runnable() {
+                        @Override
+                        public void run() {
+                            simplify(chunk.x, chunk.y, chunk.from, ranks);
+                        }
+                    };
+                    if (chunk.from + chunk.x.length == n) {
+                        // the caller would only wait anyway, let it do the last chunk itself
+                        task.run();
+                    } else {
+                        if (running.size() >= Math.max(1, parallelism)) {
+                            await(running.poll());
+                        }
+                        running.add(executor.submit(task));
+                    }
+                }
+                while (!running.isEmpty()) {
+                    await(running.poll());
+                }
+            } finally {
+                for (Future<?> future : running) {
+                    future.cancel(true);
+                }
+            }
+            ranks[0] = LEVEL_COUNT;
+            ranks[n - 1] = LEVEL_COUNT;
+        }
+
+        int[][] levels = new int[LEVEL_COUNT][];
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            levels[level] = select(ranks, level);
+        }
+        return new RouteLod(route, levels);
+    }
+
+    /**
+     * @return a view of the route owned by this instance, see {@link Route#view()}
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    public static double getTolerance(int level) {
+        return MIN_TOLERANCE * (1 << level);
+    }
+
+    /**
+     * @return indices into the route of the points kept at {@code level}, in route order
+     */
+    public int[] getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * @param metersPerPixel ground resolution of the map at the route
+     * @return the coarsest level whose tolerance is still below one pixel
+     */
+    public static int selectLevel(double metersPerPixel) {
+        int level = 0;
+        while (level + 1 < LEVEL_COUNT && getTolerance(level + 1) <= metersPerPixel) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int[] select(byte[] ranks, int level) {
+        int count = 0;
+        for (byte rank : ranks) {
+            if (rank > level) {
+                count++;
+            }
+        }
+        int[] indices = new int[count];
+        int j = 0;
+        for (int i = 0; i < ranks.length; i++) {
+            if (ranks[i] > level) {
+                indices[j++] = i;
+            }
+        }
+        return indices;
+    }
+
+    private static void await(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Points {@code [from, to]} of a route, projected on an equirectangular projection around
+     * the chunk, which is accurate to well below a pixel at the scales involved.
+     */
+    private static final class Chunk {
+        final int from;
+        final double[] x;
+        final double[] y;
+
+        Chunk(Route route, int from, int to) {
+            this.from = from;
+            int length = to - from + 1;
+            x = new double[length];
+            y = new double[length];
+            double scale = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+            double cosine = Math.cos(Math.toRadians((route.getLatitude(from) + route.getLatitude(to)) / 2));
+            for (int i = 0; i < length; i++) {
+                x[i] = route.getLongitude(from + i) * scale * cosine;
+                y[i] = route.getLatitude(from + i) * scale;
+            }
+        }
+    }
+
+    // number of levels whose tolerance the significance exceeds
+    private static byte rank(float significance) {
+        int rank = 0;
+        while (rank < LEVEL_COUNT && significance > getTolerance(rank)) {
+            rank++;
+        }
+        return (byte) rank;
+    }
+
+    /**
+     * Hierarchical Douglas-Peucker over a projected chunk starting at point {@code offset},
+     * keeping both ends.
+     */
+    static void simplify(double[] x, double[] y, int offset, byte[] ranks) {
+        int length = x.length;
+        ranks[offset] = LEVEL_COUNT;
+        ranks[offset + length - 1] = LEVEL_COUNT;
+
+        // every pushed range has at least one interior point, so the stack never exceeds length
+        int[] starts = new int[length];
+        int[] ends = new int[length];
+        float[] caps = new float[length];
+        int top = 0;
+        if (length > 2) {
+            starts[0] = 0;
+            ends[0] = length - 1;
+            caps[0] = Float.POSITIVE_INFINITY;
+            top = 1;
+        }
+        while (top > 0) {
+            top--;
+            int start = starts[top];
+            int end = ends[top];
+            float cap = caps[top];
+
+            int split = start + 1;
+            double maxDistance = -1;
+            double ax = x[start];
+            double ay = y[start];
+            double dx = x[end] - ax;
+            double dy = y[end] - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            for (int i = start + 1; i < end; i++) {
+                double px = x[i] - ax;
+                double py = y[i] - ay;
+                double t = lengthSquared > 0 ? (px * dx + py * dy) / lengthSquared : 0;
+                if (t < 0) {
+                    t = 0;
+                } else if (t > 1) {
+                    t = 1;
+                }
+                double ex = px - t * dx;
+                double ey = py - t * dy;
+                double distance = ex * ex + ey * ey;
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    split = i;
+                }
+            }
+            float value = Math.min(cap, (float) Math.sqrt(maxDistance));
+            ranks[offset + split] = rank(value);
+            if (split - start > 1) {
+                starts[top] = start;
+                ends[top] = split;
+                caps[top] = value;
+                top++;
+            }
+            if (end - split > 1) {
+                starts[top] = split;
+                ends[top] = end;
+                caps[top] = value;
+                top++;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * Per-tick position computation for a {@link Route}. Sampling writes into a caller owned
+ * {@link MockFix} and allocates nothing, so it can run at tick rate for hours without GC churn.
+ */
+public class RoutePlayback {
+
+    private final Route route;
+    private final RouteCursor cursor;
+    private long startNanos = -1;
+    private double startSeconds;
+    private volatile double progress;
+
+    public RoutePlayback(Route route) {
+        this.route = route;
+        this.cursor = new RouteCursor(route);
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public void reset() {
+        cursor.reset();
+        startNanos = -1;
+        startSeconds = 0;
+        progress = 0;
+    }
+
+    /**
+     * Continues playback from {@code distance} meters along the route at the next sample.
+     */
+    public void seekToDistance(double distance) {
+        cursor.moveToDistance(distance);
+        startSeconds = cursor.getTime();
+        startNanos = -1;
+    }
+
+    public boolean isFinished() {
+        return cursor.isFinished();
+    }
+
+    /**
+     * @return travelled part of the route in [0, 1] as of the last sample; safe to call from any
+     * thread
+     */
+    public double getProgress() {
+        return progress;
+    }
+
+    public double getTravelled() {
+        return cursor.getTravelled();
+    }
+
+    /**
+     * Fills {@code fix} with the simulated position at {@code elapsedRealtimeNanos}. The first
+     * sample after a reset or a seek anchors the playback clock.
+     */
+    public void sample(long elapsedRealtimeNanos, MockFix fix) {
+        if (startNanos < 0) {
+            startNanos = elapsedRealtimeNanos;
+        }
+        double seconds = startSeconds + (elapsedRealtimeNanos - startNanos) / 1e9;
+        cursor.moveToTime(seconds);
+        cursor.getPosition(fix);
+        progress = cursor.getProgress();
+        fix.altitude = 0;
+        fix.accuracy = 1;
+        fix.time = System.currentTimeMillis();
+        fix.elapsedRealtimeNanos = elapsedRealtimeNanos;
+    }
+}
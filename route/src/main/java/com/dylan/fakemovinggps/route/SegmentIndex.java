@@ -0,0 +1,418 @@
+package com.dylan.fakemovinggps.route;
+
+import java.util.Arrays;
+
+/**
+ * Packed R-tree over the segments of a {@link Route} for nearest-segment and within-radius
+ * queries, e.g. to snap a map tap onto the route.
+ * <p>
+ * Segments are sorted along a Hilbert curve and packed bottom up into nodes of
+ * {@link #NODE_SIZE}, so the tree is built in {@code O(n log n)} without any per-node objects.
+ * Points are kept as floats on an equirectangular projection around the route, which is accurate
+ * to centimeters at city scale and to well under a percent over a few hundred kilometers. Only
+ * the internal node boxes are stored; leaf boxes are derived from the points, so the index costs
+ * about 12 bytes per point.
+ * <p>
+ * Queries are synchronized and reuse their scratch buffers, so they do not allocate once warm.
+ */
+public class SegmentIndex {
+
+    public static final int NODE_SIZE = 16;
+
+    // 2^15 cells per axis keep the curve position below 2^30, so it can go in the upper half of
+    // a positive long sort key with the segment number in the lower half
+    static final int HILBERT_MAX = (1 << 15) - 1;
+
+    private final Route route;
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double scaleX;
+    private final double scaleY;
+    private final float[] x;
+    private final float[] y;
+
+    private final int segmentCount;
+    private final int[] segments;       // leaves, in Hilbert order
+    private final int[] levelStart;     // first node of each level, root level last
+    private final int[] levelSize;
+    private final float[] minX;
+    private final float[] minY;
+    private final float[] maxX;
+    private final float[] maxY;
+
+    // query scratch, guarded by this
+    private double[] heapKeys = new double[64];
+    private int[] heapNodes = new int[64];
+    private int[] heapLevels = new int[64];
+    private int[] stackNodes = new int[64];
+    private int[] stackLevels = new int[64];
+    private int[] results = new int[16];
+
+    private SegmentIndex(Route route) {
+        this.route = route;
+        int n = route.size();
+        segmentCount = Math.max(0, n - 1);
+
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double lat = route.getLatitude(i);
+            double lon = route.getLongitude(i);
+            south = Math.min(south, lat);
+            north = Math.max(north, lat);
+            west = Math.min(west, lon);
+            east = Math.max(east, lon);
+        }
+        originLatitude = (south + north) / 2;
+        originLongitude = (west + east) / 2;
+        scaleY = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+        scaleX = scaleY * Math.cos(Math.toRadians(originLatitude));
+        x = new float[n];
+        y = new float[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (float) ((route.getLongitude(i) - originLongitude) * scaleX);
+            y[i] = (float) ((route.getLatitude(i) - originLatitude) * scaleY);
+        }
+
+        segments = sortByHilbert();
+
+        int levels = 1;
+        for (int count = parents(segmentCount); count > 1; count = parents(count)) {
+            levels++;
+        }
+        levelStart = new int[levels];
+        levelSize = new int[levels];
+        int total = 0;
+        int count = segmentCount;
+        for (int level = 0; level < levels; level++) {
+            count = parents(count);
+            levelStart[level] = total;
+            levelSize[level] = count;
+            total += count;
+        }
+        minX = new float[total];
+        minY = new float[total];
+        maxX = new float[total];
+        maxY = new float[total];
+        packLeaves();
+        for (int level = 1; level < levels; level++) {
+            packLevel(level);
+        }
+    }
+
+    private static int parents(int count) {
+        return (count + NODE_SIZE - 1) / NODE_SIZE;
+    }
+
+    /**
+     * Builds the index; takes {@code O(n log n)} and is meant for a background thread.
+     */
+    public static SegmentIndex build(Route route) {
+        return new SegmentIndex(route.view());
+    }
+
+    /**
+     * @return the view of the route this index reads, see {@link Route#view()}
+     */
+    public Route getRoute() {
+        return route;
+    }
+
+    /**
+     * @return the segment closest to the coordinate, or -1 if the route has a single point
+     */
+    public int nearest(double latitude, double longitude) {
+        return nearest(latitude, longitude, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param maxDistance meters
+     * @return the segment closest to the coordinate if it is within {@code maxDistance}, else -1
+     */
+    public synchronized int nearest(double latitude, double longitude, double maxDistance) {
+        if (segmentCount == 0) {
+            return -1;
+        }
+        double px = (longitude - originLongitude) * scaleX;
+        double py = (latitude - originLatitude) * scaleY;
+        double maxSquared = maxDistance * maxDistance;
+
+        int size = 0;
+        int node = 0;
+        int level = levelStart.length - 1;
+        while (true) {
+            int first = node * NODE_SIZE;
+            int end = Math.min(first + NODE_SIZE, level == 0 ? segmentCount : levelSize[level - 1]);
+            for (int child = first; child < end; child++) {
+                double key;
+                int childLevel;
+                int id;
+                if (level == 0) {
+                    id = segments[child];
+                    key = segmentDistanceSquared(id, px, py);
+                    childLevel = -1;
+                } else {
+                    id = child;
+                    childLevel = level - 1;
+                    key = boxDistanceSquared(levelStart[childLevel] + child, px, py);
+                }
+                if (key <= maxSquared) {
+                    size = push(size, key, id, childLevel);
+                }
+            }
+            if (size == 0) {
+                return -1;
+            }
+            int top = heapNodes[0];
+            int topLevel = heapLevels[0];
+            size = pop(size);
+            if (topLevel < 0) {
+                return top;
+            }
+            node = top;
+            level = topLevel;
+        }
+    }
+
+    /**
+     * @param radius meters
+     * @return the segments within {@code radius} of the coordinate, in route order
+     */
+    public synchronized int[] withinRadius(double latitude, double longitude, double radius) {
+        if (segmentCount == 0) {
+            return new int[0];
+        }
+        double px = (longitude - originLongitude) * scaleX;
+        double py = (latitude - originLatitude) * scaleY;
+        double radiusSquared = radius * radius;
+
+        int found = 0;
+        stackNodes[0] = 0;
+        stackLevels[0] = levelStart.length - 1;
+        int top = 1;
+        while (top > 0) {
+            top--;
+            int node = stackNodes[top];
+            int level = stackLevels[top];
+            int first = node * NODE_SIZE;
+            int end = Math.min(first + NODE_SIZE, level == 0 ? segmentCount : levelSize[level - 1]);
+            for (int child = first; child < end; child++) {
+                if (level == 0) {
+                    int segment = segments[child];
+                    if (segmentDistanceSquared(segment, px, py) <= radiusSquared) {
+                        if (found == results.length) {
+                            results = Arrays.copyOf(results, found * 2);
+                        }
+                        results[found++] = segment;
+                    }
+                } else if (boxDistanceSquared(levelStart[level - 1] + child, px, py) <= radiusSquared) {
+                    if (top == stackNodes.length) {
+                        stackNodes = Arrays.copyOf(stackNodes, top * 2);
+                        stackLevels = Arrays.copyOf(stackLevels, top * 2);
+                    }
+                    stackNodes[top] = child;
+                    stackLevels[top] = level - 1;
+                    top++;
+                }
+            }
+        }
+        int[] matches = Arrays.copyOf(results, found);
+        Arrays.sort(matches);
+        return matches;
+    }
+
+    /**
+     * @return meters between the coordinate and {@code segment}
+     */
+    public synchronized double distance(int segment, double latitude, double longitude) {
+        return Math.sqrt(segmentDistanceSquared(segment,
+                (longitude - originLongitude) * scaleX, (latitude - originLatitude) * scaleY));
+    }
+
+    /**
+     * Projects the coordinate onto the nearest segment.
+     *
+     * @return distance along the route of the projected point in meters, or 0 for a single point
+     * route
+     */
+    public synchronized double snap(double latitude, double longitude) {
+        int segment = nearest(latitude, longitude);
+        if (segment < 0) {
+            return 0;
+        }
+        double px = (longitude - originLongitude) * scaleX;
+        double py = (latitude - originLatitude) * scaleY;
+        double t = projection(segment, px, py);
+        double start = route.getDistance(segment);
+        return start + t * (route.getDistance(segment + 1) - start);
+    }
+
+    private double projection(int segment, double px, double py) {
+        double ax = x[segment];
+        double ay = y[segment];
+        double dx = x[segment + 1] - ax;
+        double dy = y[segment + 1] - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        double t = ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        return t < 0 ? 0 : t > 1 ? 1 : t;
+    }
+
+    private double segmentDistanceSquared(int segment, double px, double py) {
+        double t = projection(segment, px, py);
+        double ex = px - (x[segment] + t * (x[segment + 1] - x[segment]));
+        double ey = py - (y[segment] + t * (y[segment + 1] - y[segment]));
+        return ex * ex + ey * ey;
+    }
+
+    private double boxDistanceSquared(int node, double px, double py) {
+        double dx = px < minX[node] ? minX[node] - px : px > maxX[node] ? px - maxX[node] : 0;
+        double dy = py < minY[node] ? minY[node] - py : py > maxY[node] ? py - maxY[node] : 0;
+        return dx * dx + dy * dy;
+    }
+
+    private int push(int size, double key, int node, int level) {
+        if (size == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, size * 2);
+            heapNodes = Arrays.copyOf(heapNodes, size * 2);
+            heapLevels = Arrays.copyOf(heapLevels, size * 2);
+        }
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[parent];
+            heapNodes[i] = heapNodes[parent];
+            heapLevels[i] = heapLevels[parent];
+            i = parent;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+        heapLevels[i] = level;
+        return size + 1;
+    }
+
+    private int pop(int size) {
+        size--;
+        double key = heapKeys[size];
+        int node = heapNodes[size];
+        int level = heapLevels[size];
+        int i = 0;
+        int half = size >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] >= key) {
+                break;
+            }
+            heapKeys[i] = heapKeys[child];
+            heapNodes[i] = heapNodes[child];
+            heapLevels[i] = heapLevels[child];
+            i = child;
+        }
+        heapKeys[i] = key;
+        heapNodes[i] = node;
+        heapLevels[i] = level;
+        return size;
+    }
+
+    private int[] sortByHilbert() {
+        float west = Float.POSITIVE_INFINITY;
+        float south = Float.POSITIVE_INFINITY;
+        float east = Float.NEGATIVE_INFINITY;
+        float north = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < x.length; i++) {
+            west = Math.min(west, x[i]);
+            east = Math.max(east, x[i]);
+            south = Math.min(south, y[i]);
+            north = Math.max(north, y[i]);
+        }
+        double width = Math.max(east - west, 1e-3);
+        double height = Math.max(north - south, 1e-3);
+        long[] keys = new long[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            double cx = (x[i] + x[i + 1]) / 2.0;
+            double cy = (y[i] + y[i + 1]) / 2.0;
+            int hx = (int) (HILBERT_MAX * (cx - west) / width);
+            int hy = (int) (HILBERT_MAX * (cy - south) / height);
+            keys[i] = hilbert(hx, hy) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * Position of a point of the 32768 x 32768 grid along the Hilbert curve.
+     */
+    static long hilbert(int hx, int hy) {
+        long d = 0;
+        for (int s = (HILBERT_MAX + 1) >> 1; s > 0; s >>= 1) {
+            int rx = (hx & s) != 0 ? 1 : 0;
+            int ry = (hy & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    hx = HILBERT_MAX - hx;
+                    hy = HILBERT_MAX - hy;
+                }
+                int t = hx;
+                hx = hy;
+                hy = t;
+            }
+        }
+        return d;
+    }
+
+    private void packLeaves() {
+        for (int node = 0; node < levelSize[0]; node++) {
+            float left = Float.POSITIVE_INFINITY;
+            float bottom = Float.POSITIVE_INFINITY;
+            float right = Float.NEGATIVE_INFINITY;
+            float top = Float.NEGATIVE_INFINITY;
+            int end = Math.min(segmentCount, (node + 1) * NODE_SIZE);
+            for (int k = node * NODE_SIZE; k < end; k++) {
+                int segment = segments[k];
+                left = Math.min(left, Math.min(x[segment], x[segment + 1]));
+                right = Math.max(right, Math.max(x[segment], x[segment + 1]));
+                bottom = Math.min(bottom, Math.min(y[segment], y[segment + 1]));
+                top = Math.max(top, Math.max(y[segment], y[segment + 1]));
+            }
+            minX[node] = left;
+            minY[node] = bottom;
+            maxX[node] = right;
+            maxY[node] = top;
+        }
+    }
+
+    private void packLevel(int level) {
+        int childStart = levelStart[level - 1];
+        int childCount = levelSize[level - 1];
+        for (int node = 0; node < levelSize[level]; node++) {
+            int target = levelStart[level] + node;
+            minX[target] = Float.POSITIVE_INFINITY;
+            minY[target] = Float.POSITIVE_INFINITY;
+            maxX[target] = Float.NEGATIVE_INFINITY;
+            maxY[target] = Float.NEGATIVE_INFINITY;
+            int end = Math.min(childCount, (node + 1) * NODE_SIZE);
+            for (int child = node * NODE_SIZE; child < end; child++) {
+                int source = childStart + child;
+                minX[target] = Math.min(minX[target], minX[source]);
+                minY[target] = Math.min(minY[target], minY[source]);
+                maxX[target] = Math.max(maxX[target], maxX[source]);
+                maxY[target] = Math.max(maxY[target], maxY[source]);
+            }
+        }
+    }
+}
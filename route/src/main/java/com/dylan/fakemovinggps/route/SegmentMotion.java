@@ -0,0 +1,156 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * Motion along one segment between the waypoint speeds of a {@link SpeedProfile}. Usually the
+ * speed changes linearly from one end to the other. When the segment allows more than that, e.g.
+ * both ends are at rest, the vehicle accelerates to a peak, cruises and brakes again instead of
+ * crawling along at the average of the end speeds.
+ * <p>
+ * The peak is limited by {@link SpeedProfile#getMaxSpeed()}. On segments no longer than
+ * {@link SpeedProfile#TURN_WINDOW} it is also limited to the faster end, or
+ * {@link SpeedProfile#MIN_TURN_SPEED} if both are slower, so turn slowdowns still hold.
+ * Instances are mutable and meant to be reused.
+ */
+public final class SegmentMotion {
+
+    private double length;
+    private double v0;
+    private double v1;
+    private double duration;
+
+    // accelerate, cruise, brake; unused when ramp is set
+    private boolean ramp;
+    private double peak;
+    private double acceleration;
+    private double deceleration;
+    private double accelerationDistance;
+    private double cruiseDistance;
+    private double accelerationTime;
+    private double cruiseTime;
+
+    /**
+     * @param length segment length in meters
+     * @param v0     speed at the segment start
+     * @param v1     speed at the segment end
+     */
+    public void set(double length, double v0, double v1, SpeedProfile profile) {
+        this.length = length;
+        this.v0 = v0;
+        this.v1 = v1;
+        ramp = true;
+        if (!(length > 0)) {
+            duration = 0;
+            return;
+        }
+        double faster = Math.max(v0, v1);
+        if (!profile.isConstant()) {
+            double a = profile.getMaxAcceleration();
+            double b = profile.getMaxDeceleration();
+            double cap = length > SpeedProfile.TURN_WINDOW ? profile.getMaxSpeed()
+                    : Math.min(profile.getMaxSpeed(), Math.max(SpeedProfile.MIN_TURN_SPEED, faster));
+            double top = Math.min(cap, Math.sqrt((2 * a * b * length + b * v0 * v0 + a * v1 * v1) / (a + b)));
+            if (top > faster + 1e-6) {
+                ramp = false;
+                peak = top;
+                acceleration = a;
+                deceleration = b;
+                accelerationDistance = (top * top - v0 * v0) / (2 * a);
+                double brakingDistance = (top * top - v1 * v1) / (2 * b);
+                cruiseDistance = Math.max(0, length - accelerationDistance - brakingDistance);
+                accelerationTime = (top - v0) / a;
+                cruiseTime = cruiseDistance / top;
+                duration = accelerationTime + cruiseTime + (top - v1) / b;
+                return;
+            }
+        }
+        duration = length / Math.max((v0 + v1) / 2, 1e-3);
+    }
+
+    public double getLength() {
+        return length;
+    }
+
+    /**
+     * @return seconds needed for the segment
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return meters travelled after {@code seconds} on the segment
+     */
+    public double distanceAt(double seconds) {
+        if (seconds <= 0) {
+            return 0;
+        }
+        if (seconds >= duration) {
+            return length;
+        }
+        if (ramp) {
+            return RouteCursor.distanceFraction(v0, v1, seconds / duration) * length;
+        }
+        if (seconds < accelerationTime) {
+            return v0 * seconds + acceleration * seconds * seconds / 2;
+        }
+        seconds -= accelerationTime;
+        if (seconds < cruiseTime) {
+            return accelerationDistance + peak * seconds;
+        }
+        seconds -= cruiseTime;
+        double distance = accelerationDistance + cruiseDistance + peak * seconds
+                - deceleration * seconds * seconds / 2;
+        return Math.min(length, distance);
+    }
+
+    /**
+     * @return seconds needed to travel {@code meters} on the segment, the inverse of
+     * {@link #distanceAt(double)}
+     */
+    public double timeAt(double meters) {
+        if (meters <= 0) {
+            return 0;
+        }
+        if (meters >= length) {
+            return duration;
+        }
+        if (ramp) {
+            // v^2 grows linearly with distance
+            double dv = v1 - v0;
+            if (Math.abs(dv) < 1e-9) {
+                return duration * meters / length;
+            }
+            double v = Math.sqrt(Math.max(0, v0 * v0 + (v1 * v1 - v0 * v0) * meters / length));
+            return duration * Math.max(0, Math.min(1, (v - v0) / dv));
+        }
+        if (meters < accelerationDistance) {
+            return (Math.sqrt(v0 * v0 + 2 * acceleration * meters) - v0) / acceleration;
+        }
+        meters -= accelerationDistance;
+        if (meters < cruiseDistance) {
+            return accelerationTime + meters / peak;
+        }
+        meters -= cruiseDistance;
+        double braking = (peak - Math.sqrt(Math.max(0, peak * peak - 2 * deceleration * meters))) / deceleration;
+        return Math.min(duration, accelerationTime + cruiseTime + braking);
+    }
+
+    /**
+     * @return speed in m/s after {@code seconds} on the segment
+     */
+    public double speedAt(double seconds) {
+        if (ramp) {
+            double f = duration > 0 ? Math.max(0, Math.min(1, seconds / duration)) : 0;
+            return v0 + (v1 - v0) * f;
+        }
+        if (seconds < accelerationTime) {
+            return v0 + acceleration * Math.max(0, seconds);
+        }
+        seconds -= accelerationTime;
+        if (seconds < cruiseTime) {
+            return peak;
+        }
+        seconds -= cruiseTime;
+        return Math.max(v1, peak - deceleration * seconds);
+    }
+}
@@ -0,0 +1,153 @@
+package com.dylan.fakemovinggps.route;
+
+/**
+ * Kinematic limits used to turn a polyline into a time-parameterised route. The profile is
+ * evaluated once when a {@link Route} is built and produces the speed and cumulative time at
+ * every waypoint, so playback only interpolates between table entries.
+ * <p>
+ * The target speed at a waypoint is limited by {@link #getMaxSpeed()} and by the heading change
+ * within a {@link #TURN_WINDOW} meter window around it (treated as an arc, {@code v = sqrt(a * r)}).
+ * A forward pass then enforces the acceleration limit and a backward pass the deceleration limit,
+ * with the vehicle standing still at both ends of the route. Between the waypoints the vehicle
+ * moves as described by {@link SegmentMotion}.
+ */
+public class SpeedProfile {
+
+    public static final double DEFAULT_MAX_ACCELERATION = 2.0;   // m/s^2
+    public static final double DEFAULT_MAX_DECELERATION = 3.0;   // m/s^2
+    public static final double DEFAULT_LATERAL_ACCELERATION = 2.5; // m/s^2
+    public static final double MIN_TURN_SPEED = 2.0; // m/s
+    public static final double TURN_WINDOW = 30;     // meters
+
+    private final double maxSpeed;
+    private final double maxAcceleration;
+    private final double maxDeceleration;
+    private final double lateralAcceleration;
+
+    public SpeedProfile(double maxSpeed, double maxAcceleration, double maxDeceleration,
+                        double lateralAcceleration) {
+        if (!(maxSpeed > 0) || !(maxAcceleration > 0) || !(maxDeceleration > 0)
+                || !(lateralAcceleration > 0)) {
+            throw new IllegalArgumentException("Speed profile limits must be positive");
+        }
+        this.maxSpeed = maxSpeed;
+        this.maxAcceleration = maxAcceleration;
+        this.maxDeceleration = maxDeceleration;
+        this.lateralAcceleration = lateralAcceleration;
+    }
+
+    /**
+     * Profile with the default acceleration, braking and cornering limits.
+     */
+    public static SpeedProfile of(double maxSpeed) {
+        return new SpeedProfile(maxSpeed, DEFAULT_MAX_ACCELERATION, DEFAULT_MAX_DECELERATION,
+                DEFAULT_LATERAL_ACCELERATION);
+    }
+
+    /**
+     * Profile that plays the whole route at {@code speed}, without ramps or turn slowdown.
+     */
+    public static SpeedProfile constant(double speed) {
+        return new SpeedProfile(speed, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY);
+    }
+
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public double getMaxAcceleration() {
+        return maxAcceleration;
+    }
+
+    public double getMaxDeceleration() {
+        return maxDeceleration;
+    }
+
+    public double getLateralAcceleration() {
+        return lateralAcceleration;
+    }
+
+    public boolean isConstant() {
+        return Double.isInfinite(maxAcceleration) && Double.isInfinite(maxDeceleration)
+                && Double.isInfinite(lateralAcceleration);
+    }
+
+    /**
+     * Fills {@code speeds} (m/s) and {@code times} (cumulative seconds) for every waypoint.
+     *
+     * @param distances cumulative distance per waypoint
+     * @param bearings  bearing of each segment, indexed by its start waypoint
+     */
+    void compute(double[] distances, float[] bearings, double[] speeds, double[] times) {
+        int n = distances.length;
+        if (isConstant()) {
+            for (int i = 0; i < n; i++) {
+                speeds[i] = maxSpeed;
+                times[i] = distances[i] / maxSpeed;
+            }
+            return;
+        }
+
+        limitTurns(distances, bearings, speeds);
+        speeds[0] = 0;
+        speeds[n - 1] = 0;
+
+        for (int i = 1; i < n; i++) {
+            double d = distances[i] - distances[i - 1];
+            double reachable = Math.sqrt(speeds[i - 1] * speeds[i - 1] + 2 * maxAcceleration * d);
+            if (reachable < speeds[i]) {
+                speeds[i] = reachable;
+            }
+        }
+        for (int i = n - 2; i >= 0; i--) {
+            double d = distances[i + 1] - distances[i];
+            double reachable = Math.sqrt(speeds[i + 1] * speeds[i + 1] + 2 * maxDeceleration * d);
+            if (reachable < speeds[i]) {
+                speeds[i] = reachable;
+            }
+        }
+
+        times[0] = 0;
+        SegmentMotion motion = new SegmentMotion();
+        for (int i = 1; i < n; i++) {
+            motion.set(distances[i] - distances[i - 1], speeds[i - 1], speeds[i], this);
+            times[i] = times[i - 1] + motion.getDuration();
+        }
+    }
+
+    private void limitTurns(double[] distances, float[] bearings, double[] speeds) {
+        int n = distances.length;
+        // heading change at each interior waypoint, in radians
+        double[] turns = new double[n];
+        for (int i = 1; i < n - 1; i++) {
+            boolean degenerate = distances[i] == distances[i - 1] || distances[i + 1] == distances[i];
+            if (!degenerate) {
+                double delta = Math.abs(bearings[i] - bearings[i - 1]);
+                turns[i] = Math.toRadians(delta > 180 ? 360 - delta : delta);
+            }
+        }
+
+        // sliding window sum of the heading change within TURN_WINDOW around each waypoint
+        double half = TURN_WINDOW / 2;
+        double sum = 0;
+        int low = 0;
+        int high = 0;
+        for (int i = 0; i < n; i++) {
+            while (high < n && distances[high] <= distances[i] + half) {
+                sum += turns[high];
+                high++;
+            }
+            while (distances[low] < distances[i] - half) {
+                sum -= turns[low];
+                low++;
+            }
+            double limit = maxSpeed;
+            if (sum > 1e-6) {
+                double radius = TURN_WINDOW / sum;
+                limit = Math.max(MIN_TURN_SPEED, Math.min(maxSpeed, Math.sqrt(lateralAcceleration * radius)));
+            }
+            speeds[i] = limit;
+        }
+    }
+}
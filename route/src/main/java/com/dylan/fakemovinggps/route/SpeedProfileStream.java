@@ -0,0 +1,230 @@
+package com.dylan.fakemovinggps.route;
+
+import java.io.IOException;
+
+/**
+ * Computes the same speeds and times as {@link SpeedProfile} for waypoints added one at a time,
+ * for routes too long to hold in memory. A waypoint is only affected by the turns within half of
+ * {@link SpeedProfile#TURN_WINDOW} and by the braking for slower waypoints within the braking
+ * distance from the maximum speed, so it is handed to the {@link Output} once the route has run
+ * past that horizon. Memory grows with the number of waypoints within the horizon, not with the
+ * length of the route.
+ */
+public final class SpeedProfileStream {
+
+    public interface Output {
+        /**
+         * Called in waypoint order with the final speed (m/s) and cumulative time (s).
+         */
+        void onWaypoint(double latitude, double longitude, double speed, double time) throws IOException;
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final SpeedProfile profile;
+    private final Output output;
+    private final double half = SpeedProfile.TURN_WINDOW / 2;
+    private final double horizon;
+    private final SegmentMotion motion = new SegmentMotion();
+
+    // pending waypoints, the first one has index base
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private double[] distances = new double[INITIAL_CAPACITY];
+    private float[] bearings = new float[INITIAL_CAPACITY];
+    private double[] turns = new double[INITIAL_CAPACITY];
+    private double[] forward = new double[INITIAL_CAPACITY];
+    private double[] speeds = new double[INITIAL_CAPACITY];
+    private int base;
+    private int size;
+
+    // waypoints with a forward speed, and the turn window of the next one
+    private int limited;
+    private int low;
+    private int high;
+    private double sum;
+
+    // waypoints handed out, and the last of them
+    private int emitted;
+    private double lastDistance;
+    private double lastSpeed;
+    private double lastTime;
+
+    public SpeedProfileStream(SpeedProfile profile, Output output) {
+        this.profile = profile;
+        this.output = output;
+        double maxSpeed = profile.getMaxSpeed();
+        horizon = half + maxSpeed * maxSpeed / (2 * profile.getMaxDeceleration()) + 1;
+    }
+
+    /**
+     * @return number of waypoints added
+     */
+    public int size() {
+        return size;
+    }
+
+    public void add(double latitude, double longitude) throws IOException {
+        if (size - base == latitudes.length) {
+            makeRoom();
+        }
+        int k = size - base;
+        latitudes[k] = latitude;
+        longitudes[k] = longitude;
+        turns[k] = 0;
+        if (k > 0) {
+            distances[k] = distances[k - 1] + GeoUtils.distance(
+                    latitudes[k - 1], longitudes[k - 1], latitude, longitude);
+            bearings[k - 1] = (float) GeoUtils.bearing(latitudes[k - 1], longitudes[k - 1], latitude, longitude);
+            bearings[k] = bearings[k - 1];
+            if (k > 1) {
+                turns[k - 1] = turn(k - 1);
+            }
+        } else {
+            distances[k] = 0;
+            bearings[k] = 0;
+        }
+        size++;
+        if (profile.isConstant()) {
+            emit(size - 1, profile.getMaxSpeed());
+            return;
+        }
+        limit(false);
+    }
+
+    /**
+     * Hands out the remaining waypoints, the last one at rest.
+     */
+    public void finish() throws IOException {
+        if (size == 0 || profile.isConstant()) {
+            return;
+        }
+        limit(true);
+        release(true);
+    }
+
+    // heading change at an interior waypoint, in radians
+    private double turn(int k) {
+        if (distances[k] == distances[k - 1] || distances[k + 1] == distances[k]) {
+            return 0;
+        }
+        double delta = Math.abs(bearings[k] - bearings[k - 1]);
+        return Math.toRadians(delta > 180 ? 360 - delta : delta);
+    }
+
+    // turn limit and forward pass for every waypoint whose turn window is complete
+    private void limit(boolean end) {
+        double maxSpeed = profile.getMaxSpeed();
+        double newest = distances[size - 1 - base];
+        while (limited < size) {
+            int i = limited - base;
+            if (!end && newest <= distances[i] + half) {
+                break;
+            }
+            while (high < size && distances[high - base] <= distances[i] + half) {
+                sum += turns[high - base];
+                high++;
+            }
+            while (distances[low - base] < distances[i] - half) {
+                sum -= turns[low - base];
+                low++;
+            }
+            double speed = maxSpeed;
+            if (sum > 1e-6) {
+                double radius = SpeedProfile.TURN_WINDOW / sum;
+                speed = Math.max(SpeedProfile.MIN_TURN_SPEED,
+                        Math.min(maxSpeed, Math.sqrt(profile.getLateralAcceleration() * radius)));
+            }
+            if (limited == 0 || (end && limited == size - 1)) {
+                speed = 0;
+            } else {
+                double d = distances[i] - distances[i - 1];
+                double reachable = Math.sqrt(forward[i - 1] * forward[i - 1] + 2 * profile.getMaxAcceleration() * d);
+                if (reachable < speed) {
+                    speed = reachable;
+                }
+            }
+            forward[i] = speed;
+            limited++;
+        }
+    }
+
+    // backward pass from the last limited waypoint, hands out those behind the horizon
+    private void release(boolean end) throws IOException {
+        if (limited == emitted) {
+            return;
+        }
+        int last = limited - 1 - base;
+        speeds[last] = forward[last];
+        for (int i = last - 1; i >= emitted - base; i--) {
+            double d = distances[i + 1] - distances[i];
+            double reachable = Math.sqrt(speeds[i + 1] * speeds[i + 1] + 2 * profile.getMaxDeceleration() * d);
+            speeds[i] = Math.min(forward[i], reachable);
+        }
+        double cutoff = distances[last] - horizon;
+        while (emitted < limited && (end || distances[emitted - base] < cutoff)) {
+            emit(emitted, speeds[emitted - base]);
+        }
+    }
+
+    private void emit(int index, double speed) throws IOException {
+        int k = index - base;
+        double time = 0;
+        if (profile.isConstant()) {
+            time = distances[k] / speed;
+        } else if (index > 0) {
+            motion.set(distances[k] - lastDistance, lastSpeed, speed, profile);
+            time = lastTime + motion.getDuration();
+        }
+        output.onWaypoint(latitudes[k], longitudes[k], speed, time);
+        lastDistance = distances[k];
+        lastSpeed = speed;
+        lastTime = time;
+        emitted = index + 1;
+    }
+
+    // drops the waypoints no longer needed, grows the buffers if that frees too little
+    private void makeRoom() throws IOException {
+        // the two newest waypoints for the next bearing and turn
+        int keep = size - 2;
+        if (!profile.isConstant()) {
+            release(false);
+            // the start of the turn window and the waypoints not handed out yet
+            keep = Math.min(keep, Math.min(emitted, low));
+        }
+        keep = Math.max(keep, base);
+        int remaining = size - keep;
+        if (keep > base) {
+            shift(keep - base, remaining);
+            base = keep;
+        }
+        if (remaining > latitudes.length / 2) {
+            int capacity = latitudes.length * 2;
+            latitudes = grow(latitudes, capacity);
+            longitudes = grow(longitudes, capacity);
+            distances = grow(distances, capacity);
+            turns = grow(turns, capacity);
+            forward = grow(forward, capacity);
+            speeds = grow(speeds, capacity);
+            float[] b = new float[capacity];
+            System.arraycopy(bearings, 0, b, 0, remaining);
+            bearings = b;
+        }
+    }
+
+    private void shift(int drop, int remaining) {
+        System.arraycopy(latitudes, drop, latitudes, 0, remaining);
+        System.arraycopy(longitudes, drop, longitudes, 0, remaining);
+        System.arraycopy(distances, drop, distances, 0, remaining);
+        System.arraycopy(bearings, drop, bearings, 0, remaining);
+        System.arraycopy(turns, drop, turns, 0, remaining);
+        System.arraycopy(forward, drop, forward, 0, remaining);
+        System.arraycopy(speeds, drop, speeds, 0, remaining);
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        double[] grown = new double[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,94 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NoiseModelTest {
+
+    @Test
+    public void sameSeed_replaysExactly() {
+        NoiseModel first = new NoiseModel(1234);
+        NoiseModel second = new NoiseModel(1234);
+        MockFix a = new MockFix();
+        MockFix b = new MockFix();
+        for (int i = 0; i < 10000; i++) {
+            a.latitude = b.latitude = 1.28;
+            a.longitude = b.longitude = 103.84;
+            first.apply(a, 0.05);
+            second.apply(b, 0.05);
+            assertEquals(Double.doubleToLongBits(a.latitude), Double.doubleToLongBits(b.latitude));
+            assertEquals(Double.doubleToLongBits(a.longitude), Double.doubleToLongBits(b.longitude));
+            assertEquals(Float.floatToIntBits(a.accuracy), Float.floatToIntBits(b.accuracy));
+        }
+    }
+
+    @Test
+    public void reset_restartsSequence() {
+        NoiseModel noise = new NoiseModel(99);
+        MockFix fix = new MockFix();
+        noise.apply(fix, 1);
+        double latitude = fix.latitude;
+
+        noise.apply(fix, 1);
+        noise.reset();
+        fix.latitude = 0;
+        fix.longitude = 0;
+        noise.apply(fix, 1);
+        assertEquals(Double.doubleToLongBits(latitude), Double.doubleToLongBits(fix.latitude));
+    }
+
+    @Test
+    public void drift_staysWithinSigma() {
+        NoiseModel noise = new NoiseModel(7).setMultipath(0, 0);
+        MockFix fix = new MockFix();
+        double sumSquares = 0;
+        int samples = 100000;
+        for (int i = 0; i < samples; i++) {
+            fix.latitude = 0;
+            fix.longitude = 0;
+            noise.apply(fix, 1);
+            double north = fix.latitude * Math.PI * GeoUtils.EARTH_RADIUS / 180;
+            sumSquares += north * north;
+            assertTrue(fix.accuracy >= NoiseModel.MIN_ACCURACY);
+        }
+        double sigma = Math.sqrt(sumSquares / samples);
+        assertEquals(NoiseModel.DEFAULT_DRIFT_SIGMA, sigma, 0.5);
+    }
+
+    private static int countJumps(int hz, double seconds) {
+        NoiseModel noise = new NoiseModel(11).setDrift(0, 1).setAccuracyJitter(0).setMultipath(0.05, 40);
+        noise.reset();
+        MockFix fix = new MockFix();
+        int jumps = 0;
+        for (int i = 0; i < seconds * hz; i++) {
+            fix.latitude = 0;
+            fix.longitude = 0;
+            noise.apply(fix, 1.0 / hz);
+            if (fix.latitude != 0 || fix.longitude != 0) {
+                jumps++;
+            }
+        }
+        return jumps;
+    }
+
+    @Test
+    public void multipath_rateIndependentOfTickRate() {
+        // 0.05 jumps per second over 20000 s
+        assertEquals(1000, countJumps(1, 20000), 100);
+        assertEquals(1000, countJumps(50, 20000), 100);
+    }
+
+    @Test
+    public void multipath_disabled() {
+        NoiseModel noise = new NoiseModel(5).setDrift(0, 1).setMultipath(0, 40);
+        noise.reset();
+        MockFix fix = new MockFix();
+        for (int i = 0; i < 10000; i++) {
+            noise.apply(fix, 1);
+        }
+        assertEquals(0, fix.latitude, 0);
+        assertEquals(0, fix.longitude, 0);
+    }
+}
@@ -0,0 +1,80 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Position lookup cost on a 1M-point route. Prints ns per operation; the assertions only check
+ * that lookups land on the right segment, not absolute timings. Without -Dbenchmark=true the
+ * same checks run on a small route and nothing is printed.
+ */
+public class RouteCursorBenchmark {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+    private static final int POINTS = BENCHMARK ? 1000000 : 10000;
+    private static final int OPERATIONS = BENCHMARK ? 2000000 : 20000;
+
+    private static Route route;
+
+    @BeforeClass
+    public static void buildRoute() {
+        Route.Builder builder = new Route.Builder(POINTS);
+        Random random = new Random(42);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < POINTS; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.0002;
+            lon += random.nextDouble() * 0.00002;
+            builder.add(lat, lon);
+        }
+        route = builder.setSpeed(30).build();
+    }
+
+    @Test
+    public void sequentialPlayback() {
+        RouteCursor cursor = new RouteCursor(route);
+        MockFix fix = new MockFix();
+        double step = route.getDuration() / OPERATIONS;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            cursor.moveToTime(i * step);
+            cursor.getPosition(fix);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (BENCHMARK) {
+            System.out.println("sequential: " + elapsed / OPERATIONS + " ns/tick");
+        }
+        assertTrue(cursor.getSegment() >= POINTS - 3);
+    }
+
+    @Test
+    public void randomSeek() {
+        RouteCursor cursor = new RouteCursor(route);
+        Random random = new Random(7);
+        double total = route.getTotalDistance();
+        int mismatches = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            double distance = random.nextDouble() * total;
+            cursor.moveToDistance(distance);
+            int segment = cursor.getSegment();
+            if (route.getDistance(segment) > distance || route.getDistance(segment + 1) < distance) {
+                mismatches++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (BENCHMARK) {
+            System.out.println("random seek: " + elapsed / OPERATIONS + " ns/op");
+        }
+        assertEquals(0, mismatches);
+    }
+}
@@ -0,0 +1,69 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouteCursorTest {
+
+    private static Route randomWalk(int points, long seed) {
+        Route.Builder builder = new Route.Builder(points);
+        Random random = new Random(seed);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < points; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.0002;
+            lon += random.nextDouble() * 0.00002;
+            builder.add(lat, lon);
+        }
+        return builder.setSpeed(30).build();
+    }
+
+    @Test
+    public void progress() {
+        Route route = randomWalk(10000, 42);
+        RouteCursor cursor = new RouteCursor(route);
+        cursor.moveToDistance(route.getTotalDistance() / 2);
+        assertEquals(0.5, cursor.getProgress(), 1e-9);
+        cursor.moveToTime(route.getDuration() + 1);
+        assertTrue(cursor.isFinished());
+        assertEquals(1, cursor.getProgress(), 1e-9);
+    }
+
+    @Test
+    public void seek_landsOnContainingSegment() {
+        Route route = randomWalk(10000, 7);
+        RouteCursor cursor = new RouteCursor(route);
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            double distance = random.nextDouble() * route.getTotalDistance();
+            cursor.moveToDistance(distance);
+            int segment = cursor.getSegment();
+            assertTrue(route.getDistance(segment) <= distance && distance <= route.getDistance(segment + 1));
+            assertEquals(distance, cursor.getTravelled(), 1e-6);
+        }
+    }
+
+    @Test
+    public void setSegment_resumesFromSavedSegment() {
+        Route route = randomWalk(1000, 9);
+        RouteCursor cursor = new RouteCursor(route);
+        RouteCursor reference = new RouteCursor(route);
+        MockFix fix = new MockFix();
+        MockFix expected = new MockFix();
+        cursor.moveToTime(route.getDuration() / 3);
+        int saved = cursor.getSegment();
+        cursor.moveToTime(route.getDuration() * 0.9);
+        cursor.setSegment(saved);
+        cursor.moveToTime(route.getDuration() / 3 + 1);
+        reference.moveToTime(route.getDuration() / 3 + 1);
+        cursor.getPosition(fix);
+        reference.getPosition(expected);
+        assertEquals(reference.getSegment(), cursor.getSegment());
+        assertEquals(expected.latitude, fix.latitude, 0);
+        assertEquals(expected.longitude, fix.longitude, 0);
+    }
+}
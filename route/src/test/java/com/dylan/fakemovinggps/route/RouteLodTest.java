@@ -0,0 +1,139 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouteLodTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    private static Route randomWalk(int points, long seed) {
+        Route.Builder builder = new Route.Builder(points);
+        Random random = new Random(seed);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < points; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.0002;
+            lon += random.nextDouble() * 0.00002;
+            builder.add(lat, lon);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void levels_matchDouglasPeucker() throws Exception {
+        Route route = randomWalk(5000, 1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RouteLod lod = RouteLod.build(route, executor, 1);
+            for (int level = 0; level < RouteLod.LEVEL_COUNT; level++) {
+                int[] expected = douglasPeucker(route, RouteLod.getTolerance(level));
+                assertArrayEquals("level " + level, expected, lod.getLevel(level));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelChunks_keepEndsAndShrink() throws Exception {
+        // a few chunks, more than the threads can take at once
+        int points = BENCHMARK ? 500000 : 5 * RouteLod.CHUNK_SIZE + 123;
+        Route route = randomWalk(points, 2);
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            RouteLod lod = RouteLod.build(route, executor, threads);
+            long elapsed = System.nanoTime() - start;
+            if (BENCHMARK) {
+                System.out.println("lod of " + points + " points on " + threads + " threads: "
+                        + elapsed / 1000000 + " ms");
+            }
+
+            int previous = points + 1;
+            for (int level = 0; level < RouteLod.LEVEL_COUNT; level++) {
+                int[] indices = lod.getLevel(level);
+                assertEquals(0, indices[0]);
+                assertEquals(points - 1, indices[indices.length - 1]);
+                assertTrue(indices.length <= previous);
+                previous = indices.length;
+            }
+            if (BENCHMARK) {
+                System.out.println("points per level: " + lod.getLevel(0).length + " .. "
+                        + lod.getLevel(RouteLod.LEVEL_COUNT - 1).length);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void selectLevel_followsResolution() {
+        assertEquals(0, RouteLod.selectLevel(0.1));
+        assertEquals(2, RouteLod.selectLevel(1.2));
+        assertEquals(RouteLod.LEVEL_COUNT - 1, RouteLod.selectLevel(1e6));
+    }
+
+    /**
+     * Textbook recursive Douglas-Peucker on the same projection.
+     */
+    private static int[] douglasPeucker(Route route, double tolerance) {
+        int n = route.size();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        double scale = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+        double cosine = Math.cos(Math.toRadians((route.getLatitude(0) + route.getLatitude(n - 1)) / 2));
+        for (int i = 0; i < n; i++) {
+            x[i] = route.getLongitude(i) * scale * cosine;
+            y[i] = route.getLatitude(i) * scale;
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        recurse(x, y, 0, n - 1, tolerance, keep);
+        int[] indices = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                indices[count++] = i;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    private static void recurse(double[] x, double[] y, int start, int end, double tolerance,
+                                boolean[] keep) {
+        if (end - start < 2) {
+            return;
+        }
+        double dx = x[end] - x[start];
+        double dy = y[end] - y[start];
+        double lengthSquared = dx * dx + dy * dy;
+        double maxDistance = -1;
+        int split = start + 1;
+        for (int i = start + 1; i < end; i++) {
+            double px = x[i] - x[start];
+            double py = y[i] - y[start];
+            double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+            double distance = Math.hypot(px - t * dx, py - t * dy);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                split = i;
+            }
+        }
+        if ((float) maxDistance > tolerance) {
+            keep[split] = true;
+            recurse(x, y, start, split, tolerance, keep);
+            recurse(x, y, split, end, tolerance, keep);
+        }
+    }
+}
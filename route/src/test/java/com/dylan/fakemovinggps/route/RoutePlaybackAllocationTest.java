@@ -0,0 +1,57 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Guards the steady state emission path against allocations. Runs on the host JVM and uses the
+ * HotSpot per-thread allocation counter.
+ */
+public class RoutePlaybackAllocationTest {
+
+    private static final long TICK = 50000000L; // 20 Hz
+    // slack for the counter itself and the occasional JIT or class loading side allocation
+    private static final long MAX_UNRELATED_BYTES = 1024;
+
+    @Test
+    public void sample_doesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        Route.Builder builder = new Route.Builder(10000);
+        for (int i = 0; i < 10000; i++) {
+            builder.add(1.28 + i * 0.0001, 103.84 + (i % 2) * 0.0001);
+        }
+        RoutePlayback playback = new RoutePlayback(builder.setSpeed(30).build());
+        NoiseModel noise = new NoiseModel(42);
+        MockFix fix = new MockFix();
+
+        long now = 0;
+        for (int i = 0; i < 20000; i++) {
+            playback.sample(now, fix);
+            noise.apply(fix, TICK / 1e9);
+            now += TICK;
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int ticks = 10000;
+        for (int i = 0; i < ticks; i++) {
+            playback.sample(now, fix);
+            noise.apply(fix, TICK / 1e9);
+            now += TICK;
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        // a per-tick allocation would show up as at least 16 bytes times the tick count
+        assertTrue("allocated " + (after - before) + " bytes in " + ticks + " ticks",
+                after - before <= MAX_UNRELATED_BYTES);
+    }
+}
@@ -0,0 +1,156 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentIndexTest {
+
+    private static final boolean BENCHMARK = Boolean.getBoolean("benchmark");
+
+    // float coordinates are exact to a few millimeters at this scale
+    private static final double EPSILON = 0.01;
+
+    private static Route randomWalk(int points, long seed) {
+        Route.Builder builder = new Route.Builder(points);
+        Random random = new Random(seed);
+        double lat = 1.28;
+        double lon = 103.84;
+        double heading = 0;
+        for (int i = 0; i < points; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.6;
+            lat += Math.cos(heading) * 0.0001;
+            lon += Math.sin(heading) * 0.0001;
+            builder.add(lat, lon);
+        }
+        return builder.build();
+    }
+
+    // reference: brute force on the same equirectangular projection
+    private static double[] linearDistances(Route route, double lat, double lon) {
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < route.size(); i++) {
+            south = Math.min(south, route.getLatitude(i));
+            north = Math.max(north, route.getLatitude(i));
+            west = Math.min(west, route.getLongitude(i));
+            east = Math.max(east, route.getLongitude(i));
+        }
+        double originLat = (south + north) / 2;
+        double scaleY = Math.toRadians(1) * GeoUtils.EARTH_RADIUS;
+        double scaleX = scaleY * Math.cos(Math.toRadians(originLat));
+        double px = lon * scaleX;
+        double py = lat * scaleY;
+        double[] distances = new double[route.size() - 1];
+        for (int i = 0; i + 1 < route.size(); i++) {
+            double ax = route.getLongitude(i) * scaleX;
+            double ay = route.getLatitude(i) * scaleY;
+            double dx = route.getLongitude(i + 1) * scaleX - ax;
+            double dy = route.getLatitude(i + 1) * scaleY - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0
+                    : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+            distances[i] = Math.hypot(px - ax - t * dx, py - ay - t * dy);
+        }
+        return distances;
+    }
+
+    @Test
+    public void queries_matchLinearScan() {
+        Route route = randomWalk(20000, 1);
+        SegmentIndex index = SegmentIndex.build(route);
+        Random random = new Random(2);
+        for (int q = 0; q < 500; q++) {
+            double lat = 1.28 + (random.nextDouble() - 0.5) * 0.1;
+            double lon = 103.84 + (random.nextDouble() - 0.5) * 0.1;
+            double[] expected = linearDistances(route, lat, lon);
+
+            double best = Double.POSITIVE_INFINITY;
+            for (double distance : expected) {
+                best = Math.min(best, distance);
+            }
+            int nearest = index.nearest(lat, lon);
+            assertEquals(best, expected[nearest], EPSILON);
+            assertEquals(best, index.distance(nearest, lat, lon), EPSILON);
+
+            double radius = 200;
+            int[] within = index.withinRadius(lat, lon, radius);
+            int k = 0;
+            for (int segment = 0; segment < expected.length; segment++) {
+                boolean found = k < within.length && within[k] == segment;
+                if (found) {
+                    k++;
+                }
+                if (Math.abs(expected[segment] - radius) > EPSILON) {
+                    assertEquals("segment " + segment, expected[segment] < radius, found);
+                }
+            }
+            assertEquals(within.length, k);
+        }
+    }
+
+    @Test
+    public void nearest_respectsMaxDistance() {
+        Route route = new Route.Builder().add(0, 0).add(0, 0.001).build();
+        SegmentIndex index = SegmentIndex.build(route);
+        // ~111 m north of the middle of the segment
+        assertEquals(-1, index.nearest(0.001, 0.0005, 100));
+        assertEquals(0, index.nearest(0.001, 0.0005, 120));
+    }
+
+    @Test
+    public void snap_projectsOntoRoute() {
+        Route route = new Route.Builder().add(0, 0).add(0, 0.001).add(0.001, 0.001).build();
+        SegmentIndex index = SegmentIndex.build(route);
+        double first = route.getDistance(1);
+        assertEquals(first / 2, index.snap(0.0001, 0.0005), 0.01);
+        assertEquals(first + (route.getTotalDistance() - first) / 4, index.snap(0.00025, 0.0012), 0.01);
+        assertEquals(0, index.snap(-1, -1), 0);
+    }
+
+    @Test
+    public void hilbertKeys_sortAlongTheCurve() {
+        int cells = SegmentIndex.HILBERT_MAX + 1;
+        assertEquals(0, SegmentIndex.hilbert(0, 0));
+        long last = SegmentIndex.hilbert(SegmentIndex.HILBERT_MAX, 0);
+        assertEquals((long) cells * cells - 1, last);
+        // the sort key of the last cell must not turn negative and sort first
+        assertTrue((last << 32 | Integer.MAX_VALUE) > (SegmentIndex.hilbert(0, 0) << 32));
+    }
+
+    @Test
+    public void singlePoint_hasNoSegments() {
+        SegmentIndex index = SegmentIndex.build(Route.single(1, 2));
+        assertEquals(-1, index.nearest(1, 2));
+        assertEquals(0, index.withinRadius(1, 2, 1000).length);
+    }
+
+    @Test
+    public void largeRoute_queriesAreFast() {
+        int points = BENCHMARK ? 1000000 : 100000;
+        Route route = randomWalk(points, 3);
+        long start = System.nanoTime();
+        SegmentIndex index = SegmentIndex.build(route);
+        long build = System.nanoTime() - start;
+
+        Random random = new Random(4);
+        int queries = BENCHMARK ? 100000 : 10000;
+        long checksum = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            int i = random.nextInt(points);
+            checksum += index.nearest(route.getLatitude(i) + 0.0003, route.getLongitude(i));
+        }
+        long elapsed = System.nanoTime() - start;
+        if (BENCHMARK) {
+            System.out.println("segment index over " + points + " points: build " + build / 1000000
+                    + " ms, nearest " + elapsed / queries + " ns/query (" + checksum + ")");
+        }
+        assertTrue(checksum > 0);
+    }
+}
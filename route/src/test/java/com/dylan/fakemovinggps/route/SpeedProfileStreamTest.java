@@ -0,0 +1,62 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpeedProfileStreamTest {
+
+    private static Route randomRoute(int points, double step, long seed, SpeedProfile profile) {
+        Route.Builder builder = new Route.Builder(points);
+        Random random = new Random(seed);
+        double lat = 1.28;
+        double lon = 103.84;
+        for (int i = 0; i < points; i++) {
+            // mostly straight stretches with the occasional sharp corner
+            if (random.nextInt(50) == 0) {
+                lat += step * 3;
+            }
+            lat += (random.nextDouble() - 0.5) * step;
+            lon += random.nextDouble() * step;
+            builder.add(lat, lon);
+        }
+        return builder.setSpeedProfile(profile).build();
+    }
+
+    private static void assertStreamMatches(final Route route) throws IOException {
+        final int[] index = {0};
+        SpeedProfileStream stream = new SpeedProfileStream(route.getSpeedProfile(), new SpeedProfileStream.Output() {
+            @Override
+            public void onWaypoint(double latitude, double longitude, double speed, double time) {
+                int i = index[0]++;
+                assertEquals(route.getLatitude(i), latitude, 0);
+                assertEquals(route.getLongitude(i), longitude, 0);
+                assertEquals("speed at " + i, route.getSpeed(i), speed, 1e-9);
+                assertEquals("time at " + i, route.getTime(i), time, 1e-6);
+            }
+        });
+        for (int i = 0; i < route.size(); i++) {
+            stream.add(route.getLatitude(i), route.getLongitude(i));
+        }
+        stream.finish();
+        assertEquals(route.size(), index[0]);
+    }
+
+    @Test
+    public void matchesInMemoryProfile() throws IOException {
+        assertStreamMatches(randomRoute(20000, 0.0004, 3, SpeedProfile.of(13.9)));
+        // a meter apart at motorway speed: the braking horizon spans hundreds of waypoints
+        assertStreamMatches(randomRoute(20000, 0.00001, 4, SpeedProfile.of(40)));
+        assertStreamMatches(randomRoute(5000, 0.0004, 5, SpeedProfile.constant(10)));
+    }
+
+    @Test
+    public void shortRoutes() throws IOException {
+        assertStreamMatches(randomRoute(1, 0.0004, 6, SpeedProfile.of(13.9)));
+        assertStreamMatches(randomRoute(2, 0.0004, 7, SpeedProfile.of(13.9)));
+        assertStreamMatches(randomRoute(3, 0.0004, 8, SpeedProfile.of(13.9)));
+    }
+}
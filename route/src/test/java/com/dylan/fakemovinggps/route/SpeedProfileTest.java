@@ -0,0 +1,69 @@
+package com.dylan.fakemovinggps.route;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpeedProfileTest {
+
+    private static Route twoPoints(double latitudeDelta) {
+        return new Route.Builder().add(1.28, 103.84).add(1.28 + latitudeDelta, 103.84).setSpeed(13.9).build();
+    }
+
+    @Test
+    public void twoPointRoute_acceleratesCruisesAndBrakes() {
+        Route route = twoPoints(0.01);
+        double length = route.getTotalDistance();
+        assertEquals(1112, length, 1);
+        // 6.95 s up to speed, 4.63 s to stop, the rest at 13.9 m/s
+        double ramps = 13.9 / 2 * (1 / SpeedProfile.DEFAULT_MAX_ACCELERATION + 1 / SpeedProfile.DEFAULT_MAX_DECELERATION);
+        double expected = 13.9 / SpeedProfile.DEFAULT_MAX_ACCELERATION + 13.9 / SpeedProfile.DEFAULT_MAX_DECELERATION
+                + (length - 13.9 * ramps) / 13.9;
+        assertEquals(expected, route.getDuration(), 1e-6);
+        assertEquals(0, route.getSpeed(0), 0);
+        assertEquals(0, route.getSpeed(1), 0);
+
+        // playback is continuous, reaches full speed and ends at the last waypoint at rest
+        RouteCursor cursor = new RouteCursor(route);
+        MockFix fix = new MockFix();
+        double previous = 0;
+        double fastest = 0;
+        for (double t = 0; t <= route.getDuration(); t += 0.1) {
+            cursor.moveToTime(t);
+            cursor.getPosition(fix);
+            double travelled = cursor.getTravelled();
+            assertTrue(travelled >= previous);
+            assertTrue(travelled - previous <= 13.9 * 0.1 + 1e-6);
+            previous = travelled;
+            fastest = Math.max(fastest, fix.speed);
+        }
+        assertEquals(13.9, fastest, 1e-4);
+        cursor.moveToTime(route.getDuration());
+        assertTrue(cursor.isFinished());
+        assertEquals(0, cursor.getSpeed(), 1e-9);
+    }
+
+    @Test
+    public void shortTwoPointRoute_movesAtTurnSpeed() {
+        Route route = twoPoints(0.0002);
+        // 22 m, too short to leave the turn window: up to 2 m/s instead of crawling
+        assertTrue(route.getDuration() > route.getTotalDistance() / SpeedProfile.MIN_TURN_SPEED);
+        assertTrue(route.getDuration() < route.getTotalDistance() / SpeedProfile.MIN_TURN_SPEED + 2);
+    }
+
+    @Test
+    public void segmentMotion_timeAndDistanceAreInverse() {
+        SegmentMotion motion = new SegmentMotion();
+        SpeedProfile profile = SpeedProfile.of(13.9);
+        double[][] cases = {{500, 0, 0}, {500, 3, 8}, {60, 5, 5}, {10, 2, 4}, {100, 13.9, 13.9}};
+        for (double[] c : cases) {
+            motion.set(c[0], c[1], c[2], profile);
+            assertEquals(c[1], motion.speedAt(0), 1e-9);
+            assertEquals(c[2], motion.speedAt(motion.getDuration()), 1e-6);
+            for (double s = 0; s <= c[0]; s += c[0] / 50) {
+                assertEquals(s, motion.distanceAt(motion.timeAt(s)), 1e-6);
+            }
+        }
+    }
+}